@@ -0,0 +1,297 @@
+package qub;
+
+/**
+ * A front door for expression evaluations that keeps a few pathological inputs from stalling
+ * everyone else. Before an expression is parsed, its text is scanned to estimate its cost
+ * (see ExpressionCostEstimate), and the estimate decides what happens to it:
+ * <ul>
+ *     <li>Expressions with more than the maximum node count or deeper than the maximum depth are
+ *     rejected right away with an ExpressionRejectedException. Deep expressions are the ones that
+ *     overflow the stack in the recursive expression operations, such as
+ *     MutableBinaryExpression.simplify().</li>
+ *     <li>Expressions with more than the small node limit are evaluated on a separate, bounded
+ *     pool for large expressions.</li>
+ *     <li>All other expressions are evaluated on the pool for small expressions, so they never
+ *     wait behind a large expression. The two pools don't share threads, but their threads do
+ *     compete for the same processors.</li>
+ * </ul>
+ * Each pool has a bounded queue. When a pool's queue is full, new expressions for that pool are
+ * rejected instead of queueing without limit. The latency of every evaluation (from submit() to
+ * completion, including the time spent waiting in a queue) is recorded in a per-class
+ * LatencyHistogram. An AdmissionController is thread-safe, and must be closed to stop the threads
+ * of its pools.
+ */
+public class AdmissionController implements AutoCloseable
+{
+    private static final String closedMessage = "The AdmissionController is closed.";
+    private static final ThreadLocal<CompactExpression> expressions = ThreadLocal.withInitial(CompactExpression::create);
+
+    private final long smallNodeLimit;
+    private final long maximumNodeCount;
+    private final long maximumDepth;
+    private final java.util.concurrent.ThreadPoolExecutor smallPool;
+    private final java.util.concurrent.ThreadPoolExecutor largePool;
+    private final LatencyHistogram smallLatencies;
+    private final LatencyHistogram largeLatencies;
+    private final java.util.concurrent.atomic.AtomicLong rejectedCount;
+    private volatile boolean closed;
+
+    private AdmissionController(long smallNodeLimit, long maximumNodeCount, long maximumDepth, int smallThreadCount, int smallQueueCapacity, int largeThreadCount, int largeQueueCapacity)
+    {
+        PreCondition.assertGreaterThan(smallNodeLimit, 0, "smallNodeLimit");
+        PreCondition.assertGreaterThanOrEqualTo(maximumNodeCount, smallNodeLimit, "maximumNodeCount");
+        PreCondition.assertGreaterThan(maximumDepth, 0, "maximumDepth");
+        PreCondition.assertGreaterThan(smallThreadCount, 0, "smallThreadCount");
+        PreCondition.assertGreaterThan(smallQueueCapacity, 0, "smallQueueCapacity");
+        PreCondition.assertGreaterThan(largeThreadCount, 0, "largeThreadCount");
+        PreCondition.assertGreaterThan(largeQueueCapacity, 0, "largeQueueCapacity");
+
+        this.smallNodeLimit = smallNodeLimit;
+        this.maximumNodeCount = maximumNodeCount;
+        this.maximumDepth = maximumDepth;
+        this.smallPool = AdmissionController.createPool("small", smallThreadCount, smallQueueCapacity);
+        this.largePool = AdmissionController.createPool("large", largeThreadCount, largeQueueCapacity);
+        this.smallLatencies = LatencyHistogram.create();
+        this.largeLatencies = LatencyHistogram.create();
+        this.rejectedCount = new java.util.concurrent.atomic.AtomicLong();
+    }
+
+    /**
+     * Create a new AdmissionController that treats expressions with up to 1024 nodes as small,
+     * rejects expressions with more than 10000000 nodes, evaluates small expressions with one
+     * thread per processor, and evaluates large expressions with a single thread.
+     * @return The new AdmissionController.
+     */
+    public static AdmissionController create()
+    {
+        return AdmissionController.create(1024, 10000000);
+    }
+
+    /**
+     * Create a new AdmissionController that evaluates small expressions with one thread per
+     * processor and evaluates large expressions with a single thread. Expressions aren't limited
+     * by their depth, other than by the maximum node count.
+     * @param smallNodeLimit The largest estimated node count of a small expression.
+     * @param maximumNodeCount The largest estimated node count that will be admitted.
+     * @return The new AdmissionController.
+     */
+    public static AdmissionController create(long smallNodeLimit, long maximumNodeCount)
+    {
+        return AdmissionController.create(smallNodeLimit, maximumNodeCount, Runtime.getRuntime().availableProcessors(), 4096, 1, 16);
+    }
+
+    /**
+     * Create a new AdmissionController. Expressions aren't limited by their depth, other than by
+     * the maximum node count.
+     * @param smallNodeLimit The largest estimated node count of a small expression.
+     * @param maximumNodeCount The largest estimated node count that will be admitted.
+     * @param smallThreadCount The number of threads that evaluate small expressions.
+     * @param smallQueueCapacity The number of small expressions that can wait for a thread.
+     * @param largeThreadCount The number of threads that evaluate large expressions.
+     * @param largeQueueCapacity The number of large expressions that can wait for a thread.
+     * @return The new AdmissionController.
+     */
+    public static AdmissionController create(long smallNodeLimit, long maximumNodeCount, int smallThreadCount, int smallQueueCapacity, int largeThreadCount, int largeQueueCapacity)
+    {
+        return AdmissionController.create(smallNodeLimit, maximumNodeCount, maximumNodeCount, smallThreadCount, smallQueueCapacity, largeThreadCount, largeQueueCapacity);
+    }
+
+    /**
+     * Create a new AdmissionController.
+     * @param smallNodeLimit The largest estimated node count of a small expression.
+     * @param maximumNodeCount The largest estimated node count that will be admitted.
+     * @param maximumDepth The largest estimated tree depth that will be admitted.
+     * @param smallThreadCount The number of threads that evaluate small expressions.
+     * @param smallQueueCapacity The number of small expressions that can wait for a thread.
+     * @param largeThreadCount The number of threads that evaluate large expressions.
+     * @param largeQueueCapacity The number of large expressions that can wait for a thread.
+     * @return The new AdmissionController.
+     */
+    public static AdmissionController create(long smallNodeLimit, long maximumNodeCount, long maximumDepth, int smallThreadCount, int smallQueueCapacity, int largeThreadCount, int largeQueueCapacity)
+    {
+        return new AdmissionController(smallNodeLimit, maximumNodeCount, maximumDepth, smallThreadCount, smallQueueCapacity, largeThreadCount, largeQueueCapacity);
+    }
+
+    private static java.util.concurrent.ThreadPoolExecutor createPool(String name, int threadCount, int queueCapacity)
+    {
+        final java.util.concurrent.atomic.AtomicInteger threadNumber = new java.util.concurrent.atomic.AtomicInteger();
+        return new java.util.concurrent.ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            0,
+            java.util.concurrent.TimeUnit.MILLISECONDS,
+            new java.util.concurrent.ArrayBlockingQueue<>(queueCapacity),
+            (Runnable runnable) ->
+            {
+                final Thread thread = new Thread(runnable, "AdmissionController " + name + " " + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Get the largest estimated node count of a small expression.
+     * @return The largest estimated node count of a small expression.
+     */
+    public long getSmallNodeLimit()
+    {
+        return this.smallNodeLimit;
+    }
+
+    /**
+     * Get the largest estimated node count that will be admitted.
+     * @return The largest estimated node count that will be admitted.
+     */
+    public long getMaximumNodeCount()
+    {
+        return this.maximumNodeCount;
+    }
+
+    /**
+     * Get the largest estimated tree depth that will be admitted.
+     * @return The largest estimated tree depth that will be admitted.
+     */
+    public long getMaximumDepth()
+    {
+        return this.maximumDepth;
+    }
+
+    /**
+     * Get the latencies of the small expression evaluations.
+     * @return The latencies of the small expression evaluations.
+     */
+    public LatencyHistogram getSmallLatencies()
+    {
+        return this.smallLatencies;
+    }
+
+    /**
+     * Get the latencies of the large expression evaluations.
+     * @return The latencies of the large expression evaluations.
+     */
+    public LatencyHistogram getLargeLatencies()
+    {
+        return this.largeLatencies;
+    }
+
+    /**
+     * Get the number of expressions that have been rejected.
+     * @return The number of expressions that have been rejected.
+     */
+    public long getRejectedCount()
+    {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * Get whether or not this AdmissionController has been closed.
+     * @return Whether or not this AdmissionController has been closed.
+     */
+    public boolean isClosed()
+    {
+        return this.closed;
+    }
+
+    /**
+     * Estimate the cost of the provided expression text and, if it is admitted, evaluate it on
+     * the pool for its size class.
+     * @param text The expression text to evaluate.
+     * @return The future value of the expression. If the expression is rejected (including
+     * because this AdmissionController has been closed), the future completes with an
+     * ExpressionRejectedException.
+     */
+    public java.util.concurrent.CompletableFuture<Double> submit(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        final long startNanoseconds = System.nanoTime();
+        final java.util.concurrent.CompletableFuture<Double> result = new java.util.concurrent.CompletableFuture<>();
+
+        if (this.closed)
+        {
+            this.reject(result, AdmissionController.closedMessage);
+        }
+        else
+        {
+            final ExpressionCostEstimate estimate = ExpressionCostEstimate.scan(text);
+            if (estimate.getNodeCount() > this.maximumNodeCount)
+            {
+                this.reject(result, "The expression has an estimated " + estimate.getNodeCount() + " nodes, which is more than the limit of " + this.maximumNodeCount + " nodes.");
+            }
+            else if (estimate.getMaximumDepth() > this.maximumDepth)
+            {
+                this.reject(result, "The expression has an estimated depth of " + estimate.getMaximumDepth() + ", which is more than the limit of " + this.maximumDepth + ".");
+            }
+            else
+            {
+                final boolean isSmall = estimate.getNodeCount() <= this.smallNodeLimit;
+                final java.util.concurrent.ThreadPoolExecutor pool = isSmall ? this.smallPool : this.largePool;
+                final LatencyHistogram latencies = isSmall ? this.smallLatencies : this.largeLatencies;
+                try
+                {
+                    pool.execute(() ->
+                    {
+                        Double value = null;
+                        Throwable error = null;
+                        try
+                        {
+                            final ExpressionParser parser = ExpressionParser.get();
+                            final CompactExpression expression = AdmissionController.expressions.get();
+                            if (parser.tryParse(text, expression))
+                            {
+                                value = expression.evaluate();
+                            }
+                            else
+                            {
+                                error = new ParseException(parser.getError());
+                            }
+                        }
+                        catch (Throwable e)
+                        {
+                            error = e;
+                        }
+
+                        // Record the latency before completing the future so that the metrics
+                        // include this evaluation by the time that its caller sees the result.
+                        latencies.record(System.nanoTime() - startNanoseconds);
+                        if (error == null)
+                        {
+                            result.complete(value);
+                        }
+                        else
+                        {
+                            result.completeExceptionally(error);
+                        }
+                    });
+                }
+                catch (java.util.concurrent.RejectedExecutionException e)
+                {
+                    // A pool only rejects work after it has been shut down if this controller was
+                    // closed after the closed check above.
+                    this.reject(result, pool.isShutdown()
+                        ? AdmissionController.closedMessage
+                        : "Too many " + (isSmall ? "small" : "large") + " expressions are waiting to be evaluated.");
+                }
+            }
+        }
+        return result;
+    }
+
+    private void reject(java.util.concurrent.CompletableFuture<Double> result, String message)
+    {
+        this.rejectedCount.incrementAndGet();
+        result.completeExceptionally(new ExpressionRejectedException(message));
+    }
+
+    /**
+     * Stop accepting expressions and let the evaluations that have already been admitted finish.
+     * The threads of both pools stop once they have no more admitted evaluations to run.
+     */
+    @Override
+    public void close()
+    {
+        this.closed = true;
+        this.smallPool.shutdown();
+        this.largePool.shutdown();
+    }
+}
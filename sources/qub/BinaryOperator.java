@@ -13,6 +13,8 @@ public class BinaryOperator
         BinaryOperator.times,
         BinaryOperator.dividedBy);
 
+    private static final BinaryOperator[] operatorsByStartCharacter = BinaryOperator.createOperatorsByStartCharacter();
+
     private final String text;
     private final int precedence;
     private final Function2<Double,Double,Double> function;
@@ -43,6 +45,33 @@ public class BinaryOperator
         return new BinaryOperator(text, precedence, function);
     }
 
+    /**
+     * Get the recognized BinaryOperator that starts with the provided character.
+     * @param startCharacter The first character of the BinaryOperator to get.
+     * @return The recognized BinaryOperator that starts with the provided character, or null if
+     * no recognized BinaryOperator starts with the provided character.
+     */
+    public static BinaryOperator get(char startCharacter)
+    {
+        return startCharacter < BinaryOperator.operatorsByStartCharacter.length
+            ? BinaryOperator.operatorsByStartCharacter[startCharacter]
+            : null;
+    }
+
+    private static BinaryOperator[] createOperatorsByStartCharacter()
+    {
+        final BinaryOperator[] result = new BinaryOperator[128];
+        for (final BinaryOperator operator : BinaryOperator.operators)
+        {
+            final char startCharacter = operator.text.charAt(0);
+            if (startCharacter < result.length && result[startCharacter] == null)
+            {
+                result[startCharacter] = operator;
+            }
+        }
+        return result;
+    }
+
     /**
      * The precedence for this operator. The actual value doesn't matter. This value is used
      * relative to other operators to determine whether or not an operator has higher precedence
@@ -0,0 +1,300 @@
+package qub;
+
+/**
+ * A blocking queue between two stages of a pipeline that is bounded both by the number of items
+ * and by the (estimated) number of bytes that those items take up. When the queue is full, put()
+ * blocks the producing stage until the consuming stage has made room, so a slow stage pushes back
+ * on the stages before it instead of letting memory grow. A single item that is larger than the
+ * byte capacity is still accepted when the queue is empty, so that it can't block the pipeline
+ * forever.
+ * <p>
+ * Once the producers are done they close() the queue, after which take() returns null as soon as
+ * the queue is empty. The current and maximum depths, and the number of times that a put() had to
+ * wait, are exposed as metrics. A BoundedPipelineQueue is thread-safe.
+ * @param <T> The type of items in the queue.
+ */
+public class BoundedPipelineQueue<T>
+{
+    private final String name;
+    private final int itemCapacity;
+    private final long byteCapacity;
+
+    private final java.util.concurrent.locks.ReentrantLock lock;
+    private final java.util.concurrent.locks.Condition notFull;
+    private final java.util.concurrent.locks.Condition notEmpty;
+    private final java.util.ArrayDeque<T> items;
+    private final java.util.ArrayDeque<Long> itemByteCounts;
+    private long byteCount;
+    private boolean closed;
+
+    private int maximumItemCount;
+    private long maximumByteCount;
+    private long blockedPutCount;
+
+    private BoundedPipelineQueue(String name, int itemCapacity, long byteCapacity)
+    {
+        PreCondition.assertNotNullAndNotEmpty(name, "name");
+        PreCondition.assertGreaterThan(itemCapacity, 0, "itemCapacity");
+        PreCondition.assertGreaterThan(byteCapacity, 0, "byteCapacity");
+
+        this.name = name;
+        this.itemCapacity = itemCapacity;
+        this.byteCapacity = byteCapacity;
+        this.lock = new java.util.concurrent.locks.ReentrantLock();
+        this.notFull = this.lock.newCondition();
+        this.notEmpty = this.lock.newCondition();
+        this.items = new java.util.ArrayDeque<>();
+        this.itemByteCounts = new java.util.ArrayDeque<>();
+    }
+
+    /**
+     * Create a new empty BoundedPipelineQueue.
+     * @param name The name of the queue that will be used in its metrics.
+     * @param itemCapacity The maximum number of items in the queue.
+     * @param byteCapacity The maximum number of bytes in the queue.
+     * @param <T> The type of items in the queue.
+     * @return The new BoundedPipelineQueue.
+     */
+    public static <T> BoundedPipelineQueue<T> create(String name, int itemCapacity, long byteCapacity)
+    {
+        return new BoundedPipelineQueue<>(name, itemCapacity, byteCapacity);
+    }
+
+    /**
+     * Get the name of this queue.
+     * @return The name of this queue.
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * Get the maximum number of items in this queue.
+     * @return The maximum number of items in this queue.
+     */
+    public int getItemCapacity()
+    {
+        return this.itemCapacity;
+    }
+
+    /**
+     * Get the maximum number of bytes in this queue.
+     * @return The maximum number of bytes in this queue.
+     */
+    public long getByteCapacity()
+    {
+        return this.byteCapacity;
+    }
+
+    /**
+     * Add the provided item to the end of this queue, and wait for room if this queue is full.
+     * @param item The item to add.
+     * @param itemByteCount The estimated number of bytes that the item takes up.
+     * @throws InterruptedException If the thread is interrupted while it waits for room.
+     */
+    public void put(T item, long itemByteCount) throws InterruptedException
+    {
+        PreCondition.assertNotNull(item, "item");
+        PreCondition.assertGreaterThanOrEqualTo(itemByteCount, 0, "itemByteCount");
+
+        this.lock.lock();
+        try
+        {
+            PreCondition.assertFalse(this.closed, "this.isClosed()");
+
+            boolean blocked = false;
+            while (this.items.size() >= this.itemCapacity ||
+                (!this.items.isEmpty() && this.byteCount + itemByteCount > this.byteCapacity))
+            {
+                blocked = true;
+                this.notFull.await();
+            }
+            if (blocked)
+            {
+                ++this.blockedPutCount;
+            }
+
+            this.items.addLast(item);
+            this.itemByteCounts.addLast(itemByteCount);
+            this.byteCount += itemByteCount;
+            this.maximumItemCount = Math.max(this.maximumItemCount, this.items.size());
+            this.maximumByteCount = Math.max(this.maximumByteCount, this.byteCount);
+            this.notEmpty.signal();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the item at the front of this queue, and wait for an item if this queue is empty.
+     * @return The item at the front of this queue, or null if this queue is empty and closed.
+     * @throws InterruptedException If the thread is interrupted while it waits for an item.
+     */
+    public T take() throws InterruptedException
+    {
+        this.lock.lock();
+        try
+        {
+            while (this.items.isEmpty() && !this.closed)
+            {
+                this.notEmpty.await();
+            }
+
+            T result = null;
+            if (!this.items.isEmpty())
+            {
+                result = this.items.removeFirst();
+                this.byteCount -= this.itemByteCounts.removeFirst();
+                this.notFull.signalAll();
+            }
+            return result;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Mark that no more items will be added to this queue. Consumers that are waiting for an item
+     * are woken up once the remaining items have been taken.
+     */
+    public void close()
+    {
+        this.lock.lock();
+        try
+        {
+            this.closed = true;
+            this.notEmpty.signalAll();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get whether or not this queue has been closed.
+     * @return Whether or not this queue has been closed.
+     */
+    public boolean isClosed()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.closed;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of items that are in this queue.
+     * @return The number of items that are in this queue.
+     */
+    public int getDepth()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.items.size();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of bytes that the items in this queue take up.
+     * @return The number of bytes that the items in this queue take up.
+     */
+    public long getByteDepth()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.byteCount;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the largest number of items that have been in this queue at the same time.
+     * @return The largest number of items that have been in this queue at the same time.
+     */
+    public int getMaximumDepth()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.maximumItemCount;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the largest number of bytes that the items in this queue have taken up at the same
+     * time.
+     * @return The largest number of bytes that have been in this queue at the same time.
+     */
+    public long getMaximumByteDepth()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.maximumByteCount;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of times that put() had to wait because this queue was full.
+     * @return The number of times that put() had to wait because this queue was full.
+     */
+    public long getBlockedPutCount()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.blockedPutCount;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        this.lock.lock();
+        try
+        {
+            return "{\"name\":" + Strings.escapeAndQuote(this.name) +
+                ",\"depth\":" + this.items.size() +
+                ",\"byteDepth\":" + this.byteCount +
+                ",\"maximumDepth\":" + this.maximumItemCount +
+                ",\"maximumByteDepth\":" + this.maximumByteCount +
+                ",\"blockedPuts\":" + this.blockedPutCount + "}";
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+}
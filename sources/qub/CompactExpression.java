@@ -0,0 +1,454 @@
+package qub;
+
+/**
+ * A mathematical expression tree whose nodes are stored in parallel primitive arrays instead of
+ * as individual objects. Each node takes up 17 bytes (two int child indexes, one byte operator
+ * code, and one double value). Nodes are always added after their children, so the root node is
+ * the last node and the expression can be evaluated with a single forward pass over the arrays.
+ * A CompactExpression is not thread-safe.
+ */
+public class CompactExpression implements Expression
+{
+    /**
+     * The operator code that marks a node as a number.
+     */
+    static final byte numberOperatorCode = -1;
+
+    private static final BinaryOperator[] operators = CompactExpression.createOperators();
+
+    private int[] leftIndexes;
+    private int[] rightIndexes;
+    private byte[] operatorCodes;
+    private double[] values;
+    private int nodeCount;
+    private boolean hasFingerprint;
+    private long fingerprint;
+
+    private CompactExpression(int initialCapacity)
+    {
+        PreCondition.assertGreaterThan(initialCapacity, 0, "initialCapacity");
+
+        this.leftIndexes = new int[initialCapacity];
+        this.rightIndexes = new int[initialCapacity];
+        this.operatorCodes = new byte[initialCapacity];
+        this.values = new double[initialCapacity];
+    }
+
+    /**
+     * Create a new empty CompactExpression.
+     * @return The new CompactExpression.
+     */
+    public static CompactExpression create()
+    {
+        return CompactExpression.create(16);
+    }
+
+    /**
+     * Create a new empty CompactExpression that has room for the provided number of nodes before
+     * it needs to grow.
+     * @param initialCapacity The number of nodes that the CompactExpression has room for.
+     * @return The new CompactExpression.
+     */
+    public static CompactExpression create(int initialCapacity)
+    {
+        return new CompactExpression(initialCapacity);
+    }
+
+    private static BinaryOperator[] createOperators()
+    {
+        final BinaryOperator[] result = new BinaryOperator[BinaryOperator.operators.getCount()];
+        int index = 0;
+        for (final BinaryOperator operator : BinaryOperator.operators)
+        {
+            result[index++] = operator;
+        }
+        return result;
+    }
+
+    /**
+     * Get the operator code that identifies the provided BinaryOperator in a CompactExpression.
+     * @param operator The BinaryOperator to get the operator code of.
+     * @return The operator code of the provided BinaryOperator.
+     */
+    static byte getOperatorCode(BinaryOperator operator)
+    {
+        PreCondition.assertNotNull(operator, "operator");
+
+        for (int i = 0; i < CompactExpression.operators.length; ++i)
+        {
+            if (CompactExpression.operators[i].equals(operator))
+            {
+                return (byte)i;
+            }
+        }
+        throw new PreConditionFailure("operator (" + operator + ") must be one of the recognized BinaryOperators.");
+    }
+
+    /**
+     * Get the BinaryOperator that is identified by the provided operator code.
+     * @param operatorCode The operator code.
+     * @return The BinaryOperator that is identified by the provided operator code.
+     */
+    static BinaryOperator getOperatorForCode(byte operatorCode)
+    {
+        PreCondition.assertBetween(0, operatorCode, CompactExpression.operators.length - 1, "operatorCode");
+
+        return CompactExpression.operators[operatorCode];
+    }
+
+    /**
+     * Run the provided BinaryOperator on the provided values without boxing them for the
+     * recognized BinaryOperators.
+     * @param operator The BinaryOperator to run.
+     * @param lhs The left-hand-side value.
+     * @param rhs The right-hand-side value.
+     * @return The result of running the BinaryOperator.
+     */
+    static double run(BinaryOperator operator, double lhs, double rhs)
+    {
+        final double result;
+        if (operator == BinaryOperator.plus)
+        {
+            result = lhs + rhs;
+        }
+        else if (operator == BinaryOperator.minus)
+        {
+            result = lhs - rhs;
+        }
+        else if (operator == BinaryOperator.times)
+        {
+            result = lhs * rhs;
+        }
+        else if (operator == BinaryOperator.dividedBy)
+        {
+            result = lhs / rhs;
+        }
+        else
+        {
+            result = operator.run(lhs, rhs);
+        }
+        return result;
+    }
+
+    /**
+     * Remove all of the nodes from this CompactExpression so that it can be reused. The storage
+     * that has already been allocated is kept.
+     * @return This object for method chaining.
+     */
+    public CompactExpression clear()
+    {
+        this.nodeCount = 0;
+        this.hasFingerprint = false;
+        return this;
+    }
+
+    /**
+     * Get the number of nodes in this CompactExpression.
+     * @return The number of nodes in this CompactExpression.
+     */
+    public int getNodeCount()
+    {
+        return this.nodeCount;
+    }
+
+    /**
+     * Get the index of the root node of this CompactExpression.
+     * @return The index of the root node of this CompactExpression.
+     */
+    public int getRootIndex()
+    {
+        PreCondition.assertGreaterThan(this.nodeCount, 0, "this.getNodeCount()");
+
+        return this.nodeCount - 1;
+    }
+
+    /**
+     * Get whether or not the node at the provided index is a number.
+     * @param nodeIndex The index of the node.
+     * @return Whether or not the node at the provided index is a number.
+     */
+    public boolean isNumber(int nodeIndex)
+    {
+        PreCondition.assertBetween(0, nodeIndex, this.nodeCount - 1, "nodeIndex");
+
+        return this.operatorCodes[nodeIndex] == CompactExpression.numberOperatorCode;
+    }
+
+    /**
+     * Get the numeric value of the number node at the provided index.
+     * @param nodeIndex The index of the number node.
+     * @return The numeric value of the number node at the provided index.
+     */
+    public double getNumber(int nodeIndex)
+    {
+        PreCondition.assertTrue(this.isNumber(nodeIndex), "this.isNumber(nodeIndex)");
+
+        return this.values[nodeIndex];
+    }
+
+    /**
+     * Get the operator code of the node at the provided index.
+     * @param nodeIndex The index of the node.
+     * @return The operator code of the node, or CompactExpression.numberOperatorCode if the node is
+     * a number.
+     */
+    byte getOperatorCode(int nodeIndex)
+    {
+        PreCondition.assertBetween(0, nodeIndex, this.nodeCount - 1, "nodeIndex");
+
+        return this.operatorCodes[nodeIndex];
+    }
+
+    /**
+     * Get the BinaryOperator of the binary node at the provided index.
+     * @param nodeIndex The index of the binary node.
+     * @return The BinaryOperator of the binary node at the provided index.
+     */
+    public BinaryOperator getOperator(int nodeIndex)
+    {
+        PreCondition.assertFalse(this.isNumber(nodeIndex), "this.isNumber(nodeIndex)");
+
+        return CompactExpression.operators[this.operatorCodes[nodeIndex]];
+    }
+
+    /**
+     * Get the index of the left child of the binary node at the provided index.
+     * @param nodeIndex The index of the binary node.
+     * @return The index of the left child of the binary node at the provided index.
+     */
+    public int getLeftIndex(int nodeIndex)
+    {
+        PreCondition.assertFalse(this.isNumber(nodeIndex), "this.isNumber(nodeIndex)");
+
+        return this.leftIndexes[nodeIndex];
+    }
+
+    /**
+     * Get the index of the right child of the binary node at the provided index.
+     * @param nodeIndex The index of the binary node.
+     * @return The index of the right child of the binary node at the provided index.
+     */
+    public int getRightIndex(int nodeIndex)
+    {
+        PreCondition.assertFalse(this.isNumber(nodeIndex), "this.isNumber(nodeIndex)");
+
+        return this.rightIndexes[nodeIndex];
+    }
+
+    /**
+     * Add a number node to this CompactExpression.
+     * @param value The value of the number node.
+     * @return The index of the new node.
+     */
+    public int addNumber(double value)
+    {
+        final int result = this.addNode();
+        this.operatorCodes[result] = CompactExpression.numberOperatorCode;
+        this.values[result] = value;
+        return result;
+    }
+
+    /**
+     * Add a binary node to this CompactExpression. Both of the child nodes must already have been
+     * added. The child nodes don't need to be next to each other, and a node can be the child of
+     * more than one binary node.
+     * @param leftIndex The index of the left child node.
+     * @param operator The operator of the binary node.
+     * @param rightIndex The index of the right child node.
+     * @return The index of the new node.
+     */
+    public int addBinaryExpression(int leftIndex, BinaryOperator operator, int rightIndex)
+    {
+        PreCondition.assertBetween(0, leftIndex, this.nodeCount - 1, "leftIndex");
+        PreCondition.assertNotNull(operator, "operator");
+        PreCondition.assertBetween(0, rightIndex, this.nodeCount - 1, "rightIndex");
+
+        final byte operatorCode = CompactExpression.getOperatorCode(operator);
+        final int result = this.addNode();
+        this.leftIndexes[result] = leftIndex;
+        this.operatorCodes[result] = operatorCode;
+        this.rightIndexes[result] = rightIndex;
+        return result;
+    }
+
+    private int addNode()
+    {
+        if (this.nodeCount == this.operatorCodes.length)
+        {
+            final int newCapacity = this.operatorCodes.length * 2;
+            this.leftIndexes = java.util.Arrays.copyOf(this.leftIndexes, newCapacity);
+            this.rightIndexes = java.util.Arrays.copyOf(this.rightIndexes, newCapacity);
+            this.operatorCodes = java.util.Arrays.copyOf(this.operatorCodes, newCapacity);
+            this.values = java.util.Arrays.copyOf(this.values, newCapacity);
+        }
+        this.hasFingerprint = false;
+        return this.nodeCount++;
+    }
+
+    /**
+     * Evaluate this CompactExpression. Because every node comes after its children, this is a
+     * single sequential pass over the node arrays. The value slots of the binary nodes are used
+     * to hold their intermediate results.
+     * @return The numeric value of this CompactExpression.
+     */
+    public double evaluate()
+    {
+        PreCondition.assertGreaterThan(this.nodeCount, 0, "this.getNodeCount()");
+
+        final int[] leftIndexes = this.leftIndexes;
+        final int[] rightIndexes = this.rightIndexes;
+        final byte[] operatorCodes = this.operatorCodes;
+        final double[] values = this.values;
+        final int nodeCount = this.nodeCount;
+        for (int i = 0; i < nodeCount; ++i)
+        {
+            final byte operatorCode = operatorCodes[i];
+            if (operatorCode != CompactExpression.numberOperatorCode)
+            {
+                values[i] = CompactExpression.run(CompactExpression.operators[operatorCode], values[leftIndexes[i]], values[rightIndexes[i]]);
+            }
+        }
+        return values[nodeCount - 1];
+    }
+
+    /**
+     * Create the object form of this CompactExpression.
+     * @return The object form of this CompactExpression.
+     */
+    public Expression toExpression()
+    {
+        return this.toExpression(this.getRootIndex());
+    }
+
+    /**
+     * Create the object form of the subtree that is rooted at the provided node index.
+     * @param nodeIndex The index of the root node of the subtree.
+     * @return The object form of the subtree that is rooted at the provided node index.
+     */
+    public Expression toExpression(int nodeIndex)
+    {
+        PreCondition.assertBetween(0, nodeIndex, this.nodeCount - 1, "nodeIndex");
+
+        // Post-order traversal of the nodes' child indexes with an explicit stack so that deep
+        // trees don't overflow the call stack. A binary node is pushed twice: once as its index to
+        // push its children, and once as its complement (~index) to combine its children. This
+        // doesn't assume anything about how the nodes are laid out, so subtrees that aren't
+        // contiguous or that share nodes are still rebuilt as the tree that evaluate() computes.
+        int[] nodeIndexes = new int[16];
+        int nodeIndexCount = 0;
+        Expression[] expressions = new Expression[16];
+        int expressionCount = 0;
+
+        nodeIndexes[nodeIndexCount++] = nodeIndex;
+        while (nodeIndexCount > 0)
+        {
+            final int currentIndex = nodeIndexes[--nodeIndexCount];
+            if (currentIndex < 0)
+            {
+                final int binaryIndex = ~currentIndex;
+                final Expression rightExpression = expressions[--expressionCount];
+                expressions[expressionCount] = null;
+                expressions[expressionCount - 1] = MutableBinaryExpression.create(
+                    expressions[expressionCount - 1],
+                    CompactExpression.operators[this.operatorCodes[binaryIndex]],
+                    rightExpression);
+            }
+            else if (this.operatorCodes[currentIndex] == CompactExpression.numberOperatorCode)
+            {
+                if (expressionCount == expressions.length)
+                {
+                    expressions = java.util.Arrays.copyOf(expressions, expressions.length * 2);
+                }
+                expressions[expressionCount++] = NumberExpression.create(this.values[currentIndex]);
+            }
+            else
+            {
+                if (nodeIndexCount + 3 > nodeIndexes.length)
+                {
+                    nodeIndexes = java.util.Arrays.copyOf(nodeIndexes, nodeIndexes.length * 2);
+                }
+                nodeIndexes[nodeIndexCount++] = ~currentIndex;
+                nodeIndexes[nodeIndexCount++] = this.rightIndexes[currentIndex];
+                nodeIndexes[nodeIndexCount++] = this.leftIndexes[currentIndex];
+            }
+        }
+        final Expression result = expressions[0];
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+
+    @Override
+    public NumberExpression simplify()
+    {
+        return NumberExpression.create(this.evaluate());
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.nodeCount == 0 ? "" : this.toExpression().toString();
+    }
+
+    /**
+     * Get the fingerprint of this expression. The fingerprint is computed with a single forward
+     * pass over the node arrays the first time that it is requested, and is cached until a node
+     * is added or this CompactExpression is cleared. It is the same as the fingerprint of the
+     * object form of this expression.
+     * @return The fingerprint of this expression.
+     */
+    @Override
+    public long getFingerprint()
+    {
+        PreCondition.assertGreaterThan(this.nodeCount, 0, "this.getNodeCount()");
+
+        if (!this.hasFingerprint)
+        {
+            final long[] fingerprints = new long[this.nodeCount];
+            for (int i = 0; i < this.nodeCount; ++i)
+            {
+                final byte operatorCode = this.operatorCodes[i];
+                fingerprints[i] = operatorCode == CompactExpression.numberOperatorCode
+                    ? ExpressionFingerprints.number(this.values[i])
+                    : ExpressionFingerprints.binary(CompactExpression.operators[operatorCode], fingerprints[this.leftIndexes[i]], fingerprints[this.rightIndexes[i]]);
+            }
+            this.fingerprint = fingerprints[this.nodeCount - 1];
+            this.hasFingerprint = true;
+        }
+        return this.fingerprint;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.nodeCount == 0 ? 0 : ExpressionFingerprints.hashCode(this.getFingerprint());
+    }
+
+    @Override
+    public boolean equals(Object rhs)
+    {
+        return rhs instanceof CompactExpression && this.equals((CompactExpression)rhs);
+    }
+
+    /**
+     * Get whether or not this CompactExpression has the same nodes as the provided
+     * CompactExpression.
+     * @param rhs The CompactExpression to compare to this CompactExpression.
+     * @return Whether or not this CompactExpression has the same nodes as the provided
+     * CompactExpression.
+     */
+    public boolean equals(CompactExpression rhs)
+    {
+        boolean result = rhs != null && this.nodeCount == rhs.nodeCount;
+        for (int i = 0; result && i < this.nodeCount; ++i)
+        {
+            final byte operatorCode = this.operatorCodes[i];
+            result = operatorCode == rhs.operatorCodes[i] &&
+                (operatorCode == CompactExpression.numberOperatorCode
+                    ? Double.compare(this.values[i], rhs.values[i]) == 0
+                    : this.leftIndexes[i] == rhs.leftIndexes[i] && this.rightIndexes[i] == rhs.rightIndexes[i]);
+        }
+        return result;
+    }
+}
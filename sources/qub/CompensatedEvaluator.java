@@ -0,0 +1,274 @@
+package qub;
+
+/**
+ * An evaluator that computes the value of a mathematical expression with compensated
+ * (Neumaier) summation. Every maximal chain of addition and subtraction operators in the
+ * expression tree is flattened into a list of signed terms, and those terms are summed while
+ * tracking the rounding error of each addition. This gives a much more accurate result for long
+ * additive chains than folding the chain one pair at a time. Chains that have at least the
+ * parallel threshold number of terms are split into fixed-size blocks that are summed in
+ * parallel. The block boundaries only depend on the threshold, so the result doesn't depend on
+ * the number of threads that are used.
+ */
+public class CompensatedEvaluator
+{
+    private static final int defaultParallelThreshold = 1 << 16;
+
+    private final int parallelThreshold;
+
+    private CompensatedEvaluator(int parallelThreshold)
+    {
+        PreCondition.assertGreaterThan(parallelThreshold, 0, "parallelThreshold");
+
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Create a new CompensatedEvaluator that sums chains with 65536 or more terms in parallel.
+     * @return The new CompensatedEvaluator.
+     */
+    public static CompensatedEvaluator create()
+    {
+        return CompensatedEvaluator.create(CompensatedEvaluator.defaultParallelThreshold);
+    }
+
+    /**
+     * Create a new CompensatedEvaluator.
+     * @param parallelThreshold The number of terms that an additive chain must have before it is
+     * summed in parallel. This is also the number of terms in each parallel block.
+     * @return The new CompensatedEvaluator.
+     */
+    public static CompensatedEvaluator create(int parallelThreshold)
+    {
+        return new CompensatedEvaluator(parallelThreshold);
+    }
+
+    /**
+     * Get the number of terms that an additive chain must have before it is summed in parallel.
+     * @return The number of terms that an additive chain must have before it is summed in
+     * parallel.
+     */
+    public int getParallelThreshold()
+    {
+        return this.parallelThreshold;
+    }
+
+    /**
+     * Evaluate the provided mathematical expression. This uses explicit stacks instead of
+     * recursion, so that very deep expressions (such as long chains of multiplications) don't
+     * overflow the call stack.
+     * @param expression The expression to evaluate.
+     * @return The numeric value of the expression.
+     */
+    public double evaluate(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        // Each step is either an Expression to evaluate, the BinaryOperator of a non-additive
+        // expression whose operands have been evaluated, or the term signs of an additive chain
+        // whose terms have been evaluated.
+        final java.util.ArrayDeque<Object> steps = new java.util.ArrayDeque<>();
+        final Terms operands = new Terms();
+
+        steps.push(expression);
+        while (!steps.isEmpty())
+        {
+            final Object step = steps.pop();
+            if (step instanceof BinaryOperator)
+            {
+                final double rightOperand = operands.values[--operands.count];
+                final double leftOperand = operands.values[operands.count - 1];
+                operands.values[operands.count - 1] = CompactExpression.run((BinaryOperator)step, leftOperand, rightOperand);
+            }
+            else if (step instanceof boolean[])
+            {
+                final boolean[] negated = (boolean[])step;
+                final Terms terms = new Terms();
+                final int firstTermIndex = operands.count - negated.length;
+                for (int i = 0; i < negated.length; ++i)
+                {
+                    final double value = operands.values[firstTermIndex + i];
+                    terms.add(negated[i] ? -value : value);
+                }
+                operands.count = firstTermIndex;
+                operands.add(this.sum(terms));
+            }
+            else if (step instanceof NumberExpression)
+            {
+                operands.add(((NumberExpression)step).getValue().await());
+            }
+            else if (step instanceof MutableBinaryExpression)
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)step;
+                final BinaryOperator operator = binaryExpression.getOperator();
+                if (CompensatedEvaluator.isAdditive(operator))
+                {
+                    final java.util.List<Expression> terms = new java.util.ArrayList<>();
+                    final boolean[] negated = CompensatedEvaluator.getTerms(binaryExpression, terms);
+                    steps.push(negated);
+                    for (int i = terms.size() - 1; i >= 0; --i)
+                    {
+                        steps.push(terms.get(i));
+                    }
+                }
+                else
+                {
+                    steps.push(operator);
+                    steps.push(binaryExpression.getRightExpression());
+                    steps.push(binaryExpression.getLeftExpression());
+                }
+            }
+            else
+            {
+                final Expression currentExpression = (Expression)step;
+                final Expression simplifiedExpression = currentExpression.simplify();
+                if (!(simplifiedExpression instanceof NumberExpression))
+                {
+                    throw new IllegalArgumentException("The expression " + Strings.escapeAndQuote(currentExpression.toString()) + " doesn't simplify to a number.");
+                }
+                operands.add(((NumberExpression)simplifiedExpression).getValue().await());
+            }
+        }
+        return operands.values[0];
+    }
+
+    private static boolean isAdditive(BinaryOperator operator)
+    {
+        return operator == BinaryOperator.plus || operator == BinaryOperator.minus;
+    }
+
+    /**
+     * Flatten the additive chain that is rooted at the provided expression into its terms, in
+     * left-to-right order. This uses an explicit stack so that very long chains don't overflow
+     * the call stack.
+     * @param chainRoot The root of the additive chain.
+     * @param terms The list that the terms of the chain are added to.
+     * @return Whether or not each term is subtracted instead of added.
+     */
+    private static boolean[] getTerms(MutableBinaryExpression chainRoot, java.util.List<Expression> terms)
+    {
+        boolean[] result = new boolean[16];
+
+        final java.util.ArrayDeque<Expression> expressionStack = new java.util.ArrayDeque<>();
+        final java.util.ArrayDeque<Boolean> negatedStack = new java.util.ArrayDeque<>();
+        expressionStack.push(chainRoot);
+        negatedStack.push(false);
+        while (!expressionStack.isEmpty())
+        {
+            final Expression expression = expressionStack.pop();
+            final boolean negated = negatedStack.pop();
+
+            if (expression instanceof MutableBinaryExpression && CompensatedEvaluator.isAdditive(((MutableBinaryExpression)expression).getOperator()))
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)expression;
+                final boolean rightNegated = (binaryExpression.getOperator() == BinaryOperator.minus) != negated;
+
+                expressionStack.push(binaryExpression.getRightExpression());
+                negatedStack.push(rightNegated);
+                expressionStack.push(binaryExpression.getLeftExpression());
+                negatedStack.push(negated);
+            }
+            else
+            {
+                if (terms.size() == result.length)
+                {
+                    result = java.util.Arrays.copyOf(result, result.length * 2);
+                }
+                result[terms.size()] = negated;
+                terms.add(expression);
+            }
+        }
+
+        return java.util.Arrays.copyOf(result, terms.size());
+    }
+
+    private double sum(Terms terms)
+    {
+        final double result;
+        if (terms.count < this.parallelThreshold)
+        {
+            final double[] partialSum = new double[2];
+            CompensatedEvaluator.add(terms.values, 0, terms.count, partialSum);
+            result = CompensatedEvaluator.getTotal(partialSum);
+        }
+        else
+        {
+            final int blockSize = this.parallelThreshold;
+            final int blockCount = (terms.count + blockSize - 1) / blockSize;
+            final double[][] blockSums = new double[blockCount][];
+            java.util.stream.IntStream.range(0, blockCount).parallel().forEach((int blockIndex) ->
+            {
+                final int startIndex = blockIndex * blockSize;
+                final int endIndex = Math.min(terms.count, startIndex + blockSize);
+                final double[] blockSum = new double[2];
+                CompensatedEvaluator.add(terms.values, startIndex, endIndex, blockSum);
+                blockSums[blockIndex] = blockSum;
+            });
+
+            final double[] partialSum = new double[2];
+            double compensation = 0;
+            for (final double[] blockSum : blockSums)
+            {
+                CompensatedEvaluator.add(blockSum, 0, 1, partialSum);
+                compensation += blockSum[1];
+            }
+            partialSum[1] += compensation;
+            result = CompensatedEvaluator.getTotal(partialSum);
+        }
+        return result;
+    }
+
+    /**
+     * Add the provided values to the provided partial sum with Neumaier's compensated summation.
+     * @param values The values to add.
+     * @param startIndex The index of the first value to add.
+     * @param endIndex The index after the last value to add.
+     * @param partialSum The running sum (index 0) and the running compensation (index 1).
+     */
+    private static void add(double[] values, int startIndex, int endIndex, double[] partialSum)
+    {
+        double sum = partialSum[0];
+        double compensation = partialSum[1];
+        for (int i = startIndex; i < endIndex; ++i)
+        {
+            final double value = values[i];
+            final double newSum = sum + value;
+            if (Math.abs(sum) >= Math.abs(value))
+            {
+                compensation += (sum - newSum) + value;
+            }
+            else
+            {
+                compensation += (value - newSum) + sum;
+            }
+            sum = newSum;
+        }
+        partialSum[0] = sum;
+        partialSum[1] = compensation;
+    }
+
+    private static double getTotal(double[] partialSum)
+    {
+        final double sum = partialSum[0];
+        // Once the sum has overflowed or become NaN, the compensation no longer means anything.
+        return Double.isFinite(sum) ? sum + partialSum[1] : sum;
+    }
+
+    /**
+     * A growable list of term or operand values.
+     */
+    private static class Terms
+    {
+        private double[] values = new double[16];
+        private int count;
+
+        void add(double value)
+        {
+            if (this.count == this.values.length)
+            {
+                this.values = java.util.Arrays.copyOf(this.values, this.values.length * 2);
+            }
+            this.values[this.count++] = value;
+        }
+    }
+}
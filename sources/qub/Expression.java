@@ -11,6 +11,15 @@ public interface Expression
      */
     Expression simplify();
 
+    /**
+     * Get a 64-bit fingerprint of the structure of this mathematical expression. The fingerprint
+     * only depends on the shape of the expression tree, its operators, and the values of its
+     * numbers. Expressions that are equal have the same fingerprint, and hashCode() is derived
+     * from it.
+     * @return The fingerprint of this mathematical expression.
+     */
+    long getFingerprint();
+
     /**
      * Simplify the provided mathematical expression or return null if the provided expression is
      * null.
@@ -32,7 +41,7 @@ public interface Expression
     {
         PreCondition.assertNotNull(text, "text");
 
-        return Expression.parse(Strings.iterate(text));
+        return ExpressionParser.get().parse(text);
     }
 
     /**
@@ -46,83 +55,14 @@ public interface Expression
 
         return Result.create(() ->
         {
+            final StringBuilder text = new StringBuilder();
             characters.start();
-
-            if (!characters.hasCurrent())
-            {
-                throw new ParseException("Missing expression.");
-            }
-
-            Expression completeExpression = null;
-            final Stack<MutableBinaryExpression> incompleteExpressionStack = Stack.create();
-
             while (characters.hasCurrent())
             {
-                if (Expression.isNumberStartCharacter(characters.getCurrent()))
-                {
-                    final NumberExpression numberExpression = Expression.parseNumberExpression(characters).await();
-                    if (completeExpression != null)
-                    {
-                        throw new ParseException("Expected operator, but found number (" + numberExpression.toString() + ") instead.");
-                    }
-                    completeExpression = numberExpression;
-                }
-                else if (Expression.isBinaryOperatorStartCharacter(characters.getCurrent()))
-                {
-                    final BinaryOperator currentOperator = Expression.parseBinaryOperator(characters).await();
-                    if (completeExpression == null)
-                    {
-                        throw new ParseException("Expected number, but found operator (" + currentOperator.toString() + ") instead.");
-                    }
-
-                    if (!incompleteExpressionStack.any())
-                    {
-                        incompleteExpressionStack.push(MutableBinaryExpression.create()
-                            .setLeftExpression(completeExpression)
-                            .setOperator(currentOperator));
-                        completeExpression = null;
-                    }
-                    else
-                    {
-                        final BinaryOperator previousOperator = incompleteExpressionStack.peek().await().getOperator();
-                        if (previousOperator.getPrecedence() >= currentOperator.getPrecedence())
-                        {
-                            final MutableBinaryExpression previousExpression = incompleteExpressionStack.pop().await();
-                            previousExpression.setRightExpression(completeExpression);
-                            completeExpression = previousExpression;
-                        }
-
-                        incompleteExpressionStack.push(MutableBinaryExpression.create()
-                                .setLeftExpression(completeExpression)
-                                .setOperator(currentOperator));
-                        completeExpression = null;
-                    }
-                }
-                else if (Characters.isWhitespace(characters.getCurrent()))
-                {
-                    characters.next();
-                }
-                else
-                {
-                    throw new ParseException("Unrecognized expression character: " + characters.getCurrent());
-                }
+                text.append(characters.takeCurrent());
             }
 
-            while (incompleteExpressionStack.any())
-            {
-                final MutableBinaryExpression incompleteExpression = incompleteExpressionStack.pop().await();
-                if (completeExpression == null)
-                {
-                    throw new ParseException("Missing right-hand side number for " + incompleteExpression.toString() + ".");
-                }
-                completeExpression = incompleteExpression.setRightExpression(completeExpression);
-            }
-
-            final Expression result = completeExpression;
-
-            PostCondition.assertNotNull(result, "result");
-
-            return result;
+            return ExpressionParser.get().parse(text.toString()).await();
         });
     }
 
@@ -137,6 +77,17 @@ public interface Expression
         return character == '.' || Characters.isDigit(character);
     }
 
+    /**
+     * Get whether or not the provided character is the start character for a VariableExpression.
+     * @param character The character to check.
+     * @return Whether or not the provided character is the start character for a
+     * VariableExpression.
+     */
+    static boolean isVariableStartCharacter(char character)
+    {
+        return character == '_' || Characters.isLetter(character);
+    }
+
     /**
      * Parse a NumberExpression from the provided characters.
      * @param characters The characters to parse a NumberExpression from.
@@ -201,8 +152,7 @@ public interface Expression
      */
     static boolean isBinaryOperatorStartCharacter(char character)
     {
-        final String characterString = Characters.toString(character);
-        return BinaryOperator.operators.contains((BinaryOperator operator) -> Strings.startsWith(operator.toString(), characterString));
+        return BinaryOperator.get(character) != null;
     }
 
     /**
@@ -0,0 +1,130 @@
+package qub;
+
+/**
+ * An estimate of how expensive an expression will be to parse and evaluate, made from a single
+ * pass over its raw text without parsing it. The scan counts the numbers and operators in the
+ * text, which gives the node count that a successful parse would produce. It also tracks the
+ * depths of the operators that the parser would leave pending, which gives the depth of the
+ * parsed tree without building it. Characters that the parser wouldn't accept are ignored, so the
+ * estimate of an invalid expression is only an approximation.
+ */
+public class ExpressionCostEstimate
+{
+    private final int characterCount;
+    private final long numberCount;
+    private final long operatorCount;
+    private final long depth;
+
+    private ExpressionCostEstimate(int characterCount, long numberCount, long operatorCount, long depth)
+    {
+        this.characterCount = characterCount;
+        this.numberCount = numberCount;
+        this.operatorCount = operatorCount;
+        this.depth = depth;
+    }
+
+    /**
+     * Scan the provided expression text and estimate its cost.
+     * @param text The expression text to scan.
+     * @return The cost estimate of the provided expression text.
+     */
+    public static ExpressionCostEstimate scan(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        long numberCount = 0;
+        long operatorCount = 0;
+        boolean inNumber = false;
+
+        // The depth of the expression that the parser would have just completed (0 if there
+        // isn't one), and the left-hand side depths and precedences of the operators that it
+        // would have pending. These follow the same rules as ExpressionParser.tryParse().
+        long completeDepth = 0;
+        long[] pendingLeftDepths = new long[16];
+        int[] pendingPrecedences = new int[16];
+        int pendingCount = 0;
+
+        final int length = text.length();
+        for (int i = 0; i < length; ++i)
+        {
+            final char character = text.charAt(i);
+            if (Characters.isDigit(character) || character == '.')
+            {
+                if (!inNumber)
+                {
+                    ++numberCount;
+                    inNumber = true;
+                    completeDepth = 1;
+                }
+            }
+            else
+            {
+                inNumber = false;
+                final BinaryOperator operator = BinaryOperator.get(character);
+                if (operator != null)
+                {
+                    ++operatorCount;
+
+                    long leftDepth = Math.max(1, completeDepth);
+                    if (pendingCount > 0 && pendingPrecedences[pendingCount - 1] >= operator.getPrecedence())
+                    {
+                        --pendingCount;
+                        leftDepth = Math.max(pendingLeftDepths[pendingCount], leftDepth) + 1;
+                    }
+                    if (pendingCount == pendingLeftDepths.length)
+                    {
+                        pendingLeftDepths = java.util.Arrays.copyOf(pendingLeftDepths, pendingLeftDepths.length * 2);
+                        pendingPrecedences = java.util.Arrays.copyOf(pendingPrecedences, pendingPrecedences.length * 2);
+                    }
+                    pendingLeftDepths[pendingCount] = leftDepth;
+                    pendingPrecedences[pendingCount] = operator.getPrecedence();
+                    ++pendingCount;
+                    completeDepth = 0;
+                }
+            }
+        }
+
+        long depth = Math.max(1, completeDepth);
+        while (pendingCount > 0)
+        {
+            --pendingCount;
+            depth = Math.max(pendingLeftDepths[pendingCount], depth) + 1;
+        }
+
+        return new ExpressionCostEstimate(length, numberCount, operatorCount, depth);
+    }
+
+    /**
+     * Get the number of characters in the scanned text.
+     * @return The number of characters in the scanned text.
+     */
+    public int getCharacterCount()
+    {
+        return this.characterCount;
+    }
+
+    /**
+     * Get the number of number and operator nodes that the parsed expression will have.
+     * @return The number of nodes that the parsed expression will have.
+     */
+    public long getNodeCount()
+    {
+        return this.numberCount + this.operatorCount;
+    }
+
+    /**
+     * Get the depth of the tree that parsing the scanned text would produce. A single number has
+     * a depth of 1.
+     * @return The depth of the parsed expression tree.
+     */
+    public long getMaximumDepth()
+    {
+        return this.depth;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{\"characters\":" + this.characterCount + ",\"nodes\":" + this.getNodeCount() + ",\"maximumDepth\":" + this.getMaximumDepth() + "}";
+    }
+}
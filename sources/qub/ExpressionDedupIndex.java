@@ -0,0 +1,198 @@
+package qub;
+
+/**
+ * An index that finds structurally identical expressions in a corpus with a single linear pass.
+ * Each added expression is given the id of the first equal expression that was added before it,
+ * or a new id if it is the first of its kind. Expressions are looked up by their 64-bit
+ * fingerprint in an open-addressing table of primitive longs and ints, and every fingerprint
+ * match is verified with equals() so that a fingerprint collision can never merge two different
+ * expressions.
+ * <p>
+ * The index keeps a reference to the first expression of each kind, so those expressions must not
+ * be changed after they are added. An ExpressionDedupIndex is not thread-safe.
+ */
+public class ExpressionDedupIndex
+{
+    private static final double maximumLoadFactor = 0.5;
+
+    private long[] tableFingerprints;
+    private int[] tableIds;
+    private final java.util.ArrayList<Expression> uniqueExpressions;
+    private long addedCount;
+
+    private ExpressionDedupIndex(int expectedUniqueCount)
+    {
+        PreCondition.assertGreaterThanOrEqualTo(expectedUniqueCount, 0, "expectedUniqueCount");
+
+        final int tableSize = ExpressionDedupIndex.getTableSize(expectedUniqueCount);
+        this.tableFingerprints = new long[tableSize];
+        this.tableIds = new int[tableSize];
+        java.util.Arrays.fill(this.tableIds, -1);
+        this.uniqueExpressions = new java.util.ArrayList<>(expectedUniqueCount);
+    }
+
+    /**
+     * Create a new empty ExpressionDedupIndex.
+     * @return The new ExpressionDedupIndex.
+     */
+    public static ExpressionDedupIndex create()
+    {
+        return ExpressionDedupIndex.create(16);
+    }
+
+    /**
+     * Create a new empty ExpressionDedupIndex that has room for the provided number of unique
+     * expressions before it needs to grow.
+     * @param expectedUniqueCount The number of unique expressions that the index has room for.
+     * @return The new ExpressionDedupIndex.
+     */
+    public static ExpressionDedupIndex create(int expectedUniqueCount)
+    {
+        return new ExpressionDedupIndex(expectedUniqueCount);
+    }
+
+    private static int getTableSize(int uniqueCount)
+    {
+        int result = 16;
+        while (result * ExpressionDedupIndex.maximumLoadFactor < uniqueCount)
+        {
+            result *= 2;
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of expressions that have been added to this index.
+     * @return The number of expressions that have been added to this index.
+     */
+    public long getAddedCount()
+    {
+        return this.addedCount;
+    }
+
+    /**
+     * Get the number of distinct expressions that have been added to this index.
+     * @return The number of distinct expressions that have been added to this index.
+     */
+    public int getUniqueCount()
+    {
+        return this.uniqueExpressions.size();
+    }
+
+    /**
+     * Get the number of added expressions that were equal to an expression that was added before
+     * them.
+     * @return The number of added expressions that were duplicates.
+     */
+    public long getDuplicateCount()
+    {
+        return this.addedCount - this.uniqueExpressions.size();
+    }
+
+    /**
+     * Get the first expression that was added with the provided id.
+     * @param id The id of the expression.
+     * @return The first expression that was added with the provided id.
+     */
+    public Expression getUniqueExpression(int id)
+    {
+        PreCondition.assertBetween(0, id, this.getUniqueCount() - 1, "id");
+
+        return this.uniqueExpressions.get(id);
+    }
+
+    /**
+     * Get the id of the expression in this index that is equal to the provided expression.
+     * @param expression The expression to look for.
+     * @return The id of the equal expression, or -1 if this index doesn't contain an equal
+     * expression.
+     */
+    public int indexOf(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        final int slot = this.findSlot(expression, expression.getFingerprint());
+        return this.tableIds[slot];
+    }
+
+    /**
+     * Add the provided expression to this index.
+     * @param expression The expression to add.
+     * @return The id of the first equal expression that was added to this index, or the new id of
+     * the provided expression if it is the first of its kind.
+     */
+    public int add(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        ++this.addedCount;
+
+        final long fingerprint = expression.getFingerprint();
+        int slot = this.findSlot(expression, fingerprint);
+        int result = this.tableIds[slot];
+        if (result == -1)
+        {
+            result = this.uniqueExpressions.size();
+            this.uniqueExpressions.add(expression);
+            if (this.uniqueExpressions.size() > this.tableIds.length * ExpressionDedupIndex.maximumLoadFactor)
+            {
+                this.grow();
+                slot = this.findSlot(expression, fingerprint);
+            }
+            this.tableFingerprints[slot] = fingerprint;
+            this.tableIds[slot] = result;
+        }
+
+        PostCondition.assertBetween(0, result, this.getUniqueCount() - 1, "result");
+
+        return result;
+    }
+
+    /**
+     * Find the slot that holds an expression equal to the provided expression, or the empty slot
+     * where the provided expression would go.
+     * @param expression The expression to look for.
+     * @param fingerprint The fingerprint of the expression.
+     * @return The slot index.
+     */
+    private int findSlot(Expression expression, long fingerprint)
+    {
+        final int mask = this.tableIds.length - 1;
+        int slot = ExpressionFingerprints.hashCode(fingerprint) & mask;
+        while (true)
+        {
+            final int id = this.tableIds[slot];
+            if (id == -1 ||
+                (this.tableFingerprints[slot] == fingerprint && this.uniqueExpressions.get(id).equals(expression)))
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow()
+    {
+        final long[] oldFingerprints = this.tableFingerprints;
+        final int[] oldIds = this.tableIds;
+
+        this.tableFingerprints = new long[oldIds.length * 2];
+        this.tableIds = new int[oldIds.length * 2];
+        java.util.Arrays.fill(this.tableIds, -1);
+
+        final int mask = this.tableIds.length - 1;
+        for (int i = 0; i < oldIds.length; ++i)
+        {
+            if (oldIds[i] != -1)
+            {
+                int slot = ExpressionFingerprints.hashCode(oldFingerprints[i]) & mask;
+                while (this.tableIds[slot] != -1)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                this.tableFingerprints[slot] = oldFingerprints[i];
+                this.tableIds[slot] = oldIds[i];
+            }
+        }
+    }
+}
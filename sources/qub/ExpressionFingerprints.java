@@ -0,0 +1,98 @@
+package qub;
+
+/**
+ * Functions that compute the 64-bit structural fingerprints of expressions. A fingerprint only
+ * depends on the shape of an expression tree, its operators, the values of its numbers, and the
+ * names of its variables, so the same tree gets the same fingerprint no matter how it is
+ * represented (MutableBinaryExpression or CompactExpression), in which process, or on which run.
+ * Number fingerprints are based on the number's value, so "1" and "1.0" have the same fingerprint.
+ */
+final class ExpressionFingerprints
+{
+    private static final long numberSeed = 0x4E554D4245525F31L;
+    private static final long textSeed = 0x544558545F5F5F31L;
+    private static final long variableSeed = 0x5641524941424C31L;
+    private static final long binarySeed = 0x42494E4152595F31L;
+
+    private ExpressionFingerprints()
+    {
+    }
+
+    /**
+     * Get the fingerprint of a number with the provided value.
+     * @param value The value of the number.
+     * @return The fingerprint of the number.
+     */
+    static long number(double value)
+    {
+        return ExpressionFingerprints.mix(ExpressionFingerprints.numberSeed ^ Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Get the fingerprint of a number whose text can't be parsed.
+     * @param text The text of the number.
+     * @return The fingerprint of the number.
+     */
+    static long text(String text)
+    {
+        long result = ExpressionFingerprints.textSeed;
+        for (int i = 0; i < text.length(); ++i)
+        {
+            result = ExpressionFingerprints.mix(result ^ text.charAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Get the fingerprint of a variable with the provided name. A variable never has the same
+     * fingerprint as a number whose text is the variable's name.
+     * @param name The name of the variable.
+     * @return The fingerprint of the variable.
+     */
+    static long variable(String name)
+    {
+        return ExpressionFingerprints.mix(ExpressionFingerprints.variableSeed ^ ExpressionFingerprints.text(name));
+    }
+
+    /**
+     * Get the fingerprint of a binary expression with the provided operator and child
+     * fingerprints. The left and right fingerprints are combined asymmetrically, so swapping the
+     * children changes the fingerprint.
+     * @param operator The operator of the binary expression.
+     * @param leftFingerprint The fingerprint of the left expression.
+     * @param rightFingerprint The fingerprint of the right expression.
+     * @return The fingerprint of the binary expression.
+     */
+    static long binary(BinaryOperator operator, long leftFingerprint, long rightFingerprint)
+    {
+        long result = ExpressionFingerprints.binarySeed ^ operator.toString().hashCode();
+        result = ExpressionFingerprints.mix(result + leftFingerprint * 0x9E3779B97F4A7C15L);
+        result = ExpressionFingerprints.mix(result + Long.rotateLeft(rightFingerprint, 31) * 0xC2B2AE3D27D4EB4FL);
+        return result;
+    }
+
+    /**
+     * Get the 32-bit hash code that matches the provided fingerprint.
+     * @param fingerprint The fingerprint.
+     * @return The hash code.
+     */
+    static int hashCode(long fingerprint)
+    {
+        return (int)(fingerprint ^ (fingerprint >>> 32));
+    }
+
+    /**
+     * Scramble the bits of the provided value (the MurmurHash3 64-bit finalizer).
+     * @param value The value to scramble.
+     * @return The scrambled value.
+     */
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,424 @@
+package qub;
+
+/**
+ * A reusable parser that turns mathematical expression text into Expressions. An
+ * ExpressionParser holds onto its scratch state between calls so that parsing many expressions
+ * in a row doesn't allocate a new stack and wrapper objects for each one. An ExpressionParser is
+ * not thread-safe. Use ExpressionParser.get() to get the parser that belongs to the current
+ * thread.
+ */
+public class ExpressionParser
+{
+    private static final ThreadLocal<ExpressionParser> threadParsers = ThreadLocal.withInitial(ExpressionParser::create);
+
+    private MutableBinaryExpression[] incompleteExpressions;
+    private int incompleteExpressionCount;
+
+    private int[] incompleteLeftIndexes;
+    private BinaryOperator[] incompleteOperators;
+    private int incompleteOperatorCount;
+
+    private Expression expression;
+    private String error;
+
+    private ExpressionParser()
+    {
+        this.incompleteExpressions = new MutableBinaryExpression[16];
+        this.incompleteLeftIndexes = new int[16];
+        this.incompleteOperators = new BinaryOperator[16];
+    }
+
+    /**
+     * Create a new ExpressionParser.
+     * @return The new ExpressionParser.
+     */
+    public static ExpressionParser create()
+    {
+        return new ExpressionParser();
+    }
+
+    /**
+     * Get the ExpressionParser that belongs to the current thread.
+     * @return The ExpressionParser that belongs to the current thread.
+     */
+    public static ExpressionParser get()
+    {
+        return ExpressionParser.threadParsers.get();
+    }
+
+    /**
+     * Clear the results of the previous parse so that this ExpressionParser can be used again.
+     * @return This object for method chaining.
+     */
+    public ExpressionParser reset()
+    {
+        for (int i = 0; i < this.incompleteExpressionCount; ++i)
+        {
+            this.incompleteExpressions[i] = null;
+        }
+        this.incompleteExpressionCount = 0;
+        this.incompleteOperatorCount = 0;
+        this.expression = null;
+        this.error = null;
+
+        return this;
+    }
+
+    /**
+     * Get the Expression that was parsed by the most recent successful call to tryParse(). The
+     * Expression can only be gotten once, and only until the next call to tryParse(). This
+     * ExpressionParser lets go of the Expression when it is gotten, so that a parser that is kept
+     * for the lifetime of its thread (such as the one that get() returns) doesn't keep the last
+     * parsed Expression reachable.
+     * @return The Expression that was parsed by the most recent successful call to tryParse(), or
+     * null if the most recent call failed or if the Expression has already been gotten.
+     */
+    public Expression getExpression()
+    {
+        final Expression result = this.expression;
+        this.expression = null;
+        return result;
+    }
+
+    /**
+     * Get the error message from the most recent failed call to tryParse(). Like
+     * getExpression(), the error message can only be gotten once, and only until the next call to
+     * tryParse().
+     * @return The error message from the most recent failed call to tryParse(), or null if the
+     * most recent call succeeded or if the error message has already been gotten.
+     */
+    public String getError()
+    {
+        final String result = this.error;
+        this.error = null;
+        return result;
+    }
+
+    /**
+     * Parse a mathematical expression from the provided text.
+     * @param text The text to parse.
+     * @return The parsed mathematical expression.
+     */
+    public Result<Expression> parse(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        return this.tryParse(text)
+            ? Result.success(this.getExpression())
+            : Result.error(new ParseException(this.getError()));
+    }
+
+    /**
+     * Attempt to parse a mathematical expression from the provided text. This method doesn't
+     * throw when the text is malformed. Instead the error message is available from getError().
+     * @param text The text to parse.
+     * @return Whether or not the text was successfully parsed. If it was, then the parsed
+     * Expression is available from getExpression().
+     */
+    public boolean tryParse(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        this.reset();
+
+        final int length = text.length();
+        if (length == 0)
+        {
+            return this.fail("Missing expression.");
+        }
+
+        Expression completeExpression = null;
+        int index = 0;
+        while (index < length)
+        {
+            final char character = text.charAt(index);
+            if (Expression.isNumberStartCharacter(character))
+            {
+                final int numberEndIndex = ExpressionParser.scanNumber(text, index);
+                if (numberEndIndex < 0)
+                {
+                    return this.fail("Missing NumberExpression fractional digit character.");
+                }
+
+                final NumberExpression numberExpression = NumberExpression.create(
+                    text.substring(index, numberEndIndex),
+                    FastDoubleParser.parse(text, index, numberEndIndex));
+                if (completeExpression != null)
+                {
+                    return this.fail("Expected operator, but found number (" + numberExpression.toString() + ") instead.");
+                }
+                completeExpression = numberExpression;
+                index = numberEndIndex;
+            }
+            else if (Expression.isVariableStartCharacter(character))
+            {
+                final int variableEndIndex = ExpressionParser.scanVariable(text, index);
+                final VariableExpression variableExpression = VariableExpression.create(text.substring(index, variableEndIndex));
+                if (completeExpression != null)
+                {
+                    return this.fail("Expected operator, but found variable (" + variableExpression.toString() + ") instead.");
+                }
+                completeExpression = variableExpression;
+                index = variableEndIndex;
+            }
+            else if (Expression.isBinaryOperatorStartCharacter(character))
+            {
+                final BinaryOperator currentOperator = BinaryOperator.get(character);
+                if (completeExpression == null)
+                {
+                    return this.fail("Expected number, but found operator (" + currentOperator.toString() + ") instead.");
+                }
+
+                if (this.incompleteExpressionCount > 0)
+                {
+                    final MutableBinaryExpression previousExpression = this.incompleteExpressions[this.incompleteExpressionCount - 1];
+                    if (previousExpression.getOperator().getPrecedence() >= currentOperator.getPrecedence())
+                    {
+                        this.incompleteExpressions[--this.incompleteExpressionCount] = null;
+                        completeExpression = previousExpression.setRightExpression(completeExpression);
+                    }
+                }
+                this.pushIncompleteExpression(MutableBinaryExpression.create()
+                    .setLeftExpression(completeExpression)
+                    .setOperator(currentOperator));
+                completeExpression = null;
+                ++index;
+            }
+            else if (Characters.isWhitespace(character))
+            {
+                ++index;
+            }
+            else
+            {
+                return this.fail("Unrecognized expression character: " + character);
+            }
+        }
+
+        while (this.incompleteExpressionCount > 0)
+        {
+            final MutableBinaryExpression incompleteExpression = this.incompleteExpressions[--this.incompleteExpressionCount];
+            this.incompleteExpressions[this.incompleteExpressionCount] = null;
+            if (completeExpression == null)
+            {
+                return this.fail("Missing right-hand side number for " + incompleteExpression.toString() + ".");
+            }
+            completeExpression = incompleteExpression.setRightExpression(completeExpression);
+        }
+
+        this.expression = completeExpression;
+
+        PostCondition.assertNotNull(this.expression, "this.expression");
+
+        return true;
+    }
+
+    /**
+     * Parse a mathematical expression from the provided text directly into a new
+     * CompactExpression.
+     * @param text The text to parse.
+     * @return The parsed CompactExpression.
+     */
+    public Result<CompactExpression> parseCompact(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        final CompactExpression result = CompactExpression.create();
+        return this.tryParse(text, result)
+            ? Result.success(result)
+            : Result.error(new ParseException(this.getError()));
+    }
+
+    /**
+     * Attempt to parse a mathematical expression from the provided text directly into the
+     * provided CompactExpression. The CompactExpression is cleared before parsing starts. This
+     * method doesn't throw when the text is malformed. Instead the error message is available
+     * from getError().
+     * @param text The text to parse.
+     * @param result The CompactExpression to add the parsed nodes to. If the text can't be
+     * parsed, then the CompactExpression will be left empty.
+     * @return Whether or not the text was successfully parsed.
+     */
+    public boolean tryParse(String text, CompactExpression result)
+    {
+        PreCondition.assertNotNull(text, "text");
+        PreCondition.assertNotNull(result, "result");
+
+        final boolean success = this.tryParseNodes(text, result);
+        if (!success)
+        {
+            result.clear();
+        }
+        return success;
+    }
+
+    private boolean tryParseNodes(String text, CompactExpression result)
+    {
+        this.reset();
+        result.clear();
+
+        final int length = text.length();
+        if (length == 0)
+        {
+            return this.fail("Missing expression.");
+        }
+
+        int completeIndex = -1;
+        int index = 0;
+        while (index < length)
+        {
+            final char character = text.charAt(index);
+            if (Expression.isNumberStartCharacter(character))
+            {
+                final int numberEndIndex = ExpressionParser.scanNumber(text, index);
+                if (numberEndIndex < 0)
+                {
+                    return this.fail("Missing NumberExpression fractional digit character.");
+                }
+                if (completeIndex != -1)
+                {
+                    return this.fail("Expected operator, but found number (" + text.substring(index, numberEndIndex) + ") instead.");
+                }
+
+                completeIndex = result.addNumber(FastDoubleParser.parse(text, index, numberEndIndex));
+                index = numberEndIndex;
+            }
+            else if (Expression.isVariableStartCharacter(character))
+            {
+                return this.fail("Expected number, but found variable (" + text.substring(index, ExpressionParser.scanVariable(text, index)) + ") instead. Compact expressions can't contain variables.");
+            }
+            else if (Expression.isBinaryOperatorStartCharacter(character))
+            {
+                final BinaryOperator currentOperator = BinaryOperator.get(character);
+                if (completeIndex == -1)
+                {
+                    return this.fail("Expected number, but found operator (" + currentOperator.toString() + ") instead.");
+                }
+
+                if (this.incompleteOperatorCount > 0)
+                {
+                    final int previousIndex = this.incompleteOperatorCount - 1;
+                    final BinaryOperator previousOperator = this.incompleteOperators[previousIndex];
+                    if (previousOperator.getPrecedence() >= currentOperator.getPrecedence())
+                    {
+                        completeIndex = result.addBinaryExpression(this.incompleteLeftIndexes[previousIndex], previousOperator, completeIndex);
+                        --this.incompleteOperatorCount;
+                    }
+                }
+                this.pushIncompleteExpression(completeIndex, currentOperator);
+                completeIndex = -1;
+                ++index;
+            }
+            else if (Characters.isWhitespace(character))
+            {
+                ++index;
+            }
+            else
+            {
+                return this.fail("Unrecognized expression character: " + character);
+            }
+        }
+
+        while (this.incompleteOperatorCount > 0)
+        {
+            final int incompleteIndex = --this.incompleteOperatorCount;
+            final int leftIndex = this.incompleteLeftIndexes[incompleteIndex];
+            final BinaryOperator operator = this.incompleteOperators[incompleteIndex];
+            if (completeIndex == -1)
+            {
+                final MutableBinaryExpression incompleteExpression = MutableBinaryExpression.create()
+                    .setLeftExpression(result.toExpression(leftIndex))
+                    .setOperator(operator);
+                return this.fail("Missing right-hand side number for " + incompleteExpression.toString() + ".");
+            }
+            completeIndex = result.addBinaryExpression(leftIndex, operator, completeIndex);
+        }
+
+        PostCondition.assertTrue(completeIndex == result.getRootIndex(), "completeIndex == result.getRootIndex()");
+
+        return true;
+    }
+
+    /**
+     * Get the index after the end of the number that starts at the provided index.
+     * @param text The text that contains the number.
+     * @param startIndex The index of the number's first character.
+     * @return The index after the end of the number, or -1 if the number ends with a decimal point
+     * at the end of the text.
+     */
+    static int scanNumber(String text, int startIndex)
+    {
+        final int length = text.length();
+
+        int index = startIndex;
+        while (index < length && Characters.isDigit(text.charAt(index)))
+        {
+            ++index;
+        }
+
+        if (index < length && text.charAt(index) == '.')
+        {
+            ++index;
+
+            if (index == length)
+            {
+                return -1;
+            }
+
+            while (index < length && Characters.isDigit(text.charAt(index)))
+            {
+                ++index;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Get the index after the end of the variable name that starts at the provided index. A
+     * variable name is a letter or underscore followed by any number of letters, digits, and
+     * underscores.
+     * @param text The text that contains the variable name.
+     * @param startIndex The index of the variable name's first character.
+     * @return The index after the end of the variable name.
+     */
+    static int scanVariable(String text, int startIndex)
+    {
+        final int length = text.length();
+
+        int index = startIndex + 1;
+        while (index < length && (text.charAt(index) == '_' || Characters.isLetterOrDigit(text.charAt(index))))
+        {
+            ++index;
+        }
+
+        return index;
+    }
+
+    private void pushIncompleteExpression(MutableBinaryExpression incompleteExpression)
+    {
+        if (this.incompleteExpressionCount == this.incompleteExpressions.length)
+        {
+            this.incompleteExpressions = java.util.Arrays.copyOf(this.incompleteExpressions, this.incompleteExpressions.length * 2);
+        }
+        this.incompleteExpressions[this.incompleteExpressionCount++] = incompleteExpression;
+    }
+
+    private void pushIncompleteExpression(int leftIndex, BinaryOperator operator)
+    {
+        if (this.incompleteOperatorCount == this.incompleteLeftIndexes.length)
+        {
+            this.incompleteLeftIndexes = java.util.Arrays.copyOf(this.incompleteLeftIndexes, this.incompleteLeftIndexes.length * 2);
+            this.incompleteOperators = java.util.Arrays.copyOf(this.incompleteOperators, this.incompleteOperators.length * 2);
+        }
+        this.incompleteLeftIndexes[this.incompleteOperatorCount] = leftIndex;
+        this.incompleteOperators[this.incompleteOperatorCount] = operator;
+        ++this.incompleteOperatorCount;
+    }
+
+    private boolean fail(String error)
+    {
+        this.reset();
+        this.error = error;
+        return false;
+    }
+}
@@ -0,0 +1,336 @@
+package qub;
+
+/**
+ * A pass that rewrites long runs of the same associative operator (+ or *) into balanced trees.
+ * The parser turns a flat input like "a+b+c+..." into a chain whose depth grows with the number
+ * of terms. After rebalancing, such a chain has depth O(log n), which keeps recursive evaluation
+ * off the bottom of the call stack and gives ParallelSimplifier independent halves to work on.
+ * <p>
+ * Reassociating floating-point additions or multiplications can change how the result is
+ * rounded. By default a chain is only rebalanced when every operand is an integer number and the
+ * sum (for +) or product (for *) of the operands' absolute values is less than 2^53, because then
+ * every partial result is exactly representable and the order of the operations can't change
+ * the result. Other chains are only rebalanced when inexact rebalancing is turned on.
+ * <p>
+ * The pass uses an explicit stack, so it works on trees of any depth.
+ */
+public class ExpressionRebalancer
+{
+    private static final double exactValueLimit = 9007199254740992.0; // 2^53
+
+    private final boolean rebalanceInexactChains;
+
+    private ExpressionRebalancer(boolean rebalanceInexactChains)
+    {
+        this.rebalanceInexactChains = rebalanceInexactChains;
+    }
+
+    /**
+     * Create a new ExpressionRebalancer that only rebalances chains whose result can't be changed
+     * by rebalancing.
+     * @return The new ExpressionRebalancer.
+     */
+    public static ExpressionRebalancer create()
+    {
+        return ExpressionRebalancer.create(false);
+    }
+
+    /**
+     * Create a new ExpressionRebalancer.
+     * @param rebalanceInexactChains Whether or not chains whose rounding may change when they are
+     * reassociated will also be rebalanced.
+     * @return The new ExpressionRebalancer.
+     */
+    public static ExpressionRebalancer create(boolean rebalanceInexactChains)
+    {
+        return new ExpressionRebalancer(rebalanceInexactChains);
+    }
+
+    /**
+     * Get whether or not chains whose rounding may change when they are reassociated will also be
+     * rebalanced.
+     * @return Whether or not chains whose rounding may change when they are reassociated will also
+     * be rebalanced.
+     */
+    public boolean getRebalanceInexactChains()
+    {
+        return this.rebalanceInexactChains;
+    }
+
+    /**
+     * Get whether or not the provided operator is associative, and so can be rebalanced.
+     * @param operator The operator to check.
+     * @return Whether or not the provided operator is associative.
+     */
+    public static boolean isAssociative(BinaryOperator operator)
+    {
+        return operator == BinaryOperator.plus || operator == BinaryOperator.times;
+    }
+
+    /**
+     * Get the depth of the provided expression tree. A single number has a depth of 1.
+     * @param expression The expression to get the depth of.
+     * @return The depth of the provided expression tree.
+     */
+    public static int getDepth(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        int result = 0;
+        final java.util.ArrayDeque<Expression> expressions = new java.util.ArrayDeque<>();
+        final java.util.ArrayDeque<Integer> depths = new java.util.ArrayDeque<>();
+        expressions.push(expression);
+        depths.push(1);
+        while (!expressions.isEmpty())
+        {
+            final Expression current = expressions.pop();
+            final int depth = depths.pop();
+            result = Math.max(result, depth);
+            if (current instanceof MutableBinaryExpression)
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)current;
+                expressions.push(binaryExpression.getRightExpression());
+                depths.push(depth + 1);
+                expressions.push(binaryExpression.getLeftExpression());
+                depths.push(depth + 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rebalance the runs of associative operators in the provided expression. Subtrees that
+     * don't contain a rebalanced chain are shared with the provided expression, and the provided
+     * expression is never modified.
+     * @param expression The expression to rebalance.
+     * @return The rebalanced expression.
+     */
+    public Expression rebalance(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        // Each frame is either an expression to visit, or a note to combine the most recent
+        // results once the children of a binary expression or the operands of a chain have been
+        // visited.
+        final java.util.ArrayDeque<Frame> frames = new java.util.ArrayDeque<>();
+        final java.util.ArrayList<Expression> results = new java.util.ArrayList<>();
+        frames.push(Frame.visit(expression, null));
+        while (!frames.isEmpty())
+        {
+            final Frame frame = frames.pop();
+            if (frame.kind == Frame.visitKind)
+            {
+                this.visit(frame, frames, results);
+            }
+            else if (frame.kind == Frame.combineBinaryKind)
+            {
+                final Expression rightExpression = results.remove(results.size() - 1);
+                final Expression leftExpression = results.remove(results.size() - 1);
+                final MutableBinaryExpression binaryExpression = frame.binaryExpression;
+                results.add(leftExpression == binaryExpression.getLeftExpression() && rightExpression == binaryExpression.getRightExpression()
+                    ? binaryExpression
+                    : MutableBinaryExpression.create(leftExpression, binaryExpression.getOperator(), rightExpression));
+            }
+            else
+            {
+                final int firstOperandIndex = results.size() - frame.operandCount;
+                final Expression chain = ExpressionRebalancer.createBalancedChain(results, firstOperandIndex, results.size(), frame.binaryExpression.getOperator());
+                results.subList(firstOperandIndex, results.size()).clear();
+                results.add(chain);
+            }
+        }
+
+        final Expression result = results.get(0);
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+
+    private void visit(Frame frame, java.util.ArrayDeque<Frame> frames, java.util.List<Expression> results)
+    {
+        final Expression expression = frame.expression;
+        if (!(expression instanceof MutableBinaryExpression))
+        {
+            results.add(expression);
+        }
+        else
+        {
+            final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)expression;
+            final BinaryOperator operator = binaryExpression.getOperator();
+
+            java.util.List<Expression> operands = null;
+            BinaryOperator childChainOperator = null;
+            if (operator == frame.chainOperator)
+            {
+                // This node is inside a chain that was already found to not be rebalanceable.
+                childChainOperator = operator;
+            }
+            else if (ExpressionRebalancer.isAssociative(operator))
+            {
+                operands = ExpressionRebalancer.getOperands(binaryExpression);
+                if (!this.rebalanceInexactChains && !ExpressionRebalancer.isExact(operator, operands))
+                {
+                    operands = null;
+                    childChainOperator = operator;
+                }
+            }
+
+            if (operands != null)
+            {
+                frames.push(Frame.combineChain(binaryExpression, operands.size()));
+                for (int i = operands.size() - 1; i >= 0; --i)
+                {
+                    frames.push(Frame.visit(operands.get(i), null));
+                }
+            }
+            else
+            {
+                frames.push(Frame.combineBinary(binaryExpression));
+                frames.push(Frame.visit(binaryExpression.getRightExpression(), childChainOperator));
+                frames.push(Frame.visit(binaryExpression.getLeftExpression(), childChainOperator));
+            }
+        }
+    }
+
+    /**
+     * Get the operands of the maximal chain of the provided expression's operator that is rooted
+     * at the provided expression, in left-to-right order.
+     * @param chainRoot The root of the chain.
+     * @return The operands of the chain.
+     */
+    private static java.util.List<Expression> getOperands(MutableBinaryExpression chainRoot)
+    {
+        final BinaryOperator operator = chainRoot.getOperator();
+        final java.util.List<Expression> result = new java.util.ArrayList<>();
+        final java.util.ArrayDeque<Expression> remaining = new java.util.ArrayDeque<>();
+        remaining.push(chainRoot);
+        while (!remaining.isEmpty())
+        {
+            final Expression expression = remaining.pop();
+            if (expression instanceof MutableBinaryExpression && ((MutableBinaryExpression)expression).getOperator() == operator)
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)expression;
+                remaining.push(binaryExpression.getRightExpression());
+                remaining.push(binaryExpression.getLeftExpression());
+            }
+            else
+            {
+                result.add(expression);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get whether or not every way of associating the provided operands with the provided
+     * operator gives exactly the same result.
+     * @param operator The chain's operator.
+     * @param operands The chain's operands.
+     * @return Whether or not the chain's result doesn't depend on how it is associated.
+     */
+    private static boolean isExact(BinaryOperator operator, java.util.List<Expression> operands)
+    {
+        // Every partial result is bounded by the sum of the absolute values (for +) or the product
+        // of the non-zero absolute values (for *). If that bound is an integer below 2^53, then
+        // every partial result is an exactly representable integer. Rounding of the bound itself
+        // can't hide an overflow, because rounding never takes a value below 2^53 once it has
+        // reached it.
+        double bound = operator == BinaryOperator.plus ? 0 : 1;
+        boolean result = true;
+        for (int i = 0; result && i < operands.size(); ++i)
+        {
+            final Expression operand = operands.get(i);
+            if (!(operand instanceof NumberExpression))
+            {
+                result = false;
+            }
+            else
+            {
+                final double value = Math.abs(((NumberExpression)operand).getValue().await());
+                if (!(value < ExpressionRebalancer.exactValueLimit) || value != Math.rint(value))
+                {
+                    result = false;
+                }
+                else
+                {
+                    if (operator == BinaryOperator.plus)
+                    {
+                        bound += value;
+                    }
+                    else if (value != 0)
+                    {
+                        bound *= value;
+                    }
+                    result = bound < ExpressionRebalancer.exactValueLimit;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Expression createBalancedChain(java.util.List<Expression> operands, int startIndex, int endIndex, BinaryOperator operator)
+    {
+        final Expression result;
+        if (endIndex - startIndex == 1)
+        {
+            result = operands.get(startIndex);
+        }
+        else
+        {
+            final int middleIndex = startIndex + (endIndex - startIndex + 1) / 2;
+            result = MutableBinaryExpression.create(
+                ExpressionRebalancer.createBalancedChain(operands, startIndex, middleIndex, operator),
+                operator,
+                ExpressionRebalancer.createBalancedChain(operands, middleIndex, endIndex, operator));
+        }
+        return result;
+    }
+
+    /**
+     * A unit of work for the rebalancing pass.
+     */
+    private static class Frame
+    {
+        static final int visitKind = 0;
+        static final int combineBinaryKind = 1;
+        static final int combineChainKind = 2;
+
+        final int kind;
+        final Expression expression;
+        final BinaryOperator chainOperator;
+        final MutableBinaryExpression binaryExpression;
+        final int operandCount;
+
+        private Frame(int kind, Expression expression, BinaryOperator chainOperator, MutableBinaryExpression binaryExpression, int operandCount)
+        {
+            this.kind = kind;
+            this.expression = expression;
+            this.chainOperator = chainOperator;
+            this.binaryExpression = binaryExpression;
+            this.operandCount = operandCount;
+        }
+
+        /**
+         * Create a frame that visits the provided expression.
+         * @param expression The expression to visit.
+         * @param chainOperator The operator of the non-rebalanceable chain that the expression is
+         * a part of, or null if the expression isn't part of such a chain.
+         * @return The new frame.
+         */
+        static Frame visit(Expression expression, BinaryOperator chainOperator)
+        {
+            return new Frame(Frame.visitKind, expression, chainOperator, null, 0);
+        }
+
+        static Frame combineBinary(MutableBinaryExpression binaryExpression)
+        {
+            return new Frame(Frame.combineBinaryKind, null, null, binaryExpression, 0);
+        }
+
+        static Frame combineChain(MutableBinaryExpression chainRoot, int operandCount)
+        {
+            return new Frame(Frame.combineChainKind, null, null, chainRoot, operandCount);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package qub;
+
+/**
+ * An exception that is thrown when an expression isn't admitted for evaluation.
+ */
+public class ExpressionRejectedException extends RuntimeException
+{
+    public ExpressionRejectedException(String message)
+    {
+        super(message);
+    }
+}
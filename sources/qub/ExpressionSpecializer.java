@@ -0,0 +1,349 @@
+package qub;
+
+/**
+ * Specializes a parametrized expression for partial variable bindings. Specializing an expression
+ * replaces every bound variable with its value and folds every subtree that only depends on bound
+ * variables into a NumberExpression. What is left is the residual expression, which only contains
+ * the work that depends on the unbound variables. Residuals are cached by their binding (limited
+ * to the variables that the expression actually references), so evaluating the same expression
+ * under a few fixed bindings across many rows only folds the constant work once per binding, and
+ * each row only pays for evaluate(Expression,java.util.Map) on the residual.
+ * <p>
+ * Residuals share any subtrees that didn't change with the original expression, so neither should
+ * be modified while the ExpressionSpecializer is in use. An ExpressionSpecializer is thread-safe.
+ */
+public class ExpressionSpecializer
+{
+    private static final int defaultMaximumResidualCount = 1024;
+
+    private final Expression expression;
+    private final java.util.List<String> variableNames;
+    private final int maximumResidualCount;
+    private final java.util.concurrent.ConcurrentHashMap<java.util.Map<String,Double>,Expression> residuals;
+
+    private final java.util.concurrent.atomic.AtomicLong cacheHitCount;
+    private final java.util.concurrent.atomic.AtomicLong specializationCount;
+
+    private ExpressionSpecializer(Expression expression, int maximumResidualCount)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+        PreCondition.assertGreaterThanOrEqualTo(maximumResidualCount, 0, "maximumResidualCount");
+
+        this.expression = expression;
+        this.variableNames = java.util.Collections.unmodifiableList(ExpressionSpecializer.getVariableNames(expression));
+        this.maximumResidualCount = maximumResidualCount;
+        this.residuals = new java.util.concurrent.ConcurrentHashMap<>();
+        this.cacheHitCount = new java.util.concurrent.atomic.AtomicLong();
+        this.specializationCount = new java.util.concurrent.atomic.AtomicLong();
+    }
+
+    /**
+     * Create a new ExpressionSpecializer that caches the residuals of up to 1024 distinct
+     * bindings.
+     * @param expression The expression to specialize.
+     * @return The new ExpressionSpecializer.
+     */
+    public static ExpressionSpecializer create(Expression expression)
+    {
+        return ExpressionSpecializer.create(expression, ExpressionSpecializer.defaultMaximumResidualCount);
+    }
+
+    /**
+     * Create a new ExpressionSpecializer.
+     * @param expression The expression to specialize.
+     * @param maximumResidualCount The maximum number of distinct bindings to cache residuals for.
+     * Residuals for bindings that are seen after this limit is reached are folded every time.
+     * @return The new ExpressionSpecializer.
+     */
+    public static ExpressionSpecializer create(Expression expression, int maximumResidualCount)
+    {
+        return new ExpressionSpecializer(expression, maximumResidualCount);
+    }
+
+    /**
+     * Get the expression that this ExpressionSpecializer specializes.
+     * @return The expression that this ExpressionSpecializer specializes.
+     */
+    public Expression getExpression()
+    {
+        return this.expression;
+    }
+
+    /**
+     * Get the distinct names of the variables that this ExpressionSpecializer's expression
+     * references, in the order that they first appear.
+     * @return The names of the variables that this ExpressionSpecializer's expression references.
+     */
+    public java.util.List<String> getVariableNames()
+    {
+        return this.variableNames;
+    }
+
+    /**
+     * Get the maximum number of distinct bindings to cache residuals for.
+     * @return The maximum number of distinct bindings to cache residuals for.
+     */
+    public int getMaximumResidualCount()
+    {
+        return this.maximumResidualCount;
+    }
+
+    /**
+     * Get the number of residuals that are cached.
+     * @return The number of residuals that are cached.
+     */
+    public int getResidualCount()
+    {
+        return this.residuals.size();
+    }
+
+    /**
+     * Get the number of calls to specialize() that were served by a cached residual.
+     * @return The number of calls to specialize() that were served by a cached residual.
+     */
+    public long getCacheHitCount()
+    {
+        return this.cacheHitCount.get();
+    }
+
+    /**
+     * Get the number of times that a residual was folded from this ExpressionSpecializer's
+     * expression.
+     * @return The number of times that a residual was folded from this ExpressionSpecializer's
+     * expression.
+     */
+    public long getSpecializationCount()
+    {
+        return this.specializationCount.get();
+    }
+
+    /**
+     * Get the residual of this ExpressionSpecializer's expression for the provided binding.
+     * Variables in the binding that the expression doesn't reference are ignored, so bindings
+     * that only differ in those variables share the same residual.
+     * @param binding The values of the variables to bind. Variables that aren't in the binding
+     * stay in the residual.
+     * @return The residual expression.
+     */
+    public Expression specialize(java.util.Map<String,Double> binding)
+    {
+        PreCondition.assertNotNull(binding, "binding");
+
+        final java.util.Map<String,Double> key = new java.util.HashMap<>();
+        for (final String variableName : this.variableNames)
+        {
+            final Double value = binding.get(variableName);
+            if (value != null)
+            {
+                key.put(variableName, value);
+            }
+        }
+
+        Expression result = this.residuals.get(key);
+        if (result != null)
+        {
+            this.cacheHitCount.incrementAndGet();
+        }
+        else
+        {
+            result = ExpressionSpecializer.specialize(this.expression, key);
+            this.specializationCount.incrementAndGet();
+
+            if (this.residuals.size() < this.maximumResidualCount)
+            {
+                final Expression previousResult = this.residuals.putIfAbsent(key, result);
+                if (previousResult != null)
+                {
+                    result = previousResult;
+                }
+            }
+        }
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+
+    /**
+     * Get the residual of the provided expression for the provided binding without caching it.
+     * Every bound variable is replaced with its value, and every subtree that only depends on
+     * bound variables is folded into a NumberExpression. Subtrees that don't change are shared
+     * with the provided expression.
+     * @param expression The expression to specialize.
+     * @param binding The values of the variables to bind. Variables that aren't in the binding
+     * stay in the residual.
+     * @return The residual expression.
+     */
+    public static Expression specialize(Expression expression, java.util.Map<String,Double> binding)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+        PreCondition.assertNotNull(binding, "binding");
+
+        // Post-order traversal with explicit stacks so that deep trees don't overflow the call
+        // stack. A binary expression is visited twice: once to push its children, and once
+        // (marked as combine) to fold its already specialized children.
+        final java.util.ArrayDeque<Expression> expressions = new java.util.ArrayDeque<>();
+        final java.util.ArrayDeque<Boolean> combine = new java.util.ArrayDeque<>();
+        Expression[] residuals = new Expression[16];
+        int residualCount = 0;
+
+        expressions.push(expression);
+        combine.push(false);
+        while (!expressions.isEmpty())
+        {
+            final Expression current = expressions.pop();
+            if (combine.pop())
+            {
+                final Expression rightResidual = residuals[--residualCount];
+                residuals[residualCount] = null;
+                final Expression leftResidual = residuals[residualCount - 1];
+                residuals[residualCount - 1] = ((MutableBinaryExpression)current).simplify(leftResidual, rightResidual);
+            }
+            else if (current instanceof MutableBinaryExpression)
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)current;
+                expressions.push(binaryExpression);
+                combine.push(true);
+                expressions.push(binaryExpression.getRightExpression());
+                combine.push(false);
+                expressions.push(binaryExpression.getLeftExpression());
+                combine.push(false);
+            }
+            else
+            {
+                Expression residual;
+                if (current instanceof VariableExpression)
+                {
+                    final Double value = binding.get(((VariableExpression)current).getName());
+                    residual = value == null ? current : NumberExpression.create(value);
+                }
+                else
+                {
+                    residual = current.simplify();
+                }
+
+                if (residualCount == residuals.length)
+                {
+                    residuals = java.util.Arrays.copyOf(residuals, residuals.length * 2);
+                }
+                residuals[residualCount++] = residual;
+            }
+        }
+        final Expression result = residuals[0];
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+
+    /**
+     * Get the distinct names of the variables that the provided expression references, in the
+     * order that they first appear.
+     * @param expression The expression to get the variable names of.
+     * @return The names of the variables that the provided expression references.
+     */
+    public static java.util.List<String> getVariableNames(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        final java.util.LinkedHashSet<String> result = new java.util.LinkedHashSet<>();
+        final java.util.ArrayDeque<Expression> expressions = new java.util.ArrayDeque<>();
+        expressions.push(expression);
+        while (!expressions.isEmpty())
+        {
+            final Expression current = expressions.pop();
+            if (current instanceof MutableBinaryExpression)
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)current;
+                expressions.push(binaryExpression.getRightExpression());
+                expressions.push(binaryExpression.getLeftExpression());
+            }
+            else if (current instanceof VariableExpression)
+            {
+                result.add(((VariableExpression)current).getName());
+            }
+        }
+        return new java.util.ArrayList<>(result);
+    }
+
+    /**
+     * Evaluate the provided residual expression with the provided values for its remaining
+     * variables. This doesn't build any new expressions, so it is meant to be called once
+     * per row on a residual that was returned by specialize().
+     * @param residual The residual expression to evaluate.
+     * @param values The values of the residual's remaining variables.
+     * @return The numeric value of the residual expression.
+     */
+    public static double evaluate(Expression residual, java.util.Map<String,Double> values)
+    {
+        PreCondition.assertNotNull(residual, "residual");
+        PreCondition.assertNotNull(values, "values");
+
+        double result;
+        if (residual instanceof NumberExpression)
+        {
+            result = ((NumberExpression)residual).getValue().await();
+        }
+        else
+        {
+            final java.util.ArrayDeque<Expression> expressions = new java.util.ArrayDeque<>();
+            final java.util.ArrayDeque<Boolean> combine = new java.util.ArrayDeque<>();
+            double[] operands = new double[16];
+            int operandCount = 0;
+
+            expressions.push(residual);
+            combine.push(false);
+            while (!expressions.isEmpty())
+            {
+                final Expression current = expressions.pop();
+                if (combine.pop())
+                {
+                    final double rightOperand = operands[--operandCount];
+                    final double leftOperand = operands[operandCount - 1];
+                    operands[operandCount - 1] = ((MutableBinaryExpression)current).getOperator().run(leftOperand, rightOperand);
+                }
+                else if (current instanceof MutableBinaryExpression)
+                {
+                    final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)current;
+                    expressions.push(binaryExpression);
+                    combine.push(true);
+                    expressions.push(binaryExpression.getRightExpression());
+                    combine.push(false);
+                    expressions.push(binaryExpression.getLeftExpression());
+                    combine.push(false);
+                }
+                else
+                {
+                    final double operand;
+                    if (current instanceof VariableExpression)
+                    {
+                        final String variableName = ((VariableExpression)current).getName();
+                        final Double value = values.get(variableName);
+                        if (value == null)
+                        {
+                            throw new IllegalArgumentException("The variable " + Strings.escapeAndQuote(variableName) + " doesn't have a value.");
+                        }
+                        operand = value;
+                    }
+                    else
+                    {
+                        final Expression simplifiedExpression = current.simplify();
+                        if (!(simplifiedExpression instanceof NumberExpression))
+                        {
+                            throw new IllegalArgumentException("The expression " + Strings.escapeAndQuote(current.toString()) + " doesn't simplify to a number.");
+                        }
+                        operand = ((NumberExpression)simplifiedExpression).getValue().await();
+                    }
+
+                    if (operandCount == operands.length)
+                    {
+                        operands = java.util.Arrays.copyOf(operands, operands.length * 2);
+                    }
+                    operands[operandCount++] = operand;
+                }
+            }
+            result = operands[0];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,468 @@
+package qub;
+
+/**
+ * A decimal-to-double converter that parses numbers in place from character or byte ranges
+ * without creating a String. Numbers with up to 19 significant digits are converted with
+ * Clinger's exact fast path when possible and with the Eisel-Lemire algorithm otherwise. Both
+ * produce exactly the same bits as Double.parseDouble(). Anything else (more than 19 significant
+ * digits or text that isn't a plain decimal number) falls back to Double.parseDouble().
+ * <p>
+ * The recognized format is an optional sign, digits with an optional decimal point (at least one
+ * digit is required), and an optional exponent ('e' or 'E', an optional sign, and digits).
+ */
+public final class FastDoubleParser
+{
+    private static final int maximumSignificantDigits = 19;
+    private static final int smallestPowerOfTen = -342;
+    private static final int largestPowerOfTen = 308;
+    private static final int mantissaExplicitBits = 52;
+    private static final int minimumExponent = -1023;
+    private static final int infinitePower = 0x7FF;
+    private static final int minimumExponentRoundToEven = -4;
+    private static final int maximumExponentRoundToEven = 23;
+    private static final long maximumExactMantissa = 1L << 53;
+    private static final int maximumExactPowerOfTen = 22;
+
+    private static final double[] exactPowersOfTen = FastDoubleParser.createExactPowersOfTen();
+
+    /**
+     * The 128-bit truncated (or, for negative powers, rounded up) significands of the powers of
+     * five from 5^-342 to 5^308. Each power takes two entries: the high 64 bits followed by the
+     * low 64 bits.
+     */
+    private static final long[] powersOfFive = FastDoubleParser.createPowersOfFive();
+
+    private static final java.lang.invoke.VarHandle littleEndianLongs = java.lang.invoke.MethodHandles.byteArrayViewVarHandle(long[].class, java.nio.ByteOrder.LITTLE_ENDIAN);
+
+    private FastDoubleParser()
+    {
+    }
+
+    private static double[] createExactPowersOfTen()
+    {
+        final double[] result = new double[FastDoubleParser.maximumExactPowerOfTen + 1];
+        double powerOfTen = 1;
+        for (int i = 0; i < result.length; ++i)
+        {
+            result[i] = powerOfTen;
+            powerOfTen *= 10;
+        }
+        return result;
+    }
+
+    private static long[] createPowersOfFive()
+    {
+        final java.math.BigInteger two128 = java.math.BigInteger.ONE.shiftLeft(128);
+        final java.math.BigInteger two127 = java.math.BigInteger.ONE.shiftLeft(127);
+        final java.math.BigInteger five = java.math.BigInteger.valueOf(5);
+        final java.math.BigInteger lowMask = java.math.BigInteger.ONE.shiftLeft(64).subtract(java.math.BigInteger.ONE);
+
+        final int powerCount = FastDoubleParser.largestPowerOfTen - FastDoubleParser.smallestPowerOfTen + 1;
+        final long[] result = new long[2 * powerCount];
+        for (int q = FastDoubleParser.smallestPowerOfTen; q <= FastDoubleParser.largestPowerOfTen; ++q)
+        {
+            java.math.BigInteger significand;
+            if (q < 0)
+            {
+                final java.math.BigInteger powerOfFive = five.pow(-q);
+                final int z = powerOfFive.bitLength();
+                final int b = q >= -27 ? z + 127 : 2 * z + 128;
+                significand = java.math.BigInteger.ONE.shiftLeft(b).divide(powerOfFive).add(java.math.BigInteger.ONE);
+                while (significand.compareTo(two128) >= 0)
+                {
+                    significand = significand.shiftRight(1);
+                }
+            }
+            else
+            {
+                significand = five.pow(q);
+                while (significand.compareTo(two127) < 0)
+                {
+                    significand = significand.shiftLeft(1);
+                }
+                while (significand.compareTo(two128) >= 0)
+                {
+                    significand = significand.shiftRight(1);
+                }
+            }
+
+            final int index = 2 * (q - FastDoubleParser.smallestPowerOfTen);
+            result[index] = significand.shiftRight(64).longValue();
+            result[index + 1] = significand.and(lowMask).longValue();
+        }
+        return result;
+    }
+
+    /**
+     * Parse the number in the provided range of the provided text.
+     * @param text The text that contains the number.
+     * @param startIndex The index of the first character of the number.
+     * @param endIndex The index after the last character of the number.
+     * @return The parsed number.
+     * @throws NumberFormatException If the range doesn't contain a valid number.
+     */
+    public static double parse(CharSequence text, int startIndex, int endIndex)
+    {
+        PreCondition.assertNotNull(text, "text");
+        PreCondition.assertBetween(0, startIndex, endIndex, "startIndex");
+        PreCondition.assertBetween(startIndex, endIndex, text.length(), "endIndex");
+
+        int index = startIndex;
+        boolean negative = false;
+        if (index < endIndex && (text.charAt(index) == '-' || text.charAt(index) == '+'))
+        {
+            negative = text.charAt(index) == '-';
+            ++index;
+        }
+
+        long mantissa = 0;
+        int significantDigitCount = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+
+        while (index < endIndex)
+        {
+            final int digit = text.charAt(index) - '0';
+            if (digit < 0 || 9 < digit)
+            {
+                break;
+            }
+            hasDigits = true;
+            if (mantissa != 0 || digit != 0)
+            {
+                mantissa = mantissa * 10 + digit;
+                ++significantDigitCount;
+            }
+            ++index;
+        }
+
+        if (index < endIndex && text.charAt(index) == '.')
+        {
+            ++index;
+            while (index < endIndex)
+            {
+                final int digit = text.charAt(index) - '0';
+                if (digit < 0 || 9 < digit)
+                {
+                    break;
+                }
+                hasDigits = true;
+                if (mantissa != 0 || digit != 0)
+                {
+                    mantissa = mantissa * 10 + digit;
+                    ++significantDigitCount;
+                }
+                --exponent;
+                ++index;
+            }
+        }
+
+        boolean valid = hasDigits && significantDigitCount <= FastDoubleParser.maximumSignificantDigits;
+        if (valid && index < endIndex && (text.charAt(index) == 'e' || text.charAt(index) == 'E'))
+        {
+            ++index;
+            boolean negativeExponent = false;
+            if (index < endIndex && (text.charAt(index) == '-' || text.charAt(index) == '+'))
+            {
+                negativeExponent = text.charAt(index) == '-';
+                ++index;
+            }
+
+            valid = false;
+            int explicitExponent = 0;
+            while (index < endIndex)
+            {
+                final int digit = text.charAt(index) - '0';
+                if (digit < 0 || 9 < digit)
+                {
+                    break;
+                }
+                valid = true;
+                if (explicitExponent < 100000)
+                {
+                    explicitExponent = explicitExponent * 10 + digit;
+                }
+                ++index;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        return valid && index == endIndex
+            ? FastDoubleParser.toDouble(negative, mantissa, exponent)
+            : Double.parseDouble(text.subSequence(startIndex, endIndex).toString());
+    }
+
+    /**
+     * Parse the number in the provided range of the provided ASCII bytes. Runs of eight digits
+     * are converted eight at a time.
+     * @param bytes The bytes that contain the number.
+     * @param startIndex The index of the first byte of the number.
+     * @param endIndex The index after the last byte of the number.
+     * @return The parsed number.
+     * @throws NumberFormatException If the range doesn't contain a valid number.
+     */
+    public static double parse(byte[] bytes, int startIndex, int endIndex)
+    {
+        PreCondition.assertNotNull(bytes, "bytes");
+        PreCondition.assertBetween(0, startIndex, endIndex, "startIndex");
+        PreCondition.assertBetween(startIndex, endIndex, bytes.length, "endIndex");
+
+        int index = startIndex;
+        boolean negative = false;
+        if (index < endIndex && (bytes[index] == '-' || bytes[index] == '+'))
+        {
+            negative = bytes[index] == '-';
+            ++index;
+        }
+
+        long mantissa = 0;
+        int significantDigitCount = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+
+        for (int part = 0; part < 2; ++part)
+        {
+            final boolean fraction = part == 1;
+            if (fraction)
+            {
+                if (index < endIndex && bytes[index] == '.')
+                {
+                    ++index;
+                }
+                else
+                {
+                    break;
+                }
+            }
+
+            while (significantDigitCount <= FastDoubleParser.maximumSignificantDigits - 8 &&
+                endIndex - index >= 8 &&
+                FastDoubleParser.isEightDigits((long)FastDoubleParser.littleEndianLongs.get(bytes, index)))
+            {
+                final int eightDigits = FastDoubleParser.parseEightDigits((long)FastDoubleParser.littleEndianLongs.get(bytes, index));
+                if (mantissa != 0)
+                {
+                    significantDigitCount += 8;
+                }
+                else if (eightDigits != 0)
+                {
+                    significantDigitCount = FastDoubleParser.getDigitCount(eightDigits);
+                }
+                mantissa = mantissa * 100000000L + eightDigits;
+                hasDigits = true;
+                if (fraction)
+                {
+                    exponent -= 8;
+                }
+                index += 8;
+            }
+
+            while (index < endIndex)
+            {
+                final int digit = bytes[index] - '0';
+                if (digit < 0 || 9 < digit)
+                {
+                    break;
+                }
+                hasDigits = true;
+                if (mantissa != 0 || digit != 0)
+                {
+                    mantissa = mantissa * 10 + digit;
+                    ++significantDigitCount;
+                }
+                if (fraction)
+                {
+                    --exponent;
+                }
+                ++index;
+            }
+        }
+
+        boolean valid = hasDigits && significantDigitCount <= FastDoubleParser.maximumSignificantDigits;
+        if (valid && index < endIndex && (bytes[index] == 'e' || bytes[index] == 'E'))
+        {
+            ++index;
+            boolean negativeExponent = false;
+            if (index < endIndex && (bytes[index] == '-' || bytes[index] == '+'))
+            {
+                negativeExponent = bytes[index] == '-';
+                ++index;
+            }
+
+            valid = false;
+            int explicitExponent = 0;
+            while (index < endIndex)
+            {
+                final int digit = bytes[index] - '0';
+                if (digit < 0 || 9 < digit)
+                {
+                    break;
+                }
+                valid = true;
+                if (explicitExponent < 100000)
+                {
+                    explicitExponent = explicitExponent * 10 + digit;
+                }
+                ++index;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        return valid && index == endIndex
+            ? FastDoubleParser.toDouble(negative, mantissa, exponent)
+            : Double.parseDouble(new String(bytes, startIndex, endIndex - startIndex, java.nio.charset.StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Get whether or not all eight of the little-endian bytes in the provided value are ASCII
+     * digits.
+     * @param value The eight bytes to check.
+     * @return Whether or not all eight bytes are ASCII digits.
+     */
+    static boolean isEightDigits(long value)
+    {
+        return (((value & 0xF0F0F0F0F0F0F0F0L) | (((value + 0x0606060606060606L) & 0xF0F0F0F0F0F0F0F0L) >>> 4)) == 0x3333333333333333L);
+    }
+
+    /**
+     * Convert the eight little-endian ASCII digits in the provided value to their numeric value.
+     * @param value The eight ASCII digits.
+     * @return The numeric value of the eight digits.
+     */
+    static int parseEightDigits(long value)
+    {
+        value -= 0x3030303030303030L;
+        value = (value * 10) + (value >>> 8);
+        value = (((value & 0x000000FF000000FFL) * (100 + (1000000L << 32))) +
+            (((value >>> 16) & 0x000000FF000000FFL) * (1 + (10000L << 32)))) >>> 32;
+        return (int)value;
+    }
+
+    private static int getDigitCount(int value)
+    {
+        int result = 1;
+        while (value >= 10)
+        {
+            value /= 10;
+            ++result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the double that is nearest to (-1)^negative * mantissa * 10^exponent.
+     * @param negative Whether or not the number is negative.
+     * @param mantissa The decimal significand. This must have no more than 19 digits.
+     * @param exponent The power of ten to multiply the significand by.
+     * @return The nearest double.
+     */
+    static double toDouble(boolean negative, long mantissa, int exponent)
+    {
+        final double result;
+        if (mantissa == 0 || exponent < FastDoubleParser.smallestPowerOfTen)
+        {
+            result = 0;
+        }
+        else if (exponent > FastDoubleParser.largestPowerOfTen)
+        {
+            result = Double.POSITIVE_INFINITY;
+        }
+        else if (-FastDoubleParser.maximumExactPowerOfTen <= exponent && exponent <= FastDoubleParser.maximumExactPowerOfTen &&
+            Long.compareUnsigned(mantissa, FastDoubleParser.maximumExactMantissa) <= 0)
+        {
+            // Both the significand and the power of ten are exact doubles, so a single
+            // multiplication or division rounds correctly.
+            result = exponent < 0
+                ? mantissa / FastDoubleParser.exactPowersOfTen[-exponent]
+                : mantissa * FastDoubleParser.exactPowersOfTen[exponent];
+        }
+        else
+        {
+            result = Double.longBitsToDouble(FastDoubleParser.eiselLemire(mantissa, exponent));
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Get the bits of the double that is nearest to w * 10^q with the Eisel-Lemire algorithm.
+     * @param w The non-zero decimal significand, which is treated as unsigned.
+     * @param q The power of ten, between -342 and 308.
+     * @return The bits of the nearest double.
+     */
+    private static long eiselLemire(long w, int q)
+    {
+        final int leadingZeros = Long.numberOfLeadingZeros(w);
+        w <<= leadingZeros;
+
+        final int index = 2 * (q - FastDoubleParser.smallestPowerOfTen);
+        long productHigh = FastDoubleParser.unsignedMultiplyHigh(w, FastDoubleParser.powersOfFive[index]);
+        long productLow = w * FastDoubleParser.powersOfFive[index];
+        final long precisionMask = 0xFFFFFFFFFFFFFFFFL >>> (FastDoubleParser.mantissaExplicitBits + 3);
+        if ((productHigh & precisionMask) == precisionMask)
+        {
+            final long secondProductHigh = FastDoubleParser.unsignedMultiplyHigh(w, FastDoubleParser.powersOfFive[index + 1]);
+            productLow += secondProductHigh;
+            if (Long.compareUnsigned(secondProductHigh, productLow) > 0)
+            {
+                ++productHigh;
+            }
+        }
+
+        final int upperBit = (int)(productHigh >>> 63);
+        final int shift = upperBit + 64 - FastDoubleParser.mantissaExplicitBits - 3;
+        long mantissa = productHigh >>> shift;
+        int power2 = FastDoubleParser.power(q) + upperBit - leadingZeros - FastDoubleParser.minimumExponent;
+
+        if (power2 <= 0)
+        {
+            // Subnormal (or zero) result.
+            if (-power2 + 1 >= 64)
+            {
+                return 0;
+            }
+            mantissa >>>= -power2 + 1;
+            mantissa += (mantissa & 1);
+            mantissa >>>= 1;
+            power2 = mantissa < (1L << FastDoubleParser.mantissaExplicitBits) ? 0 : 1;
+            return (((long)power2) << FastDoubleParser.mantissaExplicitBits) | (mantissa & ~(1L << FastDoubleParser.mantissaExplicitBits));
+        }
+
+        // Round to even when the value is exactly halfway between two doubles.
+        if (Long.compareUnsigned(productLow, 1) <= 0 &&
+            FastDoubleParser.minimumExponentRoundToEven <= q && q <= FastDoubleParser.maximumExponentRoundToEven &&
+            (mantissa & 3) == 1 &&
+            (mantissa << shift) == productHigh)
+        {
+            mantissa &= ~1L;
+        }
+
+        mantissa += (mantissa & 1);
+        mantissa >>>= 1;
+        if (mantissa >= (2L << FastDoubleParser.mantissaExplicitBits))
+        {
+            mantissa = 1L << FastDoubleParser.mantissaExplicitBits;
+            ++power2;
+        }
+        mantissa &= ~(1L << FastDoubleParser.mantissaExplicitBits);
+
+        if (power2 >= FastDoubleParser.infinitePower)
+        {
+            power2 = FastDoubleParser.infinitePower;
+            mantissa = 0;
+        }
+        return (((long)power2) << FastDoubleParser.mantissaExplicitBits) | mantissa;
+    }
+
+    /**
+     * Get floor(log2(10^q)) + 63.
+     */
+    private static int power(int q)
+    {
+        return (((152170 + 65536) * q) >> 16) + 63;
+    }
+
+    private static long unsignedMultiplyHigh(long x, long y)
+    {
+        return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+}
@@ -0,0 +1,144 @@
+package qub;
+
+/**
+ * A thread-safe histogram of latencies in nanoseconds. Latencies are counted in log-linear
+ * buckets: every power of two range is split into 16 equal sub-buckets, so a reported percentile
+ * is never more than 1/16th (6.25%) larger than the real value. Recording a latency is a single
+ * atomic increment and doesn't allocate.
+ */
+public class LatencyHistogram
+{
+    private static final int subBucketBits = 4;
+    private static final int subBucketCount = 1 << LatencyHistogram.subBucketBits;
+    private static final int bucketCount = (Long.SIZE - LatencyHistogram.subBucketBits + 1) * LatencyHistogram.subBucketCount;
+
+    private final java.util.concurrent.atomic.AtomicLongArray counts;
+    private final java.util.concurrent.atomic.AtomicLong totalCount;
+    private final java.util.concurrent.atomic.AtomicLong maximum;
+
+    private LatencyHistogram()
+    {
+        this.counts = new java.util.concurrent.atomic.AtomicLongArray(LatencyHistogram.bucketCount);
+        this.totalCount = new java.util.concurrent.atomic.AtomicLong();
+        this.maximum = new java.util.concurrent.atomic.AtomicLong();
+    }
+
+    /**
+     * Create a new empty LatencyHistogram.
+     * @return The new LatencyHistogram.
+     */
+    public static LatencyHistogram create()
+    {
+        return new LatencyHistogram();
+    }
+
+    /**
+     * Get the index of the bucket that the provided value is counted in.
+     * @param value The value.
+     * @return The index of the bucket that the value is counted in.
+     */
+    static int getBucketIndex(long value)
+    {
+        final int result;
+        if (value < LatencyHistogram.subBucketCount)
+        {
+            result = (int)value;
+        }
+        else
+        {
+            final int shift = (Long.SIZE - Long.numberOfLeadingZeros(value)) - LatencyHistogram.subBucketBits - 1;
+            result = ((shift + 1) << LatencyHistogram.subBucketBits) + (int)((value >>> shift) & (LatencyHistogram.subBucketCount - 1));
+        }
+        return result;
+    }
+
+    /**
+     * Get the largest value that is counted in the bucket with the provided index.
+     * @param bucketIndex The index of the bucket.
+     * @return The largest value that is counted in the bucket.
+     */
+    static long getBucketMaximum(int bucketIndex)
+    {
+        final long result;
+        if (bucketIndex < LatencyHistogram.subBucketCount)
+        {
+            result = bucketIndex;
+        }
+        else
+        {
+            final int shift = (bucketIndex >>> LatencyHistogram.subBucketBits) - 1;
+            final long subBucket = LatencyHistogram.subBucketCount + (bucketIndex & (LatencyHistogram.subBucketCount - 1));
+            result = ((subBucket + 1) << shift) - 1;
+        }
+        return result;
+    }
+
+    /**
+     * Record the provided latency.
+     * @param nanoseconds The latency in nanoseconds.
+     */
+    public void record(long nanoseconds)
+    {
+        PreCondition.assertGreaterThanOrEqualTo(nanoseconds, 0, "nanoseconds");
+
+        this.counts.incrementAndGet(LatencyHistogram.getBucketIndex(nanoseconds));
+        this.totalCount.incrementAndGet();
+        this.maximum.accumulateAndGet(nanoseconds, Math::max);
+    }
+
+    /**
+     * Get the number of latencies that have been recorded.
+     * @return The number of latencies that have been recorded.
+     */
+    public long getCount()
+    {
+        return this.totalCount.get();
+    }
+
+    /**
+     * Get the largest latency that has been recorded.
+     * @return The largest latency in nanoseconds that has been recorded, or 0 if no latencies have
+     * been recorded.
+     */
+    public long getMaximum()
+    {
+        return this.maximum.get();
+    }
+
+    /**
+     * Get the latency that the provided percentage of the recorded latencies are less than or
+     * equal to.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency in nanoseconds at the provided percentile, or 0 if no latencies have
+     * been recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        PreCondition.assertTrue(0 <= percentile && percentile <= 100, "0 <= percentile && percentile <= 100");
+
+        long result = 0;
+        final long totalCount = this.totalCount.get();
+        if (totalCount > 0)
+        {
+            final long targetCount = Math.max(1, (long)Math.ceil(totalCount * percentile / 100));
+            long count = 0;
+            for (int i = 0; i < LatencyHistogram.bucketCount; ++i)
+            {
+                count += this.counts.get(i);
+                if (count >= targetCount)
+                {
+                    result = Math.min(LatencyHistogram.getBucketMaximum(i), this.maximum.get());
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("{\"count\":%d,\"p50\":%d,\"p99\":%d,\"max\":%d}",
+            this.getCount(), this.getPercentile(50), this.getPercentile(99), this.getMaximum());
+    }
+}
@@ -5,6 +5,18 @@ public class MutableBinaryExpression implements Expression
     private Expression leftExpression;
     private BinaryOperator operator;
     private Expression rightExpression;
+    private long fingerprint;
+    private volatile boolean hasFingerprint;
+
+    /**
+     * The MutableBinaryExpressions whose cached fingerprints were computed from this
+     * expression's fingerprint. When this expression changes, their cached fingerprints (and
+     * their dependents' cached fingerprints) are cleared too. Most expressions only have one
+     * parent, so the first dependent is stored in its own field and the list is only created for
+     * subtrees that are shared between trees.
+     */
+    private MutableBinaryExpression dependent;
+    private java.util.List<MutableBinaryExpression> otherDependents;
 
     private MutableBinaryExpression()
     {
@@ -68,7 +80,10 @@ public class MutableBinaryExpression implements Expression
     {
         PreCondition.assertNotNull(leftExpression, "leftExpression");
 
+        final Expression previousLeftExpression = this.leftExpression;
         this.leftExpression = leftExpression;
+        MutableBinaryExpression.removeDependent(previousLeftExpression, this);
+        this.onChanged();
 
         return this;
     }
@@ -83,6 +98,7 @@ public class MutableBinaryExpression implements Expression
         PreCondition.assertNotNull(operator, "operator");
 
         this.operator = operator;
+        this.onChanged();
 
         return this;
     }
@@ -96,7 +112,10 @@ public class MutableBinaryExpression implements Expression
     {
         PreCondition.assertNotNull(rightExpression, "rightExpression");
 
+        final Expression previousRightExpression = this.rightExpression;
         this.rightExpression = rightExpression;
+        MutableBinaryExpression.removeDependent(previousRightExpression, this);
+        this.onChanged();
 
         return this;
     }
@@ -113,21 +132,270 @@ public class MutableBinaryExpression implements Expression
         return rhs instanceof MutableBinaryExpression && this.equals((MutableBinaryExpression)rhs);
     }
 
+    /**
+     * Get whether or not this MutableBinaryExpression has the same structure as the provided
+     * MutableBinaryExpression. The trees are compared with explicit stacks so that deep trees
+     * don't overflow the call stack.
+     * @param rhs The MutableBinaryExpression to compare to this MutableBinaryExpression.
+     * @return Whether or not this MutableBinaryExpression is equal to the provided
+     * MutableBinaryExpression.
+     */
     public boolean equals(MutableBinaryExpression rhs)
     {
-        return rhs != null &&
-            Comparer.equal(this.leftExpression, rhs.leftExpression) &&
-            Comparer.equal(this.operator, rhs.operator) &&
-            Comparer.equal(this.rightExpression, rhs.rightExpression);
+        boolean result = rhs != null;
+        if (result && rhs != this)
+        {
+            final java.util.ArrayDeque<MutableBinaryExpression> leftStack = new java.util.ArrayDeque<>();
+            final java.util.ArrayDeque<MutableBinaryExpression> rightStack = new java.util.ArrayDeque<>();
+            leftStack.push(this);
+            rightStack.push(rhs);
+            while (result && !leftStack.isEmpty())
+            {
+                final MutableBinaryExpression lhsExpression = leftStack.pop();
+                final MutableBinaryExpression rhsExpression = rightStack.pop();
+                result = Comparer.equal(lhsExpression.operator, rhsExpression.operator) &&
+                    MutableBinaryExpression.childEquals(lhsExpression.leftExpression, rhsExpression.leftExpression, leftStack, rightStack) &&
+                    MutableBinaryExpression.childEquals(lhsExpression.rightExpression, rhsExpression.rightExpression, leftStack, rightStack);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compare the provided child expressions. Pairs of MutableBinaryExpressions aren't compared
+     * here. Instead they are pushed onto the provided stacks so that the caller compares them.
+     * @param lhs The left child expression.
+     * @param rhs The right child expression.
+     * @param leftStack The stack of left MutableBinaryExpressions that still need to be compared.
+     * @param rightStack The stack of right MutableBinaryExpressions that still need to be
+     * compared.
+     * @return Whether or not the child expressions could still be equal.
+     */
+    private static boolean childEquals(Expression lhs, Expression rhs, java.util.ArrayDeque<MutableBinaryExpression> leftStack, java.util.ArrayDeque<MutableBinaryExpression> rightStack)
+    {
+        boolean result;
+        if (lhs == rhs)
+        {
+            result = true;
+        }
+        else if (lhs instanceof MutableBinaryExpression && rhs instanceof MutableBinaryExpression)
+        {
+            leftStack.push((MutableBinaryExpression)lhs);
+            rightStack.push((MutableBinaryExpression)rhs);
+            result = true;
+        }
+        else
+        {
+            result = Comparer.equal(lhs, rhs);
+        }
+        return result;
     }
 
     @Override
-    public Expression simplify()
+    public int hashCode()
     {
-        Expression result;
+        return ExpressionFingerprints.hashCode(this.getFingerprint());
+    }
+
+    /**
+     * Get the fingerprint of this expression. The fingerprint is computed with one pass over the
+     * tree the first time that it is requested, and is cached on this expression and on every
+     * MutableBinaryExpression in its tree. Changing a MutableBinaryExpression clears its cached
+     * fingerprint and the cached fingerprints of the expressions that contain it, so only those
+     * are computed again. Cached fingerprints in other trees are not affected.
+     * @return The fingerprint of this expression.
+     */
+    @Override
+    public long getFingerprint()
+    {
+        return this.hasFingerprint ? this.fingerprint : this.computeFingerprint();
+    }
 
+    /**
+     * Get whether or not this expression has a cached fingerprint.
+     * @return Whether or not this expression has a cached fingerprint.
+     */
+    boolean hasFingerprint()
+    {
+        return this.hasFingerprint;
+    }
+
+    private long computeFingerprint()
+    {
+        // Post-order traversal with explicit stacks so that deep trees don't overflow the call
+        // stack. A binary expression is visited twice: once to push its children, and once
+        // (marked as combine) to combine its children's fingerprints. A binary expression that
+        // already has a cached fingerprint isn't visited again.
+        final java.util.ArrayDeque<Expression> expressions = new java.util.ArrayDeque<>();
+        final java.util.ArrayDeque<Boolean> combine = new java.util.ArrayDeque<>();
+        long[] fingerprints = new long[16];
+        int fingerprintCount = 0;
+
+        expressions.push(this);
+        combine.push(false);
+        while (!expressions.isEmpty())
+        {
+            final Expression expression = expressions.pop();
+            if (combine.pop())
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)expression;
+                final long rightFingerprint = fingerprints[--fingerprintCount];
+                final long leftFingerprint = fingerprints[fingerprintCount - 1];
+                final long fingerprint = ExpressionFingerprints.binary(binaryExpression.getOperator(), leftFingerprint, rightFingerprint);
+                MutableBinaryExpression.addDependent(binaryExpression.getLeftExpression(), binaryExpression);
+                MutableBinaryExpression.addDependent(binaryExpression.getRightExpression(), binaryExpression);
+                binaryExpression.setFingerprint(fingerprint);
+                fingerprints[fingerprintCount - 1] = fingerprint;
+            }
+            else if (expression instanceof MutableBinaryExpression && !((MutableBinaryExpression)expression).hasFingerprint)
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)expression;
+                expressions.push(binaryExpression);
+                combine.push(true);
+                expressions.push(binaryExpression.getRightExpression());
+                combine.push(false);
+                expressions.push(binaryExpression.getLeftExpression());
+                combine.push(false);
+            }
+            else
+            {
+                if (fingerprintCount == fingerprints.length)
+                {
+                    fingerprints = java.util.Arrays.copyOf(fingerprints, fingerprints.length * 2);
+                }
+                fingerprints[fingerprintCount++] = expression.getFingerprint();
+            }
+        }
+        return fingerprints[0];
+    }
+
+    private void setFingerprint(long fingerprint)
+    {
+        this.fingerprint = fingerprint;
+        // The volatile write publishes the fingerprint to other threads.
+        this.hasFingerprint = true;
+    }
+
+    /**
+     * Record that the provided parent's cached fingerprint was computed from the provided child
+     * expression's fingerprint. Nothing is recorded for children that aren't
+     * MutableBinaryExpressions, because they can't change.
+     * @param child The child expression.
+     * @param parent The parent expression whose fingerprint depends on the child expression.
+     */
+    private static void addDependent(Expression child, MutableBinaryExpression parent)
+    {
+        if (child instanceof MutableBinaryExpression)
+        {
+            final MutableBinaryExpression binaryChild = (MutableBinaryExpression)child;
+            synchronized (binaryChild)
+            {
+                if (binaryChild.dependent == null)
+                {
+                    binaryChild.dependent = parent;
+                }
+                else if (binaryChild.dependent != parent)
+                {
+                    if (binaryChild.otherDependents == null)
+                    {
+                        binaryChild.otherDependents = new java.util.ArrayList<>();
+                    }
+                    if (!binaryChild.otherDependents.contains(parent))
+                    {
+                        binaryChild.otherDependents.add(parent);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record that the provided parent's fingerprint no longer depends on the provided child
+     * expression if the parent no longer contains it. This keeps a replaced child expression
+     * from keeping its old parent reachable.
+     * @param child The child expression that was replaced. This may be null.
+     * @param parent The parent expression that contained the child expression.
+     */
+    private static void removeDependent(Expression child, MutableBinaryExpression parent)
+    {
+        if (child instanceof MutableBinaryExpression && parent.leftExpression != child && parent.rightExpression != child)
+        {
+            final MutableBinaryExpression binaryChild = (MutableBinaryExpression)child;
+            synchronized (binaryChild)
+            {
+                if (binaryChild.dependent == parent)
+                {
+                    binaryChild.dependent = null;
+                }
+                else if (binaryChild.otherDependents != null)
+                {
+                    binaryChild.otherDependents.remove(parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clear the cached fingerprints after this expression has been changed. The cached
+     * fingerprint of this expression and of every expression that was computed from it are
+     * cleared by following the dependents up through the trees that contain this expression.
+     * An expression without a cached fingerprint has no dependents, so this costs nothing while
+     * the parser builds new trees.
+     */
+    private void onChanged()
+    {
+        if (this.hasFingerprint)
+        {
+            final java.util.ArrayDeque<MutableBinaryExpression> expressions = new java.util.ArrayDeque<>();
+            expressions.push(this);
+            while (!expressions.isEmpty())
+            {
+                final MutableBinaryExpression expression = expressions.pop();
+                synchronized (expression)
+                {
+                    if (expression.hasFingerprint)
+                    {
+                        expression.hasFingerprint = false;
+                        if (expression.dependent != null)
+                        {
+                            expressions.push(expression.dependent);
+                            expression.dependent = null;
+                        }
+                        if (expression.otherDependents != null)
+                        {
+                            for (final MutableBinaryExpression otherDependent : expression.otherDependents)
+                            {
+                                expressions.push(otherDependent);
+                            }
+                            expression.otherDependents = null;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Expression simplify()
+    {
         final Expression simplifiedLeftExpression = Expression.simplify(this.leftExpression);
         final Expression simplifiedRightExpression = Expression.simplify(this.rightExpression);
+        return this.simplify(simplifiedLeftExpression, simplifiedRightExpression);
+    }
+
+    /**
+     * Get the simplified version of this expression given the already simplified versions of its
+     * left and right expressions.
+     * @param simplifiedLeftExpression The simplified version of this expression's left
+     * expression.
+     * @param simplifiedRightExpression The simplified version of this expression's right
+     * expression.
+     * @return The simplified version of this expression.
+     */
+    Expression simplify(Expression simplifiedLeftExpression, Expression simplifiedRightExpression)
+    {
+        Expression result;
+
         if (simplifiedLeftExpression instanceof NumberExpression && simplifiedRightExpression instanceof NumberExpression)
         {
             final NumberExpression leftNumberExpression = (NumberExpression)simplifiedLeftExpression;
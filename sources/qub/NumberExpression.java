@@ -3,12 +3,18 @@ package qub;
 public class NumberExpression implements Expression
 {
     private final String text;
+    private volatile boolean hasValue;
+    private double value;
+    private volatile boolean hasFingerprint;
+    private long fingerprint;
 
-    private NumberExpression(String text)
+    private NumberExpression(String text, boolean hasValue, double value)
     {
         PreCondition.assertNotNullAndNotEmpty(text, "text");
 
         this.text = text;
+        this.hasValue = hasValue;
+        this.value = value;
     }
 
     /**
@@ -23,7 +29,7 @@ public class NumberExpression implements Expression
         {
             numberString = numberString.substring(0, numberString.length() - 2);
         }
-        return NumberExpression.create(numberString);
+        return NumberExpression.create(numberString, value);
     }
 
     /**
@@ -33,16 +39,57 @@ public class NumberExpression implements Expression
      */
     public static NumberExpression create(String text)
     {
-        return new NumberExpression(text);
+        return new NumberExpression(text, false, 0);
     }
 
     /**
-     * Get the parsed numeric value of this expression.
+     * Create a new NumberExpression from the provided String and its already parsed value.
+     * @param text The String to create a NumberExpression from.
+     * @param value The numeric value of the provided String.
+     * @return The new NumberExpression.
+     */
+    static NumberExpression create(String text, double value)
+    {
+        return new NumberExpression(text, true, value);
+    }
+
+    /**
+     * Get the parsed numeric value of this expression. The text is only parsed the first time
+     * that the value is successfully parsed.
      * @return The parsed numeric value of this expression.
      */
     public Result<Double> getValue()
     {
-        return Doubles.parse(this.text);
+        return this.hasValue
+            ? Result.success(this.value)
+            : Doubles.parse(this.text).then((Double parsedValue) ->
+            {
+                this.value = parsedValue;
+                // The volatile write publishes the value to other threads.
+                this.hasValue = true;
+                return parsedValue;
+            });
+    }
+
+    @Override
+    public long getFingerprint()
+    {
+        if (!this.hasFingerprint)
+        {
+            long fingerprint;
+            try
+            {
+                fingerprint = ExpressionFingerprints.number(this.getValue().await());
+            }
+            catch (RuntimeException e)
+            {
+                fingerprint = ExpressionFingerprints.text(this.text);
+            }
+            this.fingerprint = fingerprint;
+            // The volatile write publishes the fingerprint to other threads.
+            this.hasFingerprint = true;
+        }
+        return this.fingerprint;
     }
 
     @Override
@@ -74,4 +121,10 @@ public class NumberExpression implements Expression
             (Comparer.equal(this.text, rhs.text) ||
              Comparer.equal(this.getValue().await(), rhs.getValue().await()));
     }
+
+    @Override
+    public int hashCode()
+    {
+        return ExpressionFingerprints.hashCode(this.getFingerprint());
+    }
 }
@@ -0,0 +1,355 @@
+package qub;
+
+/**
+ * A store of parsed mathematical expressions that keeps the encoded expressions in direct
+ * (off-heap) memory so that a large catalogue of expressions doesn't add to garbage collection
+ * work. Each expression is given a formula id when it is added, and can then be evaluated by
+ * that id straight from off-heap memory.
+ * <p>
+ * Expressions are encoded in postfix order: an 8 byte header (the node count and the maximum
+ * evaluation stack depth) followed by one byte per node that holds the operator code. Number
+ * nodes are followed by their 8 byte value.
+ * <p>
+ * Reading (evaluate(), getExpression(), getFormulaCount()) is lock-free and can be done from any
+ * number of threads. Adding expressions is serialized through a single writer. A newly added
+ * expression is published to readers by the volatile write of the formula count, which happens
+ * after the expression's bytes and offset have been written.
+ * <p>
+ * The off-heap chunks stay allocated for as long as the store references them. Closing the store
+ * drops those references, so the chunks' memory is released by the next garbage collection that
+ * finds them unreachable, even if the store itself is still reachable. Evaluations that are
+ * running when the store is closed finish with the chunks that they already hold, and later reads
+ * and writes fail.
+ */
+public class OffHeapExpressionStore implements AutoCloseable
+{
+    private static final int defaultChunkSize = 64 * 1024 * 1024;
+    private static final int headerSize = 2 * Integer.BYTES;
+    private static final ThreadLocal<double[]> evaluationStacks = ThreadLocal.withInitial(() -> new double[64]);
+
+    private final int chunkSize;
+    private volatile java.nio.ByteBuffer[] chunks;
+    private volatile long[] offsets;
+    private volatile int formulaCount;
+    private volatile long byteCount;
+    private volatile boolean closed;
+
+    // The following fields are only used by the writer.
+    private int currentChunkIndex;
+    private int currentChunkPosition;
+    private final CompactExpression parsedExpression;
+    private int[] traversalStack;
+    private java.nio.ByteBuffer encodingBuffer;
+
+    private OffHeapExpressionStore(int chunkSize)
+    {
+        PreCondition.assertGreaterThanOrEqualTo(chunkSize, OffHeapExpressionStore.headerSize, "chunkSize");
+
+        this.chunkSize = chunkSize;
+        this.chunks = new java.nio.ByteBuffer[0];
+        this.offsets = new long[16];
+        this.currentChunkIndex = -1;
+        this.parsedExpression = CompactExpression.create();
+        this.traversalStack = new int[16];
+        this.encodingBuffer = OffHeapExpressionStore.allocate(1024, false);
+    }
+
+    /**
+     * Create a new empty OffHeapExpressionStore that allocates off-heap memory in 64 MB chunks.
+     * @return The new OffHeapExpressionStore.
+     */
+    public static OffHeapExpressionStore create()
+    {
+        return OffHeapExpressionStore.create(OffHeapExpressionStore.defaultChunkSize);
+    }
+
+    /**
+     * Create a new empty OffHeapExpressionStore that allocates off-heap memory in chunks of the
+     * provided size. An expression that doesn't fit in a chunk of this size gets a chunk of its
+     * own.
+     * @param chunkSize The number of bytes in each off-heap memory chunk.
+     * @return The new OffHeapExpressionStore.
+     */
+    public static OffHeapExpressionStore create(int chunkSize)
+    {
+        return new OffHeapExpressionStore(chunkSize);
+    }
+
+    private static java.nio.ByteBuffer allocate(int byteCount, boolean direct)
+    {
+        final java.nio.ByteBuffer result = direct
+            ? java.nio.ByteBuffer.allocateDirect(byteCount)
+            : java.nio.ByteBuffer.allocate(byteCount);
+        return result.order(java.nio.ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Get the number of expressions that have been added to this store.
+     * @return The number of expressions that have been added to this store.
+     */
+    public int getFormulaCount()
+    {
+        return this.formulaCount;
+    }
+
+    /**
+     * Get the number of off-heap bytes that are used by the encoded expressions in this store.
+     * @return The number of off-heap bytes that are used by the encoded expressions in this store.
+     */
+    public long getByteCount()
+    {
+        return this.byteCount;
+    }
+
+    /**
+     * Get whether or not this store has been closed.
+     * @return Whether or not this store has been closed.
+     */
+    public boolean isClosed()
+    {
+        return this.closed;
+    }
+
+    /**
+     * Drop this store's references to its off-heap chunks so that their memory can be released.
+     * Expressions can't be added to, evaluated from, or decoded from a closed store.
+     */
+    @Override
+    public synchronized void close()
+    {
+        // Mark the store as closed before the chunks are dropped. See getChunk().
+        this.closed = true;
+        this.chunks = new java.nio.ByteBuffer[0];
+        this.currentChunkIndex = -1;
+        this.currentChunkPosition = 0;
+        this.byteCount = 0;
+    }
+
+    /**
+     * Parse the provided expression text and add it to this store.
+     * @param text The expression text to parse and add.
+     * @return The formula id of the added expression.
+     */
+    public synchronized Result<Integer> add(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+        PreCondition.assertFalse(this.isClosed(), "this.isClosed()");
+
+        final ExpressionParser parser = ExpressionParser.get();
+        return parser.tryParse(text, this.parsedExpression)
+            ? Result.success(this.add(this.parsedExpression))
+            : Result.error(new ParseException(parser.getError()));
+    }
+
+    /**
+     * Encode the provided CompactExpression into this store.
+     * @param expression The CompactExpression to add.
+     * @return The formula id of the added expression.
+     */
+    public synchronized int add(CompactExpression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+        PreCondition.assertGreaterThan(expression.getNodeCount(), 0, "expression.getNodeCount()");
+        PreCondition.assertFalse(this.isClosed(), "this.isClosed()");
+
+        final java.nio.ByteBuffer encoded = this.encode(expression);
+        final int encodedLength = encoded.remaining();
+
+        if (this.currentChunkIndex == -1 || this.chunkSize - this.currentChunkPosition < encodedLength)
+        {
+            this.addChunk(Math.max(this.chunkSize, encodedLength));
+        }
+        final java.nio.ByteBuffer chunk = this.chunks[this.currentChunkIndex];
+        final int position = this.currentChunkPosition;
+        final java.nio.ByteBuffer target = chunk.duplicate();
+        target.position(position);
+        target.put(encoded);
+        this.currentChunkPosition += encodedLength;
+
+        final int result = this.formulaCount;
+        if (result == this.offsets.length)
+        {
+            this.offsets = java.util.Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        }
+        this.offsets[result] = (((long)this.currentChunkIndex) << 32) | position;
+        this.byteCount += encodedLength;
+
+        // Publish the new expression to readers.
+        this.formulaCount = result + 1;
+
+        return result;
+    }
+
+    private void addChunk(int chunkByteCount)
+    {
+        final java.nio.ByteBuffer[] newChunks = java.util.Arrays.copyOf(this.chunks, this.chunks.length + 1);
+        newChunks[newChunks.length - 1] = OffHeapExpressionStore.allocate(chunkByteCount, true);
+        this.chunks = newChunks;
+        this.currentChunkIndex = newChunks.length - 1;
+        this.currentChunkPosition = 0;
+    }
+
+    /**
+     * Encode the provided CompactExpression in postfix order into the writer's encoding buffer.
+     * @param expression The CompactExpression to encode.
+     * @return The encoding buffer, ready to be read.
+     */
+    private java.nio.ByteBuffer encode(CompactExpression expression)
+    {
+        java.nio.ByteBuffer buffer = this.encodingBuffer;
+        buffer.clear();
+        buffer.position(OffHeapExpressionStore.headerSize);
+
+        int nodeCount = 0;
+        int stackDepth = 0;
+        int maximumStackDepth = 0;
+
+        // Non-negative entries are nodes that still need to be visited. Negative entries (~index)
+        // are binary nodes whose children have already been written.
+        int traversalCount = 0;
+        this.traversalStack[traversalCount++] = expression.getRootIndex();
+        while (traversalCount > 0)
+        {
+            final int entry = this.traversalStack[--traversalCount];
+            if (buffer.remaining() < 1 + Double.BYTES)
+            {
+                buffer = this.growEncodingBuffer();
+            }
+
+            if (entry < 0)
+            {
+                buffer.put(expression.getOperatorCode(~entry));
+                ++nodeCount;
+                --stackDepth;
+            }
+            else if (expression.isNumber(entry))
+            {
+                buffer.put(CompactExpression.numberOperatorCode);
+                buffer.putDouble(expression.getNumber(entry));
+                ++nodeCount;
+                maximumStackDepth = Math.max(maximumStackDepth, ++stackDepth);
+            }
+            else
+            {
+                if (this.traversalStack.length - traversalCount < 3)
+                {
+                    this.traversalStack = java.util.Arrays.copyOf(this.traversalStack, this.traversalStack.length * 2);
+                }
+                this.traversalStack[traversalCount++] = ~entry;
+                this.traversalStack[traversalCount++] = expression.getRightIndex(entry);
+                this.traversalStack[traversalCount++] = expression.getLeftIndex(entry);
+            }
+        }
+
+        buffer.putInt(0, nodeCount);
+        buffer.putInt(Integer.BYTES, maximumStackDepth);
+        buffer.flip();
+        return buffer;
+    }
+
+    private java.nio.ByteBuffer growEncodingBuffer()
+    {
+        final java.nio.ByteBuffer newBuffer = OffHeapExpressionStore.allocate(this.encodingBuffer.capacity() * 2, false);
+        this.encodingBuffer.flip();
+        newBuffer.put(this.encodingBuffer);
+        this.encodingBuffer = newBuffer;
+        return newBuffer;
+    }
+
+    private java.nio.ByteBuffer getChunk(long offset)
+    {
+        // The chunks are read before the closed flag. close() sets the flag before it drops the
+        // chunks, so a reader that sees the dropped chunks also sees that the store is closed.
+        final java.nio.ByteBuffer[] chunks = this.chunks;
+        PreCondition.assertFalse(this.isClosed(), "this.isClosed()");
+
+        return chunks[(int)(offset >>> 32)];
+    }
+
+    private long getOffset(int formulaId)
+    {
+        PreCondition.assertBetween(0, formulaId, this.formulaCount - 1, "formulaId");
+
+        return this.offsets[formulaId];
+    }
+
+    /**
+     * Evaluate the expression with the provided formula id directly from off-heap memory.
+     * @param formulaId The formula id of the expression to evaluate.
+     * @return The numeric value of the expression.
+     */
+    public double evaluate(int formulaId)
+    {
+        final long offset = this.getOffset(formulaId);
+        final java.nio.ByteBuffer chunk = this.getChunk(offset);
+        int position = (int)offset;
+
+        final int nodeCount = chunk.getInt(position);
+        final int maximumStackDepth = chunk.getInt(position + Integer.BYTES);
+        position += OffHeapExpressionStore.headerSize;
+
+        double[] stack = OffHeapExpressionStore.evaluationStacks.get();
+        if (stack.length < maximumStackDepth)
+        {
+            stack = new double[Math.max(maximumStackDepth, stack.length * 2)];
+            OffHeapExpressionStore.evaluationStacks.set(stack);
+        }
+
+        int stackCount = 0;
+        for (int i = 0; i < nodeCount; ++i)
+        {
+            final byte operatorCode = chunk.get(position++);
+            if (operatorCode == CompactExpression.numberOperatorCode)
+            {
+                stack[stackCount++] = chunk.getDouble(position);
+                position += Double.BYTES;
+            }
+            else
+            {
+                final double rhs = stack[--stackCount];
+                final double lhs = stack[stackCount - 1];
+                stack[stackCount - 1] = CompactExpression.run(CompactExpression.getOperatorForCode(operatorCode), lhs, rhs);
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Decode the expression with the provided formula id into a new CompactExpression.
+     * @param formulaId The formula id of the expression to decode.
+     * @return The decoded expression.
+     */
+    public CompactExpression getExpression(int formulaId)
+    {
+        final long offset = this.getOffset(formulaId);
+        final java.nio.ByteBuffer chunk = this.getChunk(offset);
+        int position = (int)offset;
+
+        final int nodeCount = chunk.getInt(position);
+        final int maximumStackDepth = chunk.getInt(position + Integer.BYTES);
+        position += OffHeapExpressionStore.headerSize;
+
+        final CompactExpression result = CompactExpression.create(nodeCount);
+        final int[] stack = new int[maximumStackDepth];
+        int stackCount = 0;
+        for (int i = 0; i < nodeCount; ++i)
+        {
+            final byte operatorCode = chunk.get(position++);
+            if (operatorCode == CompactExpression.numberOperatorCode)
+            {
+                stack[stackCount++] = result.addNumber(chunk.getDouble(position));
+                position += Double.BYTES;
+            }
+            else
+            {
+                final int rightIndex = stack[--stackCount];
+                final int leftIndex = stack[stackCount - 1];
+                stack[stackCount - 1] = result.addBinaryExpression(leftIndex, CompactExpression.getOperatorForCode(operatorCode), rightIndex);
+            }
+        }
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+}
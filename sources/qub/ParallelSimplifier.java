@@ -0,0 +1,268 @@
+package qub;
+
+/**
+ * A simplifier that simplifies large expression trees on a ForkJoinPool. When both children of
+ * a MutableBinaryExpression are at least the sequential cutoff number of nodes, the children
+ * are simplified as separate fork-join tasks. Smaller subtrees are simplified sequentially with
+ * Expression.simplify().
+ * <p>
+ * Subtree sizes are estimated by counting the nodes of both children at the same time and
+ * stopping as soon as one of them is complete or both of them reach the cutoff. This keeps the
+ * cost of the estimate proportional to the smaller child, so a long unbalanced chain is walked
+ * (without recursion) in linear time. Every node is combined with exactly the same operation as
+ * MutableBinaryExpression.simplify(), so the result is identical to the sequential result no
+ * matter how many threads are used.
+ * <p>
+ * A ParallelSimplifier that created its own ForkJoinPool must be closed to stop the pool's
+ * threads.
+ */
+public class ParallelSimplifier implements AutoCloseable
+{
+    private static final int defaultSequentialCutoff = 1 << 14;
+
+    private final java.util.concurrent.ForkJoinPool pool;
+    private final int sequentialCutoff;
+    private final boolean ownsPool;
+
+    private ParallelSimplifier(java.util.concurrent.ForkJoinPool pool, int sequentialCutoff, boolean ownsPool)
+    {
+        PreCondition.assertNotNull(pool, "pool");
+        PreCondition.assertGreaterThan(sequentialCutoff, 0, "sequentialCutoff");
+
+        this.pool = pool;
+        this.sequentialCutoff = sequentialCutoff;
+        this.ownsPool = ownsPool;
+    }
+
+    /**
+     * Create a new ParallelSimplifier that runs on the common ForkJoinPool and simplifies
+     * subtrees with fewer than 16384 nodes sequentially.
+     * @return The new ParallelSimplifier.
+     */
+    public static ParallelSimplifier create()
+    {
+        return ParallelSimplifier.create(java.util.concurrent.ForkJoinPool.commonPool(), ParallelSimplifier.defaultSequentialCutoff);
+    }
+
+    /**
+     * Create a new ParallelSimplifier that runs on a new ForkJoinPool with the provided
+     * parallelism and simplifies subtrees with fewer than 16384 nodes sequentially. The
+     * ForkJoinPool is shut down when the ParallelSimplifier is closed.
+     * @param parallelism The number of threads that the new ForkJoinPool will use.
+     * @return The new ParallelSimplifier.
+     */
+    public static ParallelSimplifier create(int parallelism)
+    {
+        PreCondition.assertGreaterThan(parallelism, 0, "parallelism");
+
+        return new ParallelSimplifier(new java.util.concurrent.ForkJoinPool(parallelism), ParallelSimplifier.defaultSequentialCutoff, true);
+    }
+
+    /**
+     * Create a new ParallelSimplifier.
+     * @param pool The ForkJoinPool that the simplification tasks will run on. The caller owns the
+     * pool, so closing the ParallelSimplifier doesn't shut it down.
+     * @param sequentialCutoff The number of nodes that both children of a binary expression must
+     * have before they are simplified as separate tasks.
+     * @return The new ParallelSimplifier.
+     */
+    public static ParallelSimplifier create(java.util.concurrent.ForkJoinPool pool, int sequentialCutoff)
+    {
+        return new ParallelSimplifier(pool, sequentialCutoff, false);
+    }
+
+    /**
+     * Get the number of threads that this ParallelSimplifier's ForkJoinPool uses.
+     * @return The number of threads that this ParallelSimplifier's ForkJoinPool uses.
+     */
+    public int getParallelism()
+    {
+        return this.pool.getParallelism();
+    }
+
+    /**
+     * Get the number of nodes that both children of a binary expression must have before they
+     * are simplified as separate tasks.
+     * @return The number of nodes that both children of a binary expression must have before
+     * they are simplified as separate tasks.
+     */
+    public int getSequentialCutoff()
+    {
+        return this.sequentialCutoff;
+    }
+
+    /**
+     * Shut down this ParallelSimplifier's ForkJoinPool if this ParallelSimplifier created it.
+     * Simplifications that are already running are allowed to finish.
+     */
+    @Override
+    public void close()
+    {
+        if (this.ownsPool)
+        {
+            this.pool.shutdown();
+        }
+    }
+
+    /**
+     * Simplify the provided mathematical expression.
+     * @param expression The expression to simplify.
+     * @return The simplified version of the provided expression.
+     */
+    public Expression simplify(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        final Expression result = this.pool.invoke(new SimplifyTask(expression, this.sequentialCutoff));
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+
+    /**
+     * A fork-join task that simplifies one subtree.
+     */
+    private static class SimplifyTask extends java.util.concurrent.RecursiveTask<Expression>
+    {
+        private final Expression expression;
+        private final int sequentialCutoff;
+
+        SimplifyTask(Expression expression, int sequentialCutoff)
+        {
+            this.expression = expression;
+            this.sequentialCutoff = sequentialCutoff;
+        }
+
+        @Override
+        protected Expression compute()
+        {
+            // The binary expressions that were passed on the way down to a large child, along
+            // with the already simplified small child of each of them.
+            final java.util.ArrayDeque<MutableBinaryExpression> pendingExpressions = new java.util.ArrayDeque<>();
+            final java.util.ArrayDeque<Expression> pendingSimplifiedChildren = new java.util.ArrayDeque<>();
+            final java.util.ArrayDeque<Boolean> pendingChildIsLeft = new java.util.ArrayDeque<>();
+
+            Expression result = null;
+            Expression current = this.expression;
+            while (result == null)
+            {
+                if (!(current instanceof MutableBinaryExpression))
+                {
+                    result = current.simplify();
+                }
+                else
+                {
+                    final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)current;
+                    final Expression leftExpression = binaryExpression.getLeftExpression();
+                    final Expression rightExpression = binaryExpression.getRightExpression();
+
+                    final SubtreeCounter leftCounter = new SubtreeCounter(leftExpression);
+                    final SubtreeCounter rightCounter = new SubtreeCounter(rightExpression);
+                    while (!leftCounter.isComplete() && !rightCounter.isComplete() &&
+                        (leftCounter.getCount() < this.sequentialCutoff || rightCounter.getCount() < this.sequentialCutoff))
+                    {
+                        leftCounter.next();
+                        rightCounter.next();
+                    }
+                    leftCounter.countUntilSmallerThan(this.sequentialCutoff, rightCounter);
+                    rightCounter.countUntilSmallerThan(this.sequentialCutoff, leftCounter);
+                    final boolean leftIsSmall = leftCounter.isComplete() && leftCounter.getCount() < this.sequentialCutoff;
+                    final boolean rightIsSmall = rightCounter.isComplete() && rightCounter.getCount() < this.sequentialCutoff;
+
+                    if (leftIsSmall && rightIsSmall)
+                    {
+                        result = binaryExpression.simplify();
+                    }
+                    else if (leftIsSmall)
+                    {
+                        pendingExpressions.push(binaryExpression);
+                        pendingSimplifiedChildren.push(leftExpression.simplify());
+                        pendingChildIsLeft.push(true);
+                        current = rightExpression;
+                    }
+                    else if (rightIsSmall)
+                    {
+                        pendingExpressions.push(binaryExpression);
+                        pendingSimplifiedChildren.push(rightExpression.simplify());
+                        pendingChildIsLeft.push(false);
+                        current = leftExpression;
+                    }
+                    else
+                    {
+                        final SimplifyTask rightTask = new SimplifyTask(rightExpression, this.sequentialCutoff);
+                        rightTask.fork();
+                        final Expression simplifiedLeftExpression = new SimplifyTask(leftExpression, this.sequentialCutoff).compute();
+                        final Expression simplifiedRightExpression = rightTask.join();
+                        result = binaryExpression.simplify(simplifiedLeftExpression, simplifiedRightExpression);
+                    }
+                }
+            }
+
+            while (!pendingExpressions.isEmpty())
+            {
+                final MutableBinaryExpression binaryExpression = pendingExpressions.pop();
+                final Expression simplifiedChild = pendingSimplifiedChildren.pop();
+                result = pendingChildIsLeft.pop()
+                    ? binaryExpression.simplify(simplifiedChild, result)
+                    : binaryExpression.simplify(result, simplifiedChild);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * An incremental count of the nodes in a subtree.
+     */
+    private static class SubtreeCounter
+    {
+        private final java.util.ArrayDeque<Expression> remaining;
+        private int count;
+
+        SubtreeCounter(Expression root)
+        {
+            this.remaining = new java.util.ArrayDeque<>();
+            this.remaining.push(root);
+        }
+
+        boolean isComplete()
+        {
+            return this.remaining.isEmpty();
+        }
+
+        int getCount()
+        {
+            return this.count;
+        }
+
+        void next()
+        {
+            final Expression expression = this.remaining.pop();
+            ++this.count;
+            if (expression instanceof MutableBinaryExpression)
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)expression;
+                this.remaining.push(binaryExpression.getRightExpression());
+                this.remaining.push(binaryExpression.getLeftExpression());
+            }
+        }
+
+        /**
+         * If the other subtree is known to have at least the provided number of nodes, keep
+         * counting this subtree until it is complete or it also has the provided number of nodes.
+         * @param limit The number of nodes to count up to.
+         * @param other The counter of the other subtree.
+         */
+        void countUntilSmallerThan(int limit, SubtreeCounter other)
+        {
+            if (other.getCount() >= limit)
+            {
+                while (!this.isComplete() && this.count < limit)
+                {
+                    this.next();
+                }
+            }
+        }
+    }
+}
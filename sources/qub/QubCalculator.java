@@ -19,11 +19,21 @@ public interface QubCalculator
         final CommandLineParameterList<String> expressionList = parameters.addPositionStringList("expression")
             .setValueName("expression")
             .setDescription("The expression to evaluate.");
+        final CommandLineParameter<String> inputFileParameter = parameters.addString("input-file")
+            .setValueName("path")
+            .setDescription("The file to evaluate one expression per line from.");
+        final CommandLineParameter<Integer> processesParameter = parameters.addInteger("processes")
+            .setValueName("count")
+            .setDescription("The number of worker processes to split the input file between. Defaults to 1.");
+        final CommandLineParameter<String> outputFormatParameter = parameters.addString("output-format")
+            .setValueName("format")
+            .setDescription("The format to print the result in: text (default), binary, or binary-with-status.");
         final CommandLineParameterVerbose verboseParameter = parameters.addVerbose(process);
         final CommandLineParameterHelp helpParameter = parameters.addHelp();
 
         final Iterable<String> expressionParts = expressionList.getValues().await();
-        helpParameter.setForceShowApplicationHelpLines(!expressionParts.any());
+        final String inputFilePath = inputFileParameter.getValue().await();
+        helpParameter.setForceShowApplicationHelpLines(!expressionParts.any() && Strings.isNullOrEmpty(inputFilePath));
 
         QubCalculatorParameters result = null;
         if (!helpParameter.showApplicationHelpLines(process).await())
@@ -32,11 +42,54 @@ public interface QubCalculator
             final VerboseCharacterToByteWriteStream verbose = verboseParameter.getVerboseCharacterToByteWriteStream().await();
 
             final String expressionString = Strings.join(' ', expressionParts);
-            result = QubCalculatorParameters.create(output, verbose, expressionString);
+            final QubCalculatorOutputFormat outputFormat = QubCalculator.parseOutputFormat(outputFormatParameter.getValue().await());
+            final Integer processCount = processesParameter.getValue().await();
+            if (processCount != null && processCount < 1)
+            {
+                throw new ParseException("Invalid --processes value: " + processCount + ". Expected a positive number of processes.");
+            }
+            result = QubCalculatorParameters.create(output, verbose, expressionString, outputFormat,
+                process.getFileSystem(),
+                Strings.isNullOrEmpty(inputFilePath) ? null : QubCalculator.getRootedPath(process, inputFilePath),
+                0,
+                -1,
+                processCount == null ? 1 : processCount);
         }
         return result;
     }
 
+    /**
+     * Parse the provided --output-format command-line value.
+     * @param text The value to parse.
+     * @return The parsed output format, or Text if the text is null or empty.
+     */
+    static QubCalculatorOutputFormat parseOutputFormat(String text)
+    {
+        return Strings.isNullOrEmpty(text)
+            ? QubCalculatorOutputFormat.Text
+            : QubCalculatorOutputFormat.parse(text).await();
+    }
+
+    /**
+     * Get the rooted form of the provided path. A relative path is relative to the provided
+     * process's current folder.
+     * @param process The process to get the current folder from.
+     * @param pathString The path to root.
+     * @return The rooted path.
+     */
+    static String getRootedPath(DesktopProcess process, String pathString)
+    {
+        PreCondition.assertNotNull(process, "process");
+        PreCondition.assertNotNullAndNotEmpty(pathString, "pathString");
+
+        Path result = Path.parse(pathString);
+        if (!result.isRooted())
+        {
+            result = process.getCurrentFolderPath().concatenate(result);
+        }
+        return result.toString();
+    }
+
     static void run(QubCalculatorParameters parameters)
     {
         PreCondition.assertNotNull(parameters, "parameters");
@@ -44,13 +97,125 @@ public interface QubCalculator
         final CharacterWriteStream output = parameters.getOutput();
         final VerboseCharacterToByteWriteStream verbose = parameters.getVerbose();
 
-        final String expressionString = parameters.getExpressionString();
+        final QubCalculatorResultWriter resultWriter = QubCalculatorResultWriter.create(output, parameters.getOutputFormat());
+
+        final String inputFilePath = parameters.getInputFilePath();
+        if (inputFilePath != null && parameters.getProcessCount() > 1)
+        {
+            QubCalculator.runInputFileShards(parameters.getFileSystem(), inputFilePath, parameters.getProcessCount(), parameters.getOutputFormat(), output, verbose);
+        }
+        else if (inputFilePath != null)
+        {
+            QubCalculator.runInputFile(parameters.getFileSystem(), inputFilePath, parameters.getInputStartByte(), parameters.getInputEndByte(), resultWriter, verbose);
+        }
+        else
+        {
+            QubCalculator.runExpressionString(parameters.getExpressionString(), resultWriter, verbose);
+        }
+        resultWriter.flush();
+    }
+
+    static void runInputFileShards(FileSystem fileSystem, String inputFilePath, int processCount, QubCalculatorOutputFormat outputFormat, CharacterWriteStream output, VerboseCharacterToByteWriteStream verbose)
+    {
+        PreCondition.assertNotNull(fileSystem, "fileSystem");
+        PreCondition.assertNotNullAndNotEmpty(inputFilePath, "inputFilePath");
+        PreCondition.assertGreaterThan(processCount, 1, "processCount");
+        PreCondition.assertNotNull(outputFormat, "outputFormat");
+        PreCondition.assertNotNull(output, "output");
+        PreCondition.assertNotNull(verbose, "verbose");
+
+        verbose.writeLine("Input file: " + Strings.escapeAndQuote(inputFilePath)).await();
+        verbose.writeLine("Worker processes: " + processCount).await();
+
+        final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(processCount);
+        coordinator.run(fileSystem, inputFilePath, outputFormat, output).await();
+
+        verbose.writeLine("Worker attempts: " + coordinator.getAttemptCount() + " (" + coordinator.getFailedAttemptCount() + " failed)").await();
+    }
+
+    static void runInputFile(FileSystem fileSystem, String inputFilePath, long inputStartByte, long inputEndByte, QubCalculatorResultWriter resultWriter, VerboseCharacterToByteWriteStream verbose)
+    {
+        PreCondition.assertNotNull(fileSystem, "fileSystem");
+        PreCondition.assertNotNullAndNotEmpty(inputFilePath, "inputFilePath");
+        PreCondition.assertNotNull(resultWriter, "resultWriter");
+        PreCondition.assertNotNull(verbose, "verbose");
+
+        verbose.writeLine("Input file: " + Strings.escapeAndQuote(inputFilePath)).await();
+
+        final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create();
+        pipeline.run(fileSystem, inputFilePath, inputStartByte, inputEndByte, resultWriter).await();
+
+        verbose.writeLine("Evaluated lines: " + pipeline.getLineCount()).await();
+        verbose.writeLine("Line queue: " + pipeline.getLineQueue()).await();
+        verbose.writeLine("Parsed expression queue: " + pipeline.getParsedExpressionQueue()).await();
+        verbose.writeLine("Result queue: " + pipeline.getResultQueue()).await();
+        verbose.writeLine("Maximum reorder depth: " + pipeline.getMaximumReorderDepth()).await();
+    }
+
+    static void runExpressionString(String expressionString, QubCalculatorResultWriter resultWriter, VerboseCharacterToByteWriteStream verbose)
+    {
+        PreCondition.assertNotNullAndNotEmpty(expressionString, "expressionString");
+        PreCondition.assertNotNull(resultWriter, "resultWriter");
+        PreCondition.assertNotNull(verbose, "verbose");
+
         verbose.writeLine("Expression string: " + Strings.escapeAndQuote(expressionString)).await();
 
-        final Expression expression = Expression.parse(expressionString).await();
-        verbose.writeLine("Parsed expression: " + Strings.escapeAndQuote(expression.toString())).await();
+        final ExpressionParser parser = ExpressionParser.get();
+        if (!parser.tryParse(expressionString))
+        {
+            QubCalculator.writeError("Parse error", parser.getError(), resultWriter, verbose);
+        }
+        else
+        {
+            final Expression expression = parser.getExpression();
+            verbose.writeLine("Parsed expression: " + Strings.escapeAndQuote(expression.toString())).await();
 
-        final Expression simplifiedExpression = expression.simplify();
-        output.writeLine(simplifiedExpression.toString()).await();
+            final Expression simplifiedExpression = expression.simplify();
+            if (simplifiedExpression instanceof NumberExpression)
+            {
+                resultWriter.writeResult((NumberExpression)simplifiedExpression);
+            }
+            else
+            {
+                QubCalculator.writeError("Evaluation error", QubCalculator.getUnboundVariableError(simplifiedExpression), resultWriter, verbose);
+            }
+        }
+    }
+
+    /**
+     * Get the error for an expression that doesn't simplify to a number. Only variables keep an
+     * expression from simplifying to a number, and neither the command line nor an input file has
+     * a way to give them values.
+     * @param expression The expression that contains variables.
+     * @return The error that names the expression's first variable.
+     */
+    static String getUnboundVariableError(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        return "Unbound variable: " + ExpressionSpecializer.getVariableNames(expression).get(0);
+    }
+
+    /**
+     * Report the provided error. Output formats without a status can't show that an expression
+     * failed, so the error is thrown as a ParseException instead of being written.
+     * @param errorKind The kind of error to log in the verbose output.
+     * @param error The message that describes the error.
+     * @param resultWriter The writer to write the error to.
+     * @param verbose The stream to write verbose logs to.
+     */
+    static void writeError(String errorKind, String error, QubCalculatorResultWriter resultWriter, VerboseCharacterToByteWriteStream verbose)
+    {
+        PreCondition.assertNotNullAndNotEmpty(errorKind, "errorKind");
+        PreCondition.assertNotNullAndNotEmpty(error, "error");
+        PreCondition.assertNotNull(resultWriter, "resultWriter");
+        PreCondition.assertNotNull(verbose, "verbose");
+
+        if (!resultWriter.getFormat().hasStatus())
+        {
+            throw new ParseException(error);
+        }
+        verbose.writeLine(errorKind + ": " + error).await();
+        resultWriter.writeError(error);
     }
 }
@@ -0,0 +1,523 @@
+package qub;
+
+/**
+ * A pipeline that evaluates a stream of expressions, one per line, and writes their results in
+ * the same order as the lines. The work is split into four stages that run at the same time: a
+ * reader thread, a pool of parse threads, a pool of evaluate threads, and the writer (the thread
+ * that calls run()). The stages are connected by BoundedPipelineQueues, so when the writer can't
+ * keep up with its output stream the queues fill up and the stages before it block instead of
+ * buffering an unbounded number of lines, parsed expressions and results.
+ * <p>
+ * Because the parse and evaluate threads finish lines out of order, the writer holds results
+ * that arrive early until the results before them have been written. The reader only starts a
+ * new line when fewer than the in-flight limit of lines are between the reader and the writer,
+ * which also bounds that reorder buffer. The memory that the pipeline uses is therefore
+ * independent of the size of the input.
+ * <p>
+ * A QubCalculatorBatchPipeline can only be run once, and its queues keep their metrics after the
+ * run has finished.
+ */
+public class QubCalculatorBatchPipeline
+{
+    private static final int defaultQueueItemCapacity = 1024;
+    private static final long defaultQueueByteCapacity = 16 * 1024 * 1024;
+
+    /**
+     * The estimated number of bytes that an item takes up in addition to its text or nodes.
+     */
+    private static final int itemOverheadByteCount = 64;
+
+    private final int threadCount;
+    private final int inFlightLimit;
+    private final BoundedPipelineQueue<Item> lines;
+    private final BoundedPipelineQueue<Item> parsedExpressions;
+    private final BoundedPipelineQueue<Item> results;
+    private final java.util.concurrent.Semaphore inFlightPermits;
+    private final java.util.concurrent.atomic.AtomicReference<Throwable> failure;
+    private final java.util.List<Thread> threads;
+    private boolean hasRun;
+    private long lineCount;
+    private int maximumReorderDepth;
+
+    private QubCalculatorBatchPipeline(int threadCount, int queueItemCapacity, long queueByteCapacity)
+    {
+        PreCondition.assertGreaterThan(threadCount, 0, "threadCount");
+        PreCondition.assertGreaterThan(queueItemCapacity, 0, "queueItemCapacity");
+        PreCondition.assertGreaterThan(queueByteCapacity, 0, "queueByteCapacity");
+
+        this.threadCount = threadCount;
+        // Every queue can be full while each stage thread and the reorder buffer hold one more
+        // item, so this limit never keeps a stage from making progress.
+        this.inFlightLimit = (int)Math.min(Integer.MAX_VALUE, 4L * queueItemCapacity + 2L * threadCount);
+        this.lines = BoundedPipelineQueue.create("lines", queueItemCapacity, queueByteCapacity);
+        this.parsedExpressions = BoundedPipelineQueue.create("parsedExpressions", queueItemCapacity, queueByteCapacity);
+        this.results = BoundedPipelineQueue.create("results", queueItemCapacity, queueByteCapacity);
+        this.inFlightPermits = new java.util.concurrent.Semaphore(this.inFlightLimit);
+        this.failure = new java.util.concurrent.atomic.AtomicReference<>();
+        this.threads = new java.util.ArrayList<>();
+    }
+
+    /**
+     * Create a new QubCalculatorBatchPipeline that uses one parse thread and one evaluate thread
+     * per processor, and whose queues hold up to 1024 items and 16 MB each.
+     * @return The new QubCalculatorBatchPipeline.
+     */
+    public static QubCalculatorBatchPipeline create()
+    {
+        return QubCalculatorBatchPipeline.create(Runtime.getRuntime().availableProcessors(), QubCalculatorBatchPipeline.defaultQueueItemCapacity, QubCalculatorBatchPipeline.defaultQueueByteCapacity);
+    }
+
+    /**
+     * Create a new QubCalculatorBatchPipeline.
+     * @param threadCount The number of parse threads and the number of evaluate threads.
+     * @param queueItemCapacity The maximum number of items in each queue between two stages.
+     * @param queueByteCapacity The maximum estimated number of bytes in each queue between two
+     * stages.
+     * @return The new QubCalculatorBatchPipeline.
+     */
+    public static QubCalculatorBatchPipeline create(int threadCount, int queueItemCapacity, long queueByteCapacity)
+    {
+        return new QubCalculatorBatchPipeline(threadCount, queueItemCapacity, queueByteCapacity);
+    }
+
+    /**
+     * Get the number of parse threads and the number of evaluate threads.
+     * @return The number of parse threads and the number of evaluate threads.
+     */
+    public int getThreadCount()
+    {
+        return this.threadCount;
+    }
+
+    /**
+     * Get the maximum number of lines that can be between the reader and the writer.
+     * @return The maximum number of lines that can be between the reader and the writer.
+     */
+    public int getInFlightLimit()
+    {
+        return this.inFlightLimit;
+    }
+
+    /**
+     * Get the queue between the reader and the parse threads.
+     * @return The queue between the reader and the parse threads.
+     */
+    public BoundedPipelineQueue<?> getLineQueue()
+    {
+        return this.lines;
+    }
+
+    /**
+     * Get the queue between the parse threads and the evaluate threads.
+     * @return The queue between the parse threads and the evaluate threads.
+     */
+    public BoundedPipelineQueue<?> getParsedExpressionQueue()
+    {
+        return this.parsedExpressions;
+    }
+
+    /**
+     * Get the queue between the evaluate threads and the writer.
+     * @return The queue between the evaluate threads and the writer.
+     */
+    public BoundedPipelineQueue<?> getResultQueue()
+    {
+        return this.results;
+    }
+
+    /**
+     * Get the number of lines that have been read.
+     * @return The number of lines that have been read.
+     */
+    public long getLineCount()
+    {
+        return this.lineCount;
+    }
+
+    /**
+     * Get the largest number of results that the writer has held while it waited for an earlier
+     * result.
+     * @return The largest number of results that the writer has held at the same time.
+     */
+    public int getMaximumReorderDepth()
+    {
+        return this.maximumReorderDepth;
+    }
+
+    /**
+     * Evaluate every line of the file at the provided path, and write the results to the provided
+     * QubCalculatorResultWriter. Lines that can't be parsed are written as errors.
+     * @param fileSystem The file system to read the file from.
+     * @param inputFilePath The rooted path of the file to read the expressions from.
+     * @param resultWriter The writer to write the results to.
+     * @return The result of running this pipeline. It has a FileNotFoundException error if the
+     * file doesn't exist.
+     */
+    public Result<Void> run(FileSystem fileSystem, String inputFilePath, QubCalculatorResultWriter resultWriter)
+    {
+        return this.run(fileSystem, inputFilePath, 0, -1, resultWriter);
+    }
+
+    /**
+     * Evaluate every line in the provided byte range of the file at the provided path, and write
+     * the results to the provided QubCalculatorResultWriter. The range should start at the
+     * beginning of a line and end at the beginning of a line (or at the end of the file) so that
+     * no line is split. Lines that can't be parsed are written as errors.
+     * @param fileSystem The file system to read the file from.
+     * @param inputFilePath The rooted path of the file to read the expressions from.
+     * @param startByte The offset of the first byte to read.
+     * @param endByte The offset after the last byte to read, or -1 to read to the end of the file.
+     * @param resultWriter The writer to write the results to.
+     * @return The result of running this pipeline. It has a FileNotFoundException error if the
+     * file doesn't exist.
+     */
+    public Result<Void> run(FileSystem fileSystem, String inputFilePath, long startByte, long endByte, QubCalculatorResultWriter resultWriter)
+    {
+        PreCondition.assertNotNull(fileSystem, "fileSystem");
+        PreCondition.assertNotNullAndNotEmpty(inputFilePath, "inputFilePath");
+        PreCondition.assertGreaterThanOrEqualTo(startByte, 0, "startByte");
+        PreCondition.assertTrue(endByte == -1 || startByte <= endByte, "endByte == -1 || startByte <= endByte");
+        PreCondition.assertNotNull(resultWriter, "resultWriter");
+
+        return Result.create(() ->
+        {
+            try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.open(fileSystem, inputFilePath);
+                 final java.io.BufferedReader reader = QubCalculatorBatchPipeline.openReader(inputFile, startByte, endByte))
+            {
+                this.run(reader, resultWriter).await();
+            }
+            catch (java.io.IOException e)
+            {
+                throw new java.io.UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Open a UTF-8 reader over the provided byte range of the provided file. The bytes before the
+     * range are not read.
+     * @param inputFile The file to read.
+     * @param startByte The offset of the first byte to read.
+     * @param endByte The offset after the last byte to read, or -1 to read to the end of the file.
+     * @return The reader. Closing it doesn't close the file.
+     */
+    static java.io.BufferedReader openReader(QubCalculatorInputFile inputFile, long startByte, long endByte)
+    {
+        PreCondition.assertNotNull(inputFile, "inputFile");
+        PreCondition.assertGreaterThanOrEqualTo(startByte, 0, "startByte");
+        PreCondition.assertTrue(endByte == -1 || startByte <= endByte, "endByte == -1 || startByte <= endByte");
+
+        return new java.io.BufferedReader(new java.io.InputStreamReader(inputFile.openInputStream(startByte, endByte), java.nio.charset.StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Evaluate every line that is read from the provided reader, and write the results to the
+     * provided QubCalculatorResultWriter. Lines that can't be parsed are written as errors.
+     * @param reader The reader to read the expressions from.
+     * @param resultWriter The writer to write the results to.
+     * @return The result of running this pipeline. It has a java.io.UncheckedIOException error if
+     * the reader fails.
+     */
+    public Result<Void> run(java.io.BufferedReader reader, QubCalculatorResultWriter resultWriter)
+    {
+        PreCondition.assertNotNull(reader, "reader");
+        PreCondition.assertNotNull(resultWriter, "resultWriter");
+
+        return Result.create(() ->
+        {
+            this.run(reader, (NumberExpression result, String error) ->
+            {
+                if (error == null)
+                {
+                    resultWriter.writeResult(result);
+                }
+                else
+                {
+                    resultWriter.writeError(error);
+                }
+            });
+            resultWriter.flush();
+        });
+    }
+
+    /**
+     * Evaluate every line that is read from the provided reader, and pass the results to the
+     * provided sink in the same order as the lines.
+     * @param reader The reader to read the expressions from.
+     * @param sink The action that is given either the result of a line or the error that
+     * describes why the line couldn't be evaluated. The other argument is null.
+     */
+    void run(java.io.BufferedReader reader, Action2<NumberExpression,String> sink)
+    {
+        PreCondition.assertNotNull(reader, "reader");
+        PreCondition.assertNotNull(sink, "sink");
+        PreCondition.assertFalse(this.hasRun, "this.hasRun()");
+
+        this.hasRun = true;
+
+        final Thread writerThread = Thread.currentThread();
+        final java.util.concurrent.atomic.AtomicInteger runningParseThreads = new java.util.concurrent.atomic.AtomicInteger(this.threadCount);
+        final java.util.concurrent.atomic.AtomicInteger runningEvaluateThreads = new java.util.concurrent.atomic.AtomicInteger(this.threadCount);
+
+        this.addThread("reader", writerThread, () ->
+        {
+            try
+            {
+                long sequenceNumber = 0;
+                String line = reader.readLine();
+                while (line != null)
+                {
+                    this.inFlightPermits.acquire();
+                    this.lines.put(new Item(sequenceNumber++, line), QubCalculatorBatchPipeline.itemOverheadByteCount + 2L * line.length());
+                    line = reader.readLine();
+                }
+            }
+            finally
+            {
+                this.lines.close();
+            }
+        });
+        for (int i = 1; i <= this.threadCount; ++i)
+        {
+            this.addThread("parse " + i, writerThread, () ->
+            {
+                try
+                {
+                    final ExpressionParser parser = ExpressionParser.get();
+                    Item item = this.lines.take();
+                    while (item != null)
+                    {
+                        final CompactExpression expression = CompactExpression.create();
+                        if (parser.tryParse(item.text, expression))
+                        {
+                            item.expression = expression;
+                        }
+                        else
+                        {
+                            item.error = QubCalculatorBatchPipeline.getParseError(parser, item.text);
+                        }
+                        item.text = null;
+
+                        final long nodeByteCount = item.expression == null ? 0 : 17L * item.expression.getNodeCount();
+                        this.parsedExpressions.put(item, QubCalculatorBatchPipeline.itemOverheadByteCount + nodeByteCount);
+                        item = this.lines.take();
+                    }
+                }
+                finally
+                {
+                    if (runningParseThreads.decrementAndGet() == 0)
+                    {
+                        this.parsedExpressions.close();
+                    }
+                }
+            });
+        }
+        for (int i = 1; i <= this.threadCount; ++i)
+        {
+            this.addThread("evaluate " + i, writerThread, () ->
+            {
+                try
+                {
+                    Item item = this.parsedExpressions.take();
+                    while (item != null)
+                    {
+                        if (item.expression != null)
+                        {
+                            item.result = item.expression.simplify();
+                            item.expression = null;
+                        }
+                        this.results.put(item, QubCalculatorBatchPipeline.itemOverheadByteCount);
+                        item = this.parsedExpressions.take();
+                    }
+                }
+                finally
+                {
+                    if (runningEvaluateThreads.decrementAndGet() == 0)
+                    {
+                        this.results.close();
+                    }
+                }
+            });
+        }
+        for (final Thread thread : this.threads)
+        {
+            thread.start();
+        }
+
+        try
+        {
+            this.write(sink);
+        }
+        catch (InterruptedException e)
+        {
+            // Either a stage thread failed and interrupted the writer, in which case its failure
+            // is rethrown below, or the writer itself was interrupted.
+            this.fail(e, writerThread);
+        }
+        catch (Throwable e)
+        {
+            this.fail(e, writerThread);
+        }
+        finally
+        {
+            for (final Thread thread : this.threads)
+            {
+                thread.interrupt();
+            }
+            boolean interrupted = false;
+            for (final Thread thread : this.threads)
+            {
+                while (thread.isAlive())
+                {
+                    try
+                    {
+                        thread.join();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted || this.failure.get() != null)
+            {
+                // Clear the interrupt that a failing stage thread may have sent to the writer.
+                Thread.interrupted();
+            }
+        }
+
+        final Throwable failure = this.failure.get();
+        if (failure instanceof java.io.IOException)
+        {
+            throw new java.io.UncheckedIOException((java.io.IOException)failure);
+        }
+        else if (failure instanceof RuntimeException)
+        {
+            throw (RuntimeException)failure;
+        }
+        else if (failure instanceof Error)
+        {
+            throw (Error)failure;
+        }
+        else if (failure != null)
+        {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Get the error for a line that the provided parser couldn't parse into a CompactExpression.
+     * CompactExpressions can't contain variables, so the line is parsed again into an Expression
+     * tree to get the same error that the command line reports for it: either the line's syntax
+     * error, or the first variable that doesn't have a value.
+     * @param parser The parser that failed to parse the line.
+     * @param text The text of the line.
+     * @return The error for the line.
+     */
+    private static String getParseError(ExpressionParser parser, String text)
+    {
+        String result = parser.getError();
+        if (!parser.tryParse(text))
+        {
+            result = parser.getError();
+        }
+        else
+        {
+            final Expression expression = parser.getExpression();
+            if (!ExpressionSpecializer.getVariableNames(expression).isEmpty())
+            {
+                result = QubCalculator.getUnboundVariableError(expression);
+            }
+        }
+        return result;
+    }
+
+    private void write(Action2<NumberExpression,String> sink) throws InterruptedException
+    {
+        final java.util.HashMap<Long,Item> reorderBuffer = new java.util.HashMap<>();
+        long nextSequenceNumber = 0;
+        Item item = this.results.take();
+        while (item != null)
+        {
+            if (item.sequenceNumber != nextSequenceNumber)
+            {
+                reorderBuffer.put(item.sequenceNumber, item);
+                this.maximumReorderDepth = Math.max(this.maximumReorderDepth, reorderBuffer.size());
+            }
+            else
+            {
+                while (item != null)
+                {
+                    sink.run(item.result, item.error);
+                    this.inFlightPermits.release();
+                    ++nextSequenceNumber;
+                    item = reorderBuffer.remove(nextSequenceNumber);
+                }
+            }
+            item = this.results.take();
+        }
+        this.lineCount = nextSequenceNumber;
+
+        PostCondition.assertTrue(reorderBuffer.isEmpty() || this.failure.get() != null, "reorderBuffer.isEmpty() || failed");
+    }
+
+    private void addThread(String stageName, Thread writerThread, Stage stage)
+    {
+        final Thread thread = new Thread(() ->
+        {
+            try
+            {
+                stage.run();
+            }
+            catch (InterruptedException e)
+            {
+                // The pipeline is being stopped.
+            }
+            catch (Throwable e)
+            {
+                this.fail(e, writerThread);
+            }
+        }, "QubCalculatorBatchPipeline " + stageName);
+        thread.setDaemon(true);
+        this.threads.add(thread);
+    }
+
+    private void fail(Throwable error, Thread writerThread)
+    {
+        if (this.failure.compareAndSet(null, error))
+        {
+            writerThread.interrupt();
+            for (final Thread thread : this.threads)
+            {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * The body of a stage thread.
+     */
+    private interface Stage
+    {
+        void run() throws Exception;
+    }
+
+    /**
+     * A line of the input as it moves through the stages of the pipeline. Each stage drops the
+     * data that the later stages don't need.
+     */
+    private static class Item
+    {
+        private final long sequenceNumber;
+        private String text;
+        private CompactExpression expression;
+        private NumberExpression result;
+        private String error;
+
+        private Item(long sequenceNumber, String text)
+        {
+            this.sequenceNumber = sequenceNumber;
+            this.text = text;
+        }
+    }
+}
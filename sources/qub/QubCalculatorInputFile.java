@@ -0,0 +1,251 @@
+package qub;
+
+/**
+ * An input file that can be read at any byte offset without reading the bytes before it, so that
+ * a shard of a large file only costs the reads of its own byte range. Files in a JavaFileSystem
+ * are read with positioned reads from a java.nio.channels.FileChannel, and the file size comes
+ * from the file's metadata. A FileSystem that can't seek (such as an InMemoryFileSystem) has its
+ * file contents read into memory once when the file is opened.
+ * <p>
+ * A QubCalculatorInputFile can be read from any number of threads at the same time.
+ */
+class QubCalculatorInputFile implements AutoCloseable
+{
+    private final java.nio.channels.FileChannel channel;
+    private final byte[] contents;
+    private final long byteCount;
+    private final java.util.concurrent.atomic.AtomicLong readByteCount;
+
+    private QubCalculatorInputFile(java.nio.channels.FileChannel channel, byte[] contents, long byteCount)
+    {
+        PreCondition.assertTrue((channel == null) != (contents == null), "(channel == null) != (contents == null)");
+        PreCondition.assertGreaterThanOrEqualTo(byteCount, 0, "byteCount");
+
+        this.channel = channel;
+        this.contents = contents;
+        this.byteCount = byteCount;
+        this.readByteCount = new java.util.concurrent.atomic.AtomicLong();
+    }
+
+    /**
+     * Open the file at the provided path.
+     * @param fileSystem The file system that contains the file.
+     * @param filePath The rooted path of the file to open.
+     * @return The opened file. It must be closed when it is no longer needed.
+     * @throws FileNotFoundException If the file doesn't exist.
+     */
+    static QubCalculatorInputFile open(FileSystem fileSystem, String filePath)
+    {
+        PreCondition.assertNotNull(fileSystem, "fileSystem");
+        PreCondition.assertNotNullAndNotEmpty(filePath, "filePath");
+
+        QubCalculatorInputFile result;
+        if (fileSystem instanceof JavaFileSystem)
+        {
+            try
+            {
+                final java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(java.nio.file.Paths.get(filePath), java.nio.file.StandardOpenOption.READ);
+                result = new QubCalculatorInputFile(channel, null, channel.size());
+            }
+            catch (java.nio.file.NoSuchFileException e)
+            {
+                throw new FileNotFoundException(filePath);
+            }
+            catch (java.io.IOException e)
+            {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+        else
+        {
+            final ByteReadStream input = fileSystem.getFileContentsReadStream(filePath).await();
+            try
+            {
+                final java.io.ByteArrayOutputStream contents = new java.io.ByteArrayOutputStream();
+                final byte[] buffer = new byte[8 * 1024];
+                int bytesRead = QubCalculatorInputFile.read(input, buffer);
+                while (bytesRead != -1)
+                {
+                    contents.write(buffer, 0, bytesRead);
+                    bytesRead = QubCalculatorInputFile.read(input, buffer);
+                }
+                result = QubCalculatorInputFile.create(contents.toByteArray());
+            }
+            finally
+            {
+                input.dispose().await();
+            }
+        }
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+
+    /**
+     * Create a new QubCalculatorInputFile that reads the provided bytes.
+     * @param contents The contents of the file.
+     * @return The new QubCalculatorInputFile.
+     */
+    static QubCalculatorInputFile create(byte[] contents)
+    {
+        PreCondition.assertNotNull(contents, "contents");
+
+        return new QubCalculatorInputFile(null, contents, contents.length);
+    }
+
+    /**
+     * Get the number of bytes in this file.
+     * @return The number of bytes in this file.
+     */
+    public long getByteCount()
+    {
+        return this.byteCount;
+    }
+
+    /**
+     * Get the total number of bytes that have been read from this file.
+     * @return The total number of bytes that have been read from this file.
+     */
+    public long getReadByteCount()
+    {
+        return this.readByteCount.get();
+    }
+
+    /**
+     * Read bytes from this file, starting at the provided offset, into the provided buffer.
+     * @param position The offset in this file of the first byte to read.
+     * @param buffer The buffer to read the bytes into.
+     * @param offset The index in the buffer to write the first byte to.
+     * @param length The maximum number of bytes to read.
+     * @return The number of bytes that were read, or -1 if the position is at or after the end of
+     * this file.
+     */
+    public int read(long position, byte[] buffer, int offset, int length)
+    {
+        PreCondition.assertGreaterThanOrEqualTo(position, 0, "position");
+        PreCondition.assertNotNull(buffer, "buffer");
+        PreCondition.assertBetween(0, offset, buffer.length, "offset");
+        PreCondition.assertBetween(0, length, buffer.length - offset, "length");
+
+        int result;
+        if (position >= this.byteCount)
+        {
+            result = -1;
+        }
+        else if (this.contents != null)
+        {
+            result = (int)Math.min(length, this.byteCount - position);
+            System.arraycopy(this.contents, (int)position, buffer, offset, result);
+        }
+        else
+        {
+            try
+            {
+                result = this.channel.read(java.nio.ByteBuffer.wrap(buffer, offset, length), position);
+            }
+            catch (java.io.IOException e)
+            {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+
+        if (result > 0)
+        {
+            this.readByteCount.addAndGet(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Open an InputStream that reads the provided byte range of this file. The bytes before the
+     * range are not read.
+     * @param startByte The offset of the first byte to read.
+     * @param endByte The offset after the last byte to read, or -1 to read to the end of this
+     * file.
+     * @return The InputStream. Closing it doesn't close this file.
+     */
+    public java.io.InputStream openInputStream(long startByte, long endByte)
+    {
+        PreCondition.assertGreaterThanOrEqualTo(startByte, 0, "startByte");
+        PreCondition.assertTrue(endByte == -1 || startByte <= endByte, "endByte == -1 || startByte <= endByte");
+
+        final long rangeEnd = endByte == -1 ? this.byteCount : Math.min(endByte, this.byteCount);
+        return new RangeInputStream(this, startByte, Math.max(0, rangeEnd - startByte));
+    }
+
+    @Override
+    public void close()
+    {
+        if (this.channel != null)
+        {
+            try
+            {
+                this.channel.close();
+            }
+            catch (java.io.IOException e)
+            {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Read the next bytes from the provided stream into the provided buffer.
+     * @return The number of bytes that were read, or -1 if the end of the stream was reached.
+     */
+    private static int read(ByteReadStream input, byte[] buffer)
+    {
+        int result;
+        try
+        {
+            result = input.readBytes(buffer, 0, buffer.length).await();
+        }
+        catch (EndOfStreamException e)
+        {
+            result = -1;
+        }
+        return result;
+    }
+
+    /**
+     * An InputStream that reads a byte range of a QubCalculatorInputFile with positioned reads.
+     */
+    private static class RangeInputStream extends java.io.InputStream
+    {
+        private final QubCalculatorInputFile file;
+        private long position;
+        private long remainingByteCount;
+
+        private RangeInputStream(QubCalculatorInputFile file, long startByte, long byteCount)
+        {
+            this.file = file;
+            this.position = startByte;
+            this.remainingByteCount = byteCount;
+        }
+
+        @Override
+        public int read()
+        {
+            final byte[] buffer = new byte[1];
+            return this.read(buffer, 0, 1) == -1 ? -1 : (buffer[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+        {
+            int result = -1;
+            if (this.remainingByteCount > 0)
+            {
+                result = this.file.read(this.position, buffer, offset, (int)Math.min(length, this.remainingByteCount));
+                if (result > 0)
+                {
+                    this.position += result;
+                    this.remainingByteCount -= result;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package qub;
+
+/**
+ * The formats that QubCalculator can write its results in.
+ */
+public enum QubCalculatorOutputFormat
+{
+    /**
+     * Each result is written as text on its own line.
+     */
+    Text("text"),
+
+    /**
+     * Each result is written as a raw 8 byte little-endian double.
+     */
+    Binary("binary"),
+
+    /**
+     * Each result is written as a 1 byte status followed by a raw 8 byte little-endian double.
+     */
+    BinaryWithStatus("binary-with-status");
+
+    private final String name;
+
+    QubCalculatorOutputFormat(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Parse a QubCalculatorOutputFormat from the provided command-line name.
+     * @param text The command-line name of the output format.
+     * @return The parsed QubCalculatorOutputFormat.
+     */
+    public static Result<QubCalculatorOutputFormat> parse(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        return Result.create(() ->
+        {
+            for (final QubCalculatorOutputFormat format : QubCalculatorOutputFormat.values())
+            {
+                if (format.name.equalsIgnoreCase(text))
+                {
+                    return format;
+                }
+            }
+            throw new ParseException("Unrecognized output format: " + Strings.escapeAndQuote(text) + ". Expected text, binary, or binary-with-status.");
+        });
+    }
+
+    /**
+     * Get whether or not this format writes raw binary doubles instead of text.
+     * @return Whether or not this format writes raw binary doubles instead of text.
+     */
+    public boolean isBinary()
+    {
+        return this != QubCalculatorOutputFormat.Text;
+    }
+
+    /**
+     * Get whether or not this format writes a status byte before each result.
+     * @return Whether or not this format writes a status byte before each result.
+     */
+    public boolean hasStatus()
+    {
+        return this == QubCalculatorOutputFormat.BinaryWithStatus;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.name;
+    }
+}
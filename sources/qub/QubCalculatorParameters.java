@@ -8,16 +8,42 @@ public class QubCalculatorParameters
     private final CharacterWriteStream output;
     private final VerboseCharacterToByteWriteStream verbose;
     private final String expressionString;
+    private final QubCalculatorOutputFormat outputFormat;
+    private final FileSystem fileSystem;
+    private final String inputFilePath;
+    private final long inputStartByte;
+    private final long inputEndByte;
+    private final int processCount;
 
-    private QubCalculatorParameters(CharacterWriteStream output, VerboseCharacterToByteWriteStream verbose, String expressionString)
+    private QubCalculatorParameters(CharacterWriteStream output, VerboseCharacterToByteWriteStream verbose, String expressionString, QubCalculatorOutputFormat outputFormat, FileSystem fileSystem, String inputFilePath, long inputStartByte, long inputEndByte, int processCount)
     {
         PreCondition.assertNotNull(output, "output");
         PreCondition.assertNotNull(verbose, "verbose");
-        PreCondition.assertNotNullAndNotEmpty(expressionString, "expressionString");
+        if (inputFilePath == null)
+        {
+            PreCondition.assertNotNullAndNotEmpty(expressionString, "expressionString");
+        }
+        else
+        {
+            PreCondition.assertNotNull(fileSystem, "fileSystem");
+            PreCondition.assertNotNullAndNotEmpty(inputFilePath, "inputFilePath");
+            PreCondition.assertNotNull(expressionString, "expressionString");
+        }
+        PreCondition.assertGreaterThanOrEqualTo(inputStartByte, 0, "inputStartByte");
+        PreCondition.assertTrue(inputEndByte == -1 || inputStartByte <= inputEndByte, "inputEndByte == -1 || inputStartByte <= inputEndByte");
+        PreCondition.assertGreaterThan(processCount, 0, "processCount");
+        PreCondition.assertNotNull(outputFormat, "outputFormat");
+        PreCondition.assertTrue(!outputFormat.isBinary() || output instanceof ByteWriteStream, "!outputFormat.isBinary() || output instanceof ByteWriteStream");
 
         this.output = output;
         this.verbose = verbose;
         this.expressionString = expressionString;
+        this.outputFormat = outputFormat;
+        this.fileSystem = fileSystem;
+        this.inputFilePath = inputFilePath;
+        this.inputStartByte = inputStartByte;
+        this.inputEndByte = inputEndByte;
+        this.processCount = processCount;
     }
 
     /**
@@ -29,7 +55,64 @@ public class QubCalculatorParameters
      */
     public static QubCalculatorParameters create(CharacterWriteStream output, VerboseCharacterToByteWriteStream verbose, String expressionString)
     {
-        return new QubCalculatorParameters(output, verbose, expressionString);
+        return QubCalculatorParameters.create(output, verbose, expressionString, QubCalculatorOutputFormat.Text);
+    }
+
+    /**
+     * Create a new QubCalculatorParameters object with the provided parameters.
+     * @param output The output CharacterWriteStream where the result will be printed to. This
+     * must also be a ByteWriteStream if the output format is binary.
+     * @param verbose The VerboseCharacterWriteStream where verbose output will be written to.
+     * @param expressionString The full expression string that was passed on the command line.
+     * @param outputFormat The format that the result will be printed in.
+     * @return A new QubCalculatorParameters object.
+     */
+    public static QubCalculatorParameters create(CharacterWriteStream output, VerboseCharacterToByteWriteStream verbose, String expressionString, QubCalculatorOutputFormat outputFormat)
+    {
+        return QubCalculatorParameters.create(output, verbose, expressionString, outputFormat, null, null);
+    }
+
+    /**
+     * Create a new QubCalculatorParameters object with the provided parameters.
+     * @param output The output CharacterWriteStream where the results will be printed to. This
+     * must also be a ByteWriteStream if the output format is binary.
+     * @param verbose The VerboseCharacterWriteStream where verbose output will be written to.
+     * @param expressionString The full expression string that was passed on the command line.
+     * This can only be empty if an input file path is provided.
+     * @param outputFormat The format that the results will be printed in.
+     * @param fileSystem The file system to read the input file from. This can only be null if no
+     * input file path is provided.
+     * @param inputFilePath The rooted path of the file to evaluate one expression per line from,
+     * or null to evaluate the expression string instead.
+     * @return A new QubCalculatorParameters object.
+     */
+    public static QubCalculatorParameters create(CharacterWriteStream output, VerboseCharacterToByteWriteStream verbose, String expressionString, QubCalculatorOutputFormat outputFormat, FileSystem fileSystem, String inputFilePath)
+    {
+        return QubCalculatorParameters.create(output, verbose, expressionString, outputFormat, fileSystem, inputFilePath, 0, -1, 1);
+    }
+
+    /**
+     * Create a new QubCalculatorParameters object with the provided parameters.
+     * @param output The output CharacterWriteStream where the results will be printed to. This
+     * must also be a ByteWriteStream if the output format is binary.
+     * @param verbose The VerboseCharacterWriteStream where verbose output will be written to.
+     * @param expressionString The full expression string that was passed on the command line.
+     * This can only be empty if an input file path is provided.
+     * @param outputFormat The format that the results will be printed in.
+     * @param fileSystem The file system to read the input file from. This can only be null if no
+     * input file path is provided.
+     * @param inputFilePath The rooted path of the file to evaluate one expression per line from,
+     * or null to evaluate the expression string instead.
+     * @param inputStartByte The offset of the first byte of the input file to evaluate.
+     * @param inputEndByte The offset after the last byte of the input file to evaluate, or -1 to
+     * evaluate to the end of the file.
+     * @param processCount The number of worker processes to split the input file between, or 1
+     * to evaluate the input file in this process.
+     * @return A new QubCalculatorParameters object.
+     */
+    public static QubCalculatorParameters create(CharacterWriteStream output, VerboseCharacterToByteWriteStream verbose, String expressionString, QubCalculatorOutputFormat outputFormat, FileSystem fileSystem, String inputFilePath, long inputStartByte, long inputEndByte, int processCount)
+    {
+        return new QubCalculatorParameters(output, verbose, expressionString, outputFormat, fileSystem, inputFilePath, inputStartByte, inputEndByte, processCount);
     }
 
     /**
@@ -58,4 +141,61 @@ public class QubCalculatorParameters
     {
         return this.expressionString;
     }
+
+    /**
+     * Get the format that the result will be printed in.
+     * @return The format that the result will be printed in.
+     */
+    public QubCalculatorOutputFormat getOutputFormat()
+    {
+        return this.outputFormat;
+    }
+
+    /**
+     * Get the file system to read the input file from.
+     * @return The file system to read the input file from, or null if there is no input file.
+     */
+    public FileSystem getFileSystem()
+    {
+        return this.fileSystem;
+    }
+
+    /**
+     * Get the rooted path of the file to evaluate one expression per line from.
+     * @return The rooted path of the file to evaluate one expression per line from, or null if the
+     * expression string should be evaluated instead.
+     */
+    public String getInputFilePath()
+    {
+        return this.inputFilePath;
+    }
+
+    /**
+     * Get the offset of the first byte of the input file to evaluate.
+     * @return The offset of the first byte of the input file to evaluate.
+     */
+    public long getInputStartByte()
+    {
+        return this.inputStartByte;
+    }
+
+    /**
+     * Get the offset after the last byte of the input file to evaluate.
+     * @return The offset after the last byte of the input file to evaluate, or -1 if the input
+     * file should be evaluated to its end.
+     */
+    public long getInputEndByte()
+    {
+        return this.inputEndByte;
+    }
+
+    /**
+     * Get the number of worker processes to split the input file between.
+     * @return The number of worker processes to split the input file between, or 1 if the input
+     * file should be evaluated in this process.
+     */
+    public int getProcessCount()
+    {
+        return this.processCount;
+    }
 }
@@ -0,0 +1,206 @@
+package qub;
+
+/**
+ * A writer that collects QubCalculator results in a reusable buffer and writes them to the
+ * output stream in large batches instead of one write per result. Results that are still in the
+ * buffer are only written when the buffer fills up or when flush() is called.
+ */
+public class QubCalculatorResultWriter
+{
+    /**
+     * The status byte that is written before a successfully evaluated result.
+     */
+    public static final byte successStatus = 0;
+
+    /**
+     * The status byte that is written before the NaN placeholder of an expression that couldn't
+     * be evaluated.
+     */
+    public static final byte errorStatus = 1;
+
+    private static final int defaultBufferSize = 64 * 1024;
+    private static final int binaryResultSize = 1 + Double.BYTES;
+
+    private final CharacterWriteStream output;
+    private final QubCalculatorOutputFormat format;
+    private final int bufferSize;
+    private final StringBuilder textBuffer;
+    private final java.nio.ByteBuffer byteBuffer;
+
+    private QubCalculatorResultWriter(CharacterWriteStream output, QubCalculatorOutputFormat format, int bufferSize)
+    {
+        PreCondition.assertNotNull(output, "output");
+        PreCondition.assertNotNull(format, "format");
+        PreCondition.assertTrue(!format.isBinary() || output instanceof ByteWriteStream, "!format.isBinary() || output instanceof ByteWriteStream");
+        PreCondition.assertGreaterThanOrEqualTo(bufferSize, QubCalculatorResultWriter.binaryResultSize, "bufferSize");
+
+        this.output = output;
+        this.format = format;
+        this.bufferSize = bufferSize;
+        if (format.isBinary())
+        {
+            this.textBuffer = null;
+            this.byteBuffer = java.nio.ByteBuffer.allocate(bufferSize).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        }
+        else
+        {
+            this.textBuffer = new StringBuilder(bufferSize);
+            this.byteBuffer = null;
+        }
+    }
+
+    /**
+     * Create a new QubCalculatorResultWriter with a 64 KB buffer.
+     * @param output The stream that the results will be written to. This must also be a
+     * ByteWriteStream if the format is binary.
+     * @param format The format to write the results in.
+     * @return The new QubCalculatorResultWriter.
+     */
+    public static QubCalculatorResultWriter create(CharacterWriteStream output, QubCalculatorOutputFormat format)
+    {
+        return QubCalculatorResultWriter.create(output, format, QubCalculatorResultWriter.defaultBufferSize);
+    }
+
+    /**
+     * Create a new QubCalculatorResultWriter.
+     * @param output The stream that the results will be written to. This must also be a
+     * ByteWriteStream if the format is binary.
+     * @param format The format to write the results in.
+     * @param bufferSize The number of characters or bytes that are collected before they are
+     * written to the output stream.
+     * @return The new QubCalculatorResultWriter.
+     */
+    public static QubCalculatorResultWriter create(CharacterWriteStream output, QubCalculatorOutputFormat format, int bufferSize)
+    {
+        return new QubCalculatorResultWriter(output, format, bufferSize);
+    }
+
+    /**
+     * Get the format that this writer writes results in.
+     * @return The format that this writer writes results in.
+     */
+    public QubCalculatorOutputFormat getFormat()
+    {
+        return this.format;
+    }
+
+    /**
+     * Write the provided result. Expressions that don't simplify to a number aren't results, so
+     * they should be written with writeError() instead.
+     * @param result The result to write.
+     * @return This object for method chaining.
+     */
+    public QubCalculatorResultWriter writeResult(NumberExpression result)
+    {
+        PreCondition.assertNotNull(result, "result");
+
+        if (this.format.isBinary())
+        {
+            this.writeBinary(QubCalculatorResultWriter.successStatus, result.getValue().await());
+        }
+        else
+        {
+            this.writeText(result.toString());
+        }
+
+        return this;
+    }
+
+    /**
+     * Write a placeholder for an expression that couldn't be evaluated. Text output gets the
+     * error message on its own line. Binary output gets a NaN, preceded by the error status if
+     * the format has a status byte.
+     * @param errorMessage The message that describes why the expression couldn't be evaluated.
+     * @return This object for method chaining.
+     */
+    public QubCalculatorResultWriter writeError(String errorMessage)
+    {
+        PreCondition.assertNotNullAndNotEmpty(errorMessage, "errorMessage");
+
+        if (this.format.isBinary())
+        {
+            this.writeBinary(QubCalculatorResultWriter.errorStatus, Double.NaN);
+        }
+        else
+        {
+            this.writeText(errorMessage);
+        }
+
+        return this;
+    }
+
+    private void writeText(String line)
+    {
+        final String newLine = this.getNewLine();
+        if (this.textBuffer.length() > 0 && this.textBuffer.length() + line.length() + newLine.length() > this.bufferSize)
+        {
+            this.flush();
+        }
+        this.textBuffer.append(line).append(newLine);
+        if (this.textBuffer.length() >= this.bufferSize)
+        {
+            this.flush();
+        }
+    }
+
+    /**
+     * Get the line separator that the output stream's writeLine() writes, so that buffered text
+     * output is identical to writing each result with writeLine(). A CharacterToByteWriteStream's
+     * new line can be changed at any time, so it is read for every line.
+     */
+    private String getNewLine()
+    {
+        return this.output instanceof CharacterToByteWriteStream
+            ? ((CharacterToByteWriteStream)this.output).getNewLine()
+            : "\n";
+    }
+
+    private void writeBinary(byte status, double value)
+    {
+        if (this.byteBuffer.remaining() < QubCalculatorResultWriter.binaryResultSize)
+        {
+            this.flush();
+        }
+        if (this.format.hasStatus())
+        {
+            this.byteBuffer.put(status);
+        }
+        this.byteBuffer.putDouble(value);
+    }
+
+    /**
+     * Get the number of characters or bytes that are waiting in the buffer.
+     * @return The number of characters or bytes that are waiting in the buffer.
+     */
+    public int getBufferedCount()
+    {
+        return this.format.isBinary() ? this.byteBuffer.position() : this.textBuffer.length();
+    }
+
+    /**
+     * Write all of the buffered results to the output stream.
+     * @return This object for method chaining.
+     */
+    public QubCalculatorResultWriter flush()
+    {
+        if (this.format.isBinary())
+        {
+            final ByteWriteStream byteOutput = (ByteWriteStream)this.output;
+            final byte[] bytes = this.byteBuffer.array();
+            final int byteCount = this.byteBuffer.position();
+            int bytesWritten = 0;
+            while (bytesWritten < byteCount)
+            {
+                bytesWritten += byteOutput.write(bytes, bytesWritten, byteCount - bytesWritten).await();
+            }
+            this.byteBuffer.clear();
+        }
+        else if (this.textBuffer.length() > 0)
+        {
+            this.output.write(this.textBuffer.toString()).await();
+            this.textBuffer.setLength(0);
+        }
+
+        return this;
+    }
+}
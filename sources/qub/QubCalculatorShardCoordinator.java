@@ -0,0 +1,507 @@
+package qub;
+
+/**
+ * A coordinator that evaluates a large input file with several worker processes instead of a
+ * single JVM. The file is split into byte ranges (shards) whose boundaries are moved forward to
+ * the start of the next line, so that no line is split between two shards. Each shard is
+ * evaluated by a local QubCalculatorShardWorker process that runs the normal batch evaluation
+ * path and writes its results to its own temporary file. At most the process count of workers
+ * run at the same time.
+ * <p>
+ * A worker that exits with a non-zero exit code, or that hasn't exited when the worker timeout
+ * has passed, is stopped and started again for the same shard until the shard has failed the
+ * maximum number of attempts. Because every attempt rewrites the shard's
+ * output file from the start, a failed attempt never leaves partial results behind. The shard
+ * outputs are merged in shard order as soon as each one (and every shard before it) has finished,
+ * so the merged output is exactly the output that a single process would have written.
+ */
+public class QubCalculatorShardCoordinator
+{
+    private static final int defaultMaximumAttempts = 3;
+    private static final java.time.Duration defaultWorkerTimeout = java.time.Duration.ofHours(1);
+    private static final int copyBufferSize = 64 * 1024;
+
+    private final int processCount;
+    private final int shardCount;
+    private final int maximumAttempts;
+    private final java.time.Duration workerTimeout;
+    private final java.util.List<String> workerCommand;
+    private final java.util.concurrent.atomic.AtomicInteger attemptCount;
+    private final java.util.concurrent.atomic.AtomicInteger failedAttemptCount;
+
+    private QubCalculatorShardCoordinator(int processCount, int shardCount, int maximumAttempts, java.time.Duration workerTimeout, java.util.List<String> workerCommand)
+    {
+        PreCondition.assertGreaterThan(processCount, 0, "processCount");
+        PreCondition.assertGreaterThan(shardCount, 0, "shardCount");
+        PreCondition.assertGreaterThan(maximumAttempts, 0, "maximumAttempts");
+        PreCondition.assertNotNull(workerTimeout, "workerTimeout");
+        PreCondition.assertFalse(workerTimeout.isNegative() || workerTimeout.isZero(), "workerTimeout.isNegative() || workerTimeout.isZero()");
+        PreCondition.assertNotNullAndNotEmpty(workerCommand, "workerCommand");
+
+        this.processCount = processCount;
+        this.shardCount = shardCount;
+        this.maximumAttempts = maximumAttempts;
+        this.workerTimeout = workerTimeout;
+        this.workerCommand = new java.util.ArrayList<>(workerCommand);
+        this.attemptCount = new java.util.concurrent.atomic.AtomicInteger();
+        this.failedAttemptCount = new java.util.concurrent.atomic.AtomicInteger();
+    }
+
+    /**
+     * Create a new QubCalculatorShardCoordinator that splits the input file into one shard per
+     * process and tries each shard up to 3 times, giving each attempt up to an hour.
+     * @param processCount The number of worker processes that can run at the same time.
+     * @return The new QubCalculatorShardCoordinator.
+     */
+    public static QubCalculatorShardCoordinator create(int processCount)
+    {
+        return QubCalculatorShardCoordinator.create(processCount, processCount, QubCalculatorShardCoordinator.defaultMaximumAttempts);
+    }
+
+    /**
+     * Create a new QubCalculatorShardCoordinator that gives each attempt up to an hour.
+     * @param processCount The number of worker processes that can run at the same time.
+     * @param shardCount The number of shards to split the input file into.
+     * @param maximumAttempts The number of times that a shard is tried before it fails.
+     * @return The new QubCalculatorShardCoordinator.
+     */
+    public static QubCalculatorShardCoordinator create(int processCount, int shardCount, int maximumAttempts)
+    {
+        return QubCalculatorShardCoordinator.create(processCount, shardCount, maximumAttempts, QubCalculatorShardCoordinator.defaultWorkerTimeout);
+    }
+
+    /**
+     * Create a new QubCalculatorShardCoordinator.
+     * @param processCount The number of worker processes that can run at the same time.
+     * @param shardCount The number of shards to split the input file into.
+     * @param maximumAttempts The number of times that a shard is tried before it fails.
+     * @param workerTimeout The time that a worker has to evaluate its shard before it is stopped
+     * and the attempt fails.
+     * @return The new QubCalculatorShardCoordinator.
+     */
+    public static QubCalculatorShardCoordinator create(int processCount, int shardCount, int maximumAttempts, java.time.Duration workerTimeout)
+    {
+        return QubCalculatorShardCoordinator.create(processCount, shardCount, maximumAttempts, workerTimeout, QubCalculatorShardCoordinator.getDefaultWorkerCommand(processCount));
+    }
+
+    /**
+     * Create a new QubCalculatorShardCoordinator that starts its workers with the provided
+     * command. The shard's --input-file, --input-start, --input-end and --output-format arguments
+     * are added to the end of the command.
+     * @param processCount The number of worker processes that can run at the same time.
+     * @param shardCount The number of shards to split the input file into.
+     * @param maximumAttempts The number of times that a shard is tried before it fails.
+     * @param workerTimeout The time that a worker has to evaluate its shard before it is stopped
+     * and the attempt fails.
+     * @param workerCommand The command that starts a worker process.
+     * @return The new QubCalculatorShardCoordinator.
+     */
+    static QubCalculatorShardCoordinator create(int processCount, int shardCount, int maximumAttempts, java.time.Duration workerTimeout, java.util.List<String> workerCommand)
+    {
+        return new QubCalculatorShardCoordinator(processCount, shardCount, maximumAttempts, workerTimeout, workerCommand);
+    }
+
+    /**
+     * Get the command that starts a QubCalculatorShardWorker with the same Java runtime and class
+     * path as this process. Each worker is told that it only has its share of this machine's
+     * processors, so that the workers' pipelines don't start more threads than there are
+     * processors between them.
+     * @param processCount The number of worker processes that will run at the same time.
+     * @return The command that starts a QubCalculatorShardWorker.
+     */
+    static java.util.List<String> getDefaultWorkerCommand(int processCount)
+    {
+        PreCondition.assertGreaterThan(processCount, 0, "processCount");
+
+        final int workerProcessorCount = Math.max(1, Runtime.getRuntime().availableProcessors() / processCount);
+        return java.util.Arrays.asList(
+            java.nio.file.Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-XX:ActiveProcessorCount=" + workerProcessorCount,
+            "-cp",
+            System.getProperty("java.class.path"),
+            QubCalculatorShardWorker.class.getName());
+    }
+
+    /**
+     * Get the number of worker processes that can run at the same time.
+     * @return The number of worker processes that can run at the same time.
+     */
+    public int getProcessCount()
+    {
+        return this.processCount;
+    }
+
+    /**
+     * Get the number of shards that the input file is split into.
+     * @return The number of shards that the input file is split into.
+     */
+    public int getShardCount()
+    {
+        return this.shardCount;
+    }
+
+    /**
+     * Get the number of times that a shard is tried before it fails.
+     * @return The number of times that a shard is tried before it fails.
+     */
+    public int getMaximumAttempts()
+    {
+        return this.maximumAttempts;
+    }
+
+    /**
+     * Get the time that a worker has to evaluate its shard before it is stopped and the attempt
+     * fails.
+     * @return The time that a worker has to evaluate its shard.
+     */
+    public java.time.Duration getWorkerTimeout()
+    {
+        return this.workerTimeout;
+    }
+
+    /**
+     * Get the number of worker processes that have been started.
+     * @return The number of worker processes that have been started.
+     */
+    public int getAttemptCount()
+    {
+        return this.attemptCount.get();
+    }
+
+    /**
+     * Get the number of worker processes that have exited with a non-zero exit code or timed out.
+     * @return The number of worker processes that have exited with a non-zero exit code or timed
+     * out.
+     */
+    public int getFailedAttemptCount()
+    {
+        return this.failedAttemptCount.get();
+    }
+
+    /**
+     * Get the byte offsets that split the provided file into the provided number of shards. Each
+     * offset is the start of a line, so no line is split between two shards. Shard i is the range
+     * from result[i] to result[i + 1], and is empty if a single line covers its whole range.
+     * @param fileSystem The file system that contains the file.
+     * @param filePath The rooted path of the file to split.
+     * @param shardCount The number of shards to split the file into.
+     * @return The shardCount + 1 offsets that split the file into shards.
+     */
+    static long[] getShardBoundaries(FileSystem fileSystem, String filePath, int shardCount)
+    {
+        PreCondition.assertNotNull(fileSystem, "fileSystem");
+        PreCondition.assertNotNullAndNotEmpty(filePath, "filePath");
+        PreCondition.assertGreaterThan(shardCount, 0, "shardCount");
+
+        try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.open(fileSystem, filePath))
+        {
+            return QubCalculatorShardCoordinator.getShardBoundaries(inputFile, shardCount);
+        }
+    }
+
+    /**
+     * Get the byte offsets that split the provided file into the provided number of shards. Each
+     * boundary is found by reading forward from its target offset to the next line start, so only
+     * about one line per boundary is read, no matter how large the file is.
+     * @param inputFile The file to split.
+     * @param shardCount The number of shards to split the file into.
+     * @return The shardCount + 1 offsets that split the file into shards.
+     */
+    static long[] getShardBoundaries(QubCalculatorInputFile inputFile, int shardCount)
+    {
+        PreCondition.assertNotNull(inputFile, "inputFile");
+        PreCondition.assertGreaterThan(shardCount, 0, "shardCount");
+
+        final long fileSize = inputFile.getByteCount();
+        final long[] result = new long[shardCount + 1];
+        result[shardCount] = fileSize;
+
+        final byte[] buffer = new byte[8 * 1024];
+        for (int i = 1; i < shardCount; ++i)
+        {
+            final long target = fileSize * i / shardCount;
+            long boundary;
+            if (target <= result[i - 1])
+            {
+                boundary = result[i - 1];
+            }
+            else
+            {
+                // Start looking at the byte before the target offset, so that a target that is
+                // already the start of a line stays where it is.
+                boundary = fileSize;
+                long position = target - 1;
+                boolean found = false;
+                while (!found && position < fileSize)
+                {
+                    final int byteCount = inputFile.read(position, buffer, 0, buffer.length);
+                    if (byteCount <= 0)
+                    {
+                        break;
+                    }
+                    for (int j = 0; j < byteCount && !found; ++j)
+                    {
+                        if (buffer[j] == '\n')
+                        {
+                            boundary = position + j + 1;
+                            found = true;
+                        }
+                    }
+                    position += byteCount;
+                }
+            }
+            result[i] = boundary;
+        }
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+
+    /**
+     * Evaluate the file at the provided path with worker processes, and write the merged results
+     * to the provided output stream. The file system must be the file system of this machine,
+     * because the workers read the input file and write their results to it directly.
+     * @param fileSystem The file system that contains the input file and the shard output files.
+     * @param inputFilePath The rooted path of the file to evaluate one expression per line from.
+     * @param outputFormat The format to write the results in.
+     * @param output The stream to write the merged results to. This must also be a
+     * ByteWriteStream if the output format is binary.
+     * @return The result of the evaluation. It has a ShardFailedException error if a shard failed
+     * every attempt, a FileNotFoundException error if the input file doesn't exist, or a
+     * java.io.UncheckedIOException error if a worker couldn't be started.
+     */
+    public Result<Void> run(FileSystem fileSystem, String inputFilePath, QubCalculatorOutputFormat outputFormat, CharacterWriteStream output)
+    {
+        PreCondition.assertNotNull(fileSystem, "fileSystem");
+        PreCondition.assertNotNullAndNotEmpty(inputFilePath, "inputFilePath");
+        PreCondition.assertNotNull(outputFormat, "outputFormat");
+        PreCondition.assertNotNull(output, "output");
+        PreCondition.assertTrue(!outputFormat.isBinary() || output instanceof ByteWriteStream, "!outputFormat.isBinary() || output instanceof ByteWriteStream");
+
+        return Result.create(() ->
+        {
+            this.run(fileSystem, inputFilePath, outputFormat, (Path shardOutputPath) ->
+            {
+                QubCalculatorShardCoordinator.copy(fileSystem, shardOutputPath, outputFormat, output);
+            });
+        });
+    }
+
+    /**
+     * Evaluate the file at the provided path with worker processes, and pass the output file of
+     * each shard to the provided action in shard order. The output file is deleted after the
+     * action returns.
+     * @param fileSystem The file system that contains the input file and the shard output files.
+     * @param inputFilePath The rooted path of the file to evaluate one expression per line from.
+     * @param outputFormat The format that the workers write their results in.
+     * @param shardOutputAction The action that merges the output file of a shard.
+     */
+    void run(FileSystem fileSystem, String inputFilePath, QubCalculatorOutputFormat outputFormat, Action1<Path> shardOutputAction)
+    {
+        PreCondition.assertNotNull(fileSystem, "fileSystem");
+        PreCondition.assertNotNullAndNotEmpty(inputFilePath, "inputFilePath");
+        PreCondition.assertNotNull(outputFormat, "outputFormat");
+        PreCondition.assertNotNull(shardOutputAction, "shardOutputAction");
+
+        final long[] boundaries = QubCalculatorShardCoordinator.getShardBoundaries(fileSystem, inputFilePath, this.shardCount);
+
+        final Path shardFolderPath = Path.parse(System.getProperty("java.io.tmpdir"))
+            .concatenateSegment("qub-calculator-shards-" + java.util.UUID.randomUUID());
+        fileSystem.createFolder(shardFolderPath).await();
+        final java.util.concurrent.ExecutorService executor = QubCalculatorShardCoordinator.createExecutor(this.processCount);
+        try
+        {
+            final java.util.List<java.util.concurrent.Future<Path>> shardOutputs = new java.util.ArrayList<>();
+            for (int i = 0; i < this.shardCount; ++i)
+            {
+                if (boundaries[i] < boundaries[i + 1])
+                {
+                    final int shardIndex = i;
+                    shardOutputs.add(executor.submit(() -> this.runShard(fileSystem, inputFilePath, outputFormat, shardIndex, boundaries[shardIndex], boundaries[shardIndex + 1], shardFolderPath)));
+                }
+            }
+
+            for (final java.util.concurrent.Future<Path> shardOutput : shardOutputs)
+            {
+                final Path shardOutputPath = QubCalculatorShardCoordinator.await(shardOutput);
+                shardOutputAction.run(shardOutputPath);
+                fileSystem.deleteFile(shardOutputPath).await();
+            }
+        }
+        finally
+        {
+            // Stop the workers of the shards that haven't finished yet (if a shard failed),
+            // and wait for them to exit before their files are deleted.
+            executor.shutdownNow();
+            boolean interrupted = false;
+            while (!executor.isTerminated())
+            {
+                try
+                {
+                    executor.awaitTermination(1, java.util.concurrent.TimeUnit.MINUTES);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+            fileSystem.deleteFolder(shardFolderPath).await();
+        }
+    }
+
+    /**
+     * Run worker processes for the provided shard until one succeeds or the shard has failed
+     * the maximum number of attempts.
+     * @return The path of the file that contains the shard's results.
+     */
+    private Path runShard(FileSystem fileSystem, String inputFilePath, QubCalculatorOutputFormat outputFormat, int shardIndex, long startByte, long endByte, Path shardFolderPath) throws java.io.IOException, InterruptedException
+    {
+        final java.util.List<String> command = new java.util.ArrayList<>(this.workerCommand);
+        command.add("--input-file=" + inputFilePath);
+        command.add("--input-start=" + startByte);
+        command.add("--input-end=" + endByte);
+        command.add("--output-format=" + outputFormat);
+
+        final Path outputPath = shardFolderPath.concatenateSegment("shard-" + shardIndex + ".out");
+        final Path errorPath = shardFolderPath.concatenateSegment("shard-" + shardIndex + ".err");
+        int exitCode = 0;
+        boolean timedOut = false;
+        for (int attempt = 1; attempt <= this.maximumAttempts; ++attempt)
+        {
+            this.attemptCount.incrementAndGet();
+            final Process process = new ProcessBuilder(command)
+                .redirectOutput(new java.io.File(outputPath.toString()))
+                .redirectError(new java.io.File(errorPath.toString()))
+                .start();
+            try
+            {
+                process.getOutputStream().close();
+                timedOut = !process.waitFor(this.workerTimeout.toMillis(), java.util.concurrent.TimeUnit.MILLISECONDS);
+                if (timedOut)
+                {
+                    // Wait for the stopped worker to exit so that the next attempt doesn't share
+                    // the shard's output file with it.
+                    process.destroyForcibly().waitFor();
+                }
+                exitCode = process.exitValue();
+            }
+            finally
+            {
+                if (process.isAlive())
+                {
+                    process.destroyForcibly();
+                }
+            }
+
+            if (!timedOut && exitCode == 0)
+            {
+                fileSystem.deleteFile(errorPath).await();
+                return outputPath;
+            }
+            this.failedAttemptCount.incrementAndGet();
+        }
+
+        String errorText = fileSystem.getFileContentsAsString(errorPath).await().trim();
+        if (errorText.length() > 1000)
+        {
+            errorText = errorText.substring(0, 1000) + "...";
+        }
+        final String lastAttempt = timedOut
+            ? "didn't finish within " + this.workerTimeout.toMillis() + " milliseconds"
+            : "exited with code " + exitCode;
+        throw new ShardFailedException("Shard " + shardIndex + " (bytes " + startByte + " to " + endByte + ") failed " + this.maximumAttempts + " times. The last attempt " + lastAttempt + (errorText.isEmpty() ? "." : ": " + errorText));
+    }
+
+    private static java.util.concurrent.ExecutorService createExecutor(int threadCount)
+    {
+        final java.util.concurrent.atomic.AtomicInteger threadNumber = new java.util.concurrent.atomic.AtomicInteger();
+        return java.util.concurrent.Executors.newFixedThreadPool(threadCount, (Runnable runnable) ->
+        {
+            final Thread thread = new Thread(runnable, "QubCalculatorShardCoordinator " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Wait for the provided shard and throw its error if it failed.
+     */
+    private static Path await(java.util.concurrent.Future<Path> shardOutput)
+    {
+        try
+        {
+            return shardOutput.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (java.util.concurrent.ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof java.io.IOException)
+            {
+                throw new java.io.UncheckedIOException((java.io.IOException)cause);
+            }
+            else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            else if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Copy the results in the provided shard output file to the provided output stream.
+     */
+    private static void copy(FileSystem fileSystem, Path shardOutputPath, QubCalculatorOutputFormat outputFormat, CharacterWriteStream output)
+    {
+        try (final QubCalculatorInputFile input = QubCalculatorInputFile.open(fileSystem, shardOutputPath.toString()))
+        {
+            if (outputFormat.isBinary())
+            {
+                final ByteWriteStream byteOutput = (ByteWriteStream)output;
+                final byte[] buffer = new byte[QubCalculatorShardCoordinator.copyBufferSize];
+                long position = 0;
+                int byteCount = input.read(position, buffer, 0, buffer.length);
+                while (byteCount != -1)
+                {
+                    int bytesWritten = 0;
+                    while (bytesWritten < byteCount)
+                    {
+                        bytesWritten += byteOutput.write(buffer, bytesWritten, byteCount - bytesWritten).await();
+                    }
+                    position += byteCount;
+                    byteCount = input.read(position, buffer, 0, buffer.length);
+                }
+            }
+            else
+            {
+                try (final java.io.Reader reader = QubCalculatorBatchPipeline.openReader(input, 0, -1))
+                {
+                    final char[] buffer = new char[QubCalculatorShardCoordinator.copyBufferSize];
+                    int characterCount = reader.read(buffer);
+                    while (characterCount != -1)
+                    {
+                        output.write(new String(buffer, 0, characterCount)).await();
+                        characterCount = reader.read(buffer);
+                    }
+                }
+                catch (java.io.IOException e)
+                {
+                    throw new java.io.UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package qub;
+
+/**
+ * The entry point of the worker processes that QubCalculatorShardCoordinator starts. A worker
+ * evaluates one byte range (shard) of an input file with the same batch evaluation path as
+ * "qub-calculator --input-file=..." and writes the results to its standard output. The byte range
+ * options are only meant for the coordinator, which is why they aren't part of the qub-calculator
+ * command line.
+ */
+public interface QubCalculatorShardWorker
+{
+    static void main(String[] args)
+    {
+        PreCondition.assertNotNull(args, "args");
+
+        DesktopProcess.run(args, QubCalculatorShardWorker::getParameters, QubCalculator::run);
+    }
+
+    static QubCalculatorParameters getParameters(DesktopProcess process)
+    {
+        PreCondition.assertNotNull(process, "process");
+
+        final CommandLineParameters parameters = process.createCommandLineParameters()
+            .setApplicationName("qub-calculator-shard-worker")
+            .setApplicationDescription("Evaluate a byte range of an input file for qub-calculator --processes.");
+        final CommandLineParameter<String> inputFileParameter = parameters.addString("input-file")
+            .setValueName("path")
+            .setDescription("The file to evaluate one expression per line from.");
+        final CommandLineParameter<String> inputStartParameter = parameters.addString("input-start")
+            .setValueName("byte")
+            .setDescription("The offset of the first byte of the input file to evaluate. Defaults to 0.");
+        final CommandLineParameter<String> inputEndParameter = parameters.addString("input-end")
+            .setValueName("byte")
+            .setDescription("The offset after the last byte of the input file to evaluate. Defaults to the end of the file.");
+        final CommandLineParameter<String> outputFormatParameter = parameters.addString("output-format")
+            .setValueName("format")
+            .setDescription("The format to print the results in: text (default), binary, or binary-with-status.");
+        final CommandLineParameterVerbose verboseParameter = parameters.addVerbose(process);
+        final CommandLineParameterHelp helpParameter = parameters.addHelp();
+
+        final String inputFilePath = inputFileParameter.getValue().await();
+        helpParameter.setForceShowApplicationHelpLines(Strings.isNullOrEmpty(inputFilePath));
+
+        QubCalculatorParameters result = null;
+        if (!helpParameter.showApplicationHelpLines(process).await())
+        {
+            final CharacterWriteStream output = process.getOutputWriteStream();
+            final VerboseCharacterToByteWriteStream verbose = verboseParameter.getVerboseCharacterToByteWriteStream().await();
+
+            final QubCalculatorOutputFormat outputFormat = QubCalculator.parseOutputFormat(outputFormatParameter.getValue().await());
+            final long inputStartByte = QubCalculatorShardWorker.parseByteOffset("input-start", inputStartParameter.getValue().await(), 0);
+            final long inputEndByte = QubCalculatorShardWorker.parseByteOffset("input-end", inputEndParameter.getValue().await(), -1);
+            if (inputEndByte != -1 && inputEndByte < inputStartByte)
+            {
+                throw new ParseException("Invalid --input-end value: " + inputEndByte + ". Expected a byte offset that isn't before --input-start (" + inputStartByte + ").");
+            }
+            result = QubCalculatorParameters.create(output, verbose, "", outputFormat,
+                process.getFileSystem(),
+                QubCalculator.getRootedPath(process, inputFilePath),
+                inputStartByte,
+                inputEndByte,
+                1);
+        }
+        return result;
+    }
+
+    /**
+     * Parse the provided byte offset command-line value.
+     * @param parameterName The name of the parameter that the value came from.
+     * @param text The value to parse.
+     * @param defaultValue The value to return if the text is null or empty.
+     * @return The parsed byte offset.
+     */
+    static long parseByteOffset(String parameterName, String text, long defaultValue)
+    {
+        PreCondition.assertNotNullAndNotEmpty(parameterName, "parameterName");
+
+        long result = defaultValue;
+        if (!Strings.isNullOrEmpty(text))
+        {
+            try
+            {
+                result = Long.parseLong(text);
+            }
+            catch (NumberFormatException e)
+            {
+                result = -1;
+            }
+            if (result < 0)
+            {
+                throw new ParseException("Invalid --" + parameterName + " value: " + Strings.escapeAndQuote(text) + ". Expected a non-negative byte offset.");
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,13 @@
+package qub;
+
+/**
+ * An exception that is thrown when a shard of an input file couldn't be evaluated by a worker
+ * process.
+ */
+public class ShardFailedException extends RuntimeException
+{
+    public ShardFailedException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,188 @@
+package qub;
+
+/**
+ * An evaluator that coalesces concurrent requests for the same expression. The first request
+ * for an expression's normalized text parses and simplifies it on the requesting thread, and
+ * every request for the same normalized text that arrives while that evaluation is in flight
+ * waits for its result instead of doing the same work again. Once an evaluation completes it is
+ * forgotten, so this doesn't cache results; it only removes duplicated work that happens at the
+ * same time.
+ * <p>
+ * In-flight evaluations are tracked in a ConcurrentHashMap of CompletableFutures, so there are
+ * no global locks. A SingleFlightEvaluator is thread-safe.
+ * <p>
+ * A simplified expression that still contains variables is a MutableBinaryExpression, which its
+ * caller can change. Each request that waited for another request's evaluation gets its own copy
+ * of such a result, so no two callers ever share a MutableBinaryExpression. NumberExpressions and
+ * VariableExpressions can't be changed, so they are shared.
+ */
+public class SingleFlightEvaluator
+{
+    private final Function1<String,Result<Expression>> evaluation;
+    private final java.util.concurrent.ConcurrentHashMap<String,java.util.concurrent.CompletableFuture<Result<Expression>>> inFlightEvaluations;
+
+    private final java.util.concurrent.atomic.AtomicLong requestCount;
+    private final java.util.concurrent.atomic.AtomicLong coalescedRequestCount;
+    private final java.util.concurrent.atomic.AtomicLong evaluationCount;
+
+    private SingleFlightEvaluator(Function1<String,Result<Expression>> evaluation)
+    {
+        PreCondition.assertNotNull(evaluation, "evaluation");
+
+        this.evaluation = evaluation;
+        this.inFlightEvaluations = new java.util.concurrent.ConcurrentHashMap<>();
+        this.requestCount = new java.util.concurrent.atomic.AtomicLong();
+        this.coalescedRequestCount = new java.util.concurrent.atomic.AtomicLong();
+        this.evaluationCount = new java.util.concurrent.atomic.AtomicLong();
+    }
+
+    /**
+     * Create a new SingleFlightEvaluator that parses and simplifies expressions.
+     * @return The new SingleFlightEvaluator.
+     */
+    public static SingleFlightEvaluator create()
+    {
+        return SingleFlightEvaluator.create((String text) -> Expression.parse(text).then((Expression expression) -> expression.simplify()));
+    }
+
+    /**
+     * Create a new SingleFlightEvaluator that uses the provided evaluation.
+     * @param evaluation The function that evaluates a normalized expression text.
+     * @return The new SingleFlightEvaluator.
+     */
+    static SingleFlightEvaluator create(Function1<String,Result<Expression>> evaluation)
+    {
+        return new SingleFlightEvaluator(evaluation);
+    }
+
+    /**
+     * Get the number of requests that this evaluator has received.
+     * @return The number of requests that this evaluator has received.
+     */
+    public long getRequestCount()
+    {
+        return this.requestCount.get();
+    }
+
+    /**
+     * Get the number of requests that waited for another request's in-flight evaluation instead
+     * of being evaluated themselves.
+     * @return The number of requests that were coalesced into another request's evaluation.
+     */
+    public long getCoalescedRequestCount()
+    {
+        return this.coalescedRequestCount.get();
+    }
+
+    /**
+     * Get the number of evaluations that this evaluator has started.
+     * @return The number of evaluations that this evaluator has started.
+     */
+    public long getEvaluationCount()
+    {
+        return this.evaluationCount.get();
+    }
+
+    /**
+     * Get the number of evaluations that are currently in flight.
+     * @return The number of evaluations that are currently in flight.
+     */
+    public int getInFlightCount()
+    {
+        return this.inFlightEvaluations.size();
+    }
+
+    /**
+     * Parse and simplify the provided expression text, or wait for the in-flight evaluation of
+     * the same normalized expression text if there is one.
+     * @param text The expression text to evaluate.
+     * @return The simplified expression. It is not shared with any other request.
+     */
+    public Result<Expression> evaluate(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        this.requestCount.incrementAndGet();
+
+        final String normalizedText = TieredEvaluator.normalize(text);
+        final java.util.concurrent.CompletableFuture<Result<Expression>> newEvaluation = new java.util.concurrent.CompletableFuture<>();
+        final java.util.concurrent.CompletableFuture<Result<Expression>> inFlightEvaluation = this.inFlightEvaluations.putIfAbsent(normalizedText, newEvaluation);
+
+        Result<Expression> result;
+        if (inFlightEvaluation != null)
+        {
+            this.coalescedRequestCount.incrementAndGet();
+            result = inFlightEvaluation.join().then((Expression expression) -> SingleFlightEvaluator.copy(expression));
+        }
+        else
+        {
+            this.evaluationCount.incrementAndGet();
+            result = null;
+            try
+            {
+                result = Result.create(() -> this.evaluation.run(normalizedText).await());
+            }
+            finally
+            {
+                // Remove the evaluation before completing it so that any request that arrives
+                // after the waiters have been released starts a new evaluation. The waiters are
+                // always released, even if the evaluation didn't produce a result.
+                this.inFlightEvaluations.remove(normalizedText, newEvaluation);
+                newEvaluation.complete(result != null
+                    ? result
+                    : Result.error(new IllegalStateException("The evaluation of " + Strings.escapeAndQuote(normalizedText) + " didn't complete.")));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy every MutableBinaryExpression in the provided expression. The tree is copied with
+     * explicit stacks so that deep trees don't overflow the call stack. Expressions that can't be
+     * changed are shared with the copy.
+     * @param expression The expression to copy.
+     * @return The copy of the provided expression.
+     */
+    static Expression copy(Expression expression)
+    {
+        PreCondition.assertNotNull(expression, "expression");
+
+        // Post-order traversal. A binary expression is visited twice: once to push its children,
+        // and once (marked as combine) to create its copy from the copies of its children.
+        final java.util.ArrayDeque<Expression> expressions = new java.util.ArrayDeque<>();
+        final java.util.ArrayDeque<Boolean> combine = new java.util.ArrayDeque<>();
+        final java.util.ArrayDeque<Expression> copies = new java.util.ArrayDeque<>();
+
+        expressions.push(expression);
+        combine.push(false);
+        while (!expressions.isEmpty())
+        {
+            final Expression current = expressions.pop();
+            if (combine.pop())
+            {
+                final Expression rightCopy = copies.pop();
+                final Expression leftCopy = copies.pop();
+                copies.push(MutableBinaryExpression.create(leftCopy, ((MutableBinaryExpression)current).getOperator(), rightCopy));
+            }
+            else if (current instanceof MutableBinaryExpression)
+            {
+                final MutableBinaryExpression binaryExpression = (MutableBinaryExpression)current;
+                expressions.push(binaryExpression);
+                combine.push(true);
+                expressions.push(binaryExpression.getRightExpression());
+                combine.push(false);
+                expressions.push(binaryExpression.getLeftExpression());
+                combine.push(false);
+            }
+            else
+            {
+                copies.push(current);
+            }
+        }
+        final Expression result = copies.pop();
+
+        PostCondition.assertNotNull(result, "result");
+
+        return result;
+    }
+}
@@ -0,0 +1,177 @@
+package qub;
+
+/**
+ * An evaluator that computes the value of a mathematical expression while its characters are
+ * being read, without building the expression tree first. Every subexpression is reduced to a
+ * number as soon as it is complete, so the only state that is kept is the list of operations
+ * that are still waiting for their right-hand side. For a flat sum or product that list never
+ * holds more than one operation, no matter how long the input is.
+ * <p>
+ * The operations are reduced in exactly the same order that Expression.parse() groups them, so
+ * the result is the same as parsing the expression and then simplifying it. A StreamingEvaluator
+ * is not thread-safe, but it can be reused.
+ */
+public class StreamingEvaluator
+{
+    private double[] pendingValues;
+    private BinaryOperator[] pendingOperators;
+    private int pendingCount;
+    private int maximumPendingCount;
+    private final StringBuilder numberCharacters;
+
+    private StreamingEvaluator()
+    {
+        this.pendingValues = new double[16];
+        this.pendingOperators = new BinaryOperator[16];
+        this.numberCharacters = new StringBuilder();
+    }
+
+    /**
+     * Create a new StreamingEvaluator.
+     * @return The new StreamingEvaluator.
+     */
+    public static StreamingEvaluator create()
+    {
+        return new StreamingEvaluator();
+    }
+
+    /**
+     * Get the largest number of operations that were waiting for their right-hand side at the
+     * same time during the most recent evaluation.
+     * @return The largest number of pending operations during the most recent evaluation.
+     */
+    public int getMaximumPendingCount()
+    {
+        return this.maximumPendingCount;
+    }
+
+    /**
+     * Evaluate the mathematical expression that is read from the provided CharacterReadStream.
+     * @param characters The CharacterReadStream to read the expression from.
+     * @return The numeric value of the expression.
+     */
+    public Result<Double> evaluate(CharacterReadStream characters)
+    {
+        PreCondition.assertNotNull(characters, "characters");
+
+        return this.evaluate(characters.iterate());
+    }
+
+    /**
+     * Evaluate the mathematical expression that is made up of the provided characters.
+     * @param characters The characters of the expression.
+     * @return The numeric value of the expression.
+     */
+    public Result<Double> evaluate(Iterator<Character> characters)
+    {
+        PreCondition.assertNotNull(characters, "characters");
+
+        return Result.create(() ->
+        {
+            this.pendingCount = 0;
+            this.maximumPendingCount = 0;
+
+            characters.start();
+            if (!characters.hasCurrent())
+            {
+                throw new ParseException("Missing expression.");
+            }
+
+            boolean hasCompleteValue = false;
+            double completeValue = 0;
+            while (characters.hasCurrent())
+            {
+                final char character = characters.getCurrent();
+                if (Expression.isNumberStartCharacter(character))
+                {
+                    this.readNumber(characters);
+                    if (hasCompleteValue)
+                    {
+                        throw new ParseException("Expected operator, but found number (" + this.numberCharacters + ") instead.");
+                    }
+                    completeValue = FastDoubleParser.parse(this.numberCharacters, 0, this.numberCharacters.length());
+                    hasCompleteValue = true;
+                }
+                else if (Expression.isBinaryOperatorStartCharacter(character))
+                {
+                    final BinaryOperator currentOperator = BinaryOperator.get(character);
+                    if (!hasCompleteValue)
+                    {
+                        throw new ParseException("Expected number, but found operator (" + currentOperator.toString() + ") instead.");
+                    }
+
+                    if (this.pendingCount > 0)
+                    {
+                        final BinaryOperator previousOperator = this.pendingOperators[this.pendingCount - 1];
+                        if (previousOperator.getPrecedence() >= currentOperator.getPrecedence())
+                        {
+                            --this.pendingCount;
+                            completeValue = CompactExpression.run(previousOperator, this.pendingValues[this.pendingCount], completeValue);
+                        }
+                    }
+                    this.pushPendingOperation(completeValue, currentOperator);
+                    hasCompleteValue = false;
+                    characters.next();
+                }
+                else if (Characters.isWhitespace(character))
+                {
+                    characters.next();
+                }
+                else
+                {
+                    throw new ParseException("Unrecognized expression character: " + character);
+                }
+            }
+
+            while (this.pendingCount > 0)
+            {
+                --this.pendingCount;
+                final BinaryOperator pendingOperator = this.pendingOperators[this.pendingCount];
+                if (!hasCompleteValue)
+                {
+                    throw new ParseException("Missing right-hand side number for " + NumberExpression.create(this.pendingValues[this.pendingCount]) + pendingOperator + ".");
+                }
+                completeValue = CompactExpression.run(pendingOperator, this.pendingValues[this.pendingCount], completeValue);
+            }
+
+            return completeValue;
+        });
+    }
+
+    private void readNumber(Iterator<Character> characters)
+    {
+        this.numberCharacters.setLength(0);
+        while (characters.hasCurrent() && Characters.isDigit(characters.getCurrent()))
+        {
+            this.numberCharacters.append(characters.takeCurrent().charValue());
+        }
+
+        if (characters.hasCurrent() && characters.getCurrent() == '.')
+        {
+            this.numberCharacters.append(characters.takeCurrent().charValue());
+
+            if (!characters.hasCurrent())
+            {
+                throw new ParseException("Missing NumberExpression fractional digit character.");
+            }
+
+            while (characters.hasCurrent() && Characters.isDigit(characters.getCurrent()))
+            {
+                this.numberCharacters.append(characters.takeCurrent().charValue());
+            }
+        }
+    }
+
+    private void pushPendingOperation(double leftValue, BinaryOperator operator)
+    {
+        if (this.pendingCount == this.pendingValues.length)
+        {
+            this.pendingValues = java.util.Arrays.copyOf(this.pendingValues, this.pendingValues.length * 2);
+            this.pendingOperators = java.util.Arrays.copyOf(this.pendingOperators, this.pendingOperators.length * 2);
+        }
+        this.pendingValues[this.pendingCount] = leftValue;
+        this.pendingOperators[this.pendingCount] = operator;
+        ++this.pendingCount;
+        this.maximumPendingCount = Math.max(this.maximumPendingCount, this.pendingCount);
+    }
+}
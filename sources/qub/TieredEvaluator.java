@@ -0,0 +1,302 @@
+package qub;
+
+/**
+ * An evaluator that adapts how it evaluates each expression based on how often that expression
+ * is seen. Expressions are keyed by their normalized text (see normalize()). Cold
+ * expressions are interpreted: they are parsed into a CompactExpression and evaluated with a
+ * single pass over its node arrays. Once an expression has been evaluated compileThreshold times,
+ * it is compiled on a background thread and the compiled form is swapped in atomically, after
+ * which every evaluation of that expression is served from the compiled form. A TieredEvaluator
+ * only accepts expressions without variables (CompactExpressions can't contain them), so the
+ * compiled form of an expression is its folded value.
+ * <p>
+ * The counters (getInterpretedCount(), getCompiledCount(), getCompilationCount(), and
+ * getTrackedExpressionCount()) show how evaluations move between the tiers so that the threshold
+ * can be tuned. A TieredEvaluator is thread-safe. A TieredEvaluator that created its own compiler
+ * thread must be closed to stop that thread.
+ */
+public class TieredEvaluator implements AutoCloseable
+{
+    private static final int defaultCompileThreshold = 100;
+    private static final int defaultMaximumTrackedExpressions = 100000;
+    private static final ThreadLocal<CompactExpression> interpreterExpressions = ThreadLocal.withInitial(CompactExpression::create);
+
+    private final int compileThreshold;
+    private final int maximumTrackedExpressions;
+    private final java.util.concurrent.Executor compiler;
+    private final java.util.concurrent.ExecutorService ownedCompiler;
+    private volatile boolean closed;
+    private final java.util.concurrent.ConcurrentHashMap<String,Entry> entries;
+
+    private final java.util.concurrent.atomic.AtomicLong interpretedCount;
+    private final java.util.concurrent.atomic.AtomicLong compiledCount;
+    private final java.util.concurrent.atomic.AtomicLong compilationCount;
+
+    private TieredEvaluator(int compileThreshold, int maximumTrackedExpressions, java.util.concurrent.Executor compiler, java.util.concurrent.ExecutorService ownedCompiler)
+    {
+        PreCondition.assertGreaterThan(compileThreshold, 0, "compileThreshold");
+        PreCondition.assertGreaterThanOrEqualTo(maximumTrackedExpressions, 0, "maximumTrackedExpressions");
+        PreCondition.assertNotNull(compiler, "compiler");
+
+        this.compileThreshold = compileThreshold;
+        this.maximumTrackedExpressions = maximumTrackedExpressions;
+        this.compiler = compiler;
+        this.ownedCompiler = ownedCompiler;
+        this.entries = new java.util.concurrent.ConcurrentHashMap<>();
+        this.interpretedCount = new java.util.concurrent.atomic.AtomicLong();
+        this.compiledCount = new java.util.concurrent.atomic.AtomicLong();
+        this.compilationCount = new java.util.concurrent.atomic.AtomicLong();
+    }
+
+    /**
+     * Create a new TieredEvaluator that compiles an expression after it has been evaluated 100
+     * times, tracks up to 100000 distinct expressions, and compiles on its own background thread.
+     * @return The new TieredEvaluator.
+     */
+    public static TieredEvaluator create()
+    {
+        return TieredEvaluator.create(TieredEvaluator.defaultCompileThreshold, TieredEvaluator.defaultMaximumTrackedExpressions);
+    }
+
+    /**
+     * Create a new TieredEvaluator that compiles on its own background thread. The thread is
+     * stopped when the TieredEvaluator is closed.
+     * @param compileThreshold The number of evaluations after which an expression is compiled.
+     * @param maximumTrackedExpressions The maximum number of distinct expressions to keep
+     * evaluation counts for. Expressions that are seen after this limit is reached are always
+     * interpreted.
+     * @return The new TieredEvaluator.
+     */
+    public static TieredEvaluator create(int compileThreshold, int maximumTrackedExpressions)
+    {
+        PreCondition.assertGreaterThan(compileThreshold, 0, "compileThreshold");
+        PreCondition.assertGreaterThanOrEqualTo(maximumTrackedExpressions, 0, "maximumTrackedExpressions");
+
+        final java.util.concurrent.ExecutorService compiler = java.util.concurrent.Executors.newSingleThreadExecutor((Runnable runnable) ->
+        {
+            final Thread thread = new Thread(runnable, "TieredEvaluator compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new TieredEvaluator(compileThreshold, maximumTrackedExpressions, compiler, compiler);
+    }
+
+    /**
+     * Create a new TieredEvaluator.
+     * @param compileThreshold The number of evaluations after which an expression is compiled.
+     * @param maximumTrackedExpressions The maximum number of distinct expressions to keep
+     * evaluation counts for. Expressions that are seen after this limit is reached are always
+     * interpreted.
+     * @param compiler The Executor that compilations will run on. The caller owns the Executor,
+     * so closing the TieredEvaluator doesn't shut it down.
+     * @return The new TieredEvaluator.
+     */
+    public static TieredEvaluator create(int compileThreshold, int maximumTrackedExpressions, java.util.concurrent.Executor compiler)
+    {
+        return new TieredEvaluator(compileThreshold, maximumTrackedExpressions, compiler, null);
+    }
+
+    /**
+     * Get the normalized form of the provided expression text. Normalized text has no whitespace,
+     * except for a single space between two numbers that were separated by whitespace (so that
+     * "1 2" doesn't turn into the valid expression "12").
+     * @param text The expression text to normalize.
+     * @return The normalized expression text.
+     */
+    static String normalize(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        final StringBuilder builder = new StringBuilder(text.length());
+        boolean skippedWhitespace = false;
+        for (int i = 0; i < text.length(); ++i)
+        {
+            final char character = text.charAt(i);
+            if (Characters.isWhitespace(character))
+            {
+                skippedWhitespace = true;
+            }
+            else
+            {
+                if (skippedWhitespace &&
+                    builder.length() > 0 &&
+                    TieredEvaluator.isNumberCharacter(builder.charAt(builder.length() - 1)) &&
+                    TieredEvaluator.isNumberCharacter(character))
+                {
+                    builder.append(' ');
+                }
+                builder.append(character);
+                skippedWhitespace = false;
+            }
+        }
+        return builder.length() == text.length() ? text : builder.toString();
+    }
+
+    private static boolean isNumberCharacter(char character)
+    {
+        return character == '.' || Characters.isDigit(character);
+    }
+
+    /**
+     * Get the number of evaluations after which an expression is compiled.
+     * @return The number of evaluations after which an expression is compiled.
+     */
+    public int getCompileThreshold()
+    {
+        return this.compileThreshold;
+    }
+
+    /**
+     * Get the number of evaluations that were served by the interpreter.
+     * @return The number of evaluations that were served by the interpreter.
+     */
+    public long getInterpretedCount()
+    {
+        return this.interpretedCount.get();
+    }
+
+    /**
+     * Get the number of evaluations that were served by a compiled expression.
+     * @return The number of evaluations that were served by a compiled expression.
+     */
+    public long getCompiledCount()
+    {
+        return this.compiledCount.get();
+    }
+
+    /**
+     * Get the number of expressions that have been compiled and swapped in.
+     * @return The number of expressions that have been compiled and swapped in.
+     */
+    public long getCompilationCount()
+    {
+        return this.compilationCount.get();
+    }
+
+    /**
+     * Get the number of distinct expressions whose evaluations are being counted.
+     * @return The number of distinct expressions whose evaluations are being counted.
+     */
+    public int getTrackedExpressionCount()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Get whether or not this TieredEvaluator has been closed.
+     * @return Whether or not this TieredEvaluator has been closed.
+     */
+    public boolean isClosed()
+    {
+        return this.closed;
+    }
+
+    /**
+     * Get whether or not the compiler thread that this TieredEvaluator created has stopped. This
+     * is always true for a TieredEvaluator that uses a compiler that the caller owns.
+     * @return Whether or not the compiler thread that this TieredEvaluator created has stopped.
+     */
+    boolean isCompilerTerminated()
+    {
+        return this.ownedCompiler == null || this.ownedCompiler.isTerminated();
+    }
+
+    /**
+     * Stop compiling expressions, and stop the compiler thread if this TieredEvaluator created it.
+     * Expressions that have already been compiled are still served from the compiled tier, and
+     * every other expression is interpreted.
+     */
+    @Override
+    public void close()
+    {
+        this.closed = true;
+        if (this.ownedCompiler != null)
+        {
+            this.ownedCompiler.shutdownNow();
+        }
+    }
+
+    /**
+     * Evaluate the provided expression text.
+     * @param text The expression text to evaluate.
+     * @return The numeric value of the expression.
+     */
+    public Result<Double> evaluate(String text)
+    {
+        PreCondition.assertNotNull(text, "text");
+
+        final String normalizedText = TieredEvaluator.normalize(text);
+
+        Result<Double> result;
+        final Entry entry = this.entries.get(normalizedText);
+        if (entry != null && entry.compiled)
+        {
+            this.compiledCount.incrementAndGet();
+            result = Result.success(entry.compiledValue);
+        }
+        else
+        {
+            final ExpressionParser parser = ExpressionParser.get();
+            final CompactExpression expression = TieredEvaluator.interpreterExpressions.get();
+            if (!parser.tryParse(normalizedText, expression))
+            {
+                result = Result.error(new ParseException(parser.getError()));
+            }
+            else
+            {
+                this.interpretedCount.incrementAndGet();
+                result = Result.success(expression.evaluate());
+                this.countEvaluation(normalizedText, entry);
+            }
+        }
+        return result;
+    }
+
+    private void countEvaluation(String normalizedText, Entry existingEntry)
+    {
+        Entry entry = existingEntry;
+        if (entry == null && this.entries.size() < this.maximumTrackedExpressions)
+        {
+            final Entry newEntry = new Entry();
+            final Entry previousEntry = this.entries.putIfAbsent(normalizedText, newEntry);
+            entry = previousEntry != null ? previousEntry : newEntry;
+        }
+
+        if (entry != null &&
+            entry.evaluationCount.incrementAndGet() >= this.compileThreshold &&
+            !this.closed &&
+            entry.compileScheduled.compareAndSet(false, true))
+        {
+            final Entry entryToCompile = entry;
+            try
+            {
+                this.compiler.execute(() -> this.compile(normalizedText, entryToCompile));
+            }
+            catch (java.util.concurrent.RejectedExecutionException e)
+            {
+                // The compiler was shut down after the closed check. The expression stays in the
+                // interpreted tier.
+            }
+        }
+    }
+
+    private void compile(String normalizedText, Entry entry)
+    {
+        final CompactExpression expression = ExpressionParser.get().parseCompact(normalizedText).await();
+        entry.compiledValue = expression.evaluate();
+        // The volatile write publishes the compiled value to the evaluating threads.
+        entry.compiled = true;
+        this.compilationCount.incrementAndGet();
+    }
+
+    /**
+     * The per-expression state of a TieredEvaluator.
+     */
+    private static class Entry
+    {
+        final java.util.concurrent.atomic.AtomicLong evaluationCount = new java.util.concurrent.atomic.AtomicLong();
+        final java.util.concurrent.atomic.AtomicBoolean compileScheduled = new java.util.concurrent.atomic.AtomicBoolean();
+        volatile double compiledValue;
+        volatile boolean compiled;
+    }
+}
@@ -0,0 +1,84 @@
+package qub;
+
+/**
+ * A named variable in a mathematical expression. A VariableExpression doesn't have a value of its
+ * own, so it simplifies to itself. Use ExpressionSpecializer to replace variables with values.
+ */
+public class VariableExpression implements Expression
+{
+    private final String name;
+    private volatile boolean hasFingerprint;
+    private long fingerprint;
+
+    private VariableExpression(String name)
+    {
+        PreCondition.assertNotNullAndNotEmpty(name, "name");
+
+        this.name = name;
+    }
+
+    /**
+     * Create a new VariableExpression with the provided name.
+     * @param name The name of the variable.
+     * @return The new VariableExpression.
+     */
+    public static VariableExpression create(String name)
+    {
+        return new VariableExpression(name);
+    }
+
+    /**
+     * Get the name of this variable.
+     * @return The name of this variable.
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    @Override
+    public long getFingerprint()
+    {
+        if (!this.hasFingerprint)
+        {
+            this.fingerprint = ExpressionFingerprints.variable(this.name);
+            // The volatile write publishes the fingerprint to other threads.
+            this.hasFingerprint = true;
+        }
+        return this.fingerprint;
+    }
+
+    @Override
+    public VariableExpression simplify()
+    {
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.name;
+    }
+
+    @Override
+    public boolean equals(Object rhs)
+    {
+        return rhs instanceof VariableExpression && this.equals((VariableExpression)rhs);
+    }
+
+    /**
+     * Get whether or not this VariableExpression is equal to the provided VariableExpression.
+     * @param rhs The VariableExpression to compare to this VariableExpression.
+     * @return Whether or not this VariableExpression is equal to the provided VariableExpression.
+     */
+    public boolean equals(VariableExpression rhs)
+    {
+        return rhs != null && Comparer.equal(this.name, rhs.name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return ExpressionFingerprints.hashCode(this.getFingerprint());
+    }
+}
@@ -0,0 +1,181 @@
+package qub;
+
+public interface AdmissionControllerTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(AdmissionController.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                try (final AdmissionController controller = AdmissionController.create())
+                {
+                    test.assertEqual(1024L, controller.getSmallNodeLimit());
+                    test.assertEqual(10000000L, controller.getMaximumNodeCount());
+                    test.assertEqual(10000000L, controller.getMaximumDepth());
+                    test.assertEqual(0L, controller.getRejectedCount());
+                    test.assertEqual(0L, controller.getSmallLatencies().getCount());
+                    test.assertEqual(0L, controller.getLargeLatencies().getCount());
+                }
+            });
+
+            runner.testGroup("create(long,long)", () ->
+            {
+                runner.test("with 0 smallNodeLimit", (Test test) ->
+                {
+                    test.assertThrows(() -> AdmissionController.create(0, 10),
+                        new PreConditionFailure("smallNodeLimit (0) must be greater than 0."));
+                });
+
+                runner.test("with maximumNodeCount less than smallNodeLimit", (Test test) ->
+                {
+                    test.assertThrows(() -> AdmissionController.create(10, 9),
+                        new PreConditionFailure("maximumNodeCount (9) must be greater than or equal to 10."));
+                });
+            });
+
+            runner.test("create(long,long,long,int,int,int,int) with 0 maximumDepth", (Test test) ->
+            {
+                test.assertThrows(() -> AdmissionController.create(1, 10, 0, 1, 1, 1, 1),
+                    new PreConditionFailure("maximumDepth (0) must be greater than 0."));
+            });
+
+            runner.testGroup("submit(String)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    try (final AdmissionController controller = AdmissionController.create())
+                    {
+                        test.assertThrows(() -> controller.submit(null),
+                            new PreConditionFailure("text cannot be null."));
+                    }
+                });
+
+                runner.test("with small and large expressions", (Test test) ->
+                {
+                    try (final AdmissionController controller = AdmissionController.create(3, 100))
+                    {
+                        test.assertEqual(3.0, controller.submit("1 + 2").join().doubleValue());
+                        test.assertEqual(7.0, controller.submit("1 + 2 * 3").join().doubleValue());
+                        test.assertEqual(1L, controller.getSmallLatencies().getCount());
+                        test.assertEqual(1L, controller.getLargeLatencies().getCount());
+                        test.assertEqual(0L, controller.getRejectedCount());
+                    }
+                });
+
+                runner.test("with an invalid expression", (Test test) ->
+                {
+                    try (final AdmissionController controller = AdmissionController.create())
+                    {
+                        test.assertThrows(() -> AdmissionControllerTests.await(controller.submit("1 +")),
+                            new ParseException("Missing right-hand side number for 1+" + Objects.toString(null) + "."));
+                        test.assertEqual(1L, controller.getSmallLatencies().getCount());
+                    }
+                });
+
+                runner.test("with an expression over the maximum node count", (Test test) ->
+                {
+                    try (final AdmissionController controller = AdmissionController.create(3, 5))
+                    {
+                        test.assertThrows(() -> AdmissionControllerTests.await(controller.submit("1 + 2 + 3 + 4")),
+                            new ExpressionRejectedException("The expression has an estimated 7 nodes, which is more than the limit of 5 nodes."));
+                        test.assertEqual(1L, controller.getRejectedCount());
+                        test.assertEqual(0L, controller.getSmallLatencies().getCount());
+                        test.assertEqual(0L, controller.getLargeLatencies().getCount());
+                    }
+                });
+
+                runner.test("with an expression over the maximum depth", (Test test) ->
+                {
+                    try (final AdmissionController controller = AdmissionController.create(3, 100, 3, 1, 10, 1, 10))
+                    {
+                        test.assertEqual(3L, controller.getMaximumDepth());
+                        test.assertEqual(14.0, controller.submit("1 * 2 + 3 * 4").join().doubleValue());
+                        test.assertThrows(() -> AdmissionControllerTests.await(controller.submit("1 + 2 + 3 + 4")),
+                            new ExpressionRejectedException("The expression has an estimated depth of 4, which is more than the limit of 3."));
+                        test.assertEqual(1L, controller.getRejectedCount());
+                    }
+                });
+
+                runner.test("with a full large expression queue", (Test test) ->
+                {
+                    try (final AdmissionController controller = AdmissionController.create(1, 1000000, 1, 10, 1, 1))
+                    {
+                        final String largeText = AdmissionControllerTests.createSum(200000);
+                        final java.util.List<java.util.concurrent.CompletableFuture<Double>> results = new java.util.ArrayList<>();
+                        for (int i = 0; i < 10; ++i)
+                        {
+                            results.add(controller.submit(largeText));
+                        }
+                        test.assertTrue(controller.getRejectedCount() > 0);
+
+                        test.assertEqual(5.0, controller.submit("5").join().doubleValue());
+
+                        for (final java.util.concurrent.CompletableFuture<Double> result : results)
+                        {
+                            if (result.isCompletedExceptionally())
+                            {
+                                test.assertThrows(() -> AdmissionControllerTests.await(result),
+                                    new ExpressionRejectedException("Too many large expressions are waiting to be evaluated."));
+                            }
+                            else
+                            {
+                                test.assertEqual(200000.0, result.join().doubleValue());
+                            }
+                        }
+                    }
+                });
+
+                runner.test("after close()", (Test test) ->
+                {
+                    final AdmissionController controller = AdmissionController.create(1, 1000000, 1, 10, 1, 10);
+                    test.assertFalse(controller.isClosed());
+                    final java.util.concurrent.CompletableFuture<Double> admitted = controller.submit(AdmissionControllerTests.createSum(1000));
+
+                    controller.close();
+                    test.assertTrue(controller.isClosed());
+                    test.assertEqual(1000.0, admitted.join().doubleValue());
+
+                    test.assertThrows(() -> AdmissionControllerTests.await(controller.submit("1 + 2")),
+                        new ExpressionRejectedException("The AdmissionController is closed."));
+                    test.assertThrows(() -> AdmissionControllerTests.await(controller.submit("5")),
+                        new ExpressionRejectedException("The AdmissionController is closed."));
+                    test.assertEqual(2L, controller.getRejectedCount());
+                });
+            });
+        });
+    }
+
+    /**
+     * Wait for the provided future and throw its error if it failed.
+     * @param future The future to wait for.
+     * @return The value of the future.
+     */
+    static Double await(java.util.concurrent.CompletableFuture<Double> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (java.util.concurrent.CompletionException e)
+        {
+            throw (RuntimeException)e.getCause();
+        }
+    }
+
+    /**
+     * Create the text of a sum of the provided number of ones.
+     * @param termCount The number of terms in the sum.
+     * @return The text of the sum.
+     */
+    static String createSum(int termCount)
+    {
+        final StringBuilder builder = new StringBuilder(termCount * 2);
+        builder.append('1');
+        for (int i = 1; i < termCount; ++i)
+        {
+            builder.append("+1");
+        }
+        return builder.toString();
+    }
+}
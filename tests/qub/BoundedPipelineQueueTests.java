@@ -0,0 +1,252 @@
+package qub;
+
+public interface BoundedPipelineQueueTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(BoundedPipelineQueue.class, () ->
+        {
+            runner.testGroup("create(String,int,long)", () ->
+            {
+                runner.test("with null name", (Test test) ->
+                {
+                    test.assertThrows(() -> BoundedPipelineQueue.create(null, 1, 1),
+                        new PreConditionFailure("name cannot be null."));
+                });
+
+                runner.test("with 0 itemCapacity", (Test test) ->
+                {
+                    test.assertThrows(() -> BoundedPipelineQueue.create("queue", 0, 1),
+                        new PreConditionFailure("itemCapacity (0) must be greater than 0."));
+                });
+
+                runner.test("with 0 byteCapacity", (Test test) ->
+                {
+                    test.assertThrows(() -> BoundedPipelineQueue.create("queue", 1, 0),
+                        new PreConditionFailure("byteCapacity (0) must be greater than 0."));
+                });
+
+                runner.test("with valid arguments", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 2, 100);
+                    test.assertEqual("queue", queue.getName());
+                    test.assertEqual(2, queue.getItemCapacity());
+                    test.assertEqual(100L, queue.getByteCapacity());
+                    test.assertFalse(queue.isClosed());
+                    test.assertEqual(0, queue.getDepth());
+                    test.assertEqual(0L, queue.getByteDepth());
+                    test.assertEqual(0, queue.getMaximumDepth());
+                    test.assertEqual(0L, queue.getMaximumByteDepth());
+                    test.assertEqual(0L, queue.getBlockedPutCount());
+                    test.assertEqual("{\"name\":\"queue\",\"depth\":0,\"byteDepth\":0,\"maximumDepth\":0,\"maximumByteDepth\":0,\"blockedPuts\":0}", queue.toString());
+                });
+            });
+
+            runner.testGroup("put(T,long) and take()", () ->
+            {
+                runner.test("with items that fit", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 3, 100);
+                    BoundedPipelineQueueTests.put(queue, "a", 10);
+                    BoundedPipelineQueueTests.put(queue, "b", 20);
+                    test.assertEqual(2, queue.getDepth());
+                    test.assertEqual(30L, queue.getByteDepth());
+
+                    test.assertEqual("a", BoundedPipelineQueueTests.take(queue));
+                    test.assertEqual(1, queue.getDepth());
+                    test.assertEqual(20L, queue.getByteDepth());
+
+                    BoundedPipelineQueueTests.put(queue, "c", 30);
+                    test.assertEqual("b", BoundedPipelineQueueTests.take(queue));
+                    test.assertEqual("c", BoundedPipelineQueueTests.take(queue));
+                    test.assertEqual(0, queue.getDepth());
+                    test.assertEqual(0L, queue.getByteDepth());
+                    test.assertEqual(2, queue.getMaximumDepth());
+                    test.assertEqual(50L, queue.getMaximumByteDepth());
+                    test.assertEqual(0L, queue.getBlockedPutCount());
+                });
+
+                runner.test("with null item", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 3, 100);
+                    test.assertThrows(() -> BoundedPipelineQueueTests.put(queue, null, 10),
+                        new PreConditionFailure("item cannot be null."));
+                });
+
+                runner.test("with negative itemByteCount", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 3, 100);
+                    test.assertThrows(() -> BoundedPipelineQueueTests.put(queue, "a", -1),
+                        new PreConditionFailure("itemByteCount (-1) must be greater than or equal to 0."));
+                });
+
+                runner.test("with closed queue", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 3, 100);
+                    queue.close();
+                    test.assertThrows(() -> BoundedPipelineQueueTests.put(queue, "a", 1),
+                        new PreConditionFailure("this.isClosed() cannot be true."));
+                });
+
+                runner.test("with an item that is larger than the byte capacity and an empty queue", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 3, 100);
+                    BoundedPipelineQueueTests.put(queue, "a", 1000);
+                    test.assertEqual(1, queue.getDepth());
+                    test.assertEqual(1000L, queue.getByteDepth());
+                    test.assertEqual("a", BoundedPipelineQueueTests.take(queue));
+                });
+
+                runner.test("with a full queue", (Test test) ->
+                {
+                    final BoundedPipelineQueue<Integer> queue = BoundedPipelineQueue.create("queue", 1, 100);
+                    final Thread producer = new Thread(() ->
+                    {
+                        for (int i = 0; i < 3; ++i)
+                        {
+                            BoundedPipelineQueueTests.put(queue, i, 1);
+                        }
+                        queue.close();
+                    });
+                    producer.start();
+                    BoundedPipelineQueueTests.waitUntilBlocked(producer, queue);
+                    test.assertEqual(1, queue.getDepth());
+
+                    for (int i = 0; i < 3; ++i)
+                    {
+                        test.assertEqual(i, BoundedPipelineQueueTests.take(queue).intValue());
+                    }
+                    test.assertNull(BoundedPipelineQueueTests.take(queue));
+                    test.assertEqual(1, queue.getMaximumDepth());
+                    test.assertTrue(queue.getBlockedPutCount() >= 1);
+                });
+
+                runner.test("with a queue whose bytes are full", (Test test) ->
+                {
+                    final BoundedPipelineQueue<Integer> queue = BoundedPipelineQueue.create("queue", 10, 100);
+                    final Thread producer = new Thread(() ->
+                    {
+                        for (int i = 0; i < 3; ++i)
+                        {
+                            BoundedPipelineQueueTests.put(queue, i, 60);
+                        }
+                        queue.close();
+                    });
+                    producer.start();
+                    BoundedPipelineQueueTests.waitUntilBlocked(producer, queue);
+                    test.assertEqual(1, queue.getDepth());
+                    test.assertEqual(60L, queue.getByteDepth());
+
+                    for (int i = 0; i < 3; ++i)
+                    {
+                        test.assertEqual(i, BoundedPipelineQueueTests.take(queue).intValue());
+                    }
+                    test.assertNull(BoundedPipelineQueueTests.take(queue));
+                    test.assertEqual(1, queue.getMaximumDepth());
+                    test.assertEqual(60L, queue.getMaximumByteDepth());
+                    test.assertTrue(queue.getBlockedPutCount() >= 1);
+                });
+            });
+
+            runner.testGroup("close()", () ->
+            {
+                runner.test("with empty queue", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 3, 100);
+                    queue.close();
+                    test.assertTrue(queue.isClosed());
+                    test.assertNull(BoundedPipelineQueueTests.take(queue));
+                });
+
+                runner.test("with non-empty queue", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 3, 100);
+                    BoundedPipelineQueueTests.put(queue, "a", 1);
+                    queue.close();
+                    test.assertEqual("a", BoundedPipelineQueueTests.take(queue));
+                    test.assertNull(BoundedPipelineQueueTests.take(queue));
+                });
+
+                runner.test("with a waiting consumer", (Test test) ->
+                {
+                    final BoundedPipelineQueue<String> queue = BoundedPipelineQueue.create("queue", 3, 100);
+                    final java.util.concurrent.atomic.AtomicReference<String> taken = new java.util.concurrent.atomic.AtomicReference<>("not taken");
+                    final Thread consumer = new Thread(() -> taken.set(BoundedPipelineQueueTests.take(queue)));
+                    consumer.start();
+                    queue.close();
+                    BoundedPipelineQueueTests.join(consumer);
+                    test.assertNull(taken.get());
+                });
+            });
+        });
+    }
+
+    /**
+     * Put the provided item into the provided queue, and rethrow an InterruptedException as a
+     * RuntimeException.
+     * @param queue The queue to put the item into.
+     * @param item The item to put.
+     * @param itemByteCount The number of bytes that the item takes up.
+     * @param <T> The type of items in the queue.
+     */
+    static <T> void put(BoundedPipelineQueue<T> queue, T item, long itemByteCount)
+    {
+        try
+        {
+            queue.put(item, itemByteCount);
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Take an item from the provided queue, and rethrow an InterruptedException as a
+     * RuntimeException.
+     * @param queue The queue to take the item from.
+     * @param <T> The type of items in the queue.
+     * @return The item that was taken.
+     */
+    static <T> T take(BoundedPipelineQueue<T> queue)
+    {
+        try
+        {
+            return queue.take();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wait for the provided thread to finish.
+     * @param thread The thread to wait for.
+     */
+    static void join(Thread thread)
+    {
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wait until the provided producer has put an item into the provided queue and is waiting to
+     * put another one.
+     * @param producer The thread that puts items into the queue.
+     * @param queue The queue.
+     */
+    static void waitUntilBlocked(Thread producer, BoundedPipelineQueue<?> queue)
+    {
+        while (queue.getDepth() == 0 || producer.getState() != Thread.State.WAITING)
+        {
+            Thread.yield();
+        }
+    }
+}
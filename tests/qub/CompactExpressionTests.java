@@ -0,0 +1,204 @@
+package qub;
+
+public interface CompactExpressionTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(CompactExpression.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final CompactExpression expression = CompactExpression.create();
+                test.assertEqual(0, expression.getNodeCount());
+                test.assertEqual("", expression.toString());
+            });
+
+            runner.testGroup("create(int)", () ->
+            {
+                runner.test("with 0", (Test test) ->
+                {
+                    test.assertThrows(() -> CompactExpression.create(0),
+                        new PreConditionFailure("initialCapacity (0) must be greater than 0."));
+                });
+
+                runner.test("with 1", (Test test) ->
+                {
+                    final CompactExpression expression = CompactExpression.create(1);
+                    test.assertEqual(0, expression.addNumber(1));
+                    test.assertEqual(1, expression.addNumber(2));
+                    test.assertEqual(2, expression.addBinaryExpression(0, BinaryOperator.plus, 1));
+                    test.assertEqual(3, expression.getNodeCount());
+                    test.assertEqual(2, expression.getRootIndex());
+                });
+            });
+
+            runner.test("addBinaryExpression(int,BinaryOperator,int)", (Test test) ->
+            {
+                final CompactExpression expression = CompactExpression.create();
+                final int leftIndex = expression.addNumber(5);
+                final int rightIndex = expression.addNumber(2);
+                final int rootIndex = expression.addBinaryExpression(leftIndex, BinaryOperator.minus, rightIndex);
+
+                test.assertTrue(expression.isNumber(leftIndex));
+                test.assertEqual(5.0, expression.getNumber(leftIndex));
+                test.assertFalse(expression.isNumber(rootIndex));
+                test.assertEqual(BinaryOperator.minus, expression.getOperator(rootIndex));
+                test.assertEqual(leftIndex, expression.getLeftIndex(rootIndex));
+                test.assertEqual(rightIndex, expression.getRightIndex(rootIndex));
+            });
+
+            runner.testGroup("ExpressionParser.parseCompact(String)", () ->
+            {
+                final Action2<String,Double> parseCompactTest = (String text, Double expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final CompactExpression expression = ExpressionParser.create().parseCompact(text).await();
+                        test.assertEqual(Expression.parse(text).await(), expression.toExpression());
+                        test.assertEqual(Expression.parse(text).await().toString(), expression.toString());
+                        test.assertEqual(expected.doubleValue(), expression.evaluate());
+                        test.assertEqual(NumberExpression.create(expected), expression.simplify());
+                    });
+                };
+
+                parseCompactTest.run("7", 7.0);
+                parseCompactTest.run("1+2", 3.0);
+                parseCompactTest.run("1+2*3", 7.0);
+                parseCompactTest.run("1 * 4 / 2 + 7 * 3 - 8 + 16", 31.0);
+                parseCompactTest.run("1/0", Double.POSITIVE_INFINITY);
+
+                runner.test("with \"1 +\"", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    final CompactExpression expression = CompactExpression.create();
+                    test.assertFalse(parser.tryParse("1 +", expression));
+                    test.assertEqual("Missing right-hand side number for 1+" + Objects.toString(null) + ".", parser.getError());
+                    test.assertEqual(0, expression.getNodeCount());
+                });
+
+                runner.test("with \"2*x_1\"", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    final CompactExpression expression = CompactExpression.create();
+                    test.assertFalse(parser.tryParse("2*x_1", expression));
+                    test.assertEqual("Expected number, but found variable (x_1) instead. Compact expressions can't contain variables.", parser.getError());
+                    test.assertEqual(0, expression.getNodeCount());
+                });
+            });
+
+            runner.testGroup("ExpressionParser.tryParse(String,CompactExpression)", () ->
+            {
+                final Action2<String,String> tryParseErrorTest = (String suffix, String expectedError) ->
+                {
+                    runner.test("with more than 16 pending operators followed by " + Strings.escapeAndQuote(suffix), (Test test) ->
+                    {
+                        // Every "+n*m" pair leaves one more pending operator on the parser's stack.
+                        final StringBuilder text = new StringBuilder("1");
+                        for (int i = 0; i < 40; ++i)
+                        {
+                            text.append('+').append(i).append('*').append(i);
+                        }
+                        text.append(suffix);
+
+                        final ExpressionParser parser = ExpressionParser.create();
+                        final CompactExpression expression = CompactExpression.create();
+                        test.assertFalse(parser.tryParse(text.toString(), expression));
+                        test.assertEqual(expectedError, parser.getError());
+                        test.assertEqual(0, expression.getNodeCount());
+
+                        test.assertTrue(parser.tryParse("1+2", expression));
+                        test.assertEqual(3.0, expression.evaluate());
+                    });
+                };
+
+                tryParseErrorTest.run("+$", "Unrecognized expression character: $");
+                tryParseErrorTest.run("+1 2", "Expected operator, but found number (2) instead.");
+            });
+
+            runner.testGroup("toExpression(int)", () ->
+            {
+                runner.test("with a parsed expression", (Test test) ->
+                {
+                    final CompactExpression expression = ExpressionParser.create().parseCompact("1+2*3").await();
+                    test.assertEqual(
+                        MutableBinaryExpression.create(2, BinaryOperator.times, 3),
+                        expression.toExpression(expression.getRightIndex(expression.getRootIndex())));
+                });
+
+                runner.test("with children that aren't next to each other", (Test test) ->
+                {
+                    final CompactExpression expression = CompactExpression.create();
+                    final int one = expression.addNumber(1);
+                    final int two = expression.addNumber(2);
+                    final int three = expression.addNumber(3);
+                    final int oneTimesThree = expression.addBinaryExpression(one, BinaryOperator.times, three);
+                    final int root = expression.addBinaryExpression(two, BinaryOperator.minus, oneTimesThree);
+
+                    final Expression expected = MutableBinaryExpression.create(
+                        2,
+                        BinaryOperator.minus,
+                        MutableBinaryExpression.create(1, BinaryOperator.times, 3));
+                    test.assertEqual(expected, expression.toExpression(root));
+                    test.assertEqual(MutableBinaryExpression.create(1, BinaryOperator.times, 3), expression.toExpression(oneTimesThree));
+                    test.assertEqual(expected.getFingerprint(), expression.getFingerprint());
+                    test.assertEqual(-1.0, expression.evaluate());
+                });
+
+                runner.test("with a shared node", (Test test) ->
+                {
+                    final CompactExpression expression = CompactExpression.create();
+                    final int two = expression.addNumber(2);
+                    final int twoPlusTwo = expression.addBinaryExpression(two, BinaryOperator.plus, two);
+                    final int root = expression.addBinaryExpression(twoPlusTwo, BinaryOperator.times, twoPlusTwo);
+
+                    final Expression expected = MutableBinaryExpression.create(
+                        MutableBinaryExpression.create(2, BinaryOperator.plus, 2),
+                        BinaryOperator.times,
+                        MutableBinaryExpression.create(2, BinaryOperator.plus, 2));
+                    test.assertEqual(expected, expression.toExpression(root));
+                    test.assertEqual(expected.getFingerprint(), expression.getFingerprint());
+                    test.assertEqual(16.0, expression.evaluate());
+                });
+
+                runner.test("with a deep expression", (Test test) ->
+                {
+                    final CompactExpression expression = CompactExpression.create();
+                    int root = expression.addNumber(0);
+                    for (int i = 1; i <= 100000; ++i)
+                    {
+                        root = expression.addBinaryExpression(expression.addNumber(1), BinaryOperator.plus, root);
+                    }
+                    test.assertEqual(expression.getFingerprint(), expression.toExpression().getFingerprint());
+                });
+            });
+
+            runner.testGroup("getFingerprint()", () ->
+            {
+                final Action1<String> getFingerprintTest = (String text) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final CompactExpression expression = ExpressionParser.create().parseCompact(text).await();
+                        test.assertEqual(expression.toExpression().getFingerprint(), expression.getFingerprint());
+                        test.assertEqual(expression.toExpression().hashCode(), expression.hashCode());
+                    });
+                };
+
+                getFingerprintTest.run("7");
+                getFingerprintTest.run("1+2");
+                getFingerprintTest.run("1 * 4 / 2 + 7 * 3 - 8 + 16");
+
+                runner.test("after a node is added", (Test test) ->
+                {
+                    final CompactExpression expression = CompactExpression.create();
+                    final int leftIndex = expression.addNumber(1);
+                    final long numberFingerprint = expression.getFingerprint();
+                    final int rightIndex = expression.addNumber(2);
+                    test.assertNotEqual(numberFingerprint, expression.getFingerprint());
+                    expression.addBinaryExpression(leftIndex, BinaryOperator.plus, rightIndex);
+                    test.assertEqual(MutableBinaryExpression.create(1, BinaryOperator.plus, 2).getFingerprint(), expression.getFingerprint());
+                });
+            });
+        });
+    }
+}
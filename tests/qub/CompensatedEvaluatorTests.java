@@ -0,0 +1,94 @@
+package qub;
+
+public interface CompensatedEvaluatorTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(CompensatedEvaluator.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final CompensatedEvaluator evaluator = CompensatedEvaluator.create();
+                test.assertEqual(65536, evaluator.getParallelThreshold());
+            });
+
+            runner.testGroup("create(int)", () ->
+            {
+                runner.test("with 0", (Test test) ->
+                {
+                    test.assertThrows(() -> CompensatedEvaluator.create(0),
+                        new PreConditionFailure("parallelThreshold (0) must be greater than 0."));
+                });
+            });
+
+            runner.testGroup("evaluate(Expression)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final CompensatedEvaluator evaluator = CompensatedEvaluator.create();
+                    test.assertThrows(() -> evaluator.evaluate(null),
+                        new PreConditionFailure("expression cannot be null."));
+                });
+
+                final Action2<String,Double> evaluateTest = (String text, Double expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final Expression expression = Expression.parse(text).await();
+                        test.assertEqual(expected.doubleValue(), CompensatedEvaluator.create().evaluate(expression));
+                        test.assertEqual(expected.doubleValue(), CompensatedEvaluator.create(2).evaluate(expression));
+                    });
+                };
+
+                evaluateTest.run("5", 5.0);
+                evaluateTest.run("1+2*3", 7.0);
+                evaluateTest.run("1-2*3+4", -9.0);
+                evaluateTest.run("8/2/2", 2.0);
+                evaluateTest.run("0.1+0.1+0.1+0.1+0.1+0.1+0.1+0.1+0.1+0.1", 1.0);
+                evaluateTest.run("10000000000000000 + 1 + 1", 10000000000000002.0);
+                evaluateTest.run("1 - 10000000000000000 + 10000000000000000", 1.0);
+                evaluateTest.run("1/0 + 1", Double.POSITIVE_INFINITY);
+                evaluateTest.run("2 * 3 + 4", 10.0);
+
+                runner.test("with a long chain", (Test test) ->
+                {
+                    final CharacterList text = CharacterList.create();
+                    text.addAll("0.1");
+                    for (int i = 1; i < 1000; ++i)
+                    {
+                        text.addAll("+0.1");
+                    }
+                    final Expression expression = Expression.parse(text.toString(true)).await();
+
+                    test.assertEqual(100.0, CompensatedEvaluator.create().evaluate(expression));
+                    test.assertEqual(100.0, CompensatedEvaluator.create(7).evaluate(expression));
+                });
+
+                runner.test("with a long chain of multiplications", (Test test) ->
+                {
+                    final StringBuilder text = new StringBuilder("3");
+                    for (int i = 0; i < 100000; ++i)
+                    {
+                        text.append(i % 2 == 0 ? "*2" : "/2");
+                    }
+                    final Expression expression = Expression.parse(text.toString()).await();
+
+                    test.assertEqual(3.0, CompensatedEvaluator.create().evaluate(expression));
+                });
+
+                runner.test("with a long chain of multiplications in an additive chain", (Test test) ->
+                {
+                    final StringBuilder text = new StringBuilder("1+2");
+                    for (int i = 0; i < 100000; ++i)
+                    {
+                        text.append("*1");
+                    }
+                    text.append("-4");
+                    final Expression expression = Expression.parse(text.toString()).await();
+
+                    test.assertEqual(-1.0, CompensatedEvaluator.create().evaluate(expression));
+                });
+            });
+        });
+    }
+}
@@ -0,0 +1,66 @@
+package qub;
+
+public interface ExpressionCostEstimateTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(ExpressionCostEstimate.class, () ->
+        {
+            runner.testGroup("scan(String)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    test.assertThrows(() -> ExpressionCostEstimate.scan(null),
+                        new PreConditionFailure("text cannot be null."));
+                });
+
+                final Action3<String,Long,Long> scanTest = (String text, Long expectedNodeCount, Long expectedMaximumDepth) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final ExpressionCostEstimate estimate = ExpressionCostEstimate.scan(text);
+                        test.assertEqual((long)text.length(), estimate.getCharacterCount());
+                        test.assertEqual(expectedNodeCount.longValue(), estimate.getNodeCount());
+                        test.assertEqual(expectedMaximumDepth.longValue(), estimate.getMaximumDepth());
+                    });
+                };
+
+                scanTest.run("", 0L, 1L);
+                scanTest.run("5", 1L, 1L);
+                scanTest.run("123.45", 1L, 1L);
+                scanTest.run("1+2", 3L, 2L);
+                scanTest.run(" 1 + 2 * 30 / 4.5 - 6 ", 9L, 5L);
+                scanTest.run("1 2", 2L, 1L);
+                scanTest.run("1+2+3+4", 7L, 4L);
+                scanTest.run("1*2+3*4+5*6", 11L, 4L);
+                scanTest.run("a+b", 1L, 2L);
+            });
+
+            runner.testGroup("getNodeCount()", () ->
+            {
+                final Action1<String> matchesParseTest = (String text) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final CompactExpression expression = ExpressionParser.create().parseCompact(text).await();
+                        final ExpressionCostEstimate estimate = ExpressionCostEstimate.scan(text);
+                        test.assertEqual((long)expression.getNodeCount(), estimate.getNodeCount());
+                        test.assertEqual((long)ExpressionRebalancer.getDepth(expression.toExpression()), estimate.getMaximumDepth());
+                    });
+                };
+
+                matchesParseTest.run("7");
+                matchesParseTest.run("1-2*3+4");
+                matchesParseTest.run("1 * 4 / 2 + 7 * 3 - 8 + 16");
+                matchesParseTest.run("1+2+3+4+5");
+                matchesParseTest.run("1*2+3*4+5*6+7*8");
+                matchesParseTest.run("1+2*3-4/5*6+7");
+            });
+
+            runner.test("toString()", (Test test) ->
+            {
+                test.assertEqual("{\"characters\":5,\"nodes\":3,\"maximumDepth\":2}", ExpressionCostEstimate.scan("1 + 2").toString());
+            });
+        });
+    }
+}
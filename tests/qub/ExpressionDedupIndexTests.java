@@ -0,0 +1,241 @@
+package qub;
+
+public interface ExpressionDedupIndexTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(ExpressionDedupIndex.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final ExpressionDedupIndex index = ExpressionDedupIndex.create();
+                test.assertEqual(0L, index.getAddedCount());
+                test.assertEqual(0L, index.getUniqueCount());
+                test.assertEqual(0L, index.getDuplicateCount());
+            });
+
+            runner.testGroup("create(int)", () ->
+            {
+                runner.test("with -1", (Test test) ->
+                {
+                    test.assertThrows(() -> ExpressionDedupIndex.create(-1),
+                        new PreConditionFailure("expectedUniqueCount (-1) must be greater than or equal to 0."));
+                });
+            });
+
+            runner.testGroup("add(Expression)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final ExpressionDedupIndex index = ExpressionDedupIndex.create();
+                    test.assertThrows(() -> index.add(null),
+                        new PreConditionFailure("expression cannot be null."));
+                });
+
+                runner.test("with structurally identical expressions", (Test test) ->
+                {
+                    final ExpressionDedupIndex index = ExpressionDedupIndex.create();
+                    test.assertEqual(0L, index.add(Expression.parse("1+2*3").await()));
+                    test.assertEqual(1L, index.add(Expression.parse("1*2+3").await()));
+                    test.assertEqual(0L, index.add(Expression.parse(" 1 + 2 * 3 ").await()));
+                    test.assertEqual(0L, index.add(Expression.parse("1.0+2*3.00").await()));
+                    test.assertEqual(2L, index.add(Expression.parse("2+1*3").await()));
+                    test.assertEqual(1L, index.add(Expression.parse("1*2+3").await()));
+
+                    test.assertEqual(6L, index.getAddedCount());
+                    test.assertEqual(3L, index.getUniqueCount());
+                    test.assertEqual(3L, index.getDuplicateCount());
+                    test.assertEqual(Expression.parse("1*2+3").await(), index.getUniqueExpression(1));
+                    test.assertEqual(2L, index.indexOf(Expression.parse("2 + 1 * 3").await()));
+                    test.assertEqual(-1L, index.indexOf(Expression.parse("2+1*4").await()));
+                });
+
+                runner.test("with compact expressions", (Test test) ->
+                {
+                    final ExpressionDedupIndex index = ExpressionDedupIndex.create(1);
+                    final ExpressionParser parser = ExpressionParser.create();
+                    test.assertEqual(0L, index.add(parser.parseCompact("1+2").await()));
+                    test.assertEqual(1L, index.add(parser.parseCompact("1-2").await()));
+                    test.assertEqual(0L, index.add(parser.parseCompact("1 + 2").await()));
+                    test.assertEqual(2L, index.add(parser.parseCompact("2+1").await()));
+                    test.assertEqual(3L, index.getUniqueCount());
+                });
+
+                runner.test("with many expressions", (Test test) ->
+                {
+                    final ExpressionDedupIndex index = ExpressionDedupIndex.create();
+                    for (int i = 0; i < 30000; ++i)
+                    {
+                        final Expression expression = MutableBinaryExpression.create(i % 10000, BinaryOperator.plus, (i % 10000) / 7);
+                        test.assertEqual((long)(i % 10000), index.add(expression));
+                    }
+                    test.assertEqual(30000L, index.getAddedCount());
+                    test.assertEqual(10000L, index.getUniqueCount());
+                    test.assertEqual(20000L, index.getDuplicateCount());
+                });
+
+                runner.test("with deep duplicate expressions", (Test test) ->
+                {
+                    final String text = ExpressionDedupIndexTests.createSum(100000);
+                    final ExpressionDedupIndex index = ExpressionDedupIndex.create();
+                    test.assertEqual(0L, index.add(Expression.parse(text).await()));
+                    test.assertEqual(0L, index.add(Expression.parse(text).await()));
+                    test.assertEqual(1L, index.add(Expression.parse(text + "+2").await()));
+                    test.assertEqual(2L, index.getUniqueCount());
+                    test.assertEqual(1L, index.getDuplicateCount());
+                });
+            });
+
+            runner.testGroup("getFingerprint()", () ->
+            {
+                final Action2<String,String> sameFingerprintTest = (String lhs, String rhs) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(lhs) + " and " + Strings.escapeAndQuote(rhs), (Test test) ->
+                    {
+                        final Expression lhsExpression = Expression.parse(lhs).await();
+                        final Expression rhsExpression = Expression.parse(rhs).await();
+                        test.assertEqual(lhsExpression, rhsExpression);
+                        test.assertEqual(lhsExpression.getFingerprint(), rhsExpression.getFingerprint());
+                        test.assertEqual(lhsExpression.hashCode(), rhsExpression.hashCode());
+                    });
+                };
+
+                sameFingerprintTest.run("1", "1");
+                sameFingerprintTest.run("1", "1.0");
+                sameFingerprintTest.run("1+2", "1 + 2");
+                sameFingerprintTest.run("1-2*3+4", "1.0 - 2 * 3 + 4.00");
+
+                final Action2<String,String> differentFingerprintTest = (String lhs, String rhs) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(lhs) + " and " + Strings.escapeAndQuote(rhs), (Test test) ->
+                    {
+                        final Expression lhsExpression = Expression.parse(lhs).await();
+                        final Expression rhsExpression = Expression.parse(rhs).await();
+                        test.assertNotEqual(lhsExpression.getFingerprint(), rhsExpression.getFingerprint());
+                    });
+                };
+
+                differentFingerprintTest.run("1", "2");
+                differentFingerprintTest.run("1+2", "2+1");
+                differentFingerprintTest.run("1+2", "1-2");
+                differentFingerprintTest.run("1+2+3", "3");
+                differentFingerprintTest.run("1*2+3", "1+2*3");
+
+                runner.test("with a deep tree", (Test test) ->
+                {
+                    Expression expression = NumberExpression.create(0);
+                    for (int i = 1; i < 1000000; ++i)
+                    {
+                        expression = MutableBinaryExpression.create(expression, BinaryOperator.minus, 1);
+                    }
+                    test.assertEqual(expression.getFingerprint(), expression.getFingerprint());
+                });
+
+                runner.test("after a descendant changes", (Test test) ->
+                {
+                    final MutableBinaryExpression expression = (MutableBinaryExpression)Expression.parse("1+2*3").await();
+                    final long fingerprint = expression.getFingerprint();
+                    test.assertEqual(fingerprint, expression.getFingerprint());
+
+                    ((MutableBinaryExpression)expression.getRightExpression()).setOperator(BinaryOperator.minus);
+                    final Expression expected = MutableBinaryExpression.create(1, BinaryOperator.plus, MutableBinaryExpression.create(2, BinaryOperator.minus, 3));
+                    test.assertNotEqual(fingerprint, expression.getFingerprint());
+                    test.assertEqual(expected.getFingerprint(), expression.getFingerprint());
+                    test.assertEqual(expected.hashCode(), expression.hashCode());
+
+                    expression.setLeftExpression(NumberExpression.create(4));
+                    test.assertEqual(MutableBinaryExpression.create(4, BinaryOperator.plus, MutableBinaryExpression.create(2, BinaryOperator.minus, 3)).getFingerprint(), expression.getFingerprint());
+                });
+
+                runner.test("after a subtree that is shared by two trees changes", (Test test) ->
+                {
+                    final MutableBinaryExpression shared = MutableBinaryExpression.create(2, BinaryOperator.times, 3);
+                    final MutableBinaryExpression first = MutableBinaryExpression.create(1, BinaryOperator.plus, shared);
+                    final MutableBinaryExpression second = MutableBinaryExpression.create(MutableBinaryExpression.create(shared, BinaryOperator.minus, 4), BinaryOperator.times, shared);
+                    final long firstFingerprint = first.getFingerprint();
+                    final long secondFingerprint = second.getFingerprint();
+
+                    shared.setOperator(BinaryOperator.plus);
+                    test.assertFalse(first.hasFingerprint());
+                    test.assertFalse(second.hasFingerprint());
+                    test.assertFalse(((MutableBinaryExpression)second.getLeftExpression()).hasFingerprint());
+                    test.assertNotEqual(firstFingerprint, first.getFingerprint());
+                    test.assertNotEqual(secondFingerprint, second.getFingerprint());
+                    test.assertEqual(MutableBinaryExpression.create(1, BinaryOperator.plus, MutableBinaryExpression.create(2, BinaryOperator.plus, 3)).getFingerprint(), first.getFingerprint());
+                    test.assertEqual(MutableBinaryExpression.create(MutableBinaryExpression.create(MutableBinaryExpression.create(2, BinaryOperator.plus, 3), BinaryOperator.minus, 4), BinaryOperator.times, MutableBinaryExpression.create(2, BinaryOperator.plus, 3)).getFingerprint(), second.getFingerprint());
+                });
+
+                runner.test("after a different tree changes", (Test test) ->
+                {
+                    final MutableBinaryExpression expression = (MutableBinaryExpression)Expression.parse("1+2*3").await();
+                    final MutableBinaryExpression otherExpression = (MutableBinaryExpression)Expression.parse("4-5").await();
+                    final long fingerprint = expression.getFingerprint();
+                    otherExpression.getFingerprint();
+
+                    otherExpression.setOperator(BinaryOperator.plus);
+                    test.assertFalse(otherExpression.hasFingerprint());
+                    test.assertTrue(expression.hasFingerprint());
+                    test.assertTrue(((MutableBinaryExpression)expression.getRightExpression()).hasFingerprint());
+                    test.assertEqual(fingerprint, expression.getFingerprint());
+                });
+
+                runner.test("after a child is replaced", (Test test) ->
+                {
+                    final MutableBinaryExpression child = MutableBinaryExpression.create(2, BinaryOperator.times, 3);
+                    final MutableBinaryExpression expression = MutableBinaryExpression.create(1, BinaryOperator.plus, child);
+                    expression.getFingerprint();
+
+                    expression.setRightExpression(NumberExpression.create(6));
+                    final long fingerprint = expression.getFingerprint();
+                    child.setOperator(BinaryOperator.minus);
+                    test.assertTrue(expression.hasFingerprint());
+                    test.assertEqual(fingerprint, expression.getFingerprint());
+                });
+
+                runner.test("with the same subtree on both sides", (Test test) ->
+                {
+                    final MutableBinaryExpression child = MutableBinaryExpression.create(2, BinaryOperator.times, 3);
+                    final MutableBinaryExpression expression = MutableBinaryExpression.create(child, BinaryOperator.plus, child);
+                    expression.getFingerprint();
+
+                    expression.setLeftExpression(NumberExpression.create(6));
+                    expression.getFingerprint();
+                    child.setOperator(BinaryOperator.minus);
+                    test.assertFalse(expression.hasFingerprint());
+                    test.assertEqual(MutableBinaryExpression.create(6, BinaryOperator.plus, MutableBinaryExpression.create(2, BinaryOperator.minus, 3)).getFingerprint(), expression.getFingerprint());
+                });
+            });
+
+            runner.testGroup("MutableBinaryExpression.equals(MutableBinaryExpression)", () ->
+            {
+                runner.test("with deep equal trees", (Test test) ->
+                {
+                    final String text = ExpressionDedupIndexTests.createSum(100000);
+                    test.assertEqual(Expression.parse(text).await(), Expression.parse(text).await());
+                });
+
+                runner.test("with deep trees that differ at the deepest node", (Test test) ->
+                {
+                    final String text = ExpressionDedupIndexTests.createSum(100000);
+                    test.assertNotEqual(Expression.parse(text).await(), Expression.parse("2" + text.substring(1)).await());
+                });
+            });
+        });
+    }
+
+    /**
+     * Create the text of a sum of the provided number of ones. The parser turns it into a chain
+     * that is as deep as it is long.
+     * @param termCount The number of terms in the sum.
+     * @return The text of the sum.
+     */
+    static String createSum(int termCount)
+    {
+        final StringBuilder result = new StringBuilder("1");
+        for (int i = 1; i < termCount; ++i)
+        {
+            result.append("+1");
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package qub;
+
+public interface ExpressionParserTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(ExpressionParser.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final ExpressionParser parser = ExpressionParser.create();
+                test.assertNotNull(parser);
+                test.assertNull(parser.getExpression());
+                test.assertNull(parser.getError());
+            });
+
+            runner.test("get()", (Test test) ->
+            {
+                final ExpressionParser parser = ExpressionParser.get();
+                test.assertNotNull(parser);
+                test.assertSame(parser, ExpressionParser.get());
+            });
+
+            runner.testGroup("tryParse(String)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    test.assertThrows(() -> parser.tryParse(null),
+                        new PreConditionFailure("text cannot be null."));
+                });
+
+                final Action2<String,String> tryParseErrorTest = (String text, String expectedError) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final ExpressionParser parser = ExpressionParser.create();
+                        test.assertFalse(parser.tryParse(text));
+                        test.assertNull(parser.getExpression());
+                        test.assertEqual(expectedError, parser.getError());
+                    });
+                };
+
+                tryParseErrorTest.run("", "Missing expression.");
+                tryParseErrorTest.run("1.", "Missing NumberExpression fractional digit character.");
+                tryParseErrorTest.run("1 2", "Expected operator, but found number (2) instead.");
+                tryParseErrorTest.run("+", "Expected number, but found operator (+) instead.");
+                tryParseErrorTest.run("1 $ 2", "Unrecognized expression character: $");
+                tryParseErrorTest.run("1 x", "Expected operator, but found variable (x) instead.");
+                tryParseErrorTest.run("x 1", "Expected operator, but found number (1) instead.");
+                tryParseErrorTest.run("1x", "Expected operator, but found variable (x) instead.");
+
+                final Action2<String,Expression> tryParseTest = (String text, Expression expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final ExpressionParser parser = ExpressionParser.create();
+                        test.assertTrue(parser.tryParse(text));
+                        test.assertEqual(expected, parser.getExpression());
+                        test.assertNull(parser.getError());
+                    });
+                };
+
+                tryParseTest.run("12.5", NumberExpression.create("12.5"));
+                tryParseTest.run(" 1 + 2 ", MutableBinaryExpression.create(1, BinaryOperator.plus, 2));
+                tryParseTest.run(
+                    "1+2*3",
+                    MutableBinaryExpression.create(
+                        1,
+                        BinaryOperator.plus,
+                        MutableBinaryExpression.create(2, BinaryOperator.times, 3)));
+                tryParseTest.run("x", VariableExpression.create("x"));
+                tryParseTest.run("_rate2", VariableExpression.create("_rate2"));
+                tryParseTest.run(
+                    "a*x + b",
+                    MutableBinaryExpression.create(
+                        MutableBinaryExpression.create(VariableExpression.create("a"), BinaryOperator.times, VariableExpression.create("x")),
+                        BinaryOperator.plus,
+                        VariableExpression.create("b")));
+                tryParseTest.run(
+                    "1*2-3",
+                    MutableBinaryExpression.create(
+                        MutableBinaryExpression.create(1, BinaryOperator.times, 2),
+                        BinaryOperator.minus,
+                        3));
+
+                runner.test("when reused after an error", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    test.assertFalse(parser.tryParse("1 +"));
+                    test.assertNotNull(parser.getError());
+
+                    test.assertTrue(parser.tryParse("4/2"));
+                    test.assertEqual(MutableBinaryExpression.create(4, BinaryOperator.dividedBy, 2), parser.getExpression());
+                    test.assertNull(parser.getError());
+                });
+
+                runner.test("after the expression has been gotten", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    test.assertTrue(parser.tryParse("1+2"));
+                    test.assertEqual(MutableBinaryExpression.create(1, BinaryOperator.plus, 2), parser.getExpression());
+                    test.assertNull(parser.getExpression());
+                });
+
+                runner.test("after the error has been gotten", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    test.assertFalse(parser.tryParse("1 +"));
+                    test.assertNotNull(parser.getError());
+                    test.assertNull(parser.getError());
+                });
+            });
+
+            runner.testGroup("parse(String)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    test.assertThrows(() -> parser.parse(null),
+                        new PreConditionFailure("text cannot be null."));
+                });
+
+                runner.test("with \"\"", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    test.assertThrows(() -> parser.parse("").await(),
+                        new ParseException("Missing expression."));
+                    test.assertNull(parser.getError());
+                });
+
+                runner.test("with \"1-2\"", (Test test) ->
+                {
+                    final ExpressionParser parser = ExpressionParser.create();
+                    test.assertEqual(MutableBinaryExpression.create(1, BinaryOperator.minus, 2), parser.parse("1-2").await());
+                    test.assertNull(parser.getExpression());
+                    test.assertNull(parser.getError());
+                });
+            });
+        });
+    }
+}
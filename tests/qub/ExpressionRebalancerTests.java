@@ -0,0 +1,142 @@
+package qub;
+
+public interface ExpressionRebalancerTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(ExpressionRebalancer.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final ExpressionRebalancer rebalancer = ExpressionRebalancer.create();
+                test.assertFalse(rebalancer.getRebalanceInexactChains());
+            });
+
+            runner.test("create(boolean)", (Test test) ->
+            {
+                test.assertFalse(ExpressionRebalancer.create(false).getRebalanceInexactChains());
+                test.assertTrue(ExpressionRebalancer.create(true).getRebalanceInexactChains());
+            });
+
+            runner.test("isAssociative(BinaryOperator)", (Test test) ->
+            {
+                test.assertTrue(ExpressionRebalancer.isAssociative(BinaryOperator.plus));
+                test.assertFalse(ExpressionRebalancer.isAssociative(BinaryOperator.minus));
+                test.assertTrue(ExpressionRebalancer.isAssociative(BinaryOperator.times));
+                test.assertFalse(ExpressionRebalancer.isAssociative(BinaryOperator.dividedBy));
+            });
+
+            runner.testGroup("getDepth(Expression)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    test.assertThrows(() -> ExpressionRebalancer.getDepth(null),
+                        new PreConditionFailure("expression cannot be null."));
+                });
+
+                final Action2<String,Integer> getDepthTest = (String text, Integer expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        test.assertEqual(expected.intValue(), ExpressionRebalancer.getDepth(Expression.parse(text).await()));
+                    });
+                };
+
+                getDepthTest.run("5", 1);
+                getDepthTest.run("1+2", 2);
+                getDepthTest.run("1+2+3+4", 4);
+                getDepthTest.run("1*2+3*4", 3);
+            });
+
+            runner.testGroup("rebalance(Expression)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final ExpressionRebalancer rebalancer = ExpressionRebalancer.create();
+                    test.assertThrows(() -> rebalancer.rebalance(null),
+                        new PreConditionFailure("expression cannot be null."));
+                });
+
+                final Action3<String,Boolean,Integer> rebalanceTest = (String text, Boolean rebalanceInexactChains, Integer expectedDepth) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text) + " and rebalanceInexactChains " + rebalanceInexactChains, (Test test) ->
+                    {
+                        final Expression expression = Expression.parse(text).await();
+                        final String expressionText = expression.toString();
+                        final Expression expectedValue = expression.simplify();
+
+                        final Expression rebalancedExpression = ExpressionRebalancer.create(rebalanceInexactChains).rebalance(expression);
+                        test.assertEqual(expectedDepth.intValue(), ExpressionRebalancer.getDepth(rebalancedExpression));
+                        test.assertEqual(expressionText, rebalancedExpression.toString());
+                        test.assertEqual(expressionText, expression.toString());
+                        if (!rebalanceInexactChains)
+                        {
+                            test.assertEqual(expectedValue, rebalancedExpression.simplify());
+                        }
+                    });
+                };
+
+                rebalanceTest.run("5", false, 1);
+                rebalanceTest.run("1+2", false, 2);
+                rebalanceTest.run("1+2+3+4", false, 3);
+                rebalanceTest.run("1+2+3+4+5+6+7+8", false, 4);
+                rebalanceTest.run("2*3*4*5*6*7*8*9", false, 4);
+                rebalanceTest.run("1-2-3-4-5-6-7-8", false, 8);
+                rebalanceTest.run("1/2/3/4", false, 4);
+                rebalanceTest.run("0.5+1+2+3", false, 4);
+                rebalanceTest.run("0.5+1+2+3", true, 3);
+                rebalanceTest.run("9007199254740992+1+1+1", false, 4);
+                rebalanceTest.run("9007199254740992+1+1+1", true, 3);
+                rebalanceTest.run("1+2*3+4+5", false, 5);
+                rebalanceTest.run("1+2*3+4+5", true, 4);
+                rebalanceTest.run("4503599627370495*2*1*1", false, 3);
+                rebalanceTest.run("4503599627370496*2*1*1", false, 4);
+                rebalanceTest.run("4503599627370496*2*0*1", false, 4);
+                rebalanceTest.run("4503599627370495*2*0*1", false, 3);
+
+                runner.test("with a chain that doesn't change", (Test test) ->
+                {
+                    final Expression expression = Expression.parse("1-2-3").await();
+                    test.assertSame(expression, ExpressionRebalancer.create().rebalance(expression));
+                });
+
+                runner.test("with a long exact sum", (Test test) ->
+                {
+                    Expression expression = NumberExpression.create(1);
+                    for (int i = 2; i <= 1000000; ++i)
+                    {
+                        expression = MutableBinaryExpression.create(i, BinaryOperator.plus, expression);
+                    }
+
+                    final Expression rebalancedExpression = ExpressionRebalancer.create().rebalance(expression);
+                    test.assertEqual(21, ExpressionRebalancer.getDepth(rebalancedExpression));
+                    test.assertEqual(NumberExpression.create(500000500000.0), rebalancedExpression.simplify());
+                });
+
+                runner.test("with a long inexact product", (Test test) ->
+                {
+                    Expression expression = NumberExpression.create(1.5);
+                    for (int i = 1; i < 1000; ++i)
+                    {
+                        expression = MutableBinaryExpression.create(expression, BinaryOperator.times, 1.0001);
+                    }
+
+                    test.assertEqual(1000, ExpressionRebalancer.getDepth(ExpressionRebalancer.create().rebalance(expression)));
+                    test.assertEqual(11, ExpressionRebalancer.getDepth(ExpressionRebalancer.create(true).rebalance(expression)));
+                });
+
+                runner.test("with a long subtraction chain", (Test test) ->
+                {
+                    Expression expression = NumberExpression.create(0);
+                    for (int i = 1; i < 1000000; ++i)
+                    {
+                        expression = MutableBinaryExpression.create(expression, BinaryOperator.minus, MutableBinaryExpression.create(1, BinaryOperator.plus, 1));
+                    }
+
+                    final Expression rebalancedExpression = ExpressionRebalancer.create().rebalance(expression);
+                    test.assertEqual(1000001, ExpressionRebalancer.getDepth(rebalancedExpression));
+                });
+            });
+        });
+    }
+}
@@ -0,0 +1,225 @@
+package qub;
+
+public interface ExpressionSpecializerTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(ExpressionSpecializer.class, () ->
+        {
+            runner.testGroup("create(Expression)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    test.assertThrows(() -> ExpressionSpecializer.create(null),
+                        new PreConditionFailure("expression cannot be null."));
+                });
+
+                runner.test("with an expression that has variables", (Test test) ->
+                {
+                    final Expression expression = ExpressionSpecializerTests.parse("a*x + b*y - a");
+                    final ExpressionSpecializer specializer = ExpressionSpecializer.create(expression);
+                    test.assertSame(expression, specializer.getExpression());
+                    test.assertEqual(java.util.Arrays.asList("a", "x", "b", "y"), specializer.getVariableNames());
+                    test.assertEqual(1024, specializer.getMaximumResidualCount());
+                    test.assertEqual(0, specializer.getResidualCount());
+                    test.assertEqual(0L, specializer.getCacheHitCount());
+                    test.assertEqual(0L, specializer.getSpecializationCount());
+                });
+            });
+
+            runner.test("create(Expression,int) with negative maximumResidualCount", (Test test) ->
+            {
+                test.assertThrows(() -> ExpressionSpecializer.create(NumberExpression.create(1), -1),
+                    new PreConditionFailure("maximumResidualCount (-1) must be greater than or equal to 0."));
+            });
+
+            runner.testGroup("specialize(Expression,java.util.Map<String,Double>)", () ->
+            {
+                final Action3<String,java.util.Map<String,Double>,Expression> specializeTest = (String text, java.util.Map<String,Double> binding, Expression expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text) + " and " + binding, (Test test) ->
+                    {
+                        test.assertEqual(expected, ExpressionSpecializer.specialize(ExpressionSpecializerTests.parse(text), binding));
+                    });
+                };
+
+                specializeTest.run("5", java.util.Collections.emptyMap(), NumberExpression.create(5));
+                specializeTest.run("1+2", java.util.Collections.emptyMap(), NumberExpression.create(3));
+                specializeTest.run("x", java.util.Collections.emptyMap(), VariableExpression.create("x"));
+                specializeTest.run("x", java.util.Collections.singletonMap("x", 2.5), NumberExpression.create(2.5));
+                specializeTest.run("x", java.util.Collections.singletonMap("y", 2.5), VariableExpression.create("x"));
+                specializeTest.run(
+                    "2*3 + x",
+                    java.util.Collections.emptyMap(),
+                    MutableBinaryExpression.create(6, BinaryOperator.plus, VariableExpression.create("x")));
+                specializeTest.run(
+                    "a*b + x",
+                    ExpressionSpecializerTests.binding("a", 3.0, "b", 4.0),
+                    MutableBinaryExpression.create(12, BinaryOperator.plus, VariableExpression.create("x")));
+                specializeTest.run(
+                    "a*x + b",
+                    ExpressionSpecializerTests.binding("a", 3.0, "b", 4.0),
+                    MutableBinaryExpression.create(
+                        MutableBinaryExpression.create(3, BinaryOperator.times, VariableExpression.create("x")),
+                        BinaryOperator.plus,
+                        4));
+                specializeTest.run(
+                    "a*x + b",
+                    ExpressionSpecializerTests.binding("a", 3.0, "b", 4.0, "x", 2.0),
+                    NumberExpression.create(10));
+
+                runner.test("with unchanged subtrees", (Test test) ->
+                {
+                    final MutableBinaryExpression expression = (MutableBinaryExpression)ExpressionSpecializerTests.parse("x*y + a");
+                    final MutableBinaryExpression residual = (MutableBinaryExpression)ExpressionSpecializer.specialize(expression, java.util.Collections.singletonMap("a", 1.0));
+                    test.assertSame(expression.getLeftExpression(), residual.getLeftExpression());
+                    test.assertEqual(NumberExpression.create(1), residual.getRightExpression());
+
+                    test.assertSame(expression, ExpressionSpecializer.specialize(expression, java.util.Collections.emptyMap()));
+                });
+
+                runner.test("with a deep expression", (Test test) ->
+                {
+                    final StringBuilder text = new StringBuilder("x");
+                    for (int i = 0; i < 100000; ++i)
+                    {
+                        text.append("*1");
+                    }
+                    final Expression expression = ExpressionSpecializerTests.parse(text.toString());
+
+                    test.assertEqual(NumberExpression.create(3), ExpressionSpecializer.specialize(expression, java.util.Collections.singletonMap("x", 3.0)));
+                });
+            });
+
+            runner.testGroup("specialize(java.util.Map<String,Double>)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final ExpressionSpecializer specializer = ExpressionSpecializer.create(VariableExpression.create("x"));
+                    test.assertThrows(() -> specializer.specialize(null),
+                        new PreConditionFailure("binding cannot be null."));
+                });
+
+                runner.test("with repeated bindings", (Test test) ->
+                {
+                    final ExpressionSpecializer specializer = ExpressionSpecializer.create(ExpressionSpecializerTests.parse("a*b*x + c"));
+
+                    final Expression residual1 = specializer.specialize(ExpressionSpecializerTests.binding("a", 2.0, "b", 3.0, "c", 1.0));
+                    test.assertEqual("6*x+1", residual1.toString());
+                    test.assertEqual(1, specializer.getResidualCount());
+                    test.assertEqual(0L, specializer.getCacheHitCount());
+                    test.assertEqual(1L, specializer.getSpecializationCount());
+
+                    test.assertSame(residual1, specializer.specialize(ExpressionSpecializerTests.binding("a", 2.0, "b", 3.0, "c", 1.0)));
+                    test.assertEqual(1L, specializer.getCacheHitCount());
+
+                    // Variables that the expression doesn't reference don't change the residual.
+                    test.assertSame(residual1, specializer.specialize(ExpressionSpecializerTests.binding("a", 2.0, "b", 3.0, "c", 1.0, "z", 9.0)));
+                    test.assertEqual(2L, specializer.getCacheHitCount());
+
+                    final Expression residual2 = specializer.specialize(ExpressionSpecializerTests.binding("a", 1.0, "b", 5.0, "c", 0.0));
+                    test.assertEqual("5*x+0", residual2.toString());
+                    test.assertEqual(2, specializer.getResidualCount());
+                    test.assertEqual(2L, specializer.getSpecializationCount());
+                });
+
+                runner.test("with more bindings than the maximum residual count", (Test test) ->
+                {
+                    final ExpressionSpecializer specializer = ExpressionSpecializer.create(ExpressionSpecializerTests.parse("a+x"), 2);
+                    for (int i = 0; i < 5; ++i)
+                    {
+                        test.assertEqual(i + "+x", specializer.specialize(java.util.Collections.singletonMap("a", (double)i)).toString());
+                    }
+                    test.assertEqual(2, specializer.getResidualCount());
+
+                    specializer.specialize(java.util.Collections.singletonMap("a", 4.0));
+                    test.assertEqual(0L, specializer.getCacheHitCount());
+                    test.assertEqual(6L, specializer.getSpecializationCount());
+                });
+
+                runner.test("from many threads", (Test test) ->
+                {
+                    final ExpressionSpecializer specializer = ExpressionSpecializer.create(ExpressionSpecializerTests.parse("a*x + b"));
+                    final java.util.List<Thread> threads = new java.util.ArrayList<>();
+                    final java.util.concurrent.ConcurrentLinkedQueue<Expression> residuals = new java.util.concurrent.ConcurrentLinkedQueue<>();
+                    for (int i = 0; i < 4; ++i)
+                    {
+                        threads.add(new Thread(() ->
+                        {
+                            for (int j = 0; j < 1000; ++j)
+                            {
+                                residuals.add(specializer.specialize(ExpressionSpecializerTests.binding("a", 2.0, "b", (double)(j % 3))));
+                            }
+                        }));
+                    }
+                    for (final Thread thread : threads)
+                    {
+                        thread.start();
+                    }
+                    for (final Thread thread : threads)
+                    {
+                        BoundedPipelineQueueTests.join(thread);
+                    }
+
+                    test.assertEqual(3, specializer.getResidualCount());
+                    test.assertEqual(4000L, specializer.getCacheHitCount() + specializer.getSpecializationCount());
+                    test.assertEqual(3, new java.util.HashSet<>(residuals).size());
+                });
+            });
+
+            runner.testGroup("evaluate(Expression,java.util.Map<String,Double>)", () ->
+            {
+                runner.test("with a number", (Test test) ->
+                {
+                    test.assertEqual(2.5, ExpressionSpecializer.evaluate(NumberExpression.create(2.5), java.util.Collections.emptyMap()));
+                });
+
+                runner.test("with a residual", (Test test) ->
+                {
+                    final ExpressionSpecializer specializer = ExpressionSpecializer.create(ExpressionSpecializerTests.parse("a*b*x + c - y"));
+                    final Expression residual = specializer.specialize(ExpressionSpecializerTests.binding("a", 2.0, "b", 3.0, "c", 1.0));
+                    for (int row = 0; row < 10; ++row)
+                    {
+                        test.assertEqual(6.0 * row + 1 - 0.5, ExpressionSpecializer.evaluate(residual, ExpressionSpecializerTests.binding("x", (double)row, "y", 0.5)));
+                    }
+                });
+
+                runner.test("with a missing value", (Test test) ->
+                {
+                    test.assertThrows(() -> ExpressionSpecializer.evaluate(ExpressionSpecializerTests.parse("x+y"), java.util.Collections.singletonMap("x", 1.0)),
+                        new IllegalArgumentException("The variable " + Strings.escapeAndQuote("y") + " doesn't have a value."));
+                });
+
+                runner.test("with a CompactExpression", (Test test) ->
+                {
+                    test.assertEqual(7.0, ExpressionSpecializer.evaluate(ExpressionParser.create().parseCompact("1+2*3").await(), java.util.Collections.emptyMap()));
+                });
+            });
+        });
+    }
+
+    /**
+     * Parse the provided expression text.
+     * @param text The text to parse.
+     * @return The parsed expression.
+     */
+    static Expression parse(String text)
+    {
+        return ExpressionParser.create().parse(text).await();
+    }
+
+    /**
+     * Create a binding from the provided alternating variable names and values.
+     * @param namesAndValues The alternating variable names and values.
+     * @return The binding.
+     */
+    static java.util.Map<String,Double> binding(Object... namesAndValues)
+    {
+        final java.util.Map<String,Double> result = new java.util.HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2)
+        {
+            result.put((String)namesAndValues[i], (Double)namesAndValues[i + 1]);
+        }
+        return result;
+    }
+}
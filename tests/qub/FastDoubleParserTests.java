@@ -0,0 +1,163 @@
+package qub;
+
+public interface FastDoubleParserTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(FastDoubleParser.class, () ->
+        {
+            final Action2<Test,String> assertSameAsParseDouble = (Test test, String text) ->
+            {
+                final long expectedBits = Double.doubleToRawLongBits(Double.parseDouble(text));
+
+                final long characterBits = Double.doubleToRawLongBits(FastDoubleParser.parse(text, 0, text.length()));
+                test.assertEqual(expectedBits, characterBits, text);
+
+                final byte[] bytes = ("[" + text + "]").getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+                final long byteBits = Double.doubleToRawLongBits(FastDoubleParser.parse(bytes, 1, bytes.length - 1));
+                test.assertEqual(expectedBits, byteBits, text);
+            };
+
+            runner.testGroup("parse(CharSequence,int,int)", () ->
+            {
+                runner.test("with null text", (Test test) ->
+                {
+                    test.assertThrows(() -> FastDoubleParser.parse((CharSequence)null, 0, 0),
+                        new PreConditionFailure("text cannot be null."));
+                });
+
+                runner.test("with a range in the middle of the text", (Test test) ->
+                {
+                    test.assertEqual(12.5, FastDoubleParser.parse("1+12.5*3", 2, 6));
+                });
+
+                runner.test("with invalid text", (Test test) ->
+                {
+                    test.assertThrows(() -> FastDoubleParser.parse(".", 0, 1),
+                        new NumberFormatException("For input string: \".\""));
+                });
+            });
+
+            runner.testGroup("parse(byte[],int,int)", () ->
+            {
+                runner.test("with null bytes", (Test test) ->
+                {
+                    test.assertThrows(() -> FastDoubleParser.parse((byte[])null, 0, 0),
+                        new PreConditionFailure("bytes cannot be null."));
+                });
+            });
+
+            runner.testGroup("isEightDigits(long) and parseEightDigits(long)", () ->
+            {
+                final Action2<String,Integer> eightDigitsTest = (String text, Integer expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final byte[] bytes = text.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+                        final long value = java.nio.ByteBuffer.wrap(bytes).order(java.nio.ByteOrder.LITTLE_ENDIAN).getLong();
+                        test.assertEqual(expected != null, FastDoubleParser.isEightDigits(value));
+                        if (expected != null)
+                        {
+                            test.assertEqual(expected.intValue(), FastDoubleParser.parseEightDigits(value));
+                        }
+                    });
+                };
+
+                eightDigitsTest.run("00000000", 0);
+                eightDigitsTest.run("12345678", 12345678);
+                eightDigitsTest.run("99999999", 99999999);
+                eightDigitsTest.run("00000042", 42);
+                eightDigitsTest.run("1234.678", null);
+                eightDigitsTest.run("1234567:", null);
+                eightDigitsTest.run("/1234567", null);
+            });
+
+            runner.test("with edge cases", (Test test) ->
+            {
+                final String[] texts =
+                {
+                    "0", "0.0", "000", "1", "1.", ".5", "-1.5", "+2", "0.1", "0.3",
+                    "9007199254740992", "9007199254740993", "9007199254740995",
+                    "1234567890123456789", "12345678901234567890", "18446744073709551615", "9999999999999999999",
+                    "123456781234567812345678", "00000000000000000000000001",
+                    "1e23", "8.41e21", "1e22", "1e-22", "7.3177701707893310e+15", "1448997445238699",
+                    "2.2250738585072011e-308", "2.2250738585072012e-308", "2.2250738585072014e-308",
+                    "4.9e-324", "5e-324", "2.4703282292062327e-324", "2.4703282292062328e-324",
+                    "1.7976931348623157e308", "1.7976931348623158e308", "1.7976931348623159e308",
+                    "1e-400", "1e400", "1e+10", "Infinity", "NaN",
+                };
+                for (final String text : texts)
+                {
+                    assertSameAsParseDouble.run(test, text);
+                }
+            });
+
+            runner.test("with random digit strings", (Test test) ->
+            {
+                final java.util.Random random = new java.util.Random(31);
+                for (int i = 0; i < 100000; ++i)
+                {
+                    final StringBuilder text = new StringBuilder();
+                    final int integerDigitCount = random.nextInt(22);
+                    for (int j = 0; j < integerDigitCount; ++j)
+                    {
+                        text.append((char)('0' + random.nextInt(10)));
+                    }
+                    if (integerDigitCount == 0 || random.nextBoolean())
+                    {
+                        text.append('.');
+                        final int leadingZeroCount = random.nextInt(4) == 0 ? random.nextInt(340) : 0;
+                        for (int j = 0; j < leadingZeroCount; ++j)
+                        {
+                            text.append('0');
+                        }
+                        final int fractionalDigitCount = 1 + random.nextInt(22);
+                        for (int j = 0; j < fractionalDigitCount; ++j)
+                        {
+                            text.append((char)('0' + random.nextInt(10)));
+                        }
+                    }
+                    assertSameAsParseDouble.run(test, text.toString());
+                }
+            });
+
+            runner.test("with random significands and exponents", (Test test) ->
+            {
+                final java.util.Random random = new java.util.Random(37);
+                for (int i = 0; i < 100000; ++i)
+                {
+                    final StringBuilder text = new StringBuilder();
+                    final int digitCount = 1 + random.nextInt(19);
+                    text.append((char)('1' + random.nextInt(9)));
+                    for (int j = 1; j < digitCount; ++j)
+                    {
+                        text.append((char)('0' + random.nextInt(10)));
+                    }
+                    if (digitCount > 1 && random.nextInt(4) == 0)
+                    {
+                        text.insert(1 + random.nextInt(digitCount - 1), '.');
+                    }
+                    text.append('e').append(random.nextInt(680) - 360);
+                    assertSameAsParseDouble.run(test, text.toString());
+                }
+            });
+
+            runner.test("with random doubles", (Test test) ->
+            {
+                final java.util.Random random = new java.util.Random(41);
+                for (int i = 0; i < 100000; ++i)
+                {
+                    final double value = Double.longBitsToDouble(random.nextLong() & 0x7FEFFFFFFFFFFFFFL);
+                    assertSameAsParseDouble.run(test, Double.toString(value));
+
+                    // The exact decimal halfway point between two doubles is the hardest case to round.
+                    final java.math.BigDecimal halfway = new java.math.BigDecimal(value)
+                        .add(new java.math.BigDecimal(Math.nextUp(value)))
+                        .divide(java.math.BigDecimal.valueOf(2));
+                    assertSameAsParseDouble.run(test, halfway.round(new java.math.MathContext(19)).toString());
+                    assertSameAsParseDouble.run(test, halfway.toString());
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,81 @@
+package qub;
+
+public interface LatencyHistogramTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(LatencyHistogram.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final LatencyHistogram histogram = LatencyHistogram.create();
+                test.assertEqual(0L, histogram.getCount());
+                test.assertEqual(0L, histogram.getMaximum());
+                test.assertEqual(0L, histogram.getPercentile(50));
+                test.assertEqual(0L, histogram.getPercentile(99));
+            });
+
+            runner.testGroup("getBucketIndex(long) and getBucketMaximum(int)", () ->
+            {
+                final Action1<Long> bucketTest = (Long value) ->
+                {
+                    runner.test("with " + value, (Test test) ->
+                    {
+                        final int bucketIndex = LatencyHistogram.getBucketIndex(value);
+                        final long bucketMaximum = LatencyHistogram.getBucketMaximum(bucketIndex);
+                        test.assertTrue(value <= bucketMaximum);
+                        test.assertTrue(bucketMaximum - value <= value / 16);
+                        test.assertEqual(bucketIndex, LatencyHistogram.getBucketIndex(bucketMaximum));
+                        if (bucketIndex > 0)
+                        {
+                            test.assertTrue(LatencyHistogram.getBucketMaximum(bucketIndex - 1) < value);
+                        }
+                    });
+                };
+
+                bucketTest.run(0L);
+                bucketTest.run(1L);
+                bucketTest.run(15L);
+                bucketTest.run(16L);
+                bucketTest.run(17L);
+                bucketTest.run(31L);
+                bucketTest.run(32L);
+                bucketTest.run(1000L);
+                bucketTest.run(123456789L);
+                bucketTest.run(Long.MAX_VALUE);
+            });
+
+            runner.testGroup("record(long)", () ->
+            {
+                runner.test("with -1", (Test test) ->
+                {
+                    final LatencyHistogram histogram = LatencyHistogram.create();
+                    test.assertThrows(() -> histogram.record(-1),
+                        new PreConditionFailure("nanoseconds (-1) must be greater than or equal to 0."));
+                });
+
+                runner.test("with 1 to 1000", (Test test) ->
+                {
+                    final LatencyHistogram histogram = LatencyHistogram.create();
+                    for (int i = 1; i <= 1000; ++i)
+                    {
+                        histogram.record(i);
+                    }
+                    test.assertEqual(1000L, histogram.getCount());
+                    test.assertEqual(1000L, histogram.getMaximum());
+                    test.assertEqual(1L, histogram.getPercentile(0));
+                    test.assertEqual(511L, histogram.getPercentile(50));
+                    test.assertEqual(991L, histogram.getPercentile(99));
+                    test.assertEqual(1000L, histogram.getPercentile(100));
+                });
+            });
+
+            runner.test("toString()", (Test test) ->
+            {
+                final LatencyHistogram histogram = LatencyHistogram.create();
+                histogram.record(5);
+                test.assertEqual("{\"count\":1,\"p50\":5,\"p99\":5,\"max\":5}", histogram.toString());
+            });
+        });
+    }
+}
@@ -0,0 +1,161 @@
+package qub;
+
+public interface OffHeapExpressionStoreTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(OffHeapExpressionStore.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final OffHeapExpressionStore store = OffHeapExpressionStore.create();
+                test.assertEqual(0, store.getFormulaCount());
+                test.assertEqual(0L, store.getByteCount());
+            });
+
+            runner.testGroup("create(int)", () ->
+            {
+                runner.test("with 7", (Test test) ->
+                {
+                    test.assertThrows(() -> OffHeapExpressionStore.create(7),
+                        new PreConditionFailure("chunkSize (7) must be greater than or equal to 8."));
+                });
+            });
+
+            runner.testGroup("add(String)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final OffHeapExpressionStore store = OffHeapExpressionStore.create();
+                    test.assertThrows(() -> store.add((String)null),
+                        new PreConditionFailure("text cannot be null."));
+                });
+
+                runner.test("with \"1 +\"", (Test test) ->
+                {
+                    final OffHeapExpressionStore store = OffHeapExpressionStore.create();
+                    test.assertThrows(() -> store.add("1 +").await(),
+                        new ParseException("Missing right-hand side number for 1+" + Objects.toString(null) + "."));
+                    test.assertEqual(0, store.getFormulaCount());
+                });
+
+                final Action1<String> addTest = (String text) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        // A small chunk size makes most expressions land in a chunk of their own.
+                        final OffHeapExpressionStore store = OffHeapExpressionStore.create(16);
+                        store.add("1").await();
+                        final int formulaId = store.add(text).await();
+                        test.assertEqual(1, formulaId);
+                        test.assertEqual(2, store.getFormulaCount());
+
+                        final Expression expected = Expression.parse(text).await();
+                        test.assertEqual(expected.simplify(), NumberExpression.create(store.evaluate(formulaId)));
+                        test.assertEqual(expected, store.getExpression(formulaId).toExpression());
+                        test.assertEqual(1.0, store.evaluate(0));
+                    });
+                };
+
+                addTest.run("5");
+                addTest.run("1+2");
+                addTest.run("1+2*3");
+                addTest.run("1 * 4 / 2 + 7 * 3 - 8 + 16");
+                addTest.run("1 - 2 * 3 + 4 / 5 * 6 - 7");
+            });
+
+            runner.test("evaluate(int) with invalid formula id", (Test test) ->
+            {
+                final OffHeapExpressionStore store = OffHeapExpressionStore.create();
+                store.add("1+2").await();
+                test.assertThrows(() -> store.evaluate(1),
+                    new PreConditionFailure("formulaId (1) must be between 0 and 0."));
+            });
+
+            runner.test("close()", (Test test) ->
+            {
+                final OffHeapExpressionStore store = OffHeapExpressionStore.create(16);
+                store.add("1+2").await();
+                test.assertFalse(store.isClosed());
+
+                store.close();
+                test.assertTrue(store.isClosed());
+                test.assertEqual(0L, store.getByteCount());
+                test.assertThrows(() -> store.evaluate(0),
+                    new PreConditionFailure("this.isClosed() cannot be true."));
+                test.assertThrows(() -> store.getExpression(0),
+                    new PreConditionFailure("this.isClosed() cannot be true."));
+                test.assertThrows(() -> store.add("3*4"),
+                    new PreConditionFailure("this.isClosed() cannot be true."));
+            });
+
+            runner.test("with readers while a writer adds expressions", (Test test) ->
+            {
+                // A small chunk size makes the writer add chunks (and grow the offsets) while the
+                // readers are evaluating the expressions that have already been published.
+                final OffHeapExpressionStore store = OffHeapExpressionStore.create(256);
+                final int formulaCount = 20000;
+                final java.util.concurrent.ConcurrentLinkedQueue<String> failures = new java.util.concurrent.ConcurrentLinkedQueue<>();
+                final java.util.concurrent.atomic.AtomicLong evaluationCount = new java.util.concurrent.atomic.AtomicLong();
+
+                final Thread writer = new Thread(() ->
+                {
+                    for (int i = 0; i < formulaCount; ++i)
+                    {
+                        store.add(i + " * 2 + 1 - 3 / 3").await();
+                    }
+                });
+                final java.util.List<Thread> readers = new java.util.ArrayList<>();
+                for (int i = 0; i < 3; ++i)
+                {
+                    readers.add(new Thread(() ->
+                    {
+                        try
+                        {
+                            int verifiedCount = 0;
+                            while (verifiedCount < formulaCount && failures.isEmpty())
+                            {
+                                // Every formula id below the published formula count must be
+                                // readable, including the ones that were just published.
+                                final int publishedCount = store.getFormulaCount();
+                                for (int formulaId = publishedCount - 1; formulaId >= verifiedCount; --formulaId)
+                                {
+                                    final double value = store.evaluate(formulaId);
+                                    if (value != 2.0 * formulaId)
+                                    {
+                                        failures.add("Formula " + formulaId + " evaluated to " + value + ".");
+                                    }
+                                    evaluationCount.incrementAndGet();
+                                }
+                                verifiedCount = publishedCount;
+                            }
+                        }
+                        catch (Throwable e)
+                        {
+                            failures.add(e.toString());
+                        }
+                    }));
+                }
+
+                for (final Thread reader : readers)
+                {
+                    reader.start();
+                }
+                writer.start();
+                BoundedPipelineQueueTests.join(writer);
+                for (final Thread reader : readers)
+                {
+                    BoundedPipelineQueueTests.join(reader);
+                }
+
+                test.assertEqual(java.util.Collections.emptyList(), new java.util.ArrayList<>(failures));
+                test.assertEqual(formulaCount, store.getFormulaCount());
+                test.assertTrue(evaluationCount.get() >= 3L * formulaCount);
+                for (int formulaId = 0; formulaId < formulaCount; ++formulaId)
+                {
+                    test.assertEqual(2.0 * formulaId, store.getExpression(formulaId).evaluate());
+                }
+            });
+        });
+    }
+}
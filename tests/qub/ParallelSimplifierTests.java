@@ -0,0 +1,192 @@
+package qub;
+
+public interface ParallelSimplifierTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(ParallelSimplifier.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final ParallelSimplifier simplifier = ParallelSimplifier.create();
+                test.assertEqual(java.util.concurrent.ForkJoinPool.commonPool().getParallelism(), simplifier.getParallelism());
+                test.assertEqual(16384, simplifier.getSequentialCutoff());
+            });
+
+            runner.testGroup("create(int)", () ->
+            {
+                runner.test("with 0", (Test test) ->
+                {
+                    test.assertThrows(() -> ParallelSimplifier.create(0),
+                        new PreConditionFailure("parallelism (0) must be greater than 0."));
+                });
+
+                runner.test("with 3", (Test test) ->
+                {
+                    try (final ParallelSimplifier simplifier = ParallelSimplifier.create(3))
+                    {
+                        test.assertEqual(3, simplifier.getParallelism());
+                        test.assertEqual(16384, simplifier.getSequentialCutoff());
+                    }
+                });
+            });
+
+            runner.testGroup("create(ForkJoinPool,int)", () ->
+            {
+                runner.test("with null pool", (Test test) ->
+                {
+                    test.assertThrows(() -> ParallelSimplifier.create(null, 10),
+                        new PreConditionFailure("pool cannot be null."));
+                });
+
+                runner.test("with 0 sequentialCutoff", (Test test) ->
+                {
+                    test.assertThrows(() -> ParallelSimplifier.create(java.util.concurrent.ForkJoinPool.commonPool(), 0),
+                        new PreConditionFailure("sequentialCutoff (0) must be greater than 0."));
+                });
+            });
+
+            runner.testGroup("simplify(Expression)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final ParallelSimplifier simplifier = ParallelSimplifier.create();
+                    test.assertThrows(() -> simplifier.simplify(null),
+                        new PreConditionFailure("expression cannot be null."));
+                });
+
+                final Action2<String,Integer> parsedExpressionTest = (String text, Integer sequentialCutoff) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text) + " and a sequential cutoff of " + sequentialCutoff, (Test test) ->
+                    {
+                        final Expression expression = Expression.parse(text).await();
+                        final ParallelSimplifier simplifier = ParallelSimplifier.create(java.util.concurrent.ForkJoinPool.commonPool(), sequentialCutoff);
+                        test.assertEqual(expression.simplify(), simplifier.simplify(expression));
+                    });
+                };
+
+                parsedExpressionTest.run("5", 1);
+                parsedExpressionTest.run("1+2", 1);
+                parsedExpressionTest.run("1-2*3+4", 1);
+                parsedExpressionTest.run("1-2*3+4", 100);
+                parsedExpressionTest.run("8/2/2 - 7*6 + 1/3", 1);
+                parsedExpressionTest.run("8/2/2 - 7*6 + 1/3", 2);
+
+                final Action2<Integer,Integer> balancedTreeTest = (Integer leafCount, Integer sequentialCutoff) ->
+                {
+                    runner.test("with a balanced tree of " + leafCount + " leaves and a sequential cutoff of " + sequentialCutoff, (Test test) ->
+                    {
+                        final Expression expression = ParallelSimplifierTests.createBalancedTree(0, leafCount);
+                        final Expression expected = expression.simplify();
+                        for (final int parallelism : new int[] { 1, 2, 4 })
+                        {
+                            final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(parallelism);
+                            try
+                            {
+                                final ParallelSimplifier simplifier = ParallelSimplifier.create(pool, sequentialCutoff);
+                                test.assertEqual(expected, simplifier.simplify(expression));
+                            }
+                            finally
+                            {
+                                pool.shutdown();
+                            }
+                        }
+                    });
+                };
+
+                balancedTreeTest.run(1, 1);
+                balancedTreeTest.run(2, 1);
+                balancedTreeTest.run(1000, 1);
+                balancedTreeTest.run(1000, 7);
+                balancedTreeTest.run(100000, 64);
+
+                runner.test("with a long left-leaning chain", (Test test) ->
+                {
+                    Expression expression = NumberExpression.create(0);
+                    for (int i = 1; i <= 200000; ++i)
+                    {
+                        expression = MutableBinaryExpression.create(expression, BinaryOperator.plus, 1);
+                    }
+
+                    final ParallelSimplifier simplifier = ParallelSimplifier.create(java.util.concurrent.ForkJoinPool.commonPool(), 16);
+                    test.assertEqual(NumberExpression.create(200000), simplifier.simplify(expression));
+                });
+
+                runner.test("with a long right-leaning chain", (Test test) ->
+                {
+                    Expression expression = NumberExpression.create(1);
+                    for (int i = 1; i <= 200000; ++i)
+                    {
+                        expression = MutableBinaryExpression.create(2, BinaryOperator.times, expression);
+                    }
+
+                    final ParallelSimplifier simplifier = ParallelSimplifier.create(java.util.concurrent.ForkJoinPool.commonPool(), 16);
+                    test.assertEqual(NumberExpression.create(Double.POSITIVE_INFINITY), simplifier.simplify(expression));
+                });
+            });
+
+            runner.testGroup("close()", () ->
+            {
+                runner.test("with a pool that the simplifier created", (Test test) ->
+                {
+                    final ParallelSimplifier simplifier = ParallelSimplifier.create(2);
+                    test.assertEqual(NumberExpression.create(3), simplifier.simplify(Expression.parse("1+2").await()));
+
+                    simplifier.close();
+                    test.assertThrows(() -> simplifier.simplify(Expression.parse("1+2").await()),
+                        new java.util.concurrent.RejectedExecutionException());
+                });
+
+                runner.test("with a pool that the caller owns", (Test test) ->
+                {
+                    final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(2);
+                    try
+                    {
+                        final ParallelSimplifier simplifier = ParallelSimplifier.create(pool, 16);
+                        simplifier.close();
+                        test.assertFalse(pool.isShutdown());
+                        test.assertEqual(NumberExpression.create(3), simplifier.simplify(Expression.parse("1+2").await()));
+                    }
+                    finally
+                    {
+                        pool.shutdown();
+                    }
+                });
+
+                runner.test("with the common pool", (Test test) ->
+                {
+                    final ParallelSimplifier simplifier = ParallelSimplifier.create();
+                    simplifier.close();
+                    test.assertEqual(NumberExpression.create(3), simplifier.simplify(Expression.parse("1+2").await()));
+                });
+            });
+        });
+    }
+
+    /**
+     * Create a balanced expression tree with the provided number of leaves. The leaf values and
+     * the operators depend on the position in the tree so that the operations don't commute.
+     * @param firstLeafIndex The index of the first leaf in the tree.
+     * @param leafCount The number of leaves in the tree.
+     * @return The balanced expression tree.
+     */
+    static Expression createBalancedTree(int firstLeafIndex, int leafCount)
+    {
+        final Expression result;
+        if (leafCount == 1)
+        {
+            result = NumberExpression.create(1 + (firstLeafIndex % 9) / 10.0);
+        }
+        else
+        {
+            final int leftLeafCount = leafCount / 2;
+            final BinaryOperator[] operators = { BinaryOperator.plus, BinaryOperator.minus, BinaryOperator.times, BinaryOperator.dividedBy };
+            final BinaryOperator operator = operators[(firstLeafIndex + leafCount) % operators.length];
+            result = MutableBinaryExpression.create(
+                ParallelSimplifierTests.createBalancedTree(firstLeafIndex, leftLeafCount),
+                operator,
+                ParallelSimplifierTests.createBalancedTree(firstLeafIndex + leftLeafCount, leafCount - leftLeafCount));
+        }
+        return result;
+    }
+}
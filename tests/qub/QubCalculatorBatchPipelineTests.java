@@ -0,0 +1,312 @@
+package qub;
+
+public interface QubCalculatorBatchPipelineTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(QubCalculatorBatchPipeline.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create();
+                test.assertEqual(Runtime.getRuntime().availableProcessors(), pipeline.getThreadCount());
+                test.assertEqual(1024, pipeline.getLineQueue().getItemCapacity());
+                test.assertEqual(16L * 1024 * 1024, pipeline.getLineQueue().getByteCapacity());
+                test.assertEqual(0L, pipeline.getLineCount());
+                test.assertEqual(0, pipeline.getMaximumReorderDepth());
+            });
+
+            runner.testGroup("create(int,int,long)", () ->
+            {
+                runner.test("with 0 threadCount", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorBatchPipeline.create(0, 1, 1),
+                        new PreConditionFailure("threadCount (0) must be greater than 0."));
+                });
+
+                runner.test("with 0 queueItemCapacity", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorBatchPipeline.create(1, 0, 1),
+                        new PreConditionFailure("queueItemCapacity (0) must be greater than 0."));
+                });
+
+                runner.test("with 0 queueByteCapacity", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorBatchPipeline.create(1, 1, 0),
+                        new PreConditionFailure("queueByteCapacity (0) must be greater than 0."));
+                });
+
+                runner.test("with valid arguments", (Test test) ->
+                {
+                    final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(3, 8, 1000);
+                    test.assertEqual(3, pipeline.getThreadCount());
+                    test.assertEqual(38, pipeline.getInFlightLimit());
+                    test.assertEqual("lines", pipeline.getLineQueue().getName());
+                    test.assertEqual("parsedExpressions", pipeline.getParsedExpressionQueue().getName());
+                    test.assertEqual("results", pipeline.getResultQueue().getName());
+                    test.assertEqual(8, pipeline.getResultQueue().getItemCapacity());
+                    test.assertEqual(1000L, pipeline.getResultQueue().getByteCapacity());
+                });
+            });
+
+            runner.testGroup("run(FileSystem,String,long,long,QubCalculatorResultWriter)", () ->
+            {
+                runner.test("with a range that starts after the read buffer", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        final FileSystem fileSystem = process.getFileSystem();
+                        fileSystem.setFileContentsAsString("/expressions.txt", QubCalculatorShardCoordinatorTests.createLines(2000)).await();
+                        final long startByte = QubCalculatorShardCoordinatorTests.createLines(1500).length();
+                        final long endByte = QubCalculatorShardCoordinatorTests.createLines(1900).length();
+                        final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(2, 2, 1000);
+                        final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                        final QubCalculatorResultWriter resultWriter = QubCalculatorResultWriter.create(output, QubCalculatorOutputFormat.Text);
+
+                        pipeline.run(fileSystem, "/expressions.txt", startByte, endByte, resultWriter).await();
+
+                        final String allResults = QubCalculatorShardCoordinatorTests.createResults(1900);
+                        test.assertEqual(allResults.substring(QubCalculatorShardCoordinatorTests.createResults(1500).length()), output.getText().await());
+                        test.assertEqual(400L, pipeline.getLineCount());
+                    }
+                });
+
+                runner.test("with a range that ends after the end of the file", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        final FileSystem fileSystem = process.getFileSystem();
+                        fileSystem.setFileContentsAsString("/expressions.txt", "1+2\n3*4\n").await();
+                        final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(1, 1, 1000);
+                        final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                        final QubCalculatorResultWriter resultWriter = QubCalculatorResultWriter.create(output, QubCalculatorOutputFormat.Text);
+
+                        pipeline.run(fileSystem, "/expressions.txt", 4, 100, resultWriter).await();
+
+                        test.assertEqual("12\n", output.getText().await());
+                    }
+                });
+            });
+
+            runner.testGroup("openReader(QubCalculatorInputFile,long,long)", () ->
+            {
+                runner.test("with a range in the middle of the file", (Test test) ->
+                {
+                    final String contents = QubCalculatorShardCoordinatorTests.createLines(2000);
+                    final int startByte = QubCalculatorShardCoordinatorTests.createLines(1500).length();
+                    final int endByte = QubCalculatorShardCoordinatorTests.createLines(1900).length();
+                    try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.create(contents.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                         final java.io.BufferedReader reader = QubCalculatorBatchPipeline.openReader(inputFile, startByte, endByte))
+                    {
+                        final StringBuilder text = new StringBuilder();
+                        final char[] buffer = new char[1024];
+                        int characterCount = reader.read(buffer);
+                        while (characterCount != -1)
+                        {
+                            text.append(buffer, 0, characterCount);
+                            characterCount = reader.read(buffer);
+                        }
+                        test.assertEqual(contents.substring(startByte, endByte), text.toString());
+
+                        // The bytes before the range are never read.
+                        test.assertEqual((long)(endByte - startByte), inputFile.getReadByteCount());
+                    }
+                    catch (java.io.IOException e)
+                    {
+                        test.fail(e.getMessage());
+                    }
+                });
+            });
+
+            runner.testGroup("run(java.io.BufferedReader,QubCalculatorResultWriter)", () ->
+            {
+                final Action3<String,QubCalculatorOutputFormat,String> runTest = (String input, QubCalculatorOutputFormat format, String expectedOutput) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(input) + " and " + format + " output", (Test test) ->
+                    {
+                        final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(2, 2, 1000);
+                        final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                        final QubCalculatorResultWriter resultWriter = QubCalculatorResultWriter.create(output, format);
+
+                        pipeline.run(new java.io.BufferedReader(new java.io.StringReader(input)), resultWriter).await();
+
+                        test.assertEqual(expectedOutput, output.getText().await());
+                        test.assertEqual(0, resultWriter.getBufferedCount());
+                    });
+                };
+
+                runTest.run("", QubCalculatorOutputFormat.Text, "");
+                runTest.run("1+2", QubCalculatorOutputFormat.Text, "3\n");
+                runTest.run("1+2\n3*4\n1/2\n", QubCalculatorOutputFormat.Text, "3\n12\n0.5\n");
+                runTest.run("1+2\n\n3*4", QubCalculatorOutputFormat.Text, "3\nMissing expression.\n12\n");
+                runTest.run("1 +\n5", QubCalculatorOutputFormat.Text, "Missing right-hand side number for 1+" + Objects.toString(null) + ".\n5\n");
+                runTest.run("1+2\n1+x\n5", QubCalculatorOutputFormat.Text, "3\nUnbound variable: x\n5\n");
+                runTest.run("1 x\n2*3 + y*x", QubCalculatorOutputFormat.Text, "Expected operator, but found variable (x) instead.\nUnbound variable: y\n");
+
+                runner.test("with binary-with-status output and a parse error", (Test test) ->
+                {
+                    final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(2, 2, 1000);
+                    final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                    final QubCalculatorResultWriter resultWriter = QubCalculatorResultWriter.create(output, QubCalculatorOutputFormat.BinaryWithStatus);
+
+                    pipeline.run(new java.io.BufferedReader(new java.io.StringReader("1+2\n1 +")), resultWriter).await();
+
+                    test.assertEqual(
+                        new byte[] { 0, 0, 0, 0, 0, 0, 0, 8, 64, 1, 0, 0, 0, 0, 0, 0, -8, 127 },
+                        output.getBytes());
+                });
+
+                runner.test("when run twice", (Test test) ->
+                {
+                    final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(1, 1, 1000);
+                    final QubCalculatorResultWriter resultWriter = QubCalculatorResultWriter.create(InMemoryCharacterToByteStream.create(), QubCalculatorOutputFormat.Text);
+                    pipeline.run(new java.io.BufferedReader(new java.io.StringReader("1")), resultWriter).await();
+
+                    test.assertThrows(() -> pipeline.run(new java.io.BufferedReader(new java.io.StringReader("1")), resultWriter).await(),
+                        new PreConditionFailure("this.hasRun() cannot be true."));
+                });
+            });
+
+            runner.testGroup("run(java.io.BufferedReader,Action2<NumberExpression,String>)", () ->
+            {
+                runner.test("with many lines and a throttled sink", (Test test) ->
+                {
+                    final int lineCount = 20000;
+                    final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(4, 16, 4096);
+                    final java.util.List<String> results = new java.util.ArrayList<>();
+
+                    pipeline.run(QubCalculatorBatchPipelineTests.createLineReader(lineCount), (NumberExpression result, String error) ->
+                    {
+                        results.add(error == null ? result.toString() : error);
+                        if (results.size() % 500 == 0)
+                        {
+                            QubCalculatorBatchPipelineTests.sleep(1);
+                        }
+                    });
+
+                    test.assertEqual(lineCount, results.size());
+                    for (int i = 0; i < lineCount; ++i)
+                    {
+                        test.assertEqual(Integer.toString(2 * i + 1), results.get(i));
+                    }
+                    test.assertEqual((long)lineCount, pipeline.getLineCount());
+                    for (final BoundedPipelineQueue<?> queue : java.util.Arrays.asList(pipeline.getLineQueue(), pipeline.getParsedExpressionQueue(), pipeline.getResultQueue()))
+                    {
+                        test.assertEqual(0, queue.getDepth());
+                        test.assertTrue(queue.getMaximumDepth() <= 16, queue.toString());
+                        test.assertTrue(queue.getMaximumByteDepth() <= 4096, queue.toString());
+                    }
+                    test.assertTrue(pipeline.getResultQueue().getBlockedPutCount() > 0);
+                    test.assertTrue(pipeline.getMaximumReorderDepth() < pipeline.getInFlightLimit());
+                });
+
+                runner.test("with a sink that throws", (Test test) ->
+                {
+                    final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(2, 4, 4096);
+                    final java.util.concurrent.atomic.AtomicInteger sinkCount = new java.util.concurrent.atomic.AtomicInteger();
+
+                    test.assertThrows(() -> pipeline.run(QubCalculatorBatchPipelineTests.createLineReader(1000000), (NumberExpression result, String error) ->
+                        {
+                            if (sinkCount.incrementAndGet() == 100)
+                            {
+                                throw new IllegalStateException("The output is closed.");
+                            }
+                        }),
+                        new IllegalStateException("The output is closed."));
+                    test.assertEqual(100, sinkCount.get());
+                    test.assertFalse(Thread.currentThread().isInterrupted());
+                });
+
+                runner.test("with a reader that fails", (Test test) ->
+                {
+                    final QubCalculatorBatchPipeline pipeline = QubCalculatorBatchPipeline.create(2, 4, 4096);
+                    final java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.Reader()
+                    {
+                        @Override
+                        public int read(char[] buffer, int offset, int length) throws java.io.IOException
+                        {
+                            throw new java.io.IOException("The disk is gone.");
+                        }
+
+                        @Override
+                        public void close()
+                        {
+                        }
+                    });
+
+                    try
+                    {
+                        pipeline.run(reader, (NumberExpression result, String error) -> {});
+                        test.fail("Expected a java.io.UncheckedIOException to be thrown.");
+                    }
+                    catch (java.io.UncheckedIOException e)
+                    {
+                        test.assertEqual("The disk is gone.", e.getCause().getMessage());
+                    }
+                    test.assertFalse(Thread.currentThread().isInterrupted());
+                });
+            });
+        });
+    }
+
+    /**
+     * Create a reader that generates the provided number of lines without holding them in
+     * memory. Line i is "i+i+1", so its value is 2i+1.
+     * @param lineCount The number of lines to generate.
+     * @return The reader.
+     */
+    static java.io.BufferedReader createLineReader(long lineCount)
+    {
+        return new java.io.BufferedReader(new java.io.Reader()
+        {
+            private long lineIndex;
+            private String line = "";
+            private int lineOffset;
+
+            @Override
+            public int read(char[] buffer, int offset, int length)
+            {
+                int result = 0;
+                while (result < length)
+                {
+                    if (this.lineOffset == this.line.length())
+                    {
+                        if (this.lineIndex == lineCount)
+                        {
+                            break;
+                        }
+                        this.line = this.lineIndex + "+" + this.lineIndex + "+1\n";
+                        this.lineOffset = 0;
+                        ++this.lineIndex;
+                    }
+                    final int copyLength = Math.min(length - result, this.line.length() - this.lineOffset);
+                    this.line.getChars(this.lineOffset, this.lineOffset + copyLength, buffer, offset + result);
+                    this.lineOffset += copyLength;
+                    result += copyLength;
+                }
+                return result == 0 && length > 0 ? -1 : result;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        });
+    }
+
+    /**
+     * Sleep for the provided number of milliseconds.
+     * @param milliseconds The number of milliseconds to sleep for.
+     */
+    static void sleep(long milliseconds)
+    {
+        try
+        {
+            Thread.sleep(milliseconds);
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package qub;
+
+/**
+ * Benchmarks for the calculator's evaluators. These are not run as part of the tests. Run them
+ * with "java qub.QubCalculatorBenchmarks [benchmark-name]" to print their timings.
+ */
+public class QubCalculatorBenchmarks
+{
+    private static final int[] threadCounts = { 1, 2, 4, 8, 16, 32 };
+    private static final int repetitions = 5;
+
+    public static void main(String[] args)
+    {
+        final String benchmarkName = args.length == 0 ? "all" : args[0];
+        if (benchmarkName.equals("all") || benchmarkName.equals("parallel-simplify"))
+        {
+            QubCalculatorBenchmarks.parallelSimplify(5000000);
+        }
+        if (benchmarkName.equals("all") || benchmarkName.equals("rebalance"))
+        {
+            QubCalculatorBenchmarks.rebalance(1000000);
+        }
+        if (benchmarkName.equals("all") || benchmarkName.equals("admission"))
+        {
+            QubCalculatorBenchmarks.admission(20000, 20, 1000000);
+        }
+        if (benchmarkName.equals("all") || benchmarkName.equals("backpressure"))
+        {
+            QubCalculatorBenchmarks.backpressure(2000000);
+        }
+        if (benchmarkName.equals("all") || benchmarkName.equals("sharded"))
+        {
+            QubCalculatorBenchmarks.sharded(10000000);
+        }
+        if (benchmarkName.equals("all") || benchmarkName.equals("specialize"))
+        {
+            QubCalculatorBenchmarks.specialize(1000000, 4, 200);
+        }
+    }
+
+    /**
+     * Print the time that it takes to simplify a balanced expression tree with the provided number
+     * of leaves (2 * leafCount - 1 nodes) sequentially and with 1, 2, 4, 8, 16, and 32 threads.
+     * @param leafCount The number of leaves in the balanced expression tree.
+     */
+    static void parallelSimplify(int leafCount)
+    {
+        final Expression expression = ParallelSimplifierTests.createBalancedTree(0, leafCount);
+        System.out.println("parallel-simplify: " + (2L * leafCount - 1) + " nodes");
+
+        final Expression expected = expression.simplify();
+        final long sequentialNanoseconds = QubCalculatorBenchmarks.time(() -> expression.simplify());
+        System.out.println(String.format("  sequential: %8.2f ms", sequentialNanoseconds / 1e6));
+
+        for (final int threadCount : QubCalculatorBenchmarks.threadCounts)
+        {
+            final java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(threadCount);
+            try
+            {
+                final ParallelSimplifier simplifier = ParallelSimplifier.create(pool, 1 << 14);
+                if (!expected.equals(simplifier.simplify(expression)))
+                {
+                    throw new IllegalStateException("The parallel result doesn't match the sequential result.");
+                }
+
+                final long nanoseconds = QubCalculatorBenchmarks.time(() -> simplifier.simplify(expression));
+                System.out.println(String.format("  %2d threads: %8.2f ms (%.2fx)", threadCount, nanoseconds / 1e6, (double)sequentialNanoseconds / nanoseconds));
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Print the depth, the smallest thread stack size that simplify() succeeds with, and the
+     * simplify() time of an integer sum chain and a floating-point product chain with the provided
+     * number of terms, before and after they are rebalanced. The sum is rebalanced by the default
+     * (exact) ExpressionRebalancer, and the product is rebalanced with inexact rebalancing turned
+     * on.
+     * @param termCount The number of terms in each chain.
+     */
+    static void rebalance(int termCount)
+    {
+        Expression sum = NumberExpression.create(1);
+        Expression product = NumberExpression.create(1);
+        for (int i = 2; i <= termCount; ++i)
+        {
+            sum = MutableBinaryExpression.create(sum, BinaryOperator.plus, i);
+            product = MutableBinaryExpression.create(product, BinaryOperator.times, 1.000001);
+        }
+
+        QubCalculatorBenchmarks.rebalance("integer sum", sum, ExpressionRebalancer.create());
+        QubCalculatorBenchmarks.rebalance("floating-point product", product, ExpressionRebalancer.create(true));
+    }
+
+    private static void rebalance(String name, Expression chain, ExpressionRebalancer rebalancer)
+    {
+        System.out.println("rebalance: " + name);
+
+        final long rebalanceNanoseconds = QubCalculatorBenchmarks.time(() -> rebalancer.rebalance(chain));
+        System.out.println(String.format("  rebalance:  %8.2f ms", rebalanceNanoseconds / 1e6));
+
+        final Expression rebalancedChain = rebalancer.rebalance(chain);
+        for (final Expression expression : new Expression[] { chain, rebalancedChain })
+        {
+            final long[] nanoseconds = new long[1];
+            final Expression[] value = new Expression[1];
+            QubCalculatorBenchmarks.runWithStackSize(1L << 30, () ->
+            {
+                nanoseconds[0] = QubCalculatorBenchmarks.time(() -> value[0] = expression.simplify());
+            });
+
+            System.out.println(String.format("  %s: depth %7d, stack %10d bytes, simplify %8.2f ms, value %s",
+                expression == chain ? "before" : "after ",
+                ExpressionRebalancer.getDepth(expression),
+                QubCalculatorBenchmarks.getMinimumStackSize(() -> expression.simplify()),
+                nanoseconds[0] / 1e6,
+                value[0]));
+        }
+    }
+
+    /**
+     * Print the small and large expression latencies of a mixed workload, first with every
+     * expression sharing one pool (the same total number of threads), and then with an
+     * AdmissionController that sends the large expressions to their own pool. The workload is run
+     * twice: once paced (one small expression every 20 microseconds, which the small pool keeps
+     * up with), and once saturated (every expression submitted at once, so most of the latency is
+     * time spent waiting in the small pool's queue).
+     * @param smallCount The number of small expressions to submit.
+     * @param largeCount The number of large expressions to submit, spread evenly between the small
+     * ones.
+     * @param largeTermCount The number of terms in each large expression.
+     */
+    static void admission(int smallCount, int largeCount, int largeTermCount)
+    {
+        final String largeText = AdmissionControllerTests.createSum(largeTermCount);
+        final int smallThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        System.out.println("admission: " + smallCount + " small and " + largeCount + " large (" + (2L * largeTermCount - 1) + " node) expressions");
+
+        for (final boolean saturated : new boolean[] { false, true })
+        {
+            System.out.println(saturated ? "  saturated:" : "  paced:");
+            try (final AdmissionController shared = AdmissionController.create(Long.MAX_VALUE, Long.MAX_VALUE, smallThreadCount + 1, smallCount + largeCount, 1, 1);
+                 final AdmissionController separated = AdmissionController.create(1024, Long.MAX_VALUE, smallThreadCount, smallCount, 1, largeCount))
+            {
+                for (final AdmissionController controller : new AdmissionController[] { shared, separated })
+                {
+                    final java.util.List<java.util.concurrent.CompletableFuture<Double>> results = new java.util.ArrayList<>();
+                    final int smallPerLarge = smallCount / largeCount;
+                    for (int i = 0; i < smallCount; ++i)
+                    {
+                        if (i % smallPerLarge == 0)
+                        {
+                            results.add(controller.submit(largeText));
+                        }
+                        results.add(controller.submit("1 + 2 * 3 - 4 / 5"));
+                        if (!saturated)
+                        {
+                            java.util.concurrent.locks.LockSupport.parkNanos(20000);
+                        }
+                    }
+                    for (final java.util.concurrent.CompletableFuture<Double> result : results)
+                    {
+                        result.join();
+                    }
+
+                    // The shared controller treats every expression as small, so its small
+                    // latencies include the large expressions too.
+                    System.out.println(controller == shared
+                        ? "    shared pool:    all   " + QubCalculatorBenchmarks.formatLatencies(controller.getSmallLatencies())
+                        : "    separate pools: small " + QubCalculatorBenchmarks.formatLatencies(controller.getSmallLatencies()) +
+                            ", large " + QubCalculatorBenchmarks.formatLatencies(controller.getLargeLatencies()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Print the peak heap usage and the queue depths of a QubCalculatorBatchPipeline that writes
+     * the provided number of lines to a throttled sink, once with bounded queues and once with
+     * queues that are effectively unbounded.
+     * @param lineCount The number of lines to evaluate.
+     */
+    static void backpressure(int lineCount)
+    {
+        System.out.println("backpressure: " + lineCount + " lines, sink throttled to 1 ms per 1000 lines");
+
+        final int threadCount = Runtime.getRuntime().availableProcessors();
+        final QubCalculatorBatchPipeline bounded = QubCalculatorBatchPipeline.create(threadCount, 1024, 16 * 1024 * 1024);
+        final QubCalculatorBatchPipeline unbounded = QubCalculatorBatchPipeline.create(threadCount, Integer.MAX_VALUE / 4, Long.MAX_VALUE);
+        for (final QubCalculatorBatchPipeline pipeline : new QubCalculatorBatchPipeline[] { bounded, unbounded })
+        {
+            System.gc();
+            final Runtime runtime = Runtime.getRuntime();
+            final long baselineBytes = runtime.totalMemory() - runtime.freeMemory();
+            final java.util.concurrent.atomic.AtomicLong peakBytes = new java.util.concurrent.atomic.AtomicLong();
+            final java.util.concurrent.atomic.AtomicBoolean running = new java.util.concurrent.atomic.AtomicBoolean(true);
+            final Thread sampler = new Thread(() ->
+            {
+                while (running.get())
+                {
+                    peakBytes.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory() - baselineBytes, Math::max);
+                    java.util.concurrent.locks.LockSupport.parkNanos(1000000);
+                }
+            });
+            sampler.start();
+
+            final long[] sinkCount = new long[1];
+            final long startNanoseconds = System.nanoTime();
+            pipeline.run(QubCalculatorBatchPipelineTests.createLineReader(lineCount), (NumberExpression result, String error) ->
+            {
+                if (++sinkCount[0] % 1000 == 0)
+                {
+                    java.util.concurrent.locks.LockSupport.parkNanos(1000000);
+                }
+            });
+            final long nanoseconds = System.nanoTime() - startNanoseconds;
+            running.set(false);
+            BoundedPipelineQueueTests.join(sampler);
+
+            System.out.println(String.format("  %s: %8.2f ms, peak heap %7.1f MB, maximum depths %d/%d/%d, reorder %d",
+                pipeline == bounded ? "bounded  " : "unbounded",
+                nanoseconds / 1e6,
+                peakBytes.get() / (1024.0 * 1024.0),
+                pipeline.getLineQueue().getMaximumDepth(),
+                pipeline.getParsedExpressionQueue().getMaximumDepth(),
+                pipeline.getResultQueue().getMaximumDepth(),
+                pipeline.getMaximumReorderDepth()));
+        }
+    }
+
+    /**
+     * Print the time that it takes to evaluate an input file with the provided number of lines
+     * with 1, 2, 4, 8, 16, and 32 worker processes.
+     * @param lineCount The number of lines in the input file.
+     */
+    static void sharded(int lineCount)
+    {
+        final java.nio.file.Path inputFile = QubCalculatorShardCoordinatorTests.createFile(QubCalculatorShardCoordinatorTests.createLines(lineCount));
+        try
+        {
+            System.out.println(String.format("sharded: %d lines (%.1f MB)", lineCount, inputFile.toFile().length() / (1024.0 * 1024.0)));
+
+            final String expectedResults = QubCalculatorShardCoordinatorTests.createResults(lineCount);
+            long singleProcessNanoseconds = 0;
+            for (final int processCount : QubCalculatorBenchmarks.threadCounts)
+            {
+                final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(processCount, processCount, 1);
+                final long startNanoseconds = System.nanoTime();
+                final String results = QubCalculatorShardCoordinatorTests.run(coordinator, inputFile);
+                final long nanoseconds = System.nanoTime() - startNanoseconds;
+                if (!expectedResults.equals(results))
+                {
+                    throw new IllegalStateException("The merged results don't match the expected results.");
+                }
+                if (processCount == 1)
+                {
+                    singleProcessNanoseconds = nanoseconds;
+                }
+                System.out.println(String.format("  %2d processes: %9.2f ms, %6.2f M lines/s (%.2fx)", processCount, nanoseconds / 1e6, lineCount / (nanoseconds / 1e3), (double)singleProcessNanoseconds / nanoseconds));
+            }
+        }
+        finally
+        {
+            QubCalculatorTests.deleteInputFile(inputFile);
+        }
+    }
+
+    /**
+     * Print the time that it takes to evaluate a parametrized expression for the provided number
+     * of rows, once by evaluating the whole expression for every row and once by evaluating the
+     * residual that an ExpressionSpecializer folded for the row's parameter set.
+     * @param rowCount The number of rows to evaluate.
+     * @param parameterSetCount The number of distinct parameter sets that the rows cycle through.
+     * @param parameterTermCount The number of terms in the expression that only depend on
+     * parameters.
+     */
+    static void specialize(int rowCount, int parameterSetCount, int parameterTermCount)
+    {
+        // ((p0*0 + p1*1) + ...) + x*y, built directly so that every parameter term is in the
+        // left subtree that the specializer can fold.
+        Expression parameterTerms = MutableBinaryExpression.create(VariableExpression.create("p0"), BinaryOperator.times, 0);
+        for (int i = 1; i < parameterTermCount; ++i)
+        {
+            parameterTerms = MutableBinaryExpression.create(
+                parameterTerms,
+                BinaryOperator.plus,
+                MutableBinaryExpression.create(VariableExpression.create("p" + (i % 8)), BinaryOperator.times, i));
+        }
+        final Expression expression = MutableBinaryExpression.create(
+            parameterTerms,
+            BinaryOperator.plus,
+            MutableBinaryExpression.create(VariableExpression.create("x"), BinaryOperator.times, VariableExpression.create("y")));
+        System.out.println("specialize: " + rowCount + " rows, " + parameterSetCount + " parameter sets, " + parameterTermCount + " parameter terms");
+
+        final java.util.List<java.util.Map<String,Double>> parameterSets = new java.util.ArrayList<>();
+        final java.util.List<java.util.Map<String,Double>> rowValues = new java.util.ArrayList<>();
+        for (int i = 0; i < parameterSetCount; ++i)
+        {
+            final java.util.Map<String,Double> parameterSet = new java.util.HashMap<>();
+            for (int j = 0; j < 8; ++j)
+            {
+                parameterSet.put("p" + j, (double)(i + j));
+            }
+            parameterSets.add(parameterSet);
+
+            final java.util.Map<String,Double> values = new java.util.HashMap<>(parameterSet);
+            values.put("x", 2.0);
+            values.put("y", 3.0);
+            rowValues.add(values);
+        }
+        final java.util.Map<String,Double> row = new java.util.HashMap<>();
+        row.put("x", 2.0);
+        row.put("y", 3.0);
+
+        final ExpressionSpecializer specializer = ExpressionSpecializer.create(expression);
+        final double[] sums = new double[2];
+        final long fullNanoseconds = QubCalculatorBenchmarks.time(() ->
+        {
+            sums[0] = 0;
+            for (int i = 0; i < rowCount; ++i)
+            {
+                sums[0] += ExpressionSpecializer.evaluate(expression, rowValues.get(i % parameterSetCount));
+            }
+        });
+        final long specializedNanoseconds = QubCalculatorBenchmarks.time(() ->
+        {
+            sums[1] = 0;
+            for (int i = 0; i < rowCount; ++i)
+            {
+                sums[1] += ExpressionSpecializer.evaluate(specializer.specialize(parameterSets.get(i % parameterSetCount)), row);
+            }
+        });
+        if (sums[0] != sums[1])
+        {
+            throw new IllegalStateException("The specialized result doesn't match the full result.");
+        }
+        System.out.println(String.format("  full expression per row: %9.2f ms", fullNanoseconds / 1e6));
+        System.out.println(String.format("  specialized residual:    %9.2f ms (%.2fx), %d residuals, %d cache hits", specializedNanoseconds / 1e6, (double)fullNanoseconds / specializedNanoseconds, specializer.getResidualCount(), specializer.getCacheHitCount()));
+    }
+
+    private static String formatLatencies(LatencyHistogram latencies)
+    {
+        return String.format("p50 %8.3f ms, p99 %8.3f ms", latencies.getPercentile(50) / 1e6, latencies.getPercentile(99) / 1e6);
+    }
+
+    /**
+     * Run the provided action on a new thread with the provided stack size and wait for it to
+     * finish.
+     * @param stackSize The stack size in bytes of the new thread.
+     * @param action The action to run.
+     * @return Whether or not the action finished without overflowing the stack.
+     */
+    private static boolean runWithStackSize(long stackSize, Action0 action)
+    {
+        final boolean[] result = new boolean[1];
+        final Thread thread = new Thread(null, () ->
+        {
+            try
+            {
+                action.run();
+                result[0] = true;
+            }
+            catch (StackOverflowError error)
+            {
+                result[0] = false;
+            }
+        }, "benchmark", stackSize);
+        thread.start();
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        return result[0];
+    }
+
+    /**
+     * Get the smallest power of two thread stack size (starting at 64 KB) that the provided action
+     * can run with without overflowing the stack.
+     * @param action The action to run.
+     * @return The smallest power of two thread stack size that the action succeeded with.
+     */
+    private static long getMinimumStackSize(Action0 action)
+    {
+        long result = 64 * 1024;
+        while (!QubCalculatorBenchmarks.runWithStackSize(result, action))
+        {
+            result *= 2;
+        }
+        return result;
+    }
+
+    /**
+     * Get the fastest time in nanoseconds of several runs of the provided action.
+     * @param action The action to time.
+     * @return The fastest time in nanoseconds.
+     */
+    static long time(Action0 action)
+    {
+        long result = Long.MAX_VALUE;
+        for (int i = 0; i < QubCalculatorBenchmarks.repetitions; ++i)
+        {
+            final long startNanoseconds = System.nanoTime();
+            action.run();
+            result = Math.min(result, System.nanoTime() - startNanoseconds);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package qub;
+
+public interface QubCalculatorInputFileTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(QubCalculatorInputFile.class, () ->
+        {
+            runner.testGroup("open(FileSystem,String)", () ->
+            {
+                runner.test("with a file that doesn't exist", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        test.assertThrows(() -> QubCalculatorInputFile.open(process.getFileSystem(), "/expressions.txt"),
+                            new FileNotFoundException("/expressions.txt"));
+                    }
+                });
+
+                runner.test("with a file in an in-memory file system", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        process.getFileSystem().setFileContentsAsString("/expressions.txt", "1+2\n3*4\n").await();
+                        try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.open(process.getFileSystem(), "/expressions.txt"))
+                        {
+                            test.assertEqual(8L, inputFile.getByteCount());
+                            test.assertEqual(0L, inputFile.getReadByteCount());
+                        }
+                    }
+                });
+
+                runner.test("with a file in a JavaFileSystem", (Test test) ->
+                {
+                    final java.nio.file.Path filePath = QubCalculatorShardCoordinatorTests.createFile("1+2\n3*4\n");
+                    try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.open(JavaFileSystem.create(), filePath.toString()))
+                    {
+                        test.assertEqual(8L, inputFile.getByteCount());
+
+                        final byte[] buffer = new byte[4];
+                        test.assertEqual(4, inputFile.read(4, buffer, 0, 4));
+                        test.assertEqual("3*4\n", new String(buffer, java.nio.charset.StandardCharsets.UTF_8));
+                        test.assertEqual(4L, inputFile.getReadByteCount());
+                    }
+                    finally
+                    {
+                        QubCalculatorTests.deleteInputFile(filePath);
+                    }
+                });
+            });
+
+            runner.testGroup("read(long,byte[],int,int)", () ->
+            {
+                runner.test("with a position in the file", (Test test) ->
+                {
+                    try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.create(new byte[] { 1, 2, 3, 4, 5 }))
+                    {
+                        final byte[] buffer = new byte[4];
+                        test.assertEqual(3, inputFile.read(2, buffer, 1, 3));
+                        test.assertEqual(new byte[] { 0, 3, 4, 5 }, buffer);
+                        test.assertEqual(3L, inputFile.getReadByteCount());
+                    }
+                });
+
+                runner.test("with a position at the end of the file", (Test test) ->
+                {
+                    try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.create(new byte[] { 1, 2, 3 }))
+                    {
+                        test.assertEqual(-1, inputFile.read(3, new byte[4], 0, 4));
+                        test.assertEqual(0L, inputFile.getReadByteCount());
+                    }
+                });
+            });
+
+            runner.testGroup("openInputStream(long,long)", () ->
+            {
+                final Action3<Long,Long,String> openInputStreamTest = (Long startByte, Long endByte, String expected) ->
+                {
+                    runner.test("with " + startByte + " and " + endByte, (Test test) ->
+                    {
+                        try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.create("1+2\n3*4\n6/4\n".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                             final java.io.InputStream input = inputFile.openInputStream(startByte, endByte))
+                        {
+                            final java.io.ByteArrayOutputStream output = new java.io.ByteArrayOutputStream();
+                            int value = input.read();
+                            while (value != -1)
+                            {
+                                output.write(value);
+                                value = input.read();
+                            }
+                            test.assertEqual(expected, new String(output.toByteArray(), java.nio.charset.StandardCharsets.UTF_8));
+                            test.assertEqual((long)expected.length(), inputFile.getReadByteCount());
+                        }
+                        catch (java.io.IOException e)
+                        {
+                            test.fail(e.getMessage());
+                        }
+                    });
+                };
+
+                openInputStreamTest.run(0L, -1L, "1+2\n3*4\n6/4\n");
+                openInputStreamTest.run(4L, 8L, "3*4\n");
+                openInputStreamTest.run(8L, -1L, "6/4\n");
+                openInputStreamTest.run(8L, 100L, "6/4\n");
+                openInputStreamTest.run(12L, 12L, "");
+                openInputStreamTest.run(20L, -1L, "");
+            });
+        });
+    }
+}
@@ -58,6 +58,87 @@ public interface QubCalculatorParametersTests
                     final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, expressionString);
                     test.assertSame(output, parameters.getOutput());
                     test.assertEqual(expressionString, parameters.getExpressionString());
+                    test.assertEqual(QubCalculatorOutputFormat.Text, parameters.getOutputFormat());
+                });
+            });
+
+            runner.testGroup("create(CharacterWriteStream,String,QubCalculatorOutputFormat)", () ->
+            {
+                runner.test("with null outputFormat", (Test test) ->
+                {
+                    final CharacterWriteStream output = InMemoryCharacterStream.create();
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                        .setIsVerbose(false);
+                    test.assertThrows(() -> QubCalculatorParameters.create(output, verbose, "1 + 2", null),
+                        new PreConditionFailure("outputFormat cannot be null."));
+                });
+
+                runner.test("with binary outputFormat and an output that can't write bytes", (Test test) ->
+                {
+                    final CharacterWriteStream output = InMemoryCharacterStream.create();
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                        .setIsVerbose(false);
+                    test.assertThrows(() -> QubCalculatorParameters.create(output, verbose, "1 + 2", QubCalculatorOutputFormat.Binary),
+                        new PreConditionFailure("!outputFormat.isBinary() || output instanceof ByteWriteStream cannot be false."));
+                });
+
+                runner.test("with binary-with-status outputFormat", (Test test) ->
+                {
+                    final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                        .setIsVerbose(false);
+                    final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "1 + 2", QubCalculatorOutputFormat.BinaryWithStatus);
+                    test.assertSame(output, parameters.getOutput());
+                    test.assertEqual(QubCalculatorOutputFormat.BinaryWithStatus, parameters.getOutputFormat());
+                });
+            });
+
+            runner.testGroup("create(CharacterWriteStream,String,QubCalculatorOutputFormat,FileSystem,String)", () ->
+            {
+                runner.test("with null inputFilePath and empty expressionString", (Test test) ->
+                {
+                    final CharacterWriteStream output = InMemoryCharacterStream.create();
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                        .setIsVerbose(false);
+                    test.assertThrows(() -> QubCalculatorParameters.create(output, verbose, "", QubCalculatorOutputFormat.Text, null, null),
+                        new PreConditionFailure("expressionString cannot be empty."));
+                });
+
+                runner.test("with inputFilePath and null fileSystem", (Test test) ->
+                {
+                    final CharacterWriteStream output = InMemoryCharacterStream.create();
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                        .setIsVerbose(false);
+                    test.assertThrows(() -> QubCalculatorParameters.create(output, verbose, "", QubCalculatorOutputFormat.Text, null, "/expressions.txt"),
+                        new PreConditionFailure("fileSystem cannot be null."));
+                });
+
+                runner.test("with empty inputFilePath", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        final CharacterWriteStream output = InMemoryCharacterStream.create();
+                        final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                            .setIsVerbose(false);
+                        test.assertThrows(() -> QubCalculatorParameters.create(output, verbose, "", QubCalculatorOutputFormat.Text, process.getFileSystem(), ""),
+                            new PreConditionFailure("inputFilePath cannot be empty."));
+                    }
+                });
+
+                runner.test("with inputFilePath and empty expressionString", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        final CharacterWriteStream output = InMemoryCharacterStream.create();
+                        final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                            .setIsVerbose(false);
+                        final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "", QubCalculatorOutputFormat.Text, process.getFileSystem(), "/expressions.txt");
+                        test.assertSame(output, parameters.getOutput());
+                        test.assertEqual("", parameters.getExpressionString());
+                        test.assertEqual(QubCalculatorOutputFormat.Text, parameters.getOutputFormat());
+                        test.assertSame(process.getFileSystem(), parameters.getFileSystem());
+                        test.assertEqual("/expressions.txt", parameters.getInputFilePath());
+                    }
                 });
             });
         });
@@ -0,0 +1,104 @@
+package qub;
+
+public interface QubCalculatorResultWriterTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(QubCalculatorResultWriter.class, () ->
+        {
+            runner.testGroup("create(CharacterWriteStream,QubCalculatorOutputFormat)", () ->
+            {
+                runner.test("with null output", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorResultWriter.create(null, QubCalculatorOutputFormat.Text),
+                        new PreConditionFailure("output cannot be null."));
+                });
+
+                runner.test("with null format", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorResultWriter.create(InMemoryCharacterStream.create(), null),
+                        new PreConditionFailure("format cannot be null."));
+                });
+
+                runner.test("with binary format and a stream that can't write bytes", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorResultWriter.create(InMemoryCharacterStream.create(), QubCalculatorOutputFormat.Binary),
+                        new PreConditionFailure("!format.isBinary() || output instanceof ByteWriteStream cannot be false."));
+                });
+            });
+
+            runner.test("with text format", (Test test) ->
+            {
+                final InMemoryCharacterStream output = InMemoryCharacterStream.create();
+                final QubCalculatorResultWriter writer = QubCalculatorResultWriter.create(output, QubCalculatorOutputFormat.Text);
+
+                writer.writeResult(NumberExpression.create(3));
+                writer.writeResult(NumberExpression.create(0.5));
+                writer.writeError("Missing expression.");
+                test.assertEqual("", output.getText().await());
+                test.assertEqual(26, writer.getBufferedCount());
+
+                writer.flush();
+                test.assertEqual("3\n0.5\nMissing expression.\n", output.getText().await());
+                test.assertEqual(0, writer.getBufferedCount());
+            });
+
+            runner.test("with text format and a full buffer", (Test test) ->
+            {
+                final InMemoryCharacterStream output = InMemoryCharacterStream.create();
+                final QubCalculatorResultWriter writer = QubCalculatorResultWriter.create(output, QubCalculatorOutputFormat.Text, 10);
+
+                writer.writeResult(NumberExpression.create(100));
+                writer.writeResult(NumberExpression.create(200));
+                test.assertEqual("", output.getText().await());
+
+                writer.writeResult(NumberExpression.create(300));
+                test.assertEqual("100\n200\n", output.getText().await());
+
+                writer.flush();
+                test.assertEqual("100\n200\n300\n", output.getText().await());
+            });
+
+            runner.test("with text format and a carriage return new line", (Test test) ->
+            {
+                final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                output.setNewLine("\r\n");
+                final QubCalculatorResultWriter writer = QubCalculatorResultWriter.create(output, QubCalculatorOutputFormat.Text, 10);
+
+                writer.writeResult(NumberExpression.create(100));
+                writer.writeResult(NumberExpression.create(200));
+                test.assertEqual("100\r\n200\r\n", output.getText().await());
+
+                writer.writeError("Missing expression.");
+                writer.flush();
+                test.assertEqual("100\r\n200\r\nMissing expression.\r\n", output.getText().await());
+            });
+
+            runner.test("with binary format", (Test test) ->
+            {
+                final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                final QubCalculatorResultWriter writer = QubCalculatorResultWriter.create(output, QubCalculatorOutputFormat.Binary, 9);
+
+                writer.writeResult(NumberExpression.create(3));
+                writer.writeError("Missing expression.");
+                writer.flush();
+                test.assertEqual(
+                    new byte[] { 0, 0, 0, 0, 0, 0, 8, 64, 0, 0, 0, 0, 0, 0, -8, 127 },
+                    output.getBytes());
+            });
+
+            runner.test("with binary-with-status format", (Test test) ->
+            {
+                final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                final QubCalculatorResultWriter writer = QubCalculatorResultWriter.create(output, QubCalculatorOutputFormat.BinaryWithStatus);
+
+                writer.writeResult(NumberExpression.create(3));
+                writer.writeError("Missing expression.");
+                writer.flush();
+                test.assertEqual(
+                    new byte[] { 0, 0, 0, 0, 0, 0, 0, 8, 64, 1, 0, 0, 0, 0, 0, 0, -8, 127 },
+                    output.getBytes());
+            });
+        });
+    }
+}
@@ -0,0 +1,408 @@
+package qub;
+
+public interface QubCalculatorShardCoordinatorTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(QubCalculatorShardCoordinator.class, () ->
+        {
+            runner.testGroup("create(int)", () ->
+            {
+                runner.test("with 0", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorShardCoordinator.create(0),
+                        new PreConditionFailure("processCount (0) must be greater than 0."));
+                });
+
+                runner.test("with 4", (Test test) ->
+                {
+                    final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(4);
+                    test.assertEqual(4, coordinator.getProcessCount());
+                    test.assertEqual(4, coordinator.getShardCount());
+                    test.assertEqual(3, coordinator.getMaximumAttempts());
+                    test.assertEqual(java.time.Duration.ofHours(1), coordinator.getWorkerTimeout());
+                    test.assertEqual(0, coordinator.getAttemptCount());
+                    test.assertEqual(0, coordinator.getFailedAttemptCount());
+                });
+            });
+
+            runner.testGroup("create(int,int,int)", () ->
+            {
+                runner.test("with 0 shardCount", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorShardCoordinator.create(1, 0, 1),
+                        new PreConditionFailure("shardCount (0) must be greater than 0."));
+                });
+
+                runner.test("with 0 maximumAttempts", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorShardCoordinator.create(1, 1, 0),
+                        new PreConditionFailure("maximumAttempts (0) must be greater than 0."));
+                });
+            });
+
+            runner.testGroup("create(int,int,int,java.time.Duration)", () ->
+            {
+                runner.test("with null workerTimeout", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorShardCoordinator.create(1, 1, 1, (java.time.Duration)null),
+                        new PreConditionFailure("workerTimeout cannot be null."));
+                });
+
+                runner.test("with zero workerTimeout", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorShardCoordinator.create(1, 1, 1, java.time.Duration.ZERO),
+                        new PreConditionFailure("workerTimeout.isNegative() || workerTimeout.isZero() cannot be true."));
+                });
+
+                runner.test("with valid arguments", (Test test) ->
+                {
+                    final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(2, 4, 1, java.time.Duration.ofSeconds(30));
+                    test.assertEqual(2, coordinator.getProcessCount());
+                    test.assertEqual(4, coordinator.getShardCount());
+                    test.assertEqual(1, coordinator.getMaximumAttempts());
+                    test.assertEqual(java.time.Duration.ofSeconds(30), coordinator.getWorkerTimeout());
+                });
+            });
+
+            runner.test("getDefaultWorkerCommand(int)", (Test test) ->
+            {
+                final java.util.List<String> command = QubCalculatorShardCoordinator.getDefaultWorkerCommand(1);
+                test.assertEqual(5, command.size());
+                test.assertTrue(command.get(0).startsWith(System.getProperty("java.home")));
+                test.assertEqual("-XX:ActiveProcessorCount=" + Runtime.getRuntime().availableProcessors(), command.get(1));
+                test.assertEqual("-cp", command.get(2));
+                test.assertEqual(System.getProperty("java.class.path"), command.get(3));
+                test.assertEqual("qub.QubCalculatorShardWorker", command.get(4));
+            });
+
+            runner.testGroup("getShardBoundaries(FileSystem,String,int)", () ->
+            {
+                final Action3<String,Integer,long[]> boundariesTest = (String contents, Integer shardCount, long[] expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(contents) + " and " + shardCount + " shards", (Test test) ->
+                    {
+                        try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                        {
+                            final FileSystem fileSystem = process.getFileSystem();
+                            fileSystem.setFileContentsAsString("/expressions.txt", contents).await();
+                            test.assertEqual(java.util.Arrays.toString(expected), java.util.Arrays.toString(QubCalculatorShardCoordinator.getShardBoundaries(fileSystem, "/expressions.txt", shardCount)));
+                        }
+                    });
+                };
+
+                boundariesTest.run("", 1, new long[] { 0, 0 });
+                boundariesTest.run("", 3, new long[] { 0, 0, 0, 0 });
+                boundariesTest.run("1+2\n3*4\n6/4\n2*3*4\n", 1, new long[] { 0, 18 });
+                boundariesTest.run("1+2\n3*4\n6/4\n2*3*4\n", 2, new long[] { 0, 12, 18 });
+                boundariesTest.run("1+2\n3*4\n6/4\n2*3*4\n", 3, new long[] { 0, 8, 12, 18 });
+                boundariesTest.run("1+2\n3*4\n6/4\n2*3*4\n", 18, new long[] { 0, 4, 4, 4, 4, 8, 8, 8, 8, 12, 12, 12, 12, 18, 18, 18, 18, 18, 18 });
+                boundariesTest.run("1+2\n3*4\n6/4\n2*3*4", 2, new long[] { 0, 8, 17 });
+                boundariesTest.run("1+2+3+4+5+6+7+8+9\n1", 4, new long[] { 0, 18, 18, 18, 19 });
+
+                runner.test("with a file that is larger than the read buffer", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        final FileSystem fileSystem = process.getFileSystem();
+                        fileSystem.setFileContentsAsString("/expressions.txt", QubCalculatorShardCoordinatorTests.createLines(10000)).await();
+                        test.assertEqual("[0, 29634, 59262, 88890]", java.util.Arrays.toString(QubCalculatorShardCoordinator.getShardBoundaries(fileSystem, "/expressions.txt", 3)));
+                    }
+                });
+
+                runner.test("with a file that is much larger than the lines at the boundaries", (Test test) ->
+                {
+                    final byte[] contents = QubCalculatorShardCoordinatorTests.createLines(100000).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                    try (final QubCalculatorInputFile inputFile = QubCalculatorInputFile.create(contents))
+                    {
+                        final long[] boundaries = QubCalculatorShardCoordinator.getShardBoundaries(inputFile, 4);
+                        test.assertEqual(5, boundaries.length);
+                        test.assertEqual((long)contents.length, boundaries[4]);
+                        for (int i = 1; i < 4; ++i)
+                        {
+                            test.assertEqual((byte)'\n', contents[(int)boundaries[i] - 1]);
+                        }
+
+                        // Each boundary only reads forward from its target offset, instead of
+                        // reading the file from the start.
+                        test.assertTrue(inputFile.getReadByteCount() <= 3 * 8 * 1024);
+                    }
+                });
+
+                runner.test("with a file that doesn't exist", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        test.assertThrows(() -> QubCalculatorShardCoordinator.getShardBoundaries(process.getFileSystem(), "/expressions.txt", 2),
+                            new FileNotFoundException("/expressions.txt"));
+                    }
+                });
+            });
+
+            runner.testGroup("run(FileSystem,String,QubCalculatorOutputFormat,Action1<Path>)", () ->
+            {
+                runner.test("with several shards", (Test test) ->
+                {
+                    final java.nio.file.Path inputFile = QubCalculatorShardCoordinatorTests.createFile(QubCalculatorShardCoordinatorTests.createLines(1000));
+                    try
+                    {
+                        final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(3, 5, 1, QubCalculatorShardCoordinatorTests.workerTimeout, QubCalculatorShardCoordinatorTests.getWorkerCommand());
+                        final String output = QubCalculatorShardCoordinatorTests.run(coordinator, inputFile);
+                        test.assertEqual(QubCalculatorShardCoordinatorTests.createResults(1000), output);
+                        test.assertEqual(5, coordinator.getAttemptCount());
+                        test.assertEqual(0, coordinator.getFailedAttemptCount());
+                    }
+                    finally
+                    {
+                        QubCalculatorTests.deleteInputFile(inputFile);
+                    }
+                });
+
+                runner.test("with an empty file", (Test test) ->
+                {
+                    final java.nio.file.Path inputFile = QubCalculatorShardCoordinatorTests.createFile("");
+                    try
+                    {
+                        final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(2, 2, 1, QubCalculatorShardCoordinatorTests.workerTimeout, QubCalculatorShardCoordinatorTests.getWorkerCommand());
+                        test.assertEqual("", QubCalculatorShardCoordinatorTests.run(coordinator, inputFile));
+                        test.assertEqual(0, coordinator.getAttemptCount());
+                    }
+                    finally
+                    {
+                        QubCalculatorTests.deleteInputFile(inputFile);
+                    }
+                });
+
+                runner.test("with a worker that fails once", (Test test) ->
+                {
+                    final java.nio.file.Path inputFile = QubCalculatorShardCoordinatorTests.createFile(QubCalculatorShardCoordinatorTests.createLines(100));
+                    final java.nio.file.Path failureMarker = QubCalculatorShardCoordinatorTests.createFile("");
+                    QubCalculatorTests.deleteInputFile(failureMarker);
+                    try
+                    {
+                        final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(2, 3, 2, QubCalculatorShardCoordinatorTests.workerTimeout, QubCalculatorShardCoordinatorTests.getWorkerCommand("--fail-once=" + failureMarker));
+                        final String output = QubCalculatorShardCoordinatorTests.run(coordinator, inputFile);
+                        test.assertEqual(QubCalculatorShardCoordinatorTests.createResults(100), output);
+                        test.assertEqual(4, coordinator.getAttemptCount());
+                        test.assertEqual(1, coordinator.getFailedAttemptCount());
+                    }
+                    finally
+                    {
+                        QubCalculatorTests.deleteInputFile(inputFile);
+                        QubCalculatorTests.deleteInputFile(failureMarker);
+                    }
+                });
+
+                runner.test("with a worker that always fails", (Test test) ->
+                {
+                    final java.nio.file.Path inputFile = QubCalculatorShardCoordinatorTests.createFile("1+2\n3*4\n");
+                    try
+                    {
+                        final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(1, 1, 2, QubCalculatorShardCoordinatorTests.workerTimeout, QubCalculatorShardCoordinatorTests.getWorkerCommand("--fail-always"));
+                        test.assertThrows(() -> QubCalculatorShardCoordinatorTests.run(coordinator, inputFile),
+                            new ShardFailedException("Shard 0 (bytes 0 to 8) failed 2 times. The last attempt exited with code 1: The worker failed."));
+                        test.assertEqual(2, coordinator.getAttemptCount());
+                        test.assertEqual(2, coordinator.getFailedAttemptCount());
+                    }
+                    finally
+                    {
+                        QubCalculatorTests.deleteInputFile(inputFile);
+                    }
+                });
+
+                runner.test("with a worker that hangs once", (Test test) ->
+                {
+                    final java.nio.file.Path inputFile = QubCalculatorShardCoordinatorTests.createFile(QubCalculatorShardCoordinatorTests.createLines(100));
+                    final java.nio.file.Path hangMarker = QubCalculatorShardCoordinatorTests.createFile("");
+                    QubCalculatorTests.deleteInputFile(hangMarker);
+                    try
+                    {
+                        final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(1, 1, 2, QubCalculatorShardCoordinatorTests.workerTimeout, QubCalculatorShardCoordinatorTests.getWorkerCommand("--hang-once=" + hangMarker));
+                        final String output = QubCalculatorShardCoordinatorTests.run(coordinator, inputFile);
+                        test.assertEqual(QubCalculatorShardCoordinatorTests.createResults(100), output);
+                        test.assertEqual(2, coordinator.getAttemptCount());
+                        test.assertEqual(1, coordinator.getFailedAttemptCount());
+                    }
+                    finally
+                    {
+                        QubCalculatorTests.deleteInputFile(inputFile);
+                        QubCalculatorTests.deleteInputFile(hangMarker);
+                    }
+                });
+
+                runner.test("with a worker that always hangs", (Test test) ->
+                {
+                    final java.nio.file.Path inputFile = QubCalculatorShardCoordinatorTests.createFile("1+2\n3*4\n");
+                    try
+                    {
+                        final QubCalculatorShardCoordinator coordinator = QubCalculatorShardCoordinator.create(1, 1, 2, java.time.Duration.ofMillis(500), QubCalculatorShardCoordinatorTests.getWorkerCommand("--hang-always"));
+                        test.assertThrows(() -> QubCalculatorShardCoordinatorTests.run(coordinator, inputFile),
+                            new ShardFailedException("Shard 0 (bytes 0 to 8) failed 2 times. The last attempt didn't finish within 500 milliseconds."));
+                        test.assertEqual(2, coordinator.getAttemptCount());
+                        test.assertEqual(2, coordinator.getFailedAttemptCount());
+                    }
+                    finally
+                    {
+                        QubCalculatorTests.deleteInputFile(inputFile);
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * The time that the test workers have to evaluate their shards. This is much longer than a
+     * worker that doesn't hang needs, even on a slow or busy machine, so that only a worker that
+     * was told to hang can time out. A test that expects every attempt to time out can use a
+     * shorter timeout, because no attempt is expected to finish.
+     */
+    java.time.Duration workerTimeout = java.time.Duration.ofSeconds(30);
+
+    /**
+     * Run the provided coordinator on the provided input file, and return the merged text output.
+     * @param coordinator The coordinator to run.
+     * @param inputFile The input file to evaluate.
+     * @return The merged text output of the shards.
+     */
+    static String run(QubCalculatorShardCoordinator coordinator, java.nio.file.Path inputFile)
+    {
+        final FileSystem fileSystem = JavaFileSystem.create();
+        final StringBuilder result = new StringBuilder();
+        coordinator.run(fileSystem, inputFile.toString(), QubCalculatorOutputFormat.Text, (Path shardOutputPath) ->
+        {
+            result.append(fileSystem.getFileContentsAsString(shardOutputPath).await());
+        });
+        return result.toString();
+    }
+
+    /**
+     * Get the command that starts a Worker with the class path of this process.
+     * @param workerArguments The arguments that control how the Worker fails.
+     * @return The command that starts a Worker.
+     */
+    static java.util.List<String> getWorkerCommand(String... workerArguments)
+    {
+        final java.util.List<String> result = new java.util.ArrayList<>(java.util.Arrays.asList(
+            java.nio.file.Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp",
+            System.getProperty("java.class.path"),
+            Worker.class.getName()));
+        result.addAll(java.util.Arrays.asList(workerArguments));
+        return result;
+    }
+
+    /**
+     * Create a temporary file with the provided contents.
+     * @param contents The contents of the file.
+     * @return The path of the new file.
+     */
+    static java.nio.file.Path createFile(String contents)
+    {
+        final java.nio.file.Path result = QubCalculatorTests.createInputFile();
+        try
+        {
+            java.nio.file.Files.write(result, contents.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        }
+        catch (java.io.IOException e)
+        {
+            throw new java.io.UncheckedIOException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Create the provided number of lines. Line i is "i*2+1".
+     * @param lineCount The number of lines to create.
+     * @return The lines.
+     */
+    static String createLines(int lineCount)
+    {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lineCount; ++i)
+        {
+            result.append(i).append("*2+1\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Create the text results of the lines that createLines() creates.
+     * @param lineCount The number of lines.
+     * @return The text results.
+     */
+    static String createResults(int lineCount)
+    {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lineCount; ++i)
+        {
+            result.append(i * 2 + 1).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * A worker process that evaluates its shard with QubCalculatorShardWorker. It can also be told
+     * to fail or to hang so that the coordinator's retries and timeouts can be tested.
+     */
+    class Worker
+    {
+        public static void main(String[] args) throws java.io.IOException, InterruptedException
+        {
+            final java.util.List<String> workerArguments = new java.util.ArrayList<>();
+            for (final String argument : args)
+            {
+                if (argument.equals("--fail-always"))
+                {
+                    Worker.fail();
+                }
+                else if (argument.startsWith("--fail-once="))
+                {
+                    final java.nio.file.Path failureMarker = java.nio.file.Paths.get(argument.substring("--fail-once=".length()));
+                    try
+                    {
+                        java.nio.file.Files.createFile(failureMarker);
+                        Worker.fail();
+                    }
+                    catch (java.nio.file.FileAlreadyExistsException e)
+                    {
+                        // Another attempt already failed.
+                    }
+                }
+                else if (argument.equals("--hang-always"))
+                {
+                    Worker.hang();
+                }
+                else if (argument.startsWith("--hang-once="))
+                {
+                    final java.nio.file.Path hangMarker = java.nio.file.Paths.get(argument.substring("--hang-once=".length()));
+                    try
+                    {
+                        java.nio.file.Files.createFile(hangMarker);
+                        Worker.hang();
+                    }
+                    catch (java.nio.file.FileAlreadyExistsException e)
+                    {
+                        // Another attempt already hung.
+                    }
+                }
+                else
+                {
+                    workerArguments.add(argument);
+                }
+            }
+
+            QubCalculatorShardWorker.main(workerArguments.toArray(new String[0]));
+        }
+
+        private static void fail()
+        {
+            System.err.println("The worker failed.");
+            System.exit(1);
+        }
+
+        private static void hang() throws InterruptedException
+        {
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+}
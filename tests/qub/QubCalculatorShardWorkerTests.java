@@ -0,0 +1,96 @@
+package qub;
+
+public interface QubCalculatorShardWorkerTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(QubCalculatorShardWorker.class, () ->
+        {
+            runner.testGroup("main(String[])", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorShardWorker.main((String[])null),
+                        new PreConditionFailure("args cannot be null."));
+                });
+            });
+
+            runner.testGroup("getParameters(DesktopProcess)", () ->
+            {
+                runner.test("with null Process", (Test test) ->
+                {
+                    test.assertThrows(() -> QubCalculatorShardWorker.getParameters(null),
+                        new PreConditionFailure("process cannot be null."));
+                });
+
+                runner.test("with no command-line arguments", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        test.assertNull(QubCalculatorShardWorker.getParameters(process));
+
+                        test.assertEqual(
+                            Iterable.create(
+                                "Usage: qub-calculator-shard-worker [--input-file=<path>] [--input-start=<byte>] [--input-end=<byte>] [--output-format=<format>] [--verbose] [--help]",
+                                "  Evaluate a byte range of an input file for qub-calculator --processes.",
+                                "  --input-file:    The file to evaluate one expression per line from.",
+                                "  --input-start:   The offset of the first byte of the input file to evaluate. Defaults to 0.",
+                                "  --input-end:     The offset after the last byte of the input file to evaluate. Defaults to the end of the file.",
+                                "  --output-format: The format to print the results in: text (default), binary, or binary-with-status.",
+                                "  --verbose(v):    Whether or not to show verbose logs.",
+                                "  --help(?):       Show the help message for this application."),
+                            Strings.getLines(process.getOutputWriteStream().getText().await()));
+                    }
+                });
+
+                runner.test("with " + Iterable.create("--input-file=expressions.txt").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("--input-file=expressions.txt"))
+                    {
+                        final QubCalculatorParameters parameters = QubCalculatorShardWorker.getParameters(process);
+                        test.assertNotNull(parameters);
+                        test.assertEqual("", parameters.getExpressionString());
+                        test.assertSame(process.getFileSystem(), parameters.getFileSystem());
+                        test.assertEqual("/expressions.txt", parameters.getInputFilePath());
+                        test.assertEqual(QubCalculatorOutputFormat.Text, parameters.getOutputFormat());
+                        test.assertEqual(0L, parameters.getInputStartByte());
+                        test.assertEqual(-1L, parameters.getInputEndByte());
+                        test.assertEqual(1, parameters.getProcessCount());
+                    }
+                });
+
+                runner.test("with " + Iterable.create("--input-file=expressions.txt", "--input-start=10", "--input-end=20", "--output-format=binary").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("--input-file=expressions.txt", "--input-start=10", "--input-end=20", "--output-format=binary"))
+                    {
+                        final QubCalculatorParameters parameters = QubCalculatorShardWorker.getParameters(process);
+                        test.assertNotNull(parameters);
+                        test.assertEqual("/expressions.txt", parameters.getInputFilePath());
+                        test.assertEqual(QubCalculatorOutputFormat.Binary, parameters.getOutputFormat());
+                        test.assertEqual(10L, parameters.getInputStartByte());
+                        test.assertEqual(20L, parameters.getInputEndByte());
+                        test.assertEqual(1, parameters.getProcessCount());
+                    }
+                });
+
+                runner.test("with " + Iterable.create("--input-file=expressions.txt", "--input-start=ten").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("--input-file=expressions.txt", "--input-start=ten"))
+                    {
+                        test.assertThrows(() -> QubCalculatorShardWorker.getParameters(process),
+                            new ParseException("Invalid --input-start value: \"ten\". Expected a non-negative byte offset."));
+                    }
+                });
+
+                runner.test("with " + Iterable.create("--input-file=expressions.txt", "--input-start=20", "--input-end=10").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("--input-file=expressions.txt", "--input-start=20", "--input-end=10"))
+                    {
+                        test.assertThrows(() -> QubCalculatorShardWorker.getParameters(process),
+                            new ParseException("Invalid --input-end value: 10. Expected a byte offset that isn't before --input-start (20)."));
+                    }
+                });
+            });
+        });
+    }
+}
@@ -31,11 +31,14 @@ public interface QubCalculatorTests
 
                         test.assertEqual(
                             Iterable.create(
-                                "Usage: qub-calculator [[--expression=]expression] [--verbose] [--help]",
+                                "Usage: qub-calculator [[--expression=]expression] [--input-file=<path>] [--processes=<count>] [--output-format=<format>] [--verbose] [--help]",
                                 "  Evaluate mathematical expressions and print the result.",
-                                "  --expression: The expression to evaluate.",
-                                "  --verbose(v): Whether or not to show verbose logs.",
-                                "  --help(?):    Show the help message for this application."),
+                                "  --expression:    The expression to evaluate.",
+                                "  --input-file:    The file to evaluate one expression per line from.",
+                                "  --processes:     The number of worker processes to split the input file between. Defaults to 1.",
+                                "  --output-format: The format to print the result in: text (default), binary, or binary-with-status.",
+                                "  --verbose(v):    Whether or not to show verbose logs.",
+                                "  --help(?):       Show the help message for this application."),
                             Strings.getLines(process.getOutputWriteStream().getText().await()));
                     }
                 });
@@ -48,11 +51,14 @@ public interface QubCalculatorTests
 
                         test.assertEqual(
                             Iterable.create(
-                                "Usage: qub-calculator [[--expression=]expression] [--verbose] [--help]",
+                                "Usage: qub-calculator [[--expression=]expression] [--input-file=<path>] [--processes=<count>] [--output-format=<format>] [--verbose] [--help]",
                                 "  Evaluate mathematical expressions and print the result.",
-                                "  --expression: The expression to evaluate.",
-                                "  --verbose(v): Whether or not to show verbose logs.",
-                                "  --help(?):    Show the help message for this application."),
+                                "  --expression:    The expression to evaluate.",
+                                "  --input-file:    The file to evaluate one expression per line from.",
+                                "  --processes:     The number of worker processes to split the input file between. Defaults to 1.",
+                                "  --output-format: The format to print the result in: text (default), binary, or binary-with-status.",
+                                "  --verbose(v):    Whether or not to show verbose logs.",
+                                "  --help(?):       Show the help message for this application."),
                             Strings.getLines(process.getOutputWriteStream().getText().await()));
                     }
                 });
@@ -81,6 +87,7 @@ public interface QubCalculatorTests
                         final QubCalculatorParameters parameters = QubCalculator.getParameters(process);
                         test.assertNotNull(parameters);
                         test.assertEqual("1+2", parameters.getExpressionString());
+                        test.assertEqual(QubCalculatorOutputFormat.Text, parameters.getOutputFormat());
                         test.assertSame(process.getOutputWriteStream(), parameters.getOutput());
                         test.assertNotNull(parameters.getVerbose());
                         test.assertFalse(parameters.getVerbose().isVerbose());
@@ -108,6 +115,26 @@ public interface QubCalculatorTests
                     }
                 });
 
+                runner.test("with " + Iterable.create("1+2", "--output-format=binary").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("1+2", "--output-format=binary"))
+                    {
+                        final QubCalculatorParameters parameters = QubCalculator.getParameters(process);
+                        test.assertNotNull(parameters);
+                        test.assertEqual("1+2", parameters.getExpressionString());
+                        test.assertEqual(QubCalculatorOutputFormat.Binary, parameters.getOutputFormat());
+                    }
+                });
+
+                runner.test("with " + Iterable.create("1+2", "--output-format=spam").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("1+2", "--output-format=spam"))
+                    {
+                        test.assertThrows(() -> QubCalculator.getParameters(process),
+                            new ParseException("Unrecognized output format: \"spam\". Expected text, binary, or binary-with-status."));
+                    }
+                });
+
                 runner.test("with " + Iterable.create("1", "+", "2").map(Strings::escapeAndQuote), (Test test) ->
                 {
                     try (final FakeDesktopProcess process = FakeDesktopProcess.create("1", "+", "2"))
@@ -124,6 +151,49 @@ public interface QubCalculatorTests
                             Strings.getLines(process.getOutputWriteStream().getText().await()));
                     }
                 });
+
+                runner.test("with " + Iterable.create("--input-file=expressions.txt").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("--input-file=expressions.txt"))
+                    {
+                        final QubCalculatorParameters parameters = QubCalculator.getParameters(process);
+                        test.assertNotNull(parameters);
+                        test.assertEqual("", parameters.getExpressionString());
+                        test.assertSame(process.getFileSystem(), parameters.getFileSystem());
+                        test.assertEqual("/expressions.txt", parameters.getInputFilePath());
+                        test.assertEqual(QubCalculatorOutputFormat.Text, parameters.getOutputFormat());
+                        test.assertEqual(0L, parameters.getInputStartByte());
+                        test.assertEqual(-1L, parameters.getInputEndByte());
+                        test.assertEqual(1, parameters.getProcessCount());
+
+                        test.assertEqual(
+                            Iterable.create(),
+                            Strings.getLines(process.getOutputWriteStream().getText().await()));
+                    }
+                });
+
+                runner.test("with " + Iterable.create("--input-file=/folder/expressions.txt", "--processes=4").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("--input-file=/folder/expressions.txt", "--processes=4"))
+                    {
+                        final QubCalculatorParameters parameters = QubCalculator.getParameters(process);
+                        test.assertNotNull(parameters);
+                        test.assertSame(process.getFileSystem(), parameters.getFileSystem());
+                        test.assertEqual("/folder/expressions.txt", parameters.getInputFilePath());
+                        test.assertEqual(0L, parameters.getInputStartByte());
+                        test.assertEqual(-1L, parameters.getInputEndByte());
+                        test.assertEqual(4, parameters.getProcessCount());
+                    }
+                });
+
+                runner.test("with " + Iterable.create("--input-file=expressions.txt", "--processes=0").map(Strings::escapeAndQuote), (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create("--input-file=expressions.txt", "--processes=0"))
+                    {
+                        test.assertThrows(() -> QubCalculator.getParameters(process),
+                            new ParseException("Invalid --processes value: 0. Expected a positive number of processes."));
+                    }
+                });
             });
 
             runner.testGroup("run(QubCalculatorParameters)", () ->
@@ -159,7 +229,199 @@ public interface QubCalculatorTests
                 runTest.run("1*2", "2\n");
                 runTest.run("1/2", "0.5\n");
                 runTest.run("1/0", "Infinity\n");
+
+                runner.test("with an output stream that has a carriage return new line", (Test test) ->
+                {
+                    final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                    output.setNewLine("\r\n");
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                        .setIsVerbose(false);
+                    final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "1+2");
+
+                    QubCalculator.run(parameters);
+
+                    test.assertEqual("3\r\n", output.getText().await());
+                });
+
+                runner.test("with \"1 +\"", (Test test) ->
+                {
+                    final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                        .setIsVerbose(false);
+                    final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "1 +");
+
+                    test.assertThrows(() -> QubCalculator.run(parameters),
+                        new ParseException("Missing right-hand side number for 1+" + Objects.toString(null) + "."));
+                    test.assertEqual("", output.getText().await());
+                });
+
+                final Action3<String,QubCalculatorOutputFormat,byte[]> runBinaryTest = (String expressionString, QubCalculatorOutputFormat outputFormat, byte[] expectedOutput) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(expressionString) + " and " + outputFormat + " output", (Test test) ->
+                    {
+                        final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                        final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                            .setIsVerbose(false);
+                        final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, expressionString, outputFormat);
+
+                        QubCalculator.run(parameters);
+
+                        test.assertEqual(expectedOutput, output.getBytes());
+                    });
+                };
+
+                runBinaryTest.run("1+2", QubCalculatorOutputFormat.Binary, new byte[] { 0, 0, 0, 0, 0, 0, 8, 64 });
+                runBinaryTest.run("1+2", QubCalculatorOutputFormat.BinaryWithStatus, new byte[] { 0, 0, 0, 0, 0, 0, 0, 8, 64 });
+                runBinaryTest.run("1 +", QubCalculatorOutputFormat.BinaryWithStatus, new byte[] { 1, 0, 0, 0, 0, 0, 0, -8, 127 });
+                runBinaryTest.run("1+x", QubCalculatorOutputFormat.BinaryWithStatus, new byte[] { 1, 0, 0, 0, 0, 0, 0, -8, 127 });
+
+                final Action2<String,String> errorTest = (String expressionString, String expectedError) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(expressionString) + " on the command line and in an input file", (Test test) ->
+                    {
+                        final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                        final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                            .setIsVerbose(false);
+                        final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, expressionString);
+
+                        test.assertThrows(() -> QubCalculator.run(parameters),
+                            new ParseException(expectedError));
+                        test.assertEqual("", output.getText().await());
+
+                        try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                        {
+                            final FileSystem fileSystem = process.getFileSystem();
+                            fileSystem.setFileContentsAsString("/expressions.txt", expressionString + "\n").await();
+                            final InMemoryCharacterToByteStream fileOutput = InMemoryCharacterToByteStream.create();
+                            final QubCalculatorParameters fileParameters = QubCalculatorParameters.create(fileOutput, verbose, "", QubCalculatorOutputFormat.Text, fileSystem, "/expressions.txt");
+
+                            QubCalculator.run(fileParameters);
+
+                            test.assertEqual(expectedError + "\n", fileOutput.getText().await());
+                        }
+                    });
+                };
+
+                errorTest.run("x", "Unbound variable: x");
+                errorTest.run("1+x", "Unbound variable: x");
+                errorTest.run("2*3 + y*x", "Unbound variable: y");
+                errorTest.run("1 x", "Expected operator, but found variable (x) instead.");
+
+                runner.test("with \"1+x\" and binary output", (Test test) ->
+                {
+                    final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                        .setIsVerbose(false);
+                    final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "1+x", QubCalculatorOutputFormat.Binary);
+
+                    test.assertThrows(() -> QubCalculator.run(parameters),
+                        new ParseException("Unbound variable: x"));
+                    test.assertEqual(new byte[0], output.getBytes());
+                });
+
+                runner.test("with \"1+x\", binary-with-status output and verbose logs", (Test test) ->
+                {
+                    final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                    final InMemoryCharacterToByteStream verboseStream = InMemoryCharacterToByteStream.create();
+                    final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(verboseStream)
+                        .setIsVerbose(true);
+                    final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "1+x", QubCalculatorOutputFormat.BinaryWithStatus);
+
+                    QubCalculator.run(parameters);
+
+                    test.assertEqual(new byte[] { 1, 0, 0, 0, 0, 0, 0, -8, 127 }, output.getBytes());
+                    test.assertTrue(verboseStream.getText().await().contains("Evaluation error: Unbound variable: x"));
+                });
+
+                runner.test("with an input file", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        final FileSystem fileSystem = process.getFileSystem();
+                        fileSystem.setFileContentsAsString("/expressions.txt", "1+2\n1 +\n6/4\n2*3*4\n").await();
+                        final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                        final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                            .setIsVerbose(false);
+                        final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "", QubCalculatorOutputFormat.Text, fileSystem, "/expressions.txt");
+
+                        QubCalculator.run(parameters);
+
+                        test.assertEqual(
+                            "3\n" +
+                            "Missing right-hand side number for 1+" + Objects.toString(null) + ".\n" +
+                            "1.5\n" +
+                            "24\n",
+                            output.getText().await());
+                    }
+                });
+
+                runner.test("with an input file byte range", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        final FileSystem fileSystem = process.getFileSystem();
+                        fileSystem.setFileContentsAsString("/expressions.txt", "1+2\n3*4\n6/4\n2*3*4\n").await();
+                        final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                        final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                            .setIsVerbose(false);
+                        final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "", QubCalculatorOutputFormat.Text, fileSystem, "/expressions.txt", 4, 12, 1);
+
+                        QubCalculator.run(parameters);
+
+                        test.assertEqual("12\n1.5\n", output.getText().await());
+                    }
+                });
+
+                runner.test("with an input file that doesn't exist", (Test test) ->
+                {
+                    try (final FakeDesktopProcess process = FakeDesktopProcess.create())
+                    {
+                        final InMemoryCharacterToByteStream output = InMemoryCharacterToByteStream.create();
+                        final VerboseCharacterToByteWriteStream verbose = VerboseCharacterToByteWriteStream.create(InMemoryCharacterToByteStream.create())
+                            .setIsVerbose(false);
+                        final QubCalculatorParameters parameters = QubCalculatorParameters.create(output, verbose, "", QubCalculatorOutputFormat.Text, process.getFileSystem(), "/expressions.txt");
+
+                        test.assertThrows(() -> QubCalculator.run(parameters),
+                            new FileNotFoundException("/expressions.txt"));
+                        test.assertEqual("", output.getText().await());
+                    }
+                });
             });
         });
     }
+
+    /**
+     * Create a temporary file that contains the provided lines.
+     * @param lines The lines of the file.
+     * @return The path of the new file.
+     */
+    static java.nio.file.Path createInputFile(String... lines)
+    {
+        try
+        {
+            final java.nio.file.Path result = java.nio.file.Files.createTempFile("qub-calculator-", ".txt");
+            java.nio.file.Files.write(result, java.util.Arrays.asList(lines));
+            return result;
+        }
+        catch (java.io.IOException e)
+        {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Delete the provided temporary file.
+     * @param inputFile The path of the file to delete.
+     */
+    static void deleteInputFile(java.nio.file.Path inputFile)
+    {
+        try
+        {
+            java.nio.file.Files.deleteIfExists(inputFile);
+        }
+        catch (java.io.IOException e)
+        {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,222 @@
+package qub;
+
+public interface SingleFlightEvaluatorTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(SingleFlightEvaluator.class, () ->
+        {
+            runner.test("create()", (Test test) ->
+            {
+                final SingleFlightEvaluator evaluator = SingleFlightEvaluator.create();
+                test.assertEqual(0L, evaluator.getRequestCount());
+                test.assertEqual(0L, evaluator.getCoalescedRequestCount());
+                test.assertEqual(0L, evaluator.getEvaluationCount());
+                test.assertEqual(0L, evaluator.getInFlightCount());
+            });
+
+            runner.testGroup("create(Function1<String,Result<Expression>>)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    test.assertThrows(() -> SingleFlightEvaluator.create(null),
+                        new PreConditionFailure("evaluation cannot be null."));
+                });
+            });
+
+            runner.testGroup("evaluate(String)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final SingleFlightEvaluator evaluator = SingleFlightEvaluator.create();
+                    test.assertThrows(() -> evaluator.evaluate(null),
+                        new PreConditionFailure("text cannot be null."));
+                });
+
+                runner.test("with empty", (Test test) ->
+                {
+                    final SingleFlightEvaluator evaluator = SingleFlightEvaluator.create();
+                    test.assertThrows(() -> evaluator.evaluate("").await(),
+                        new ParseException("Missing expression."));
+                    test.assertEqual(1L, evaluator.getRequestCount());
+                    test.assertEqual(0L, evaluator.getCoalescedRequestCount());
+                    test.assertEqual(1L, evaluator.getEvaluationCount());
+                    test.assertEqual(0L, evaluator.getInFlightCount());
+                });
+
+                runner.test("with valid expression", (Test test) ->
+                {
+                    final SingleFlightEvaluator evaluator = SingleFlightEvaluator.create();
+                    test.assertEqual(NumberExpression.create(7), evaluator.evaluate(" 1 + 2 * 3 ").await());
+                    test.assertEqual(1L, evaluator.getRequestCount());
+                    test.assertEqual(0L, evaluator.getCoalescedRequestCount());
+                    test.assertEqual(1L, evaluator.getEvaluationCount());
+                    test.assertEqual(0L, evaluator.getInFlightCount());
+                });
+
+                runner.test("with the same expression one after another", (Test test) ->
+                {
+                    final SingleFlightEvaluator evaluator = SingleFlightEvaluator.create();
+                    test.assertEqual(NumberExpression.create(3), evaluator.evaluate("1+2").await());
+                    test.assertEqual(NumberExpression.create(3), evaluator.evaluate("1+2").await());
+                    test.assertEqual(2L, evaluator.getRequestCount());
+                    test.assertEqual(0L, evaluator.getCoalescedRequestCount());
+                    test.assertEqual(2L, evaluator.getEvaluationCount());
+                });
+
+                runner.test("with an evaluation that throws", (Test test) ->
+                {
+                    final SingleFlightEvaluator evaluator = SingleFlightEvaluator.create((String text) ->
+                    {
+                        throw new IllegalStateException("Evaluation failed.");
+                    });
+                    test.assertThrows(() -> evaluator.evaluate("1+2").await(),
+                        new IllegalStateException("Evaluation failed."));
+                    test.assertEqual(0L, evaluator.getInFlightCount());
+                });
+
+                runner.test("with concurrent requests for the same expression", (Test test) ->
+                {
+                    final java.util.concurrent.CountDownLatch evaluationStarted = new java.util.concurrent.CountDownLatch(1);
+                    final java.util.concurrent.CountDownLatch finishEvaluation = new java.util.concurrent.CountDownLatch(1);
+                    final SingleFlightEvaluator evaluator = SingleFlightEvaluator.create((String text) ->
+                    {
+                        evaluationStarted.countDown();
+                        SingleFlightEvaluatorTests.await(finishEvaluation);
+                        return Expression.parse(text).then((Expression expression) -> expression.simplify());
+                    });
+
+                    final int waiterCount = 5;
+                    final java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(waiterCount + 1);
+                    try
+                    {
+                        final java.util.List<java.util.concurrent.Future<Expression>> results = new java.util.ArrayList<>();
+                        results.add(executor.submit(() -> evaluator.evaluate("1+2").await()));
+                        SingleFlightEvaluatorTests.await(evaluationStarted);
+                        for (int i = 0; i < waiterCount; ++i)
+                        {
+                            final String text = (i % 2 == 0 ? " 1 + 2" : "1+ 2 ");
+                            results.add(executor.submit(() -> evaluator.evaluate(text).await()));
+                        }
+                        while (evaluator.getCoalescedRequestCount() < waiterCount)
+                        {
+                            Thread.yield();
+                        }
+                        test.assertEqual(1L, evaluator.getInFlightCount());
+                        finishEvaluation.countDown();
+
+                        for (final java.util.concurrent.Future<Expression> result : results)
+                        {
+                            test.assertEqual(NumberExpression.create(3), result.get());
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        test.fail(e.toString());
+                    }
+                    finally
+                    {
+                        executor.shutdown();
+                    }
+
+                    test.assertEqual(waiterCount + 1L, evaluator.getRequestCount());
+                    test.assertEqual((long)waiterCount, evaluator.getCoalescedRequestCount());
+                    test.assertEqual(1L, evaluator.getEvaluationCount());
+                    test.assertEqual(0L, evaluator.getInFlightCount());
+                });
+
+                runner.test("with concurrent requests for an expression with variables", (Test test) ->
+                {
+                    final java.util.concurrent.CountDownLatch evaluationStarted = new java.util.concurrent.CountDownLatch(1);
+                    final java.util.concurrent.CountDownLatch finishEvaluation = new java.util.concurrent.CountDownLatch(1);
+                    final SingleFlightEvaluator evaluator = SingleFlightEvaluator.create((String text) ->
+                    {
+                        evaluationStarted.countDown();
+                        SingleFlightEvaluatorTests.await(finishEvaluation);
+                        return Expression.parse(text).then((Expression expression) -> expression.simplify());
+                    });
+
+                    final int waiterCount = 3;
+                    final java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(waiterCount + 1);
+                    try
+                    {
+                        final java.util.List<java.util.concurrent.Future<Expression>> results = new java.util.ArrayList<>();
+                        results.add(executor.submit(() -> evaluator.evaluate("x*2+1").await()));
+                        SingleFlightEvaluatorTests.await(evaluationStarted);
+                        for (int i = 0; i < waiterCount; ++i)
+                        {
+                            results.add(executor.submit(() -> evaluator.evaluate("x*2+1").await()));
+                        }
+                        while (evaluator.getCoalescedRequestCount() < waiterCount)
+                        {
+                            Thread.yield();
+                        }
+                        finishEvaluation.countDown();
+
+                        final java.util.List<MutableBinaryExpression> expressions = new java.util.ArrayList<>();
+                        for (final java.util.concurrent.Future<Expression> result : results)
+                        {
+                            expressions.add((MutableBinaryExpression)result.get());
+                        }
+                        for (int i = 0; i < expressions.size(); ++i)
+                        {
+                            for (int j = i + 1; j < expressions.size(); ++j)
+                            {
+                                test.assertFalse(expressions.get(i) == expressions.get(j));
+                                test.assertFalse(expressions.get(i).getLeftExpression() == expressions.get(j).getLeftExpression());
+                            }
+                        }
+
+                        ((MutableBinaryExpression)expressions.get(1).getLeftExpression()).setOperator(BinaryOperator.minus);
+                        test.assertEqual("x*2+1", expressions.get(0).toString());
+                        test.assertEqual("x-2+1", expressions.get(1).toString());
+                        test.assertEqual("x*2+1", expressions.get(2).toString());
+                    }
+                    catch (Exception e)
+                    {
+                        test.fail(e.toString());
+                    }
+                    finally
+                    {
+                        executor.shutdown();
+                    }
+                });
+            });
+
+            runner.testGroup("copy(Expression)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    test.assertThrows(() -> SingleFlightEvaluator.copy(null),
+                        new PreConditionFailure("expression cannot be null."));
+                });
+
+                runner.test("with a NumberExpression", (Test test) ->
+                {
+                    final Expression expression = NumberExpression.create(3);
+                    test.assertSame(expression, SingleFlightEvaluator.copy(expression));
+                });
+
+                runner.test("with a deep tree", (Test test) ->
+                {
+                    final Expression expression = Expression.parse(ExpressionDedupIndexTests.createSum(100000) + "+x").await();
+                    final Expression copy = SingleFlightEvaluator.copy(expression);
+                    test.assertFalse(expression == copy);
+                    test.assertEqual(expression, copy);
+                });
+            });
+        });
+    }
+
+    static void await(java.util.concurrent.CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package qub;
+
+public interface StreamingEvaluatorTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(StreamingEvaluator.class, () ->
+        {
+            runner.testGroup("evaluate(Iterator<Character>)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final StreamingEvaluator evaluator = StreamingEvaluator.create();
+                    test.assertThrows(() -> evaluator.evaluate((Iterator<Character>)null),
+                        new PreConditionFailure("characters cannot be null."));
+                });
+
+                final Action2<String,Throwable> evaluateErrorTest = (String text, Throwable expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final StreamingEvaluator evaluator = StreamingEvaluator.create();
+                        test.assertThrows(() -> evaluator.evaluate(Strings.iterate(text)).await(), expected);
+                    });
+                };
+
+                evaluateErrorTest.run("", new ParseException("Missing expression."));
+                evaluateErrorTest.run("1.", new ParseException("Missing NumberExpression fractional digit character."));
+                evaluateErrorTest.run("1 2", new ParseException("Expected operator, but found number (2) instead."));
+                evaluateErrorTest.run("*2", new ParseException("Expected number, but found operator (*) instead."));
+                evaluateErrorTest.run("1 + 2 +", new ParseException("Missing right-hand side number for 3+."));
+
+                final Action1<String> evaluateTest = (String text) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        final StreamingEvaluator evaluator = StreamingEvaluator.create();
+                        final double value = evaluator.evaluate(Strings.iterate(text)).await();
+                        test.assertEqual(Expression.parse(text).await().simplify(), NumberExpression.create(value));
+                    });
+                };
+
+                evaluateTest.run("12");
+                evaluateTest.run("1+2");
+                evaluateTest.run("1+2*3");
+                evaluateTest.run("1-2*3+4");
+                evaluateTest.run("1 * 4 / 2 + 7 * 3 - 8 + 16");
+                evaluateTest.run("0.1 + 0.2 + 0.3 - 0.4 * 0.5 / 0.6");
+
+                runner.test("with a long sum", (Test test) ->
+                {
+                    final CharacterList text = CharacterList.create();
+                    text.add('1');
+                    for (int i = 0; i < 10000; ++i)
+                    {
+                        text.add('+');
+                        text.add('1');
+                    }
+
+                    final StreamingEvaluator evaluator = StreamingEvaluator.create();
+                    test.assertEqual(10001.0, evaluator.evaluate(text.iterate()).await().doubleValue());
+                    test.assertEqual(1, evaluator.getMaximumPendingCount());
+                });
+            });
+        });
+    }
+}
@@ -0,0 +1,170 @@
+package qub;
+
+public interface TieredEvaluatorTests
+{
+    static void test(TestRunner runner)
+    {
+        runner.testGroup(TieredEvaluator.class, () ->
+        {
+            runner.testGroup("create(int,int,Executor)", () ->
+            {
+                runner.test("with 0 compileThreshold", (Test test) ->
+                {
+                    test.assertThrows(() -> TieredEvaluator.create(0, 10, Runnable::run),
+                        new PreConditionFailure("compileThreshold (0) must be greater than 0."));
+                });
+
+                runner.test("with null compiler", (Test test) ->
+                {
+                    test.assertThrows(() -> TieredEvaluator.create(1, 10, null),
+                        new PreConditionFailure("compiler cannot be null."));
+                });
+            });
+
+            runner.testGroup("normalize(String)", () ->
+            {
+                final Action2<String,String> normalizeTest = (String text, String expected) ->
+                {
+                    runner.test("with " + Strings.escapeAndQuote(text), (Test test) ->
+                    {
+                        test.assertEqual(expected, TieredEvaluator.normalize(text));
+                    });
+                };
+
+                normalizeTest.run("", "");
+                normalizeTest.run("1+2", "1+2");
+                normalizeTest.run(" 1 +\t2 ", "1+2");
+                normalizeTest.run("1  2", "1 2");
+                normalizeTest.run("1. 5", "1. 5");
+            });
+
+            runner.testGroup("evaluate(String)", () ->
+            {
+                runner.test("with null", (Test test) ->
+                {
+                    final TieredEvaluator evaluator = TieredEvaluator.create(1, 10, Runnable::run);
+                    test.assertThrows(() -> evaluator.evaluate(null),
+                        new PreConditionFailure("text cannot be null."));
+                });
+
+                runner.test("with invalid text", (Test test) ->
+                {
+                    final TieredEvaluator evaluator = TieredEvaluator.create(1, 10, Runnable::run);
+                    test.assertThrows(() -> evaluator.evaluate("1 2").await(),
+                        new ParseException("Expected operator, but found number (2) instead."));
+                    test.assertEqual(0L, evaluator.getInterpretedCount());
+                    test.assertEqual(0, evaluator.getTrackedExpressionCount());
+                });
+
+                runner.test("moves hot expressions to the compiled tier", (Test test) ->
+                {
+                    final TieredEvaluator evaluator = TieredEvaluator.create(3, 10, Runnable::run);
+
+                    test.assertEqual(7.0, evaluator.evaluate("1 + 2 * 3").await().doubleValue());
+                    test.assertEqual(7.0, evaluator.evaluate("1+2*3").await().doubleValue());
+                    test.assertEqual(2L, evaluator.getInterpretedCount());
+                    test.assertEqual(0L, evaluator.getCompilationCount());
+                    test.assertEqual(1, evaluator.getTrackedExpressionCount());
+
+                    test.assertEqual(7.0, evaluator.evaluate("1+ 2*3").await().doubleValue());
+                    test.assertEqual(3L, evaluator.getInterpretedCount());
+                    test.assertEqual(1L, evaluator.getCompilationCount());
+                    test.assertEqual(0L, evaluator.getCompiledCount());
+
+                    test.assertEqual(7.0, evaluator.evaluate("1+2*3").await().doubleValue());
+                    test.assertEqual(3L, evaluator.getInterpretedCount());
+                    test.assertEqual(1L, evaluator.getCompiledCount());
+                });
+
+                runner.test("with more expressions than can be tracked", (Test test) ->
+                {
+                    final TieredEvaluator evaluator = TieredEvaluator.create(1, 1, Runnable::run);
+
+                    test.assertEqual(3.0, evaluator.evaluate("1+2").await().doubleValue());
+                    test.assertEqual(5.0, evaluator.evaluate("2+3").await().doubleValue());
+                    test.assertEqual(5.0, evaluator.evaluate("2+3").await().doubleValue());
+                    test.assertEqual(1, evaluator.getTrackedExpressionCount());
+                    test.assertEqual(1L, evaluator.getCompilationCount());
+                    test.assertEqual(3L, evaluator.getInterpretedCount());
+                });
+            });
+
+            runner.testGroup("close()", () ->
+            {
+                runner.test("with its own compiler thread", (Test test) ->
+                {
+                    final TieredEvaluator evaluator = TieredEvaluator.create(1, 10);
+                    test.assertFalse(evaluator.isClosed());
+                    test.assertEqual(3.0, evaluator.evaluate("1+2").await().doubleValue());
+                    test.assertTrue(TieredEvaluatorTests.waitForCompilations(evaluator, 1));
+
+                    test.assertFalse(evaluator.isCompilerTerminated());
+
+                    evaluator.close();
+                    test.assertTrue(evaluator.isClosed());
+                    test.assertTrue(TieredEvaluatorTests.waitForCompilerToStop(evaluator));
+                    test.assertEqual(3.0, evaluator.evaluate("1+2").await().doubleValue());
+                    test.assertEqual(1L, evaluator.getCompiledCount());
+
+                    test.assertEqual(5.0, evaluator.evaluate("2+3").await().doubleValue());
+                    test.assertEqual(5.0, evaluator.evaluate("2+3").await().doubleValue());
+                    test.assertEqual(1L, evaluator.getCompilationCount());
+                    test.assertEqual(3L, evaluator.getInterpretedCount());
+                });
+
+                runner.test("with a compiler that the caller owns", (Test test) ->
+                {
+                    final java.util.concurrent.ExecutorService compiler = java.util.concurrent.Executors.newSingleThreadExecutor();
+                    try
+                    {
+                        final TieredEvaluator evaluator = TieredEvaluator.create(1, 10, compiler);
+                        evaluator.close();
+                        test.assertTrue(evaluator.isClosed());
+                        test.assertTrue(evaluator.isCompilerTerminated());
+                        test.assertFalse(compiler.isShutdown());
+
+                        test.assertEqual(3.0, evaluator.evaluate("1+2").await().doubleValue());
+                        test.assertEqual(0L, evaluator.getCompilationCount());
+                    }
+                    finally
+                    {
+                        compiler.shutdown();
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * Wait up to five seconds for the provided TieredEvaluator to finish the provided number of
+     * compilations.
+     * @param evaluator The TieredEvaluator to wait for.
+     * @param compilationCount The number of compilations to wait for.
+     * @return Whether or not the compilations finished in time.
+     */
+    static boolean waitForCompilations(TieredEvaluator evaluator, long compilationCount)
+    {
+        final long endNanoseconds = System.nanoTime() + 5000000000L;
+        while (evaluator.getCompilationCount() < compilationCount && System.nanoTime() < endNanoseconds)
+        {
+            Thread.yield();
+        }
+        return evaluator.getCompilationCount() >= compilationCount;
+    }
+
+    /**
+     * Wait up to five seconds for the compiler thread that the provided TieredEvaluator created to
+     * stop.
+     * @param evaluator The TieredEvaluator to wait for.
+     * @return Whether or not the compiler thread stopped in time.
+     */
+    static boolean waitForCompilerToStop(TieredEvaluator evaluator)
+    {
+        final long endNanoseconds = System.nanoTime() + 5000000000L;
+        while (!evaluator.isCompilerTerminated() && System.nanoTime() < endNanoseconds)
+        {
+            Thread.yield();
+        }
+        return evaluator.isCompilerTerminated();
+    }
+}